@@ -0,0 +1,298 @@
+package edu.ucla.library.avpairtree;
+
+import info.freelibrary.util.Constants;
+import info.freelibrary.util.Logger;
+import info.freelibrary.util.LoggerFactory;
+
+import info.freelibrary.pairtree.Pairtree;
+import info.freelibrary.pairtree.PairtreeUtils;
+
+/**
+ * A compiled IIIF access URL pattern. The pattern is split around the substitution pattern that the Pairtree path is
+ * swapped into when the template is created, so building an access URL is just a matter of appending the path between
+ * the two halves; any other substitution patterns are left in the URL as they are, to be filled in by the A/V server.
+ * <p>
+ * An item's access URL can also be built straight from its ARK, in which case the item's Pairtree path and encoded ID
+ * are written into the URL as they're worked out, the same way {@link PairtreeUtils} maps and encodes them, rather
+ * than being created as strings of their own for each item.
+ * </p>
+ */
+public final class AccessUrlTemplate {
+
+    /**
+     * The substitution pattern used in access URL patterns.
+     */
+    public static final String SUBSTITUTION_PATTERN = "{}";
+
+    /**
+     * The logger for access URL templates.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(AccessUrlTemplate.class, MessageCodes.BUNDLE);
+
+    /**
+     * The maximum number of substitution patterns an access URL pattern can have.
+     */
+    private static final int MAX_SUBSTITUTIONS = 3;
+
+    /**
+     * The escaped form of a plus sign in an access URL.
+     */
+    private static final String ESCAPED_PLUS = "%2B";
+
+    /**
+     * The printable ASCII characters that the Pairtree encoding escapes.
+     */
+    private static final String PAIRTREE_ESCAPES = "\"*+,<=>?\\^|";
+
+    /**
+     * The character that starts an escaped byte in the Pairtree encoding.
+     */
+    private static final char PAIRTREE_ESCAPE = '^';
+
+    /**
+     * The byte that the Pairtree encoding substitutes for a character that can't be encoded as UTF-8.
+     */
+    private static final int UNENCODABLE = '?';
+
+    /**
+     * The number of times an item's ID is written into its access URL, counting its split up Pairtree path as two,
+     * which is used to guess how long the access URL will be.
+     */
+    private static final int ID_COPIES = 4;
+
+    /**
+     * The part of the access URL that comes before the Pairtree path.
+     */
+    private final String myPrefix;
+
+    /**
+     * The part of the access URL that comes after the Pairtree path.
+     */
+    private final String mySuffix;
+
+    /**
+     * Creates a new access URL template.
+     *
+     * @param aPattern A textual pattern for the IIIF access URL, with up to three substitution patterns
+     * @param aIdIndex The one-based position of the substitution pattern that the Pairtree path is swapped into
+     * @throws IndexOutOfBoundsException If the ID index position doesn't correspond to a substitution pattern
+     * @throws UnsupportedOperationException If the pattern doesn't contain a supported number of substitution patterns
+     */
+    public AccessUrlTemplate(final String aPattern, final int aIdIndex) {
+        int index = aPattern.indexOf(SUBSTITUTION_PATTERN);
+        int substitutionCount = 0;
+        int idStart = -1;
+
+        while (index != -1) {
+            substitutionCount += 1;
+
+            if (substitutionCount == aIdIndex) {
+                idStart = index;
+            }
+
+            index = aPattern.indexOf(SUBSTITUTION_PATTERN, index + 1);
+        }
+
+        if (substitutionCount == 0 || substitutionCount > MAX_SUBSTITUTIONS) {
+            throw new UnsupportedOperationException(LOGGER.getMessage(MessageCodes.AVPT_014));
+        }
+
+        if (idStart == -1) {
+            throw new IndexOutOfBoundsException(LOGGER.getMessage(MessageCodes.AVPT_013, aIdIndex));
+        }
+
+        myPrefix = aPattern.substring(0, idStart);
+        mySuffix = aPattern.substring(idStart + SUBSTITUTION_PATTERN.length());
+    }
+
+    /**
+     * Builds the access URL of a file in a Pairtree, escaping any plus signs in the file's path.
+     *
+     * @param aPtPath The path of the Pairtree directory that the file is in
+     * @param aFileName The name of the file
+     * @param aFileExt The file's extension, including its leading period
+     * @return The file's access URL
+     */
+    public String build(final String aPtPath, final String aFileName, final String aFileExt) {
+        final StringBuilder url = new StringBuilder(myPrefix.length() + aPtPath.length() + aFileName.length() +
+                aFileExt.length() + mySuffix.length() + ESCAPED_PLUS.length() * 2);
+
+        url.append(myPrefix);
+        appendEscaped(url, aPtPath);
+        url.append('/');
+        appendEscaped(url, aFileName);
+        appendEscaped(url, aFileExt);
+
+        return url.append(mySuffix).toString();
+    }
+
+    /**
+     * Builds the access URL of a media file in an item's Pairtree object, escaping any plus signs in the file's path.
+     * The file's name is the item's encoded ID with the supplied suffix (e.g. a rendition's name) added to it.
+     *
+     * @param aPathRoot The path root of the Pairtree that the item's object is in
+     * @param aItemARK The item's ARK
+     * @param aArkPrefix The ARK prefix that's left out of the item's Pairtree path
+     * @param aFileNameSuffix The part of the file's name that comes after the item's encoded ID, which may be empty
+     * @param aFileExt The file's extension, including its leading period
+     * @return The file's access URL
+     */
+    public String build(final String aPathRoot, final String aItemARK, final String aArkPrefix,
+            final String aFileNameSuffix, final String aFileExt) {
+        final StringBuilder url = new StringBuilder(myPrefix.length() + aPathRoot.length() + Pairtree.ROOT.length() +
+                aItemARK.length() * ID_COPIES + aFileNameSuffix.length() + aFileExt.length() + mySuffix.length());
+        final char separator = PairtreeUtils.getSeparator();
+        // The prefix is stripped in place unless it's also somewhere else in the ARK, which is rare enough to copy it
+        final boolean isPrefixElsewhere = !aArkPrefix.isEmpty() && aItemARK.indexOf(aArkPrefix, 1) != -1;
+        final String pathARK = isPrefixElsewhere ? aItemARK.replace(aArkPrefix, Constants.EMPTY) : aItemARK;
+        final int pathStart = !isPrefixElsewhere && aItemARK.startsWith(aArkPrefix) ? aArkPrefix.length() : 0;
+
+        url.append(myPrefix);
+        appendEscaped(url, aPathRoot);
+        url.append('/').append(Pairtree.ROOT).append(separator);
+        appendEncoded(url, pathARK, pathStart, PairtreeUtils.getShortyLength(), separator);
+        url.append(separator);
+        appendEncoded(url, pathARK, pathStart, 0, separator);
+        url.append('/');
+        appendEncoded(url, aItemARK, 0, 0, separator);
+        appendEscaped(url, aFileNameSuffix);
+        appendEscaped(url, aFileExt);
+
+        return url.append(mySuffix).toString();
+    }
+
+    /**
+     * Appends a value to an access URL, escaping any plus signs in it.
+     *
+     * @param aURL The access URL being built
+     * @param aValue A value to append to the access URL
+     */
+    private static void appendEscaped(final StringBuilder aURL, final String aValue) {
+        final int length = aValue.length();
+
+        for (int index = 0; index < length; index++) {
+            final char character = aValue.charAt(index);
+
+            if (character == '+') {
+                aURL.append(ESCAPED_PLUS);
+            } else {
+                aURL.append(character);
+            }
+        }
+    }
+
+    /**
+     * Appends the Pairtree encoding of an ID to an access URL, escaping any plus signs in it. The encoded ID can be
+     * split into shorties, as it is in a Pairtree path.
+     *
+     * @param aURL The access URL being built
+     * @param aID An ID
+     * @param aStart The index in the ID that its encoding starts from
+     * @param aShortyLength The length of the shorties to split the encoded ID into, or zero if it isn't split up
+     * @param aSeparator The separator between the shorties
+     */
+    private static void appendEncoded(final StringBuilder aURL, final String aID, final int aStart,
+            final int aShortyLength, final char aSeparator) {
+        final int length = aID.length();
+        int count = 0;
+
+        for (int index = aStart; index < length; index++) {
+            final char character = aID.charAt(index);
+
+            if (character < 0x80) {
+                count = appendEncoded(aURL, character, count, aShortyLength, aSeparator);
+            } else {
+                final int codePoint;
+
+                if (Character.isHighSurrogate(character) && index + 1 < length &&
+                        Character.isLowSurrogate(aID.charAt(index + 1))) {
+                    codePoint = Character.toCodePoint(character, aID.charAt(++index));
+                } else if (Character.isSurrogate(character)) {
+                    codePoint = UNENCODABLE;
+                } else {
+                    codePoint = character;
+                }
+
+                // Each of the bytes of a code point's UTF-8 encoding is escaped
+                if (codePoint < 0x80) {
+                    count = appendEncoded(aURL, codePoint, count, aShortyLength, aSeparator);
+                } else if (codePoint < 0x800) {
+                    count = appendEncoded(aURL, 0xC0 | (codePoint >> 6), count, aShortyLength, aSeparator);
+                    count = appendEncoded(aURL, 0x80 | (codePoint & 0x3F), count, aShortyLength, aSeparator);
+                } else if (codePoint < 0x10000) {
+                    count = appendEncoded(aURL, 0xE0 | (codePoint >> 12), count, aShortyLength, aSeparator);
+                    count = appendEncoded(aURL, 0x80 | ((codePoint >> 6) & 0x3F), count, aShortyLength, aSeparator);
+                    count = appendEncoded(aURL, 0x80 | (codePoint & 0x3F), count, aShortyLength, aSeparator);
+                } else {
+                    count = appendEncoded(aURL, 0xF0 | (codePoint >> 18), count, aShortyLength, aSeparator);
+                    count = appendEncoded(aURL, 0x80 | ((codePoint >> 12) & 0x3F), count, aShortyLength, aSeparator);
+                    count = appendEncoded(aURL, 0x80 | ((codePoint >> 6) & 0x3F), count, aShortyLength, aSeparator);
+                    count = appendEncoded(aURL, 0x80 | (codePoint & 0x3F), count, aShortyLength, aSeparator);
+                }
+            }
+        }
+    }
+
+    /**
+     * Appends the Pairtree encoding of a byte of an ID to an access URL, escaping any plus signs in it.
+     *
+     * @param aURL The access URL being built
+     * @param aByte A byte of the ID's UTF-8 encoding
+     * @param aCount The number of encoded characters that have been appended for the ID so far
+     * @param aShortyLength The length of the shorties to split the encoded ID into, or zero if it isn't split up
+     * @param aSeparator The separator between the shorties
+     * @return The number of encoded characters that have been appended for the ID, including this byte's
+     */
+    private static int appendEncoded(final StringBuilder aURL, final int aByte, final int aCount,
+            final int aShortyLength, final char aSeparator) {
+        int count = aCount;
+
+        if (aByte < '!' || aByte > '~' || PAIRTREE_ESCAPES.indexOf(aByte) != -1) {
+            // Escaped bytes are written in hex, without a leading zero, as PairtreeUtils writes them
+            count = appendShortyChar(aURL, PAIRTREE_ESCAPE, count, aShortyLength, aSeparator);
+
+            if (aByte > 0xF) {
+                count = appendShortyChar(aURL, Character.forDigit(aByte >> 4, 16), count, aShortyLength, aSeparator);
+            }
+
+            return appendShortyChar(aURL, Character.forDigit(aByte & 0xF, 16), count, aShortyLength, aSeparator);
+        }
+
+        switch (aByte) {
+            case '/':
+                return appendShortyChar(aURL, '=', count, aShortyLength, aSeparator);
+            case ':':
+                return appendShortyChar(aURL, '+', count, aShortyLength, aSeparator);
+            case '.':
+                return appendShortyChar(aURL, ',', count, aShortyLength, aSeparator);
+            default:
+                return appendShortyChar(aURL, (char) aByte, count, aShortyLength, aSeparator);
+        }
+    }
+
+    /**
+     * Appends a character of an encoded ID to an access URL, escaping it if it's a plus sign and starting a new shorty
+     * before it if the last one is full.
+     *
+     * @param aURL The access URL being built
+     * @param aCharacter A character of the encoded ID
+     * @param aCount The number of encoded characters that have been appended for the ID so far
+     * @param aShortyLength The length of the shorties to split the encoded ID into, or zero if it isn't split up
+     * @param aSeparator The separator between the shorties
+     * @return The number of encoded characters that have been appended for the ID, including this one
+     */
+    private static int appendShortyChar(final StringBuilder aURL, final char aCharacter, final int aCount,
+            final int aShortyLength, final char aSeparator) {
+        if (aShortyLength > 0 && aCount > 0 && aCount % aShortyLength == 0) {
+            aURL.append(aSeparator);
+        }
+
+        if (aCharacter == '+') {
+            aURL.append(ESCAPED_PLUS);
+        } else {
+            aURL.append(aCharacter);
+        }
+
+        return aCount + 1;
+    }
+}
@@ -0,0 +1,111 @@
+package edu.ucla.library.avpairtree;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import info.freelibrary.util.Logger;
+import info.freelibrary.util.LoggerFactory;
+
+/**
+ * A copier of the frames of an ADTS (i.e. raw AAC) stream. Each ADTS frame starts with a header that has its length,
+ * so a run of frames can be cut out of one stream and appended to another without the audio being decoded.
+ */
+public final class AdtsFrames {
+
+    /**
+     * The logger for ADTS frame copying.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(AdtsFrames.class, MessageCodes.BUNDLE);
+
+    /**
+     * The size of the part of an ADTS frame's header that's read to find the frame's length.
+     */
+    private static final int HEADER_SIZE = 7;
+
+    /**
+     * The size of the buffer that frames are copied with.
+     */
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * Creates a new ADTS frame copier.
+     */
+    private AdtsFrames() {
+        // This is intentionally left empty
+    }
+
+    /**
+     * Copies a run of frames from an ADTS file to the supplied output stream.
+     *
+     * @param anAdtsFile An ADTS file
+     * @param anOut The output stream to copy the frames to
+     * @param aFirst The index of the first frame to copy
+     * @param aCount The number of frames to copy, or a negative number to copy all the frames from the first one on
+     * @return The number of frames that were copied
+     * @throws IOException If the file can't be read, isn't an ADTS stream, or the frames can't be written
+     */
+    public static long copy(final Path anAdtsFile, final OutputStream anOut, final long aFirst, final long aCount)
+            throws IOException {
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(anAdtsFile))) {
+            final byte[] header = new byte[HEADER_SIZE];
+            final byte[] buffer = new byte[BUFFER_SIZE];
+            long index = 0;
+            long copied = 0;
+
+            while ((aCount < 0 || copied < aCount) && in.readNBytes(header, 0, HEADER_SIZE) == HEADER_SIZE) {
+                final int length = getFrameLength(header, anAdtsFile);
+                final boolean isCopied = index >= aFirst;
+                int remaining = length - HEADER_SIZE;
+
+                if (isCopied) {
+                    anOut.write(header);
+                }
+
+                while (remaining > 0) {
+                    final int count = in.read(buffer, 0, Math.min(remaining, BUFFER_SIZE));
+
+                    if (count < 0) {
+                        throw new IOException(LOGGER.getMessage(MessageCodes.AVPT_060, anAdtsFile));
+                    }
+
+                    if (isCopied) {
+                        anOut.write(buffer, 0, count);
+                    }
+
+                    remaining -= count;
+                }
+
+                if (isCopied) {
+                    copied += 1;
+                }
+
+                index += 1;
+            }
+
+            return copied;
+        }
+    }
+
+    /**
+     * Gets the length of an ADTS frame from its header.
+     *
+     * @param aHeader An ADTS frame's header
+     * @param anAdtsFile The ADTS file that the header was read from
+     * @return The length of the frame, including its header
+     * @throws IOException If the header isn't an ADTS frame header
+     */
+    private static int getFrameLength(final byte[] aHeader, final Path anAdtsFile) throws IOException {
+        final int length = (aHeader[3] & 0x03) << 11 | (aHeader[4] & 0xFF) << 3 | (aHeader[5] & 0xE0) >>> 5;
+
+        // Every frame starts with a 12-bit sync word of all ones
+        if ((aHeader[0] & 0xFF) != 0xFF || (aHeader[1] & 0xF0) != 0xF0 || length < HEADER_SIZE) {
+            throw new IOException(LOGGER.getMessage(MessageCodes.AVPT_060, anAdtsFile));
+        }
+
+        return length;
+    }
+}
@@ -0,0 +1,145 @@
+package edu.ucla.library.avpairtree;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * The lossless formats that our archival source audio files can be in. A file's format is found by probing the first
+ * few bytes of the file, rather than by trusting its extension.
+ */
+public enum AudioFormat {
+
+    /**
+     * Uncompressed PCM audio in a RIFF WAVE file.
+     */
+    WAV("wav", true),
+
+    /**
+     * Free Lossless Audio Codec.
+     */
+    FLAC("flac", true),
+
+    /**
+     * WavPack, in its lossless mode.
+     */
+    WAVPACK("wv", false),
+
+    /**
+     * Uncompressed PCM audio in an AIFF (or AIFF-C) file.
+     */
+    AIFF("aiff", false);
+
+    /**
+     * The file extensions of the audio files that we process.
+     */
+    private static final Set<String> EXTENSIONS = Set.of("wav", "flac", "wv", "aif", "aiff");
+
+    /**
+     * The number of bytes at the start of a file that are needed to tell its format.
+     */
+    private static final int SIGNATURE_SIZE = 12;
+
+    /**
+     * The name of the format, as FFmpeg and audiowaveform know it.
+     */
+    private final String myName;
+
+    /**
+     * Whether the audiowaveform program can read the format itself.
+     */
+    private final boolean isReadByAudiowaveform;
+
+    /**
+     * Creates a new audio format.
+     *
+     * @param aName The name of the format
+     * @param aReadByAudiowaveform Whether the audiowaveform program can read the format
+     */
+    AudioFormat(final String aName, final boolean aReadByAudiowaveform) {
+        myName = aName;
+        isReadByAudiowaveform = aReadByAudiowaveform;
+    }
+
+    /**
+     * Gets the name of the format, as FFmpeg and audiowaveform know it.
+     *
+     * @return The name of the format
+     */
+    public String getName() {
+        return myName;
+    }
+
+    /**
+     * Returns whether the audiowaveform program can read the format itself; if it can't, the audio has to be decoded
+     * before it's given to audiowaveform.
+     *
+     * @return True if the audiowaveform program can read the format; else, false
+     */
+    public boolean isReadByAudiowaveform() {
+        return isReadByAudiowaveform;
+    }
+
+    /**
+     * Returns whether the supplied file name has the extension of one of the audio formats that we process.
+     *
+     * @param aFileName A file name or path
+     * @return True if the file name has an audio file extension; else, false
+     */
+    public static boolean isAudioFileName(final String aFileName) {
+        final int index = aFileName.lastIndexOf('.');
+        return index != -1 && EXTENSIONS.contains(aFileName.substring(index + 1).toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Probes the start of an audio file to find out which format it's in.
+     *
+     * @param aAudioFile An audio file
+     * @return The audio file's format, or null if it's not in one of the formats that we process
+     * @throws IOException If the audio file can't be read
+     */
+    public static AudioFormat probe(final Path aAudioFile) throws IOException {
+        try (FileChannel channel = FileChannel.open(aAudioFile, StandardOpenOption.READ)) {
+            final ByteBuffer signature = ByteBuffer.allocate(SIGNATURE_SIZE);
+
+            while (signature.hasRemaining() && channel.read(signature) != -1) { // NOPMD - empty while body
+                // Keep reading until we have the whole signature or get to the end of the file
+            }
+
+            if (signature.position() < SIGNATURE_SIZE) {
+                return null;
+            }
+
+            final String magic = getFourCC(signature, 0);
+            final String formType = getFourCC(signature, 8);
+
+            if ("RIFF".equals(magic) && "WAVE".equals(formType)) {
+                return WAV;
+            } else if ("fLaC".equals(magic)) {
+                return FLAC;
+            } else if ("wvpk".equals(magic)) {
+                return WAVPACK;
+            } else if ("FORM".equals(magic) && ("AIFF".equals(formType) || "AIFC".equals(formType))) {
+                return AIFF;
+            } else {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Gets the four character code at the supplied position in a buffer.
+     *
+     * @param aBuffer A buffer
+     * @param aPosition The position of the four character code
+     * @return The four character code
+     */
+    private static String getFourCC(final ByteBuffer aBuffer, final int aPosition) {
+        return new String(aBuffer.array(), aPosition, 4, StandardCharsets.ISO_8859_1);
+    }
+}
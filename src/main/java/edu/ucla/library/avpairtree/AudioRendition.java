@@ -0,0 +1,174 @@
+package edu.ucla.library.avpairtree;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import info.freelibrary.util.Logger;
+import info.freelibrary.util.LoggerFactory;
+
+import io.vertx.core.json.JsonObject;
+
+/**
+ * A rendition that audio files are converted to, when more than one is wanted (e.g. a high bit rate one for the
+ * reading room and a low bit rate one for public streaming). Renditions are configured as a comma-separated list of
+ * names and bit rates (e.g. <code>reading-room:320000,public:96000</code>); each rendition is placed in the Pairtree
+ * under its own name and gets its own access URL column in the updated CSV file.
+ */
+public final class AudioRendition {
+
+    /**
+     * The logger for audio renditions.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(AudioRendition.class, MessageCodes.BUNDLE);
+
+    /**
+     * The pattern that a rendition's name must match, since it's used in file names and column names.
+     */
+    private static final Pattern NAME_PATTERN = Pattern.compile("[A-Za-z0-9_-]+");
+
+    /**
+     * The separator between the renditions in the configuration.
+     */
+    private static final String RENDITION_SEPARATOR = ",";
+
+    /**
+     * The separator between a rendition's name and its bit rate in the configuration.
+     */
+    private static final String BIT_RATE_SEPARATOR = ":";
+
+    /**
+     * The separator between an item's ID and a rendition's name in the rendition's file name.
+     */
+    private static final String FILE_NAME_SEPARATOR = "-";
+
+    /**
+     * The name of the rendition.
+     */
+    private final String myName;
+
+    /**
+     * The bit rate of the rendition.
+     */
+    private final int myBitRate;
+
+    /**
+     * The part of the rendition's file name that comes after the item's file name.
+     */
+    private final String myFileNameSuffix;
+
+    /**
+     * Creates a new audio rendition.
+     *
+     * @param aName The name of the rendition
+     * @param aBitRate The bit rate of the rendition
+     */
+    private AudioRendition(final String aName, final int aBitRate) {
+        myName = aName;
+        myBitRate = aBitRate;
+        myFileNameSuffix = FILE_NAME_SEPARATOR + aName;
+    }
+
+    /**
+     * Gets the audio renditions in the supplied configuration.
+     *
+     * @param aConfig A configuration
+     * @return The configured renditions, in the order they were configured, or an empty list if there aren't any
+     * @throws IllegalArgumentException If the renditions are misconfigured
+     */
+    public static List<AudioRendition> fromConfig(final JsonObject aConfig) {
+        final String renditions = aConfig.getString(Config.AUDIO_RENDITIONS, "").trim();
+        final List<AudioRendition> list = new ArrayList<>();
+        final Set<String> names = new HashSet<>();
+
+        if (renditions.isEmpty()) {
+            return list;
+        }
+
+        for (final String rendition : renditions.split(RENDITION_SEPARATOR)) {
+            final String[] parts = rendition.trim().split(BIT_RATE_SEPARATOR, 2);
+
+            try {
+                final String name = parts[0].trim();
+                final int bitRate = Integer.parseInt(parts[parts.length - 1].trim());
+
+                if (parts.length != 2 || !NAME_PATTERN.matcher(name).matches() || bitRate <= 0 || !names.add(name)) {
+                    throw new IllegalArgumentException(LOGGER.getMessage(MessageCodes.AVPT_044, rendition));
+                }
+
+                list.add(new AudioRendition(name, bitRate));
+            } catch (final NumberFormatException details) {
+                throw new IllegalArgumentException(LOGGER.getMessage(MessageCodes.AVPT_044, rendition), details);
+            }
+        }
+
+        return list;
+    }
+
+    /**
+     * Gets the audio rendition with the supplied name from the supplied configuration.
+     *
+     * @param aConfig A configuration
+     * @param aName The name of a rendition
+     * @return The rendition, or null if there isn't one with the supplied name
+     * @throws IllegalArgumentException If the renditions are misconfigured
+     */
+    public static AudioRendition fromConfig(final JsonObject aConfig, final String aName) {
+        return fromConfig(aConfig).stream().filter(rendition -> rendition.getName().equals(aName)).findFirst()
+                .orElse(null);
+    }
+
+    /**
+     * Gets the name of the rendition.
+     *
+     * @return The name of the rendition
+     */
+    public String getName() {
+        return myName;
+    }
+
+    /**
+     * Gets the bit rate of the rendition.
+     *
+     * @return The bit rate of the rendition
+     */
+    public int getBitRate() {
+        return myBitRate;
+    }
+
+    /**
+     * Gets the name of the rendition's file, which is the item's file name with the rendition's name added to it.
+     *
+     * @param aFileName The item's file name, without its extension
+     * @return The rendition's file name, without its extension
+     */
+    public String getFileName(final String aFileName) {
+        return aFileName + myFileNameSuffix;
+    }
+
+    /**
+     * Gets the part of the rendition's file name that comes after the item's file name (i.e. the rendition's name and
+     * the separator before it).
+     *
+     * @return The suffix of the rendition's file name
+     */
+    public String getFileNameSuffix() {
+        return myFileNameSuffix;
+    }
+
+    /**
+     * Gets the name of the CSV column that the rendition's access URL is written to.
+     *
+     * @return The name of the rendition's access URL column
+     */
+    public String getAccessUrlHeader() {
+        return CsvItem.IIIF_ACCESS_URL_HEADER + " (" + myName + ")";
+    }
+
+    @Override
+    public String toString() {
+        return myName + BIT_RATE_SEPARATOR + myBitRate;
+    }
+}
@@ -11,6 +11,21 @@ public final class AvPtConstants {
      */
     public static final String STATUS = "status";
 
+    /**
+     * A property for reporting the application's waveform uploads.
+     */
+    public static final String WAVEFORM_UPLOADS = "waveformUploads";
+
+    /**
+     * A property for reporting how many of something are in flight.
+     */
+    public static final String IN_FLIGHT = "inFlight";
+
+    /**
+     * A property for reporting how many of something are waiting.
+     */
+    public static final String WAITING = "waiting";
+
     /**
      * A media-type for the response from the application's status endpoint.
      */
@@ -22,6 +37,27 @@ public final class AvPtConstants {
      */
     public static final String WAVEFORM_CONSUMER = "waveform-consumer";
 
+    /**
+     * The event bus address that FFmpeg's progress reports are published to while audio files are being converted.
+     */
+    public static final String CONVERSION_PROGRESS = "conversion-progress";
+
+    /**
+     * The event bus address that the ARKs of items whose conversions should be cancelled are published to.
+     */
+    public static final String CONVERSION_CANCEL = "conversion-cancel";
+
+    /**
+     * The event bus address of the converters that encode segments of long audio files.
+     */
+    public static final String CONVERSION_SEGMENT = "conversion-segment";
+
+    /**
+     * The event bus address that replies with the Pairtree object directory that an item's media file can be written
+     * into, creating it if needed.
+     */
+    public static final String PAIRTREE_PREPARE = "pairtree-prepare";
+
     /*
      * Constant classes have private constructors.
      */
@@ -1,15 +1,37 @@
 
 package edu.ucla.library.avpairtree;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.TimeoutException;
 
 import info.freelibrary.util.Constants;
 
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.eventbus.ReplyException;
+import io.vertx.core.eventbus.ReplyFailure;
+import io.vertx.core.file.AsyncFile;
+
 /**
  * A class for utility methods.
  */
 public final class AvPtUtils {
 
+    /**
+     * The algorithm used to hash the content of files.
+     */
+    private static final String HASH_ALGORITHM = "SHA-256";
+
+    /**
+     * The size of the buffer used to hash the content of files.
+     */
+    private static final int BUFFER_SIZE = 8192;
+
     /**
      * Creates a new AVPT utilities.
      */
@@ -33,4 +55,108 @@ public final class AvPtUtils {
         }
         return Path.of(filePath);
     }
+
+    /**
+     * Serializes the supplied values into a line of CSV data, quoting every value.
+     *
+     * @param aValues The values of a CSV row
+     * @return A line of CSV data, including its line delimiter
+     */
+    public static String toCsvLine(final String... aValues) {
+        final StringBuilder builder = new StringBuilder();
+
+        for (int index = 0; index < aValues.length; index++) {
+            final String value = aValues[index] == null ? Constants.EMPTY : aValues[index];
+
+            if (index > 0) {
+                builder.append(',');
+            }
+
+            builder.append('"').append(value.replace("\"", "\"\"")).append('"');
+        }
+
+        return builder.append('\n').toString();
+    }
+
+    /**
+     * Gets the error code to fail a message with, which tells processing that took too long (e.g. a process that ran
+     * past its timeout, or a request that went unanswered) apart from everything else.
+     *
+     * @param anError The reason processing failed
+     * @return {@link Op#TIMEOUT_CODE} if processing took too long; else, {@link Op#ERROR_CODE}
+     */
+    public static int getErrorCode(final Throwable anError) {
+        if (anError instanceof TimeoutException) {
+            return Op.TIMEOUT_CODE;
+        }
+
+        if (anError instanceof ReplyException) {
+            final ReplyException reply = (ReplyException) anError;
+
+            if (reply.failureType() == ReplyFailure.TIMEOUT || reply.failureCode() == Op.TIMEOUT_CODE) {
+                return Op.TIMEOUT_CODE;
+            }
+        }
+
+        return Op.ERROR_CODE;
+    }
+
+    /**
+     * Gets a future that completes once a file that's being written to has room in its write queue. A file that's still
+     * being opened doesn't have room yet, and one that couldn't be opened never will, so the failure is left for
+     * whoever closes it to report.
+     *
+     * @param aFile A file that's being written to, or null if there isn't one
+     * @return A future that completes once the file's write queue isn't full
+     */
+    public static Future<Void> drained(final Future<AsyncFile> aFile) {
+        if (aFile == null) {
+            return Future.succeededFuture();
+        }
+
+        return aFile.compose(file -> {
+            if (!file.writeQueueFull()) {
+                return Future.<Void>succeededFuture();
+            }
+
+            final Promise<Void> promise = Promise.promise();
+
+            file.drainHandler(drained -> promise.tryComplete());
+            return promise.future();
+        }).otherwiseEmpty();
+    }
+
+    /**
+     * Hashes the content of the file at the supplied path. This blocks, so it shouldn't be called from an event loop
+     * thread.
+     *
+     * @param aPath The path of a file
+     * @return The hex-encoded SHA-256 hash of the file's content
+     * @throws IOException If the file can't be read
+     */
+    public static String hash(final Path aPath) throws IOException {
+        final MessageDigest digest;
+
+        try {
+            digest = MessageDigest.getInstance(HASH_ALGORITHM);
+        } catch (final NoSuchAlgorithmException details) {
+            throw new IllegalStateException(details); // Every Java platform is required to support SHA-256
+        }
+
+        try (InputStream input = Files.newInputStream(aPath)) {
+            final byte[] buffer = new byte[BUFFER_SIZE];
+            final StringBuilder hash = new StringBuilder();
+            int count;
+
+            while ((count = input.read(buffer)) != -1) { // NOPMD - assignment in operand
+                digest.update(buffer, 0, count);
+            }
+
+            for (final byte value : digest.digest()) {
+                hash.append(String.format("%02x", value));
+            }
+
+            return hash.toString();
+        }
+    }
 }
@@ -21,6 +21,18 @@ public final class Config {
      */
     public static final String CSV_DIR = "csv.dir";
 
+    /**
+     * The configuration property for the number of a CSV file's rows that are kept in memory (the rest are spilled to
+     * a temporary file until the CSV file's output has been written).
+     */
+    public static final String CSV_SPILL_THRESHOLD = "csv.spill.threshold";
+
+    /**
+     * The configuration property for the number of milliseconds a CSV file's size and modification time must stay the
+     * same before it's processed.
+     */
+    public static final String CSV_STABILITY_INTERVAL = "csv.stability.interval";
+
     /**
      * The configuration property for the directory where source files can be found.
      */
@@ -31,6 +43,17 @@ public final class Config {
      */
     public static final String OUTPUT_DIR = "output.dir";
 
+    /**
+     * The configuration property for whether an index of the fingerprints of processed media files is kept in the
+     * output directory, so that unchanged items can be skipped when a CSV file is processed again.
+     */
+    public static final String FINGERPRINT_INDEX = "fingerprint.index";
+
+    /**
+     * The configuration property for whether the content of media files is hashed as a part of their fingerprints.
+     */
+    public static final String FINGERPRINT_HASH = "fingerprint.hash";
+
     /**
      * The configuration property for the output Pairtree's prefix.
      */
@@ -66,6 +89,76 @@ public final class Config {
      */
     public static final String ENCODING_THREADS = "audio.encoding.threads";
 
+    /**
+     * The configuration property for the directory that scratch space is created in; it defaults to the system's
+     * temporary directory.
+     */
+    public static final String SCRATCH_DIR = "scratch.dir";
+
+    /**
+     * The configuration property for a RAM-backed directory (e.g. a <code>tmpfs</code> mount) that scratch space is
+     * also created in, for the conversions of small files.
+     */
+    public static final String SCRATCH_RAM_DIR = "scratch.ram.dir";
+
+    /**
+     * The configuration property for the size, in bytes, of the largest scratch space reservation that a conversion can
+     * make in the RAM-backed scratch space.
+     */
+    public static final String SCRATCH_RAM_THRESHOLD = "scratch.ram.threshold";
+
+    /**
+     * The configuration property for the number of bytes of scratch space that conversions in progress can reserve.
+     */
+    public static final String SCRATCH_QUOTA = "scratch.quota";
+
+    /**
+     * The configuration property for whether converted audio files are written straight into the Pairtree (under a
+     * temporary name) and renamed into place, rather than being written to scratch space and then copied.
+     */
+    public static final String CONVERSION_DIRECT_PLACEMENT = "conversion.direct.placement";
+
+    /**
+     * The configuration property for whether audio files are decoded just once, with the decoded audio being fed to
+     * both the audio encoder and audiowaveform, rather than being read and decoded separately by each of them.
+     */
+    public static final String AUDIO_SINGLE_DECODE = "audio.single.decode";
+
+    /**
+     * The configuration property for the duration, in seconds, above which WAV files are split into segments that are
+     * encoded in parallel; segmented encoding is turned off if it's not set.
+     */
+    public static final String AUDIO_SEGMENT_THRESHOLD = "audio.segment.threshold";
+
+    /**
+     * The configuration property for the duration, in seconds, of the segments that long WAV files are split into.
+     */
+    public static final String AUDIO_SEGMENT_DURATION = "audio.segment.duration";
+
+    /**
+     * The configuration property for the renditions that audio files are converted to (e.g.
+     * <code>reading-room:320000,public:96000</code>), instead of the single rendition at the configured bit rate.
+     */
+    public static final String AUDIO_RENDITIONS = "audio.renditions";
+
+    /**
+     * The configuration property for the most short audio files that are converted together by one FFmpeg process;
+     * batching is turned off if it's not more than one.
+     */
+    public static final String AUDIO_BATCH_SIZE = "audio.batch.size";
+
+    /**
+     * The configuration property for the size, in bytes, at or below which an audio file is short enough to be
+     * converted in a batch.
+     */
+    public static final String AUDIO_BATCH_THRESHOLD = "audio.batch.threshold";
+
+    /**
+     * The configuration property for how long, in milliseconds, a batch of short audio files waits to be filled before
+     * it's converted.
+     */
+    public static final String AUDIO_BATCH_LINGER = "audio.batch.linger";
+
     /**
      * A configuration property for the pattern for creating IIIF access URLs.
      */
@@ -87,6 +180,108 @@ public final class Config {
      */
     public static final String WAVEFORM_WORKERS = "waveform.workers";
 
+    /**
+     * The configuration property for the engine that creates audiowaveform data: <code>audiowaveform</code> (the
+     * default) or <code>java</code>.
+     */
+    public static final String WAVEFORM_ENGINE = "waveform.engine";
+
+    /**
+     * The configuration property for the size, in bytes, of the parts that large audiowaveform data is uploaded to S3
+     * in; S3 doesn't allow parts smaller than 5 MiB.
+     */
+    public static final String WAVEFORM_S3_PART_SIZE = "waveform.s3.part.size";
+
+    /**
+     * The configuration property for how long, in seconds, an external program that decodes an audio file or creates
+     * its audiowaveform data can run before it's stopped; zero if it can run for as long as it takes.
+     */
+    public static final String WAVEFORM_TIMEOUT = "waveform.timeout";
+
+    /**
+     * The configuration property for the maximum number of connections to S3, which is also the number of waveform
+     * uploads that can be in flight at once.
+     */
+    public static final String S3_MAX_CONNECTIONS = "s3.max.connections";
+
+    /**
+     * The configuration property for how long, in seconds, an S3 request waits for a connection before it fails.
+     */
+    public static final String S3_ACQUIRE_TIMEOUT = "s3.acquire.timeout";
+
+    /**
+     * The configuration property for how long, in seconds, S3 has to send data before a request fails.
+     */
+    public static final String S3_READ_TIMEOUT = "s3.read.timeout";
+
+    /**
+     * The configuration property for how long, in seconds, S3 has to accept data before a request fails.
+     */
+    public static final String S3_WRITE_TIMEOUT = "s3.write.timeout";
+
+    /**
+     * The configuration property for the directory that waveform data is kept in until it's been uploaded to S3; it
+     * defaults to a directory in the output directory.
+     */
+    public static final String WAVEFORM_OUTBOX_DIR = "waveform.outbox.dir";
+
+    /**
+     * The configuration property for the number of times that an upload of waveform data is attempted before it's left
+     * in the outbox until the application is next started.
+     */
+    public static final String WAVEFORM_UPLOAD_ATTEMPTS = "waveform.upload.attempts";
+
+    /**
+     * The configuration property for the most milliseconds that the first retry of an upload of waveform data is
+     * delayed by; the delay doubles with each retry, up to a minute.
+     */
+    public static final String WAVEFORM_UPLOAD_BACKOFF = "waveform.upload.backoff";
+
+    /**
+     * The configuration property for whether waveform data that S3 already has (i.e. that has the same ETag as the
+     * object at its key) is skipped, rather than uploaded again; it defaults to true.
+     */
+    public static final String WAVEFORM_S3_SKIP_UNCHANGED = "waveform.s3.skip.unchanged";
+
+    /**
+     * The configuration property for the number of audio conversions that can be in flight at once; it defaults to the
+     * number of conversion workers.
+     */
+    public static final String CONVERSION_MAX_IN_FLIGHT = "conversion.max.in.flight";
+
+    /**
+     * The configuration property for the number of audiowaveform generations that can be in flight at once; it
+     * defaults to the number of waveform workers.
+     */
+    public static final String WAVEFORM_MAX_IN_FLIGHT = "waveform.max.in.flight";
+
+    /**
+     * The configuration property for the number of videos that can be put into a Pairtree at once.
+     */
+    public static final String VIDEO_MAX_IN_FLIGHT = "video.max.in.flight";
+
+    /**
+     * The configuration property for whether video files whose <code>moov</code> atom is at the end are remuxed, while
+     * they're being put into a Pairtree, so that the atom is at the front.
+     */
+    public static final String VIDEO_FASTSTART = "video.faststart";
+
+    /**
+     * The configuration property for whether the number of requests in flight is adjusted to the system's load.
+     */
+    public static final String QUEUE_ADAPTIVE = "queue.adaptive";
+
+    /**
+     * The configuration property for the most requests of any one kind that an adaptive queue will allow in flight.
+     */
+    public static final String QUEUE_ADAPTIVE_MAX_IN_FLIGHT = "queue.adaptive.max.in.flight";
+
+    /**
+     * The configuration property for the number of waiting requests at which a request queue is full, after which a
+     * CSV file's remaining items are spilled to disk until there's room for them.
+     */
+    public static final String QUEUE_CAPACITY = "queue.capacity";
+
     /**
      * The environment variable for the S3 bucket for audio waveforms.
      */
@@ -0,0 +1,223 @@
+package edu.ucla.library.avpairtree;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+import info.freelibrary.util.Logger;
+import info.freelibrary.util.LoggerFactory;
+
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+
+/**
+ * A coalescer of the file system events for CSV files in the watched directory. A file that's being copied in can fire
+ * many events before it's complete, so a CSV file is only submitted for processing once its size and modification time
+ * have stopped changing. A CSV file with the same content as one that's already being processed is ignored, and there
+ * is never more than one job running for any one path; a path that changes while its job is running is checked again
+ * once that job is done.
+ */
+public final class CsvChangeCoalescer {
+
+    /**
+     * The logger for the CSV change coalescer.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(CsvChangeCoalescer.class, MessageCodes.BUNDLE);
+
+    /**
+     * The Vert.x instance used to time and hash CSV files.
+     */
+    private final Vertx myVertx;
+
+    /**
+     * The context that all the coalescer's state is accessed from.
+     */
+    private final Context myContext;
+
+    /**
+     * The number of milliseconds a CSV file's size and modification time must stay the same before it's submitted.
+     */
+    private final long myStabilityInterval;
+
+    /**
+     * The function that submits a CSV file for processing.
+     */
+    private final Function<String, Future<?>> myJob;
+
+    /**
+     * The state of the paths that have changed and not yet been processed, or are being processed.
+     */
+    private final Map<String, PathState> myPaths = new HashMap<>();
+
+    /**
+     * The content hashes of the CSV files that are being processed.
+     */
+    private final Set<String> myInFlightHashes = new HashSet<>();
+
+    /**
+     * Creates a new CSV change coalescer. It must be created on the context that its jobs should be submitted from.
+     *
+     * @param aVertx A Vert.x instance
+     * @param aStabilityInterval The number of milliseconds a CSV file must stay unchanged before it's submitted
+     * @param aJob A function that submits the CSV file at the supplied path for processing
+     */
+    public CsvChangeCoalescer(final Vertx aVertx, final long aStabilityInterval,
+            final Function<String, Future<?>> aJob) {
+        if (aStabilityInterval < 1) {
+            throw new IllegalArgumentException(LOGGER.getMessage(MessageCodes.AVPT_032, aStabilityInterval));
+        }
+
+        myVertx = aVertx;
+        myContext = aVertx.getOrCreateContext();
+        myStabilityInterval = aStabilityInterval;
+        myJob = aJob;
+    }
+
+    /**
+     * Notes that the CSV file at the supplied path has been created or modified. This can be called from any thread.
+     *
+     * @param aPath The absolute path of a CSV file
+     */
+    public void changed(final String aPath) {
+        myContext.runOnContext(event -> {
+            final PathState state = myPaths.computeIfAbsent(aPath, path -> new PathState());
+
+            // Start waiting again, since the file may still be changing
+            if (state.myTimerID != -1) {
+                myVertx.cancelTimer(state.myTimerID);
+            }
+
+            state.myTimerID = myVertx.setTimer(myStabilityInterval, timerID -> checkStability(aPath, state));
+        });
+    }
+
+    /**
+     * Checks whether a CSV file's size and modification time have changed since they were last checked.
+     *
+     * @param aPath The path of a CSV file
+     * @param aState The path's state
+     */
+    private void checkStability(final String aPath, final PathState aState) {
+        aState.myTimerID = -1;
+
+        myVertx.fileSystem().props(aPath).onSuccess(props -> {
+            if (props.size() == aState.mySize && props.lastModifiedTime() == aState.myLastModified) {
+                hash(aPath).onSuccess(hash -> submit(aPath, aState, hash)).onFailure(error -> {
+                    LOGGER.error(error, error.getMessage());
+                    forget(aPath, aState);
+                });
+            } else {
+                aState.mySize = props.size();
+                aState.myLastModified = props.lastModifiedTime();
+
+                if (aState.myTimerID == -1) { // Unless another event has already restarted the wait
+                    aState.myTimerID = myVertx.setTimer(myStabilityInterval, timerID -> checkStability(aPath, aState));
+                }
+            }
+        }).onFailure(error -> {
+            // The file has gone away (e.g. it was a temporary file that's since been renamed)
+            LOGGER.debug(MessageCodes.AVPT_033, aPath);
+            forget(aPath, aState);
+        });
+    }
+
+    /**
+     * Submits a stable CSV file for processing, unless the same content is already being processed.
+     *
+     * @param aPath The path of a CSV file
+     * @param aState The path's state
+     * @param aHash The hash of the CSV file's content
+     */
+    private void submit(final String aPath, final PathState aState, final String aHash) {
+        if (aState.myTimerID != -1) {
+            return; // The file changed again while it was being hashed
+        }
+
+        if (myInFlightHashes.contains(aHash)) {
+            LOGGER.debug(MessageCodes.AVPT_034, aPath);
+            forget(aPath, aState);
+        } else if (aState.isActive) {
+            aState.isPending = true; // Check it again once the job that's running for the path is done
+        } else {
+            aState.isActive = true;
+            myInFlightHashes.add(aHash);
+
+            myJob.apply(aPath).onComplete(job -> {
+                myInFlightHashes.remove(aHash);
+                aState.isActive = false;
+
+                if (aState.isPending) {
+                    aState.isPending = false;
+                    aState.mySize = -1;
+                    aState.myTimerID = myVertx.setTimer(myStabilityInterval, timerID -> checkStability(aPath, aState));
+                } else {
+                    forget(aPath, aState);
+                }
+            });
+        }
+    }
+
+    /**
+     * Stops tracking a path, unless something is still happening with it.
+     *
+     * @param aPath The path of a CSV file
+     * @param aState The path's state
+     */
+    private void forget(final String aPath, final PathState aState) {
+        if (!aState.isActive && aState.myTimerID == -1) {
+            myPaths.remove(aPath, aState);
+        }
+    }
+
+    /**
+     * Hashes the content of a CSV file.
+     *
+     * @param aPath The path of a CSV file
+     * @return A future with the hex-encoded hash of the CSV file's content
+     */
+    private Future<String> hash(final String aPath) {
+        return myVertx.executeBlocking(promise -> {
+            try {
+                promise.complete(AvPtUtils.hash(Paths.get(aPath)));
+            } catch (final IOException details) {
+                promise.fail(details);
+            }
+        }, false);
+    }
+
+    /**
+     * The state of a changed path.
+     */
+    private static final class PathState {
+
+        /**
+         * The ID of the timer that will next check the path, or -1 if there isn't one.
+         */
+        private long myTimerID = -1;
+
+        /**
+         * The size of the file when it was last checked.
+         */
+        private long mySize = -1;
+
+        /**
+         * The modification time of the file when it was last checked.
+         */
+        private long myLastModified = -1;
+
+        /**
+         * Whether a job is running for the path.
+         */
+        private boolean isActive;
+
+        /**
+         * Whether the path has changed while its job was running.
+         */
+        private boolean isPending;
+    }
+}
@@ -47,6 +47,27 @@ public class CsvItem {
     @CsvIgnore
     public static final String FILE_NAME_HEADER = "File Name";
 
+    /**
+     * The CSV header column for the priority of the CSV file's items; the first value in the column is used for all of
+     * them. Note that this not used for deserialization; see WatcherVerticle for its use.
+     */
+    @CsvIgnore
+    public static final String PRIORITY_HEADER = "Priority";
+
+    /**
+     * The CSV header column for whether the item was successfully processed. Note that this not used for
+     * deserialization; see WatcherVerticle.updateCSV for its use in serialization.
+     */
+    @CsvIgnore
+    public static final String PROCESSING_STATUS_HEADER = "Processing Status";
+
+    /**
+     * The CSV header column for why the item couldn't be processed. Note that this not used for deserialization; see
+     * WatcherVerticle.updateCSV for its use in serialization.
+     */
+    @CsvIgnore
+    public static final String PROCESSING_ERROR_HEADER = "Processing Error";
+
     /**
      * The item ARK property used in JSON serialization.
      */
@@ -163,14 +184,15 @@ public class CsvItem {
     }
 
     /**
-     * Returns whether the CSV data has an audio file name.
+     * Returns whether the CSV data has an audio file name. The file's actual format is found by probing it when it's
+     * processed; see {@link AudioFormat#probe(java.nio.file.Path)}.
      *
      * @return True if the CSV data has an audio file name; else, false
      */
     @JsonIgnore
     public boolean isAudio() {
-        // Our archival source audio files use wav as their format
-        return myFilePath != null && myFilePath.endsWith(".wav");
+        // Our archival source audio files are in a lossless format (e.g. wav or flac)
+        return myFilePath != null && AudioFormat.isAudioFileName(myFilePath);
     }
 
     /**
@@ -0,0 +1,163 @@
+package edu.ucla.library.avpairtree;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import info.freelibrary.util.Logger;
+import info.freelibrary.util.LoggerFactory;
+
+import io.vertx.core.Handler;
+import io.vertx.core.buffer.Buffer;
+
+/**
+ * A parser that turns a stream of CSV lines into CSV rows. It's meant to be fed by a Vert.x
+ * {@link io.vertx.core.parsetools.RecordParser} that splits its input on newlines, so that rows can be handled as they
+ * are read instead of after the whole file has been read into memory. Quoted values that contain line breaks are
+ * reassembled before their row is passed on.
+ */
+public final class CsvRowParser implements Handler<Buffer> {
+
+    /**
+     * The CSV parser's logger.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(CsvRowParser.class, MessageCodes.BUNDLE);
+
+    /**
+     * The character used to quote values.
+     */
+    private static final char QUOTE = '"';
+
+    /**
+     * The character used to separate values.
+     */
+    private static final char SEPARATOR = ',';
+
+    /**
+     * A carriage return, which is dropped from the end of Windows line endings.
+     */
+    private static final char CARRIAGE_RETURN = '\r';
+
+    /**
+     * A line feed, which is put back into quoted values that span lines.
+     */
+    private static final char LINE_FEED = '\n';
+
+    /**
+     * The byte order mark that some spreadsheet programs put at the start of a CSV file.
+     */
+    private static final char BYTE_ORDER_MARK = '\uFEFF';
+
+    /**
+     * The handler that receives each completed row.
+     */
+    private final Handler<String[]> myRowHandler;
+
+    /**
+     * The values of the row that's currently being parsed.
+     */
+    private final List<String> myValues = new ArrayList<>();
+
+    /**
+     * The value that's currently being parsed.
+     */
+    private final StringBuilder myValue = new StringBuilder();
+
+    /**
+     * Whether the parser is currently inside a quoted value.
+     */
+    private boolean isQuoted;
+
+    /**
+     * Whether the parser has seen the first line of its input.
+     */
+    private boolean hasStarted;
+
+    /**
+     * Creates a new CSV row parser.
+     *
+     * @param aRowHandler A handler that receives each row as soon as it has been parsed
+     */
+    public CsvRowParser(final Handler<String[]> aRowHandler) {
+        myRowHandler = aRowHandler;
+    }
+
+    /**
+     * Parses a single line of CSV data (without its line delimiter).
+     *
+     * @param aLine A line of CSV data
+     */
+    @Override
+    public void handle(final Buffer aLine) {
+        parse(aLine.toString(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Parses a single line of CSV data (without its line delimiter).
+     *
+     * @param aLine A line of CSV data
+     */
+    @SuppressWarnings("PMD.CognitiveComplexity")
+    public void parse(final String aLine) {
+        final int length = aLine.length();
+        int index = 0;
+
+        if (!hasStarted) {
+            hasStarted = true;
+
+            if (length > 0 && aLine.charAt(0) == BYTE_ORDER_MARK) {
+                index = 1;
+            }
+        }
+
+        // Empty lines between rows are skipped, just like CSVeed does
+        if (!isQuoted && (length == index || length == index + 1 && aLine.charAt(index) == CARRIAGE_RETURN)) {
+            return;
+        }
+
+        while (index < length) {
+            final char character = aLine.charAt(index);
+
+            if (isQuoted) {
+                if (character != QUOTE) {
+                    myValue.append(character);
+                } else if (index + 1 < length && aLine.charAt(index + 1) == QUOTE) {
+                    myValue.append(QUOTE); // An escaped quote
+                    index += 1;
+                } else {
+                    isQuoted = false;
+                }
+            } else if (character == QUOTE) {
+                isQuoted = true;
+            } else if (character == SEPARATOR) {
+                myValues.add(myValue.toString());
+                myValue.setLength(0);
+            } else if (character != CARRIAGE_RETURN || index + 1 != length) {
+                myValue.append(character);
+            }
+
+            index += 1;
+        }
+
+        if (isQuoted) {
+            // The quoted value continues on the next line, so put back the line break we were split on
+            myValue.append(LINE_FEED);
+        } else {
+            myValues.add(myValue.toString());
+            myValue.setLength(0);
+            myRowHandler.handle(myValues.toArray(new String[0]));
+            myValues.clear();
+        }
+    }
+
+    /**
+     * Signals that the input has ended.
+     *
+     * @throws IllegalStateException If the input ended in the middle of a quoted value
+     */
+    public void end() {
+        if (isQuoted) {
+            throw new IllegalStateException(LOGGER.getMessage(MessageCodes.AVPT_028, myValue));
+        }
+    }
+}
@@ -0,0 +1,294 @@
+package edu.ucla.library.avpairtree;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import info.freelibrary.util.Logger;
+import info.freelibrary.util.LoggerFactory;
+
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.file.AsyncFile;
+import io.vertx.core.file.OpenOptions;
+
+/**
+ * The rows of a CSV file, kept from when the file was first parsed so that they can be reused when its output is
+ * written. Rows are held in memory, with repeated values shared between them, until a threshold is reached; after that,
+ * they're spilled to a temporary file so that huge CSV files don't have to fit in the heap. Whoever is adding rows
+ * should also wait for the spill file to be {@link #drained() drained} whenever its writes fall behind.
+ */
+public final class CsvRows {
+
+    /**
+     * The logger for CSV rows.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(CsvRows.class, MessageCodes.BUNDLE);
+
+    /**
+     * The prefix of the temporary file that rows are spilled into.
+     */
+    private static final String SPILL_FILE_PREFIX = "av-pairtree-rows-";
+
+    /**
+     * The maximum number of distinct values that are shared between rows.
+     */
+    private static final int MAX_SHARED_VALUES = 10_000;
+
+    /**
+     * The size of the buffer used to read the spill file.
+     */
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * The Vert.x instance used to write the spill file.
+     */
+    private final Vertx myVertx;
+
+    /**
+     * The directory that the spill file is created in.
+     */
+    private final String mySpillDir;
+
+    /**
+     * The number of rows that can be held in memory before they're spilled to disk.
+     */
+    private final int mySpillThreshold;
+
+    /**
+     * The rows that are held in memory.
+     */
+    private final List<String[]> myRows = new ArrayList<>();
+
+    /**
+     * The distinct values that are shared between rows.
+     */
+    private final Map<String, String> mySharedValues = new HashMap<>();
+
+    /**
+     * The CSV file's header.
+     */
+    private String[] myHeader = new String[0];
+
+    /**
+     * The path of the spill file, if there is one.
+     */
+    private String mySpillPath;
+
+    /**
+     * The spill file, once it's been opened.
+     */
+    private Future<AsyncFile> mySpillFile;
+
+    /**
+     * The first error that occurred while writing to the spill file, if there was one.
+     */
+    private Throwable mySpillError;
+
+    /**
+     * The number of rows that have been added.
+     */
+    private int mySize;
+
+    /**
+     * Creates a new store of CSV rows.
+     *
+     * @param aVertx A Vert.x instance
+     * @param aSpillDir The directory that a spill file is created in, if one is needed
+     * @param aSpillThreshold The number of rows to hold in memory before spilling the rest to disk
+     */
+    public CsvRows(final Vertx aVertx, final String aSpillDir, final int aSpillThreshold) {
+        myVertx = aVertx;
+        mySpillDir = aSpillDir;
+        mySpillThreshold = aSpillThreshold;
+    }
+
+    /**
+     * Sets the CSV file's header.
+     *
+     * @param aHeader The header row of the CSV file
+     * @return These CSV rows
+     */
+    public CsvRows setHeader(final String... aHeader) {
+        myHeader = aHeader.clone();
+        return this;
+    }
+
+    /**
+     * Gets the CSV file's header.
+     *
+     * @return The header row of the CSV file
+     */
+    public String[] getHeader() {
+        return myHeader.clone();
+    }
+
+    /**
+     * Gets the index of the supplied column in the header.
+     *
+     * @param aColumnName A column name
+     * @return The zero-based index of the column, or -1 if the header doesn't have the column
+     */
+    public int getIndex(final String aColumnName) {
+        for (int index = 0; index < myHeader.length; index++) {
+            if (aColumnName.equals(myHeader[index])) {
+                return index;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Adds a row, in the order it was read from the CSV file.
+     *
+     * @param aRow A CSV row
+     */
+    public void add(final String... aRow) {
+        if (mySize < mySpillThreshold) {
+            for (int index = 0; index < aRow.length; index++) {
+                aRow[index] = share(aRow[index]);
+            }
+
+            myRows.add(aRow);
+        } else {
+            final Buffer line = Buffer.buffer(AvPtUtils.toCsvLine(aRow));
+
+            if (mySpillFile == null) {
+                final OpenOptions options = new OpenOptions().setWrite(true).setAppend(true);
+
+                final Future<String> tempFile =
+                        myVertx.fileSystem().createTempFile(mySpillDir, SPILL_FILE_PREFIX, null, (String) null);
+
+                mySpillFile = tempFile.compose(path -> {
+                    LOGGER.debug(MessageCodes.AVPT_029, path);
+
+                    mySpillPath = path;
+                    return myVertx.fileSystem().open(path, options);
+                });
+            }
+
+            // Writes are queued in the order rows are added, even if the spill file is still being opened
+            mySpillFile.compose(file -> file.write(line)).onFailure(error -> {
+                if (mySpillError == null) {
+                    mySpillError = error;
+                }
+            });
+        }
+
+        mySize += 1;
+    }
+
+    /**
+     * Gets a future that completes once the spill file's write queue has room for more rows, so whoever is adding them
+     * can pause until the disk catches up rather than buffering them all in memory.
+     *
+     * @return A future that completes once more rows can be added, which is already complete if they can be now
+     */
+    public Future<Void> drained() {
+        return AvPtUtils.drained(mySpillFile);
+    }
+
+    /**
+     * Gets the number of rows that have been added.
+     *
+     * @return The number of rows
+     */
+    public int size() {
+        return mySize;
+    }
+
+    /**
+     * Finishes adding rows, making sure that any that were spilled to disk have been written out.
+     *
+     * @return A future that completes when all the rows can be read back
+     */
+    public Future<Void> close() {
+        if (mySpillFile == null) {
+            return Future.succeededFuture();
+        }
+
+        return mySpillFile.compose(AsyncFile::close).compose(closed -> {
+            return mySpillError == null ? Future.succeededFuture() : Future.failedFuture(mySpillError);
+        });
+    }
+
+    /**
+     * Passes each row, in its original order, to the supplied consumer. Rows that were spilled to disk are read back
+     * from there, so this blocks and shouldn't be called from an event loop thread.
+     *
+     * @param aConsumer A consumer of CSV rows
+     * @throws IOException If rows that were spilled to disk can't be read back
+     */
+    public void forEach(final Consumer<String[]> aConsumer) throws IOException {
+        myRows.forEach(row -> aConsumer.accept(row.clone()));
+
+        if (mySpillPath != null) {
+            final CsvRowParser parser = new CsvRowParser(aConsumer::accept);
+
+            try (BufferedReader reader = Files.newBufferedReader(Paths.get(mySpillPath), StandardCharsets.UTF_8)) {
+                final StringBuilder line = new StringBuilder();
+                final char[] chars = new char[BUFFER_SIZE];
+                int count;
+
+                // Only split on line feeds, since carriage returns in quoted values need to be kept as they are
+                while ((count = reader.read(chars)) != -1) { // NOPMD - assignment in operand
+                    for (int index = 0; index < count; index++) {
+                        if (chars[index] == '\n') {
+                            parser.parse(line.toString());
+                            line.setLength(0);
+                        } else {
+                            line.append(chars[index]);
+                        }
+                    }
+                }
+            }
+
+            parser.end();
+        }
+    }
+
+    /**
+     * Discards the rows, removing the spill file if one was created.
+     *
+     * @return A future that completes when the rows have been discarded
+     */
+    public Future<Void> delete() {
+        myRows.clear();
+        mySharedValues.clear();
+
+        if (mySpillPath == null) {
+            return Future.succeededFuture();
+        }
+
+        return myVertx.fileSystem().delete(mySpillPath);
+    }
+
+    /**
+     * Returns a copy of a value that's shared with any other rows that have the same value.
+     *
+     * @param aValue A CSV value
+     * @return The shared copy of the value
+     */
+    private String share(final String aValue) {
+        final String sharedValue = mySharedValues.get(aValue);
+
+        if (sharedValue != null) {
+            return sharedValue;
+        }
+
+        if (mySharedValues.size() < MAX_SHARED_VALUES) {
+            mySharedValues.put(aValue, aValue);
+        }
+
+        return aValue;
+    }
+}
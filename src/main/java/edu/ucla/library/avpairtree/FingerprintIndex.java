@@ -0,0 +1,334 @@
+package edu.ucla.library.avpairtree;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+import info.freelibrary.util.Logger;
+import info.freelibrary.util.LoggerFactory;
+
+import io.vertx.core.CompositeFuture;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.file.AsyncFile;
+import io.vertx.core.file.CopyOptions;
+import io.vertx.core.file.FileSystem;
+import io.vertx.core.file.OpenOptions;
+import io.vertx.core.json.DecodeException;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.shareddata.LocalMap;
+import io.vertx.core.shareddata.Shareable;
+
+/**
+ * A persistent index of the fingerprints of the media files that have been successfully processed, so that items whose
+ * media files (and the settings used to process them) haven't changed since the last time they were processed can be
+ * skipped when a CSV file is dropped again. The index is a file of JSON lines that's only ever appended to while it's
+ * open; it's compacted each time it's opened.
+ * <p>
+ * An index file is only opened once per Vert.x instance: everything that opens it while it's open (e.g. each of the
+ * watcher verticle's instances) shares the same index, which is closed once they've all closed it. The index's methods
+ * can be called from any thread.
+ * </p>
+ */
+public final class FingerprintIndex {
+
+    /**
+     * The name of the index file, which is kept in the output directory.
+     */
+    public static final String FILE_NAME = "av-pairtree-fingerprints.jsonl";
+
+    /**
+     * The logger for the fingerprint index.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(FingerprintIndex.class, MessageCodes.BUNDLE);
+
+    /**
+     * The JSON key for an item's ARK.
+     */
+    private static final String ARK = "ark";
+
+    /**
+     * The JSON key for the fingerprint of an item's media file.
+     */
+    private static final String FINGERPRINT = "fingerprint";
+
+    /**
+     * The JSON key for an item's audiowaveform URL.
+     */
+    private static final String WAVEFORM = "waveform";
+
+    /**
+     * The JSON key for the paths of the media files that an item's processing put into the Pairtree.
+     */
+    private static final String OUTPUT = "output";
+
+    /**
+     * The name of the local map of the index files that are open, keyed by their paths.
+     */
+    private static final String OPEN_INDEXES = FingerprintIndex.class.getName();
+
+    /**
+     * The separator between the parts of a fingerprint.
+     */
+    private static final char SEPARATOR = '|';
+
+    /**
+     * The Vert.x instance used to read and hash media files.
+     */
+    private final Vertx myVertx;
+
+    /**
+     * The index's entries, keyed by item ARK.
+     */
+    private final Map<String, JsonObject> myEntries;
+
+    /**
+     * Whether the content of media files is hashed as a part of their fingerprints.
+     */
+    private final boolean isHashingContent;
+
+    /**
+     * The path of the index file.
+     */
+    private final String myPath;
+
+    /**
+     * The index file.
+     */
+    private final AsyncFile myFile;
+
+    /**
+     * Creates a new fingerprint index.
+     *
+     * @param aVertx A Vert.x instance
+     * @param aEntries The index's entries
+     * @param aHashContent Whether the content of media files is hashed as a part of their fingerprints
+     * @param aPath The path of the index file
+     * @param aFile The opened index file
+     */
+    private FingerprintIndex(final Vertx aVertx, final Map<String, JsonObject> aEntries, final boolean aHashContent,
+            final String aPath, final AsyncFile aFile) {
+        myVertx = aVertx;
+        myEntries = aEntries;
+        isHashingContent = aHashContent;
+        myPath = aPath;
+        myFile = aFile;
+    }
+
+    /**
+     * Opens the fingerprint index in the supplied directory, creating it if it doesn't exist yet, or shares it if it's
+     * already open.
+     *
+     * @param aVertx A Vert.x instance
+     * @param aDirPath The directory the index is kept in
+     * @param aHashContent Whether the content of media files should be hashed as a part of their fingerprints; without
+     *        this, only their sizes and modification times are checked
+     * @return A future with the opened index
+     */
+    public static Future<FingerprintIndex> open(final Vertx aVertx, final String aDirPath,
+            final boolean aHashContent) {
+        final String path = Path.of(aDirPath, FILE_NAME).toAbsolutePath().toString();
+        final LocalMap<String, OpenIndex> openIndexes = aVertx.sharedData().getLocalMap(OPEN_INDEXES);
+
+        // Only the first to open the index reads and compacts the file; the rest wait for it and then share the index
+        return openIndexes.compute(path, (key, openIndex) -> {
+            if (openIndex != null) {
+                return openIndex.share();
+            }
+
+            return new OpenIndex(load(aVertx, aDirPath, path, aHashContent).onFailure(error -> {
+                openIndexes.remove(path);
+            }));
+        }).myIndex;
+    }
+
+    /**
+     * Reads in and compacts the index file, and then opens it for appending.
+     *
+     * @param aVertx A Vert.x instance
+     * @param aDirPath The directory the index is kept in
+     * @param aPath The path of the index file
+     * @param aHashContent Whether the content of media files should be hashed as a part of their fingerprints
+     * @return A future with the opened index
+     */
+    private static Future<FingerprintIndex> load(final Vertx aVertx, final String aDirPath, final String aPath,
+            final boolean aHashContent) {
+        final FileSystem fileSystem = aVertx.fileSystem();
+        final String compactedPath = aPath + ".tmp";
+        final Map<String, JsonObject> entries = new ConcurrentHashMap<>();
+
+        return fileSystem.mkdirs(aDirPath).compose(mkdirs -> fileSystem.exists(aPath)).compose(exists -> {
+            return exists ? fileSystem.readFile(aPath) : Future.succeededFuture(Buffer.buffer());
+        }).compose(index -> {
+            final Buffer compacted = Buffer.buffer();
+
+            // Later entries for an ARK replace earlier ones
+            for (final String line : index.toString().split("\n")) {
+                try {
+                    final JsonObject entry = line.isBlank() ? null : new JsonObject(line);
+
+                    if (entry != null && entry.getString(ARK) != null) {
+                        entries.put(entry.getString(ARK), entry);
+                    }
+                } catch (final DecodeException details) {
+                    LOGGER.warn(MessageCodes.AVPT_035, line); // e.g. a line that was cut off by a crash
+                }
+            }
+
+            entries.values().forEach(entry -> compacted.appendString(entry.encode()).appendString("\n"));
+
+            return fileSystem.writeFile(compactedPath, compacted);
+        }).compose(write -> {
+            return fileSystem.move(compactedPath, aPath, new CopyOptions().setReplaceExisting(true));
+        }).compose(move -> {
+            return fileSystem.open(aPath, new OpenOptions().setWrite(true).setCreate(true).setAppend(true));
+        }).map(file -> {
+            LOGGER.info(MessageCodes.AVPT_036, entries.size(), aPath);
+            return new FingerprintIndex(aVertx, entries, aHashContent, aPath, file);
+        });
+    }
+
+    /**
+     * Computes the fingerprint of an item's media file.
+     *
+     * @param aSourceFile The item's media file
+     * @param aSettings A description of the settings the media file is processed with
+     * @return A future with the fingerprint of the media file
+     */
+    public Future<String> fingerprint(final Path aSourceFile, final String aSettings) {
+        final String path = aSourceFile.toAbsolutePath().toString();
+
+        return myVertx.fileSystem().props(path).compose(props -> {
+            final StringBuilder fingerprint = new StringBuilder(path).append(SEPARATOR).append(props.size())
+                    .append(SEPARATOR).append(props.lastModifiedTime()).append(SEPARATOR).append(aSettings);
+
+            if (!isHashingContent) {
+                return Future.succeededFuture(fingerprint.toString());
+            }
+
+            return myVertx.<String>executeBlocking(promise -> {
+                try {
+                    promise.complete(AvPtUtils.hash(aSourceFile));
+                } catch (final IOException details) {
+                    promise.fail(details);
+                }
+            }, false).map(hash -> fingerprint.append(SEPARATOR).append(hash).toString());
+        });
+    }
+
+    /**
+     * Looks up the audiowaveform URL of an item that has already been processed with the supplied fingerprint, and
+     * whose media files are all still in the Pairtree.
+     *
+     * @param aItemARK The ARK of an item
+     * @param aFingerprint The fingerprint of the item's media file
+     * @return A future with the item's audiowaveform URL (which is empty if the item doesn't have one), or with null
+     *         if the item hasn't been processed with the supplied fingerprint or its media files have gone missing
+     */
+    @SuppressWarnings("rawtypes") // Composite futures don't support typing
+    public Future<String> lookup(final String aItemARK, final String aFingerprint) {
+        final JsonObject entry = myEntries.get(aItemARK);
+        final JsonArray outputs = entry == null ? null : entry.getJsonArray(OUTPUT);
+
+        // Entries from before media file paths were recorded can't be checked, so their items are processed again
+        if (outputs == null || outputs.isEmpty() || !aFingerprint.equals(entry.getString(FINGERPRINT))) {
+            return Future.succeededFuture();
+        }
+
+        final List<Future> checks = outputs.stream().map(output -> myVertx.fileSystem().exists(output.toString()))
+                .collect(Collectors.toList());
+
+        return CompositeFuture.all(checks).map(found -> {
+            return found.<Boolean>list().contains(false) ? null : entry.getString(WAVEFORM, "");
+        });
+    }
+
+    /**
+     * Records that an item has been successfully processed.
+     *
+     * @param aItemARK The ARK of the item
+     * @param aFingerprint The fingerprint of the item's media file, taken after it was processed
+     * @param aWaveformURL The item's audiowaveform URL, or an empty string if it doesn't have one
+     * @param aOutputFiles The paths of the media files that the item's processing put into the Pairtree
+     * @return A future that completes once the item has been recorded
+     */
+    public Future<Void> put(final String aItemARK, final String aFingerprint, final String aWaveformURL,
+            final List<Path> aOutputFiles) {
+        final JsonArray outputs = new JsonArray();
+        final JsonObject entry = new JsonObject().put(ARK, aItemARK).put(FINGERPRINT, aFingerprint).put(WAVEFORM,
+                aWaveformURL).put(OUTPUT, outputs);
+
+        aOutputFiles.forEach(outputFile -> outputs.add(outputFile.toAbsolutePath().toString()));
+        myEntries.put(aItemARK, entry);
+
+        // The index is shared, so a line mustn't be started before the last one has been queued up in full
+        synchronized (myFile) {
+            return myFile.write(Buffer.buffer(entry.encode()).appendString("\n"));
+        }
+    }
+
+    /**
+     * Closes the index, once everything that opened it has closed it.
+     *
+     * @return A future that completes once the index has been closed (or, if it's still open elsewhere, let go of)
+     */
+    public Future<Void> close() {
+        final LocalMap<String, OpenIndex> openIndexes = myVertx.sharedData().getLocalMap(OPEN_INDEXES);
+
+        if (openIndexes.computeIfPresent(myPath, (key, openIndex) -> openIndex.release() ? null : openIndex) == null) {
+            return myFile.close();
+        }
+
+        return Future.succeededFuture();
+    }
+
+    /**
+     * An index that's open, along with how many times it has been opened and not yet closed.
+     */
+    private static final class OpenIndex implements Shareable {
+
+        /**
+         * The opened index.
+         */
+        private final Future<FingerprintIndex> myIndex;
+
+        /**
+         * The number of times the index has been opened and not yet closed.
+         */
+        private int myUsers = 1;
+
+        /**
+         * Creates a new open index.
+         *
+         * @param aIndex The opened index
+         */
+        private OpenIndex(final Future<FingerprintIndex> aIndex) {
+            myIndex = aIndex;
+        }
+
+        /**
+         * Counts another opening of the index.
+         *
+         * @return This open index
+         */
+        private OpenIndex share() {
+            myUsers += 1;
+            return this;
+        }
+
+        /**
+         * Counts a closing of the index.
+         *
+         * @return True if that was the last user of the index; else, false
+         */
+        private boolean release() {
+            myUsers -= 1;
+            return myUsers == 0;
+        }
+    }
+}
@@ -0,0 +1,299 @@
+package edu.ucla.library.avpairtree;
+
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import info.freelibrary.util.Logger;
+import info.freelibrary.util.LoggerFactory;
+
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.file.AsyncFile;
+import io.vertx.core.file.OpenOptions;
+import io.vertx.core.parsetools.RecordParser;
+
+/**
+ * The items of a CSV file on their way to being processed. Items are handed straight to the processor while the request
+ * queues have room for them; once the queues are full, the rest of the CSV file's items are spilled to a backlog file
+ * and read back lazily, as the queues drain, after the whole CSV file has been read. This means that only as many items
+ * as the queues have room for are held in memory, no matter how large the CSV file is. Whoever is adding items should
+ * also wait for the backlog file to be {@link #drained() drained} whenever its writes fall behind.
+ */
+public final class ItemBacklog {
+
+    /**
+     * The logger for item backlogs.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(ItemBacklog.class, MessageCodes.BUNDLE);
+
+    /**
+     * The prefix of the temporary file that items are spilled into.
+     */
+    private static final String BACKLOG_FILE_PREFIX = "av-pairtree-backlog-";
+
+    /**
+     * The delimiter between the items in the backlog file.
+     */
+    private static final String LINE_DELIMITER = "\n";
+
+    /**
+     * The Vert.x instance used to write and read the backlog file.
+     */
+    private final Vertx myVertx;
+
+    /**
+     * The directory that the backlog file is created in.
+     */
+    private final String myBacklogDir;
+
+    /**
+     * A supplier of a future that completes when the request queues have room for more items.
+     */
+    private final Supplier<Future<Void>> myCapacity;
+
+    /**
+     * The processor that items are handed to.
+     */
+    private final Function<CsvItem, Future<?>> myProcessor;
+
+    /**
+     * The promise that all the items have been processed.
+     */
+    private final Promise<Void> myPromise = Promise.promise();
+
+    /**
+     * The promise that the items that were handed to the processor have finished, once the backlog has been stopped.
+     */
+    private final Promise<Void> myStopPromise = Promise.promise();
+
+    /**
+     * The path of the backlog file, if there is one.
+     */
+    private String myBacklogPath;
+
+    /**
+     * The backlog file, once it's been opened.
+     */
+    private Future<AsyncFile> myBacklogFile;
+
+    /**
+     * The first error that occurred while writing to the backlog file, if there was one.
+     */
+    private Throwable myBacklogError;
+
+    /**
+     * The number of items that have been added.
+     */
+    private int mySize;
+
+    /**
+     * The number of items that have been handed to the processor but haven't finished processing yet.
+     */
+    private int myOutstandingCount;
+
+    /**
+     * Whether all the items have been handed to the processor.
+     */
+    private boolean isDispatched;
+
+    /**
+     * Whether the backlog has been stopped, so no more items are handed to the processor.
+     */
+    private boolean isStopped;
+
+    /**
+     * Creates a new backlog of items.
+     *
+     * @param aVertx A Vert.x instance
+     * @param aBacklogDir The directory that a backlog file is created in, if one is needed
+     * @param aCapacity A supplier of a future that completes when the request queues have room for more items, which
+     *        is already complete if they have room now
+     * @param aProcessor A processor of items, which returns a future that completes once the item has been processed
+     */
+    public ItemBacklog(final Vertx aVertx, final String aBacklogDir, final Supplier<Future<Void>> aCapacity,
+            final Function<CsvItem, Future<?>> aProcessor) {
+        myVertx = aVertx;
+        myBacklogDir = aBacklogDir;
+        myCapacity = aCapacity;
+        myProcessor = aProcessor;
+    }
+
+    /**
+     * Adds an item, in the order it was read from the CSV file. It's handed to the processor right away if the request
+     * queues have room for it and no earlier items are waiting in the backlog file; otherwise, it's spilled to disk.
+     *
+     * @param aCsvItem An item from the CSV file
+     */
+    public void add(final CsvItem aCsvItem) {
+        if (isStopped) {
+            return;
+        }
+
+        mySize += 1;
+
+        if (myBacklogFile == null && myCapacity.get().succeeded()) {
+            dispatch(aCsvItem);
+            return;
+        }
+
+        if (myBacklogFile == null) {
+            final OpenOptions options = new OpenOptions().setWrite(true).setAppend(true);
+
+            final Future<String> tempFile =
+                    myVertx.fileSystem().createTempFile(myBacklogDir, BACKLOG_FILE_PREFIX, null, (String) null);
+
+            myBacklogFile = tempFile.compose(path -> {
+                LOGGER.debug(MessageCodes.AVPT_038, path);
+
+                myBacklogPath = path;
+                return myVertx.fileSystem().open(path, options);
+            });
+        }
+
+        // Writes are queued in the order items are added, even if the backlog file is still being opened
+        myBacklogFile.compose(file -> file.write(Buffer.buffer(aCsvItem.toJSON().encode() + LINE_DELIMITER)))
+                .onFailure(error -> {
+                    if (myBacklogError == null) {
+                        myBacklogError = error;
+                    }
+                });
+    }
+
+    /**
+     * Gets a future that completes once the backlog file's write queue has room for more items, so whoever is adding
+     * them can pause until the disk catches up rather than buffering them all in memory.
+     *
+     * @return A future that completes once more items can be added, which is already complete if they can be now
+     */
+    public Future<Void> drained() {
+        return AvPtUtils.drained(myBacklogFile);
+    }
+
+    /**
+     * Gets the number of items that have been added.
+     *
+     * @return The number of items
+     */
+    public int size() {
+        return mySize;
+    }
+
+    /**
+     * Finishes adding items, reading back any that were spilled to disk as the request queues have room for them.
+     *
+     * @return A future that completes once all the items have been processed
+     */
+    public Future<Void> close() {
+        if (myBacklogFile == null) {
+            finishDispatching();
+        } else {
+            myBacklogFile.compose(AsyncFile::close).compose(closed -> {
+                if (myBacklogError != null) {
+                    return Future.failedFuture(myBacklogError);
+                }
+
+                return myVertx.fileSystem().open(myBacklogPath, new OpenOptions().setRead(true).setWrite(false));
+            }).onSuccess(this::readBacklog).onFailure(myPromise::tryFail);
+        }
+
+        return myPromise.future();
+    }
+
+    /**
+     * Stops handing items to the processor (e.g. because the CSV file couldn't be read to the end), so that the items
+     * that are still in the backlog file are never processed.
+     *
+     * @return A future that completes once the items that were already handed to the processor have finished
+     */
+    public Future<Void> stop() {
+        isStopped = true;
+        checkProcessed();
+
+        return myStopPromise.future();
+    }
+
+    /**
+     * Discards the backlog, removing the backlog file if one was created.
+     *
+     * @return A future that completes when the backlog has been discarded
+     */
+    public Future<Void> delete() {
+        if (myBacklogFile == null) {
+            return Future.succeededFuture();
+        }
+
+        // The backlog file is still open for writing if the CSV file couldn't be read to the end
+        return myBacklogFile.compose(file -> file.close().recover(error -> Future.succeededFuture()))
+                .compose(closed -> myVertx.fileSystem().delete(myBacklogPath));
+    }
+
+    /**
+     * Reads the items in the backlog file, pausing whenever the request queues are full.
+     *
+     * @param aBacklogFile The backlog file
+     */
+    private void readBacklog(final AsyncFile aBacklogFile) {
+        final RecordParser lineParser = RecordParser.newDelimited(LINE_DELIMITER, aBacklogFile);
+
+        lineParser.exceptionHandler(error -> {
+            aBacklogFile.close();
+            myPromise.tryFail(error);
+        }).endHandler(end -> {
+            aBacklogFile.close();
+            finishDispatching();
+        }).handler(line -> {
+            if (isStopped) {
+                lineParser.pause();
+                aBacklogFile.close();
+                return;
+            }
+
+            dispatch(CsvItem.fromString(line.toString()));
+
+            final Future<Void> capacity = myCapacity.get();
+
+            if (!capacity.isComplete()) {
+                lineParser.pause();
+                capacity.onComplete(drained -> lineParser.resume());
+            }
+        });
+    }
+
+    /**
+     * Hands an item to the processor.
+     *
+     * @param aCsvItem An item from the CSV file
+     */
+    private void dispatch(final CsvItem aCsvItem) {
+        myOutstandingCount += 1;
+
+        myProcessor.apply(aCsvItem).onComplete(processing -> {
+            myOutstandingCount -= 1;
+            checkProcessed();
+        });
+    }
+
+    /**
+     * Notes that all the items have been handed to the processor.
+     */
+    private void finishDispatching() {
+        isDispatched = true;
+        checkProcessed();
+    }
+
+    /**
+     * Completes the backlog's promise if all of its items have been processed, or, if it's been stopped, the promise
+     * that the items that were handed to the processor have finished.
+     */
+    private void checkProcessed() {
+        if (myOutstandingCount == 0) {
+            if (isStopped) {
+                myStopPromise.tryComplete();
+            } else if (isDispatched) {
+                myPromise.tryComplete();
+            }
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package edu.ucla.library.avpairtree;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A reader of the top-level atoms (i.e. boxes) of an MP4 file. Only the atoms' headers are read, so checking even a
+ * very large MP4 file takes just a few small reads.
+ */
+public final class Mp4Atoms {
+
+    /**
+     * The size of an atom's header.
+     */
+    private static final int HEADER_SIZE = 8;
+
+    /**
+     * The size of an atom's header when it has a 64-bit size.
+     */
+    private static final int LARGE_HEADER_SIZE = 16;
+
+    /**
+     * The type of the atom with the movie's metadata.
+     */
+    private static final String MOOV = "moov";
+
+    /**
+     * The type of the atom with the movie's media data.
+     */
+    private static final String MDAT = "mdat";
+
+    /**
+     * Creates a new MP4 atom reader.
+     */
+    private Mp4Atoms() {
+        // This is intentionally left empty
+    }
+
+    /**
+     * Checks whether an MP4 file's <code>moov</code> atom comes after its <code>mdat</code> atom, in which case a
+     * player has to read the end of the file before it can start playing it.
+     *
+     * @param aMp4File An MP4 file
+     * @return True if the MP4 file's <code>moov</code> atom is after its media data; else, false (including when the
+     *         file isn't an MP4 file)
+     * @throws IOException If the file can't be read
+     */
+    public static boolean hasTrailingMoov(final Path aMp4File) throws IOException {
+        try (FileChannel channel = FileChannel.open(aMp4File, StandardOpenOption.READ)) {
+            final ByteBuffer header = ByteBuffer.allocate(LARGE_HEADER_SIZE);
+            final long fileSize = channel.size();
+            long position = 0;
+
+            while (position + HEADER_SIZE <= fileSize) {
+                header.clear();
+                channel.read(header, position);
+                header.flip();
+
+                if (header.remaining() < HEADER_SIZE) {
+                    return false;
+                }
+
+                final long size = getSize(header, fileSize - position);
+                final String type = new String(header.array(), 4, 4, StandardCharsets.ISO_8859_1);
+
+                if (MOOV.equals(type)) {
+                    return false;
+                } else if (MDAT.equals(type)) {
+                    return true;
+                } else if (size < HEADER_SIZE) {
+                    return false; // Not an MP4 file, or a damaged one
+                }
+
+                position += size;
+            }
+
+            return false;
+        }
+    }
+
+    /**
+     * Gets the size of an atom from its header.
+     *
+     * @param aHeader An atom's header
+     * @param aRemaining The number of bytes from the start of the atom to the end of the file
+     * @return The size of the atom, including its header, or zero if its header can't be read
+     */
+    private static long getSize(final ByteBuffer aHeader, final long aRemaining) {
+        final long size = Integer.toUnsignedLong(aHeader.getInt(0));
+
+        // A size of zero means that the atom goes to the end of the file, and a size of one means it has a 64-bit size
+        if (size == 0) {
+            return aRemaining;
+        } else if (size == 1) {
+            return aHeader.remaining() < LARGE_HEADER_SIZE ? 0 : aHeader.getLong(HEADER_SIZE);
+        } else {
+            return size;
+        }
+    }
+}
@@ -21,6 +21,11 @@ public final class Op {
      */
     public static final int ERROR_CODE = 500;
 
+    /**
+     * The error code of a message whose processing was stopped for taking too long, which is a sign of overload.
+     */
+    public static final int TIMEOUT_CODE = 504;
+
     /**
      * Constant class constructors should be private.
      */
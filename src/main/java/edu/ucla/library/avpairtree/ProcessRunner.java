@@ -0,0 +1,487 @@
+package edu.ucla.library.avpairtree;
+
+import static info.freelibrary.util.Constants.SPACE;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeoutException;
+
+import info.freelibrary.util.Logger;
+import info.freelibrary.util.LoggerFactory;
+
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.file.AsyncFile;
+import io.vertx.core.file.FileSystem;
+import io.vertx.core.file.OpenOptions;
+
+/**
+ * A handle on an external process that doesn't tie up a thread while the process runs. The process's error output is
+ * collected in a temporary file (and the end of it is included in the failure if the process doesn't exit cleanly),
+ * its exit is handled on the Vert.x context that started it, and a file that the process writes to (e.g. a progress
+ * file) can be followed as it grows. A running process can be cancelled.
+ * <p>
+ * The process can also be a pipeline of processes, each of which reads the output of the one before it, in which case
+ * everything said above about the process applies to all of them.
+ * </p>
+ * <p>
+ * A process can be given a timeout, after which it's cancelled, and messages for the exit codes that mean something
+ * in particular to the command (e.g. that a file wasn't found). The (small) output of the last process can be
+ * captured, for commands that are run for what they print rather than for what they write to files.
+ * </p>
+ */
+public final class ProcessRunner {
+
+    /**
+     * The logger for process runners.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(ProcessRunner.class, MessageCodes.BUNDLE);
+
+    /**
+     * The prefix of the temporary file that the process's error output is written to.
+     */
+    private static final String STDERR_FILE_PREFIX = "av-pairtree-stderr-";
+
+    /**
+     * The prefix of the temporary file that the process's captured output is written to.
+     */
+    private static final String STDOUT_FILE_PREFIX = "av-pairtree-stdout-";
+
+    /**
+     * How often, in milliseconds, a followed file is checked for new output.
+     */
+    private static final long FOLLOW_INTERVAL = 500;
+
+    /**
+     * How long, in milliseconds, a cancelled process has to exit before it's killed.
+     */
+    private static final long CANCEL_GRACE_PERIOD = 5000;
+
+    /**
+     * The most bytes that are read from a followed file at once.
+     */
+    private static final int READ_SIZE = 8192;
+
+    /**
+     * The most bytes of the end of the error output that are logged or included in a failure.
+     */
+    private static final int ERROR_TAIL_SIZE = 4096;
+
+    /**
+     * The marker that's put in front of error output that's been cut short.
+     */
+    private static final String ELLIPSIS = "...";
+
+    /**
+     * The separator between piped commands in a command line.
+     */
+    private static final String PIPE = " | ";
+
+    /**
+     * The Vert.x instance used to manage the process.
+     */
+    private final Vertx myVertx;
+
+    /**
+     * The commands that are run, each of which reads the output of the one before it.
+     */
+    private final List<List<String>> myCommands = new ArrayList<>();
+
+    /**
+     * The failure messages for particular non-zero exit codes.
+     */
+    private final Map<Integer, String> myExitMessages = new HashMap<>();
+
+    /**
+     * The command line that's run, for messages about it.
+     */
+    private String myCmdline;
+
+    /**
+     * The path of a file that the process writes to, which is followed as it grows.
+     */
+    private String myFollowedPath;
+
+    /**
+     * The handler that receives the output that's written to the followed file.
+     */
+    private Handler<Buffer> myFollowHandler;
+
+    /**
+     * The followed file, once it's been opened.
+     */
+    private AsyncFile myFollowedFile;
+
+    /**
+     * The position in the followed file up to which it's been read.
+     */
+    private long myFollowedPosition;
+
+    /**
+     * The latest read of the followed file; reads are chained, so they never overlap.
+     */
+    private Future<Void> myFollowedRead = Future.succeededFuture();
+
+    /**
+     * The path of the file that the process's error output is written to.
+     */
+    private String myStderrPath;
+
+    /**
+     * The path of the file that the output of the last process is written to, if it's captured.
+     */
+    private String myStdoutPath;
+
+    /**
+     * The captured output of the last process, once it's exited.
+     */
+    private Buffer myOutput = Buffer.buffer();
+
+    /**
+     * Whether the output of the last process is captured, rather than discarded.
+     */
+    private boolean isOutputCaptured;
+
+    /**
+     * How long, in milliseconds, the process can run before it's cancelled; zero if it can run for as long as it takes.
+     */
+    private long myTimeout;
+
+    /**
+     * Whether the process was cancelled because it ran for longer than its timeout.
+     */
+    private boolean isTimedOut;
+
+    /**
+     * The running processes, once they've been started.
+     */
+    private List<Process> myProcesses = List.of();
+
+    /**
+     * Whether the process has been cancelled.
+     */
+    private boolean isCancelled;
+
+    /**
+     * Creates a new runner for the supplied command.
+     *
+     * @param aVertx A Vert.x instance
+     * @param aCommand A command and its arguments
+     */
+    public ProcessRunner(final Vertx aVertx, final List<String> aCommand) {
+        myVertx = aVertx;
+        myCommands.add(List.copyOf(aCommand));
+        myCmdline = String.join(SPACE, aCommand);
+    }
+
+    /**
+     * Pipes the output of the process into another process, which is run along with it.
+     *
+     * @param aCommand A command and its arguments
+     * @return This process runner
+     */
+    public ProcessRunner pipeTo(final List<String> aCommand) {
+        myCommands.add(List.copyOf(aCommand));
+        myCmdline = myCmdline + PIPE + String.join(SPACE, aCommand);
+        return this;
+    }
+
+    /**
+     * Follows a file that the process writes to, passing the output that's written to it to the supplied handler. The
+     * file is created (or emptied) before the process is started.
+     *
+     * @param aFilePath The path of a file that the process writes to
+     * @param aHandler A handler for the output that's written to the file
+     * @return This process runner
+     */
+    public ProcessRunner follow(final String aFilePath, final Handler<Buffer> aHandler) {
+        myFollowedPath = aFilePath;
+        myFollowHandler = aHandler;
+        return this;
+    }
+
+    /**
+     * Sets how long the process can run before it's cancelled.
+     *
+     * @param aTimeout How long, in milliseconds, the process can run; zero (the default) if it can run for as long as
+     *        it takes
+     * @return This process runner
+     */
+    public ProcessRunner timeout(final long aTimeout) {
+        myTimeout = aTimeout;
+        return this;
+    }
+
+    /**
+     * Sets the message that the process fails with if it exits with the supplied exit code, instead of the message
+     * that has the command's exit code and error output in it.
+     *
+     * @param anExitCode A non-zero exit code
+     * @param aMessage The message to fail with when the process exits with that exit code
+     * @return This process runner
+     */
+    public ProcessRunner mapExitCode(final int anExitCode, final String aMessage) {
+        myExitMessages.put(anExitCode, aMessage);
+        return this;
+    }
+
+    /**
+     * Runs the process, capturing the output of the last process. The output is held in memory, so this is only for
+     * commands that don't print much.
+     *
+     * @return A future that completes with the output of the last process once the process has exited cleanly, or
+     *         fails if it couldn't be started, exited with a non-zero exit code, timed out, or was cancelled
+     */
+    public Future<Buffer> runForOutput() {
+        isOutputCaptured = true;
+        return run().map(run -> myOutput);
+    }
+
+    /**
+     * Runs the process.
+     *
+     * @return A future that completes once the process has exited cleanly, or fails if it couldn't be started, exited
+     *         with a non-zero exit code, timed out, or was cancelled
+     */
+    public Future<Void> run() {
+        final FileSystem fileSystem = myVertx.fileSystem();
+        final Future<Void> following;
+
+        if (myFollowedPath == null) {
+            following = Future.succeededFuture();
+        } else {
+            following = fileSystem.writeFile(myFollowedPath, Buffer.buffer()).compose(created -> {
+                return fileSystem.open(myFollowedPath, new OpenOptions().setRead(true).setWrite(false));
+            }).onSuccess(file -> myFollowedFile = file).mapEmpty();
+        }
+
+        return following.compose(followed -> createOutputFile()).compose(created -> {
+            return fileSystem.createTempFile(STDERR_FILE_PREFIX, null);
+        }).compose(path -> {
+            myStderrPath = path;
+
+            if (isCancelled) {
+                return Future.failedFuture(LOGGER.getMessage(MessageCodes.AVPT_039, myCmdline));
+            }
+
+            final ProcessBuilder.Redirect stderr = ProcessBuilder.Redirect.appendTo(new File(path));
+            final List<ProcessBuilder> builders = new ArrayList<>();
+
+            // Only the last process's output is discarded (or captured); the others' output is piped into the next
+            for (final List<String> command : myCommands) {
+                builders.add(new ProcessBuilder(command).redirectError(stderr));
+            }
+
+            // Output goes straight to a file, so a process never blocks on a full pipe that nobody's reading
+            builders.get(builders.size() - 1).redirectOutput(myStdoutPath == null ? ProcessBuilder.Redirect.DISCARD
+                    : ProcessBuilder.Redirect.to(new File(myStdoutPath)));
+
+            try {
+                myProcesses = builders.size() == 1 ? List.of(builders.get(0).start())
+                        : ProcessBuilder.startPipeline(builders);
+            } catch (final IOException details) {
+                return Future.failedFuture(LOGGER.getMessage(MessageCodes.AVPT_016, myCmdline, details));
+            }
+
+            return waitFor(myProcesses);
+        }).eventually(exit -> cleanUp());
+    }
+
+    /**
+     * Cancels the process, asking it to exit and then killing it if it hasn't done so after a grace period.
+     */
+    public void cancel() {
+        isCancelled = true;
+
+        for (final Process process : myProcesses) {
+            if (process.isAlive()) {
+                process.destroy();
+
+                myVertx.setTimer(CANCEL_GRACE_PERIOD, id -> {
+                    if (process.isAlive()) {
+                        process.destroyForcibly();
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * Waits for the processes to exit, following the followed file (if there is one) in the meantime.
+     *
+     * @param aProcesses Running processes
+     * @return A future that completes once the processes have all exited cleanly
+     */
+    private Future<Void> waitFor(final List<Process> aProcesses) {
+        final Context context = myVertx.getOrCreateContext();
+        final Promise<Void> promise = Promise.promise();
+        final long timerID = myFollowedFile == null ? -1 : myVertx.setPeriodic(FOLLOW_INTERVAL, id -> readFollowed());
+        final long timeoutID = myTimeout <= 0 ? -1 : myVertx.setTimer(myTimeout, id -> {
+            isTimedOut = true;
+            cancel();
+        });
+        final CompletableFuture<?>[] exits = aProcesses.stream().map(Process::onExit).toArray(CompletableFuture[]::new);
+
+        // The processes' exits are noticed on a JDK thread, so we hop back onto our own context to handle them
+        CompletableFuture.allOf(exits).thenRun(() -> context.runOnContext(exit -> {
+            // A pipeline fails if any of its processes do, so we report the first failure
+            final int exitValue = aProcesses.stream().mapToInt(Process::exitValue).filter(value -> value != 0)
+                    .findFirst().orElse(0);
+
+            myVertx.cancelTimer(timerID);
+            myVertx.cancelTimer(timeoutID);
+
+            // Catch whatever was written to the followed file since it was last checked
+            readFollowed().compose(read -> readOutput()).compose(read -> readErrorTail()).onComplete(stderr -> {
+                final String output = stderr.succeeded() ? stderr.result() : stderr.cause().getMessage();
+
+                if (isTimedOut) {
+                    promise.fail(new TimeoutException(LOGGER.getMessage(MessageCodes.AVPT_051, myCmdline, myTimeout)));
+                } else if (isCancelled) {
+                    promise.fail(LOGGER.getMessage(MessageCodes.AVPT_039, myCmdline));
+                } else if (exitValue == 0) {
+                    LOGGER.debug(MessageCodes.AVPT_015, myCmdline, exitValue, output);
+                    promise.complete();
+                } else if (myExitMessages.containsKey(exitValue)) {
+                    LOGGER.debug(MessageCodes.AVPT_015, myCmdline, exitValue, output);
+                    promise.fail(myExitMessages.get(exitValue));
+                } else {
+                    promise.fail(LOGGER.getMessage(MessageCodes.AVPT_015, myCmdline, exitValue, output));
+                }
+            });
+        }));
+
+        return promise.future();
+    }
+
+    /**
+     * Creates the file that the output of the last process is written to, if its output is captured.
+     *
+     * @return A future that completes once the output file has been created
+     */
+    private Future<Void> createOutputFile() {
+        if (!isOutputCaptured) {
+            return Future.succeededFuture();
+        }
+
+        return myVertx.fileSystem().createTempFile(STDOUT_FILE_PREFIX, null).onSuccess(path -> myStdoutPath = path)
+                .mapEmpty();
+    }
+
+    /**
+     * Reads the captured output of the last process, if its output is captured.
+     *
+     * @return A future that completes once the captured output has been read
+     */
+    private Future<Void> readOutput() {
+        if (myStdoutPath == null) {
+            return Future.succeededFuture();
+        }
+
+        return myVertx.fileSystem().readFile(myStdoutPath).onSuccess(output -> myOutput = output).mapEmpty();
+    }
+
+    /**
+     * Reads the end of the error output, since a program that's been running for a long time can write a lot of it and
+     * its last lines are the ones that say what went wrong.
+     *
+     * @return A future with up to the last few kilobytes of the error output, starting at a whole line
+     */
+    private Future<String> readErrorTail() {
+        final FileSystem fileSystem = myVertx.fileSystem();
+        final OpenOptions options = new OpenOptions().setRead(true).setWrite(false).setCreate(false);
+
+        return fileSystem.props(myStderrPath).compose(props -> {
+            final long start = Math.max(0, props.size() - ERROR_TAIL_SIZE);
+
+            return fileSystem.open(myStderrPath, options).compose(file -> {
+                return file.read(Buffer.buffer(ERROR_TAIL_SIZE), 0, start, ERROR_TAIL_SIZE)
+                        .eventually(read -> file.close());
+            }).map(tail -> {
+                final String output = tail.toString();
+                final int lineEnd = output.indexOf('\n');
+
+                if (start == 0) {
+                    return output;
+                }
+
+                // Output that's been cut short starts at its first whole line, if it has one
+                return ELLIPSIS + (lineEnd == -1 ? output : output.substring(lineEnd + 1));
+            });
+        });
+    }
+
+    /**
+     * Reads whatever has been written to the followed file since it was last read, passing it to the follow handler.
+     *
+     * @return A future that completes once the new output has been read
+     */
+    private Future<Void> readFollowed() {
+        if (myFollowedFile != null) {
+            myFollowedRead = myFollowedRead.compose(read -> readFollowed(myFollowedFile));
+        }
+
+        return myFollowedRead;
+    }
+
+    /**
+     * Reads the followed file from where it was last read up to its end.
+     *
+     * @param aFile The followed file
+     * @return A future that completes once the file has been read to its end
+     */
+    private Future<Void> readFollowed(final AsyncFile aFile) {
+        return aFile.read(Buffer.buffer(READ_SIZE), 0, myFollowedPosition, READ_SIZE).compose(buffer -> {
+            if (buffer.length() == 0) {
+                return Future.succeededFuture();
+            }
+
+            myFollowedPosition += buffer.length();
+            myFollowHandler.handle(buffer);
+
+            return readFollowed(aFile);
+        });
+    }
+
+    /**
+     * Closes the followed file, if there is one, and deletes the error and captured output files, if they were
+     * created.
+     *
+     * @return A future that completes once the files have been cleaned up; it always succeeds, since a file that
+     *         can't be cleaned up shouldn't change the outcome of the run
+     */
+    private Future<Void> cleanUp() {
+        final Future<Void> closing = myFollowedFile == null ? Future.succeededFuture() : myFollowedFile.close();
+
+        return closing.otherwise(error -> {
+            LOGGER.warn(MessageCodes.AVPT_058, myFollowedPath, error.getMessage());
+            return null;
+        }).compose(closed -> delete(myStdoutPath)).compose(deleted -> delete(myStderrPath));
+    }
+
+    /**
+     * Deletes a temporary file, if it was created, logging rather than failing if it can't be deleted.
+     *
+     * @param aFilePath The path of a temporary file, or null if it wasn't created
+     * @return A future that completes once the file has been deleted, or couldn't be
+     */
+    private Future<Void> delete(final String aFilePath) {
+        if (aFilePath == null) {
+            return Future.succeededFuture();
+        }
+
+        return myVertx.fileSystem().delete(aFilePath).otherwise(error -> {
+            LOGGER.warn(MessageCodes.AVPT_058, aFilePath, error.getMessage());
+            return null;
+        });
+    }
+}
@@ -1,41 +1,126 @@
 
 package edu.ucla.library.avpairtree;
 
+import java.lang.management.ManagementFactory;
 import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.DoubleSupplier;
 import java.util.function.Supplier;
 
 import io.vertx.core.Future;
 import io.vertx.core.Promise;
 
 /**
- * A request queue for event bus requests.
+ * A request queue for event bus requests. The number of requests that it allows in flight is either fixed or, for an
+ * adaptive queue, adjusted as requests complete: it's raised by one after each round of requests that complete without
+ * any sign of the system being overloaded and cut by a quarter when requests time out or the system's load average
+ * rises above its number of processors. How long requests take isn't a sign of overload, since it mostly depends on how
+ * much work each one is (e.g. the length of the audio file that's being converted), and nor are other failures, which
+ * are mostly down to the items themselves (e.g. a missing source file).
+ * <p>
+ * Requests are queued in groups (e.g. one for each CSV file) that take turns starting their requests, so a small group
+ * that's queued behind a large one doesn't have to wait for all of the large group's requests to start. On each turn,
+ * a group can start as many requests as its weight.
+ * </p>
+ * <p>
+ * A queue can also be given a capacity, the number of waiting requests at which it's considered full. A full queue
+ * still accepts requests; it's up to whoever is enqueuing them to stop when it's full and wait for it to drain (i.e.
+ * for its waiting requests to fall to half of its capacity) before enqueuing any more.
+ * </p>
  */
 public final class RequestQueue {
 
     /** A constant for a single instance of request in flight. */
     private static final int SINGLE_INSTANCE = 1;
 
-    /** The internal queue. */
-    private final Deque<QueuedJob<?>> myQueue = new ArrayDeque<>();
+    /** The factor that the in-flight limit is multiplied by when it's cut. */
+    private static final double DECREASE_FACTOR = 0.75;
+
+    /** The name of the group that requests are queued in when a group isn't specified. */
+    private static final String DEFAULT_GROUP = "";
+
+    /** The groups that have queued requests, keyed by name. */
+    private final Map<String, Group> myGroups = new HashMap<>();
+
+    /** The groups that have queued requests, in the order they take their turns. */
+    private final Deque<Group> myRotation = new ArrayDeque<>();
+
+    /** The promises that are completed when the queue drains after it's been full. */
+    private final List<Promise<Void>> myDrainPromises = new ArrayList<>();
+
+    /** The number of requests that are waiting for the queue to have capacity. */
+    private int myQueuedCount;
+
+    /** The number of waiting requests at which the queue is full, or zero if it's never full. */
+    private int myCapacity;
+
+    /** The smallest number of requests an adaptive queue will allow in flight. */
+    private final int myMinInFlight;
+
+    /** The largest number of requests an adaptive queue will allow in flight. */
+    private final int myCeiling;
+
+    /** A supplier of the system's load average per processor, or null if the queue isn't adaptive. */
+    private final DoubleSupplier myLoadSupplier;
 
     /** The number of requests allowed in-flight for a single queue. */
-    private final int myMaxInFlight;
+    private int myMaxInFlight;
 
     /** The number of requests that are currently in-flight. */
     private int myInFlightCount;
 
+    /** The number of requests that have completed without a sign of overload since the limit last changed. */
+    private int myGoodCompletions;
+
+    /** The number of requests that have been started since the limit was last cut. */
+    private int myStartsSinceCut;
+
     /**
      * Creates a new request queue.
      *
      * @param aMaxInFlight The maximum of in-flight requests that the queue should allow
      */
     public RequestQueue(final int aMaxInFlight) {
-        if (aMaxInFlight < SINGLE_INSTANCE) {
-            throw new IllegalArgumentException("Maximum in-flight count must be at least one");
+        this(aMaxInFlight, aMaxInFlight, aMaxInFlight, null);
+    }
+
+    /**
+     * Creates a new adaptive request queue, which adjusts the number of requests it allows in flight between the
+     * supplied bounds.
+     *
+     * @param aMinInFlight The smallest number of in-flight requests that the queue should allow
+     * @param aInitialInFlight The number of in-flight requests that the queue should start out allowing
+     * @param aMaxInFlight The largest number of in-flight requests that the queue should allow
+     * @param aLoadSupplier A supplier of the system's load average per processor, which is negative if it's unknown
+     */
+    public RequestQueue(final int aMinInFlight, final int aInitialInFlight, final int aMaxInFlight,
+            final DoubleSupplier aLoadSupplier) {
+        if (aMinInFlight < SINGLE_INSTANCE) {
+            throw new IllegalArgumentException("Minimum in-flight count must be at least one");
+        }
+
+        if (aInitialInFlight < aMinInFlight || aMaxInFlight < aInitialInFlight) {
+            throw new IllegalArgumentException("Initial in-flight count must be between the minimum and the maximum");
         }
 
-        myMaxInFlight = aMaxInFlight;
+        myMinInFlight = aMinInFlight;
+        myMaxInFlight = aInitialInFlight;
+        myCeiling = aMaxInFlight;
+        myLoadSupplier = aLoadSupplier;
+    }
+
+    /**
+     * Gets a supplier of the system's load average, over the last minute, per available processor.
+     *
+     * @return A supplier of the system's load average per processor, which supplies a negative number if it's unknown
+     */
+    public static DoubleSupplier systemLoad() {
+        final int processors = Runtime.getRuntime().availableProcessors();
+        return () -> ManagementFactory.getOperatingSystemMXBean().getSystemLoadAverage() / processors;
     }
 
     /**
@@ -47,21 +132,207 @@ public final class RequestQueue {
      * @return A future that represents the work to be done
      */
     public <T> Future<T> enqueue(final Supplier<Future<T>> aJob) {
+        return enqueue(DEFAULT_GROUP, 1, aJob);
+    }
+
+    /**
+     * Enqueue an operation in a group of operations. The supplier is not invoked until the queue has capacity and it's
+     * the group's turn, so the asynchronous operation has not started yet.
+     *
+     * @param <T> The type of job to be performed
+     * @param aGroup The name of the group the request belongs to
+     * @param aWeight The number of the group's requests that can be started on each of its turns
+     * @param aJob A queued request
+     * @return A future that represents the work to be done
+     * @throws IllegalArgumentException If the weight is less than one
+     */
+    public <T> Future<T> enqueue(final String aGroup, final int aWeight, final Supplier<Future<T>> aJob) {
         final Promise<T> promise = Promise.promise();
 
-        myQueue.addLast(new QueuedJob<>(aJob, promise));
+        if (aWeight < 1) {
+            throw new IllegalArgumentException("Weight must be at least one");
+        }
+
+        myGroups.computeIfAbsent(aGroup, name -> {
+            final Group group = new Group(name);
+
+            myRotation.addLast(group);
+            return group;
+        }).add(new QueuedJob<>(aJob, promise), aWeight);
+
+        myQueuedCount += 1;
         pumpQueue();
 
         return promise.future();
     }
 
+    /**
+     * Sets the number of waiting requests at which the queue is full.
+     *
+     * @param aCapacity The queue's capacity, or zero if the queue is never full
+     * @return This request queue
+     * @throws IllegalArgumentException If the capacity is negative
+     */
+    public RequestQueue setCapacity(final int aCapacity) {
+        if (aCapacity < 0) {
+            throw new IllegalArgumentException("Capacity must not be negative");
+        }
+
+        myCapacity = aCapacity;
+        return this;
+    }
+
+    /**
+     * Gets whether the queue has reached its capacity.
+     *
+     * @return True if the queue is full; else, false
+     */
+    public boolean isFull() {
+        return myCapacity > 0 && myQueuedCount >= myCapacity;
+    }
+
+    /**
+     * Gets a future that completes once the queue has drained, if it's full.
+     *
+     * @return A future that completes once the queue has room for more requests, which is already complete if it isn't
+     *         full
+     */
+    public Future<Void> drained() {
+        if (!isFull()) {
+            return Future.succeededFuture();
+        }
+
+        final Promise<Void> promise = Promise.promise();
+
+        myDrainPromises.add(promise);
+
+        return promise.future();
+    }
+
+    /**
+     * Gets the number of requests the queue currently allows in flight.
+     *
+     * @return The in-flight limit
+     */
+    public int getMaxInFlight() {
+        return myMaxInFlight;
+    }
+
+    /**
+     * Gets the number of requests that are currently in flight.
+     *
+     * @return The in-flight count
+     */
+    public int getInFlightCount() {
+        return myInFlightCount;
+    }
+
+    /**
+     * Gets the number of requests that are waiting for the queue to have capacity.
+     *
+     * @return The number of waiting requests
+     */
+    public int size() {
+        return myQueuedCount;
+    }
+
     /**
      * Pump the queue to start the next job.
      */
     private void pumpQueue() {
-        while (myInFlightCount < myMaxInFlight && !myQueue.isEmpty()) {
+        while (myInFlightCount < myMaxInFlight && !myRotation.isEmpty()) {
+            final Group group = myRotation.peekFirst();
+            final QueuedJob<?> job = group.myJobs.removeFirst();
+
+            // Move on to the next group once this one has used up its turn or run out of requests
+            if (group.myJobs.isEmpty()) {
+                myRotation.removeFirst();
+                myGroups.remove(group.myName);
+            } else if (--group.myCredits == 0) {
+                group.myCredits = group.myWeight;
+                myRotation.addLast(myRotation.removeFirst());
+            }
+
+            myQueuedCount -= 1;
             myInFlightCount++;
-            myQueue.removeFirst().start();
+            myStartsSinceCut++;
+            job.start();
+        }
+
+        // Let whoever is waiting on a full queue know that it's drained, once it's down to half of its capacity
+        if (!myDrainPromises.isEmpty() && myQueuedCount <= myCapacity / 2) {
+            final List<Promise<Void>> promises = new ArrayList<>(myDrainPromises);
+
+            myDrainPromises.clear();
+            promises.forEach(Promise::tryComplete);
+        }
+    }
+
+    /**
+     * Adjusts an adaptive queue's in-flight limit after a request has completed.
+     *
+     * @param aFailure Why the request failed, or null if it succeeded
+     */
+    private void adapt(final Throwable aFailure) {
+        if (myLoadSupplier == null) {
+            return;
+        }
+
+        // A request that timed out may have been starved of resources, but other failures are the item's own doing
+        if ((aFailure != null && AvPtUtils.getErrorCode(aFailure) == Op.TIMEOUT_CODE) ||
+                myLoadSupplier.getAsDouble() > 1) {
+            // Only cut the limit once per round, since the requests already in flight were started under the old one
+            if (myStartsSinceCut >= myMaxInFlight) {
+                myMaxInFlight = Math.max(myMinInFlight, (int) (myMaxInFlight * DECREASE_FACTOR));
+                myStartsSinceCut = 0;
+            }
+
+            myGoodCompletions = 0;
+        } else if (++myGoodCompletions >= myMaxInFlight && myMaxInFlight < myCeiling) {
+            myMaxInFlight += 1;
+            myGoodCompletions = 0;
+        }
+    }
+
+    /**
+     * A group of queued jobs.
+     */
+    private static final class Group {
+
+        /** The group's name. */
+        private final String myName;
+
+        /** The group's queued jobs. */
+        private final Deque<QueuedJob<?>> myJobs = new ArrayDeque<>();
+
+        /** The number of the group's jobs that can be started on each of its turns. */
+        private int myWeight;
+
+        /** The number of the group's jobs that can still be started on its current turn. */
+        private int myCredits;
+
+        /**
+         * Creates a group of queued jobs.
+         *
+         * @param aName The group's name
+         */
+        private Group(final String aName) {
+            myName = aName;
+        }
+
+        /**
+         * Adds a job to the group.
+         *
+         * @param aJob A queued job
+         * @param aWeight The group's current weight
+         */
+        private void add(final QueuedJob<?> aJob, final int aWeight) {
+            if (myWeight != aWeight) {
+                myWeight = aWeight;
+                myCredits = aWeight;
+            }
+
+            myJobs.addLast(aJob);
         }
     }
 
@@ -97,6 +368,7 @@ public final class RequestQueue {
             try {
                 myJob.get().onComplete(result -> {
                     myInFlightCount--;
+                    adapt(result.cause());
 
                     if (result.succeeded()) {
                         myPromise.complete(result.result());
@@ -108,6 +380,7 @@ public final class RequestQueue {
                 });
             } catch (final Exception details) {
                 myInFlightCount--;
+                adapt(details);
                 myPromise.fail(details);
                 pumpQueue();
             }
@@ -0,0 +1,311 @@
+package edu.ucla.library.avpairtree;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import info.freelibrary.util.FileUtils;
+
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.file.AsyncFile;
+import io.vertx.core.file.OpenOptions;
+
+/**
+ * A journal of the results of processing a CSV file's items. A line is appended to the journal as each item finishes,
+ * whether it succeeded or failed, so results are visible (and can be picked up by downstream tools) long before the
+ * whole CSV file has been processed; when it has, the CSV file's output is built from the journal. When audio
+ * renditions are configured, each rendition's access URL is journaled in its own column, after the standard ones.
+ * <p>
+ * Reading a journal's results back in holds them all in memory, so a journal that has more results than can be held
+ * at once is read back a part at a time, picking out just the results of the items that are needed next.
+ * </p>
+ */
+public final class ResultsJournal {
+
+    /**
+     * The file extension of a results journal.
+     */
+    public static final String EXTENSION = ".journal";
+
+    /**
+     * The status of an item that was successfully processed.
+     */
+    public static final String SUCCEEDED = "succeeded";
+
+    /**
+     * The status of an item that couldn't be processed.
+     */
+    public static final String FAILED = "failed";
+
+    /**
+     * The journal's header row.
+     */
+    private static final String[] HEADER = { CsvItem.ITEM_ARK_HEADER, CsvItem.IIIF_ACCESS_URL_HEADER,
+        CsvItem.WAVEFORM_HEADER, CsvItem.PROCESSING_STATUS_HEADER, CsvItem.PROCESSING_ERROR_HEADER };
+
+    /**
+     * The size of the buffer used to read the journal.
+     */
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * The Vert.x instance used to write the journal.
+     */
+    private final Vertx myVertx;
+
+    /**
+     * The path of the journal file.
+     */
+    private final String myPath;
+
+    /**
+     * The journal file.
+     */
+    private final AsyncFile myFile;
+
+    /**
+     * The number of columns in the journal.
+     */
+    private final int myColumnCount;
+
+    /**
+     * The number of items that couldn't be processed.
+     */
+    private int myFailureCount;
+
+    /**
+     * The number of items whose results have been journaled.
+     */
+    private int mySize;
+
+    /**
+     * Creates a new results journal.
+     *
+     * @param aVertx A Vert.x instance
+     * @param aPath The path of the journal file
+     * @param aFile The opened journal file
+     * @param aColumnCount The number of columns in the journal
+     */
+    private ResultsJournal(final Vertx aVertx, final String aPath, final AsyncFile aFile, final int aColumnCount) {
+        myVertx = aVertx;
+        myPath = aPath;
+        myFile = aFile;
+        myColumnCount = aColumnCount;
+    }
+
+    /**
+     * Opens a new results journal for the supplied CSV file, replacing any journal that was left by an earlier run.
+     *
+     * @param aVertx A Vert.x instance
+     * @param aCsvFilePath The path of the CSV file whose results are being journaled
+     * @return A future with the opened journal
+     */
+    public static Future<ResultsJournal> open(final Vertx aVertx, final String aCsvFilePath) {
+        return open(aVertx, aCsvFilePath, List.of());
+    }
+
+    /**
+     * Opens a new results journal for the supplied CSV file, with a column for each of the supplied audio renditions'
+     * access URLs, replacing any journal that was left by an earlier run.
+     *
+     * @param aVertx A Vert.x instance
+     * @param aCsvFilePath The path of the CSV file whose results are being journaled
+     * @param aRenditionHeaders The names of the audio renditions' access URL columns
+     * @return A future with the opened journal
+     */
+    public static Future<ResultsJournal> open(final Vertx aVertx, final String aCsvFilePath,
+            final List<String> aRenditionHeaders) {
+        final String path = FileUtils.stripExt(aCsvFilePath) + EXTENSION; // Would be re-watched if ext was .csv
+        final OpenOptions options = new OpenOptions().setWrite(true).setCreate(true).setTruncateExisting(true);
+        final List<String> header = new ArrayList<>(Arrays.asList(HEADER));
+
+        header.addAll(aRenditionHeaders);
+
+        return aVertx.fileSystem().open(path, options).compose(file -> {
+            return file.write(Buffer.buffer(AvPtUtils.toCsvLine(header.toArray(new String[0]))))
+                    .map(written -> new ResultsJournal(aVertx, path, file, header.size()));
+        });
+    }
+
+    /**
+     * Appends the results for a successfully processed item.
+     *
+     * @param aItemARK The ARK of the processed item
+     * @param aAccessURL The item's IIIF access URL
+     * @param aWaveformURL The item's audiowaveform URL, or an empty string if it doesn't have one
+     * @return A future that completes once the results have been written
+     */
+    public Future<Void> append(final String aItemARK, final String aAccessURL, final String aWaveformURL) {
+        return append(aItemARK, aAccessURL, aWaveformURL, List.of());
+    }
+
+    /**
+     * Appends the results for a successfully processed item that has audio renditions.
+     *
+     * @param aItemARK The ARK of the processed item
+     * @param aAccessURL The item's IIIF access URL
+     * @param aWaveformURL The item's audiowaveform URL, or an empty string if it doesn't have one
+     * @param aRenditionURLs The access URLs of the item's audio renditions, in the order of the journal's columns
+     * @return A future that completes once the results have been written
+     */
+    public Future<Void> append(final String aItemARK, final String aAccessURL, final String aWaveformURL,
+            final List<String> aRenditionURLs) {
+        return write(aItemARK, aAccessURL, aWaveformURL, SUCCEEDED, "", aRenditionURLs);
+    }
+
+    /**
+     * Appends the results for an item that couldn't be processed.
+     *
+     * @param aItemARK The ARK of the item
+     * @param aError The reason the item couldn't be processed
+     * @return A future that completes once the results have been written
+     */
+    public Future<Void> appendFailure(final String aItemARK, final Throwable aError) {
+        final String message = aError.getMessage() == null ? aError.getClass().getName() : aError.getMessage();
+
+        myFailureCount += 1;
+        return write(aItemARK, "", "", FAILED, message, List.of());
+    }
+
+    /**
+     * Gets the number of items that have been journaled as failed.
+     *
+     * @return The number of items that couldn't be processed
+     */
+    public int getFailureCount() {
+        return myFailureCount;
+    }
+
+    /**
+     * Gets the number of items whose results have been journaled.
+     *
+     * @return The number of journaled results
+     */
+    public int size() {
+        return mySize;
+    }
+
+    /**
+     * Gets the path of the journal file.
+     *
+     * @return The path of the journal file
+     */
+    public String getPath() {
+        return myPath;
+    }
+
+    /**
+     * Closes the journal, once all its results have been written.
+     *
+     * @return A future that completes once the journal has been closed
+     */
+    public Future<Void> close() {
+        return myFile.close();
+    }
+
+    /**
+     * Closes and then removes the journal.
+     *
+     * @return A future that completes once the journal has been removed
+     */
+    public Future<Void> delete() {
+        return myFile.close().otherwiseEmpty().compose(closed -> myVertx.fileSystem().delete(myPath));
+    }
+
+    /**
+     * Reads a closed journal's results back in. This blocks, so it shouldn't be called from an event loop thread.
+     *
+     * @return A map of item ARKs to their IIIF access URL, audiowaveform URL, processing status, processing error, and
+     *         audio renditions' access URLs, in that order
+     * @throws IOException If the journal can't be read
+     */
+    public Map<String, String[]> read() throws IOException {
+        return read(null);
+    }
+
+    /**
+     * Reads the results of the supplied items back in from a closed journal, so that no more results are held in
+     * memory than there are items. This blocks, so it shouldn't be called from an event loop thread.
+     *
+     * @param aItemARKs The ARKs of the items whose results are read, or null if all the results are
+     * @return A map of item ARKs to their IIIF access URL, audiowaveform URL, processing status, processing error, and
+     *         audio renditions' access URLs, in that order
+     * @throws IOException If the journal can't be read
+     */
+    public Map<String, String[]> read(final Set<String> aItemARKs) throws IOException {
+        final Map<String, String[]> results = new HashMap<>();
+        final CsvRowParser parser = new CsvRowParser(row -> {
+            if (row.length == myColumnCount && !HEADER[0].equals(row[0]) &&
+                    (aItemARKs == null || aItemARKs.contains(row[0]))) {
+                results.put(row[0], Arrays.copyOfRange(row, 1, row.length));
+            }
+        });
+
+        try (BufferedReader reader = Files.newBufferedReader(Paths.get(myPath), StandardCharsets.UTF_8)) {
+            final StringBuilder line = new StringBuilder();
+            final char[] chars = new char[BUFFER_SIZE];
+            int count;
+
+            // Only split on line feeds, since carriage returns in quoted values need to be kept as they are
+            while ((count = reader.read(chars)) != -1) { // NOPMD - assignment in operand
+                for (int index = 0; index < count; index++) {
+                    if (chars[index] == '\n') {
+                        parser.parse(line.toString());
+                        line.setLength(0);
+                    } else {
+                        line.append(chars[index]);
+                    }
+                }
+            }
+
+            // A line that was only partly written is passed on too, so the parser can decide what to make of it
+            if (line.length() > 0) {
+                parser.parse(line.toString());
+            }
+        }
+
+        parser.end();
+        return results;
+    }
+
+    /**
+     * Writes a line to the journal, filling in any audio rendition columns that aren't supplied with empty strings.
+     *
+     * @param aItemARK The ARK of the item
+     * @param aAccessURL The item's IIIF access URL
+     * @param aWaveformURL The item's audiowaveform URL
+     * @param aStatus The item's processing status
+     * @param aError The item's processing error
+     * @param aRenditionURLs The access URLs of the item's audio renditions
+     * @return A future that completes once the line has been written
+     */
+    private Future<Void> write(final String aItemARK, final String aAccessURL, final String aWaveformURL,
+            final String aStatus, final String aError, final List<String> aRenditionURLs) {
+        final String[] line = new String[myColumnCount];
+
+        Arrays.fill(line, "");
+        line[0] = aItemARK;
+        line[1] = aAccessURL;
+        line[2] = aWaveformURL;
+        line[3] = aStatus;
+        line[4] = aError;
+
+        for (int index = 0; index < aRenditionURLs.size() && HEADER.length + index < myColumnCount; index++) {
+            line[HEADER.length + index] = aRenditionURLs.get(index);
+        }
+
+        mySize += 1;
+
+        return myFile.write(Buffer.buffer(AvPtUtils.toCsvLine(line)));
+    }
+}
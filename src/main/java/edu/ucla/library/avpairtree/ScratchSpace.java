@@ -0,0 +1,488 @@
+package edu.ucla.library.avpairtree;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.Optional;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import info.freelibrary.util.Logger;
+import info.freelibrary.util.LoggerFactory;
+
+import io.vertx.core.CompositeFuture;
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.shareddata.LocalMap;
+import io.vertx.core.shareddata.Shareable;
+
+/**
+ * The scratch space that converted media files are written to before they're put into the Pairtree. Each user of the
+ * scratch space gets its own directory, named after the process it belongs to, so that the directories left behind by
+ * processes that have gone away (e.g. ones that crashed) can be swept up when the next process starts.
+ * <p>
+ * Scratch space can also be given a RAM-backed directory (e.g. a <code>tmpfs</code> mount), which is used for
+ * conversions that reserve no more than the configured threshold, as long as the RAM-backed directory has room for
+ * them; everything else uses the disk-backed directory.
+ * </p>
+ * <p>
+ * Space is reserved before each conversion starts. When a byte quota is configured, a conversion whose reservation
+ * would take the scratch space over its quota waits until enough of the space that's reserved by other conversions has
+ * been released. The quota is shared by all the scratch space's users in the same Vert.x instance.
+ * </p>
+ */
+public final class ScratchSpace {
+
+    /**
+     * The prefix of the names of scratch space directories.
+     */
+    public static final String PREFIX = "av-pairtree-";
+
+    /**
+     * The logger for scratch space.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(ScratchSpace.class, MessageCodes.BUNDLE);
+
+    /**
+     * The pattern of the name of a scratch space directory that was named after the process it belongs to.
+     */
+    private static final Pattern PROCESS_DIR_PATTERN = Pattern.compile(Pattern.quote(PREFIX) + "(\\d+)-.*");
+
+    /**
+     * How old a scratch space directory that isn't named after a process (i.e. one that was created by an older
+     * version) has to be before it's swept up.
+     */
+    private static final Duration UNNAMED_DIR_AGE = Duration.ofDays(1);
+
+    /**
+     * The default largest reservation that can use the RAM-backed directory, in bytes.
+     */
+    private static final long DEFAULT_RAM_THRESHOLD = 256L * 1024 * 1024;
+
+    /**
+     * The name of the local map that the shared quota is kept in.
+     */
+    private static final String QUOTA_MAP = ScratchSpace.class.getName();
+
+    /**
+     * The key of the shared quota in its local map.
+     */
+    private static final String QUOTA_KEY = "quota";
+
+    /**
+     * The Vert.x instance that's used to access the scratch space.
+     */
+    private final Vertx myVertx;
+
+    /**
+     * The disk-backed scratch space directory.
+     */
+    private final String myDir;
+
+    /**
+     * The RAM-backed scratch space directory, or null if there isn't one.
+     */
+    private final String myRamDir;
+
+    /**
+     * The largest reservation that can use the RAM-backed directory, in bytes.
+     */
+    private final long myRamThreshold;
+
+    /**
+     * The quota that's shared by all the users of the scratch space.
+     */
+    private final Quota myQuota;
+
+    /**
+     * Creates a new scratch space.
+     *
+     * @param aVertx A Vert.x instance
+     * @param aDir The disk-backed scratch space directory
+     * @param aRamDir The RAM-backed scratch space directory, or null if there isn't one
+     * @param aRamThreshold The largest reservation that can use the RAM-backed directory, in bytes
+     * @param aQuota The quota that's shared by all the users of the scratch space
+     */
+    private ScratchSpace(final Vertx aVertx, final String aDir, final String aRamDir, final long aRamThreshold,
+            final Quota aQuota) {
+        myVertx = aVertx;
+        myDir = aDir;
+        myRamDir = aRamDir;
+        myRamThreshold = aRamThreshold;
+        myQuota = aQuota;
+    }
+
+    /**
+     * Creates a new scratch space with the supplied configuration. The first scratch space that's created in a Vert.x
+     * instance sweeps up the scratch space directories that were left behind by processes that have gone away.
+     *
+     * @param aVertx A Vert.x instance
+     * @param aConfig A configuration
+     * @return A future with the new scratch space
+     */
+    public static Future<ScratchSpace> create(final Vertx aVertx, final JsonObject aConfig) {
+        final Path parentDir = Path.of(aConfig.getString(Config.SCRATCH_DIR, System.getProperty("java.io.tmpdir")));
+        final String ramDirConfig = aConfig.getString(Config.SCRATCH_RAM_DIR);
+        final Path ramParentDir = ramDirConfig == null || ramDirConfig.isBlank() ? null : Path.of(ramDirConfig);
+        final long ramThreshold = aConfig.getLong(Config.SCRATCH_RAM_THRESHOLD, DEFAULT_RAM_THRESHOLD);
+        final LocalMap<String, Quota> quotas = aVertx.sharedData().getLocalMap(QUOTA_MAP);
+        final Quota newQuota = new Quota(aConfig.getLong(Config.SCRATCH_QUOTA, 0L));
+        final Quota sharedQuota = quotas.putIfAbsent(QUOTA_KEY, newQuota);
+        final boolean isFirst = sharedQuota == null;
+
+        return aVertx.executeBlocking(promise -> {
+            try {
+                final String prefix = PREFIX + ProcessHandle.current().pid() + "-";
+
+                if (isFirst) {
+                    sweep(parentDir);
+
+                    if (ramParentDir != null) {
+                        sweep(ramParentDir);
+                    }
+                }
+
+                final String dir = Files.createTempDirectory(parentDir, prefix).toAbsolutePath().toString();
+                final String ramDir = ramParentDir == null ? null
+                        : Files.createTempDirectory(ramParentDir, prefix).toAbsolutePath().toString();
+
+                promise.complete(new ScratchSpace(aVertx, dir, ramDir, ramThreshold,
+                        isFirst ? newQuota : sharedQuota));
+            } catch (final IOException details) {
+                promise.fail(details);
+            }
+        }, false);
+    }
+
+    /**
+     * Gets the disk-backed scratch space directory.
+     *
+     * @return The path of the disk-backed scratch space directory
+     */
+    public String getDir() {
+        return myDir;
+    }
+
+    /**
+     * Reserves scratch space for a conversion, waiting until there's room for it within the quota. A conversion that
+     * would be over the quota on its own is let in once no other scratch space is reserved.
+     *
+     * @param aSize The number of bytes to reserve
+     * @return A future with the reservation, whose directory is where the conversion should write its files
+     */
+    public Future<Reservation> reserve(final long aSize) {
+        final Context context = myVertx.getOrCreateContext();
+        final Promise<Void> admission = Promise.promise();
+
+        if (myQuota.reserve(aSize, () -> context.runOnContext(admitted -> admission.complete()))) {
+            admission.complete();
+        }
+
+        return admission.future().compose(admitted -> {
+            if (myRamDir == null || aSize > myRamThreshold) {
+                return Future.succeededFuture(new Reservation(myQuota, myDir, aSize, false));
+            }
+
+            // Only use the RAM-backed directory if it has room left for this conversion, after the others that use it
+            return myVertx.fileSystem().fsProps(myRamDir).map(props -> {
+                final boolean isRam = myQuota.reserveRam(aSize, props.usableSpace());
+                return new Reservation(myQuota, isRam ? myRamDir : myDir, aSize, isRam);
+            }).otherwise(error -> new Reservation(myQuota, myDir, aSize, false));
+        });
+    }
+
+    /**
+     * Removes the scratch space's directories and everything in them.
+     *
+     * @return A future that completes once the scratch space has been removed
+     */
+    public Future<Void> delete() {
+        final Future<Void> deletion = myVertx.fileSystem().deleteRecursive(myDir, true);
+
+        if (myRamDir == null) {
+            return deletion;
+        }
+
+        return CompositeFuture.join(deletion, myVertx.fileSystem().deleteRecursive(myRamDir, true)).mapEmpty();
+    }
+
+    /**
+     * Removes the scratch space directories in the supplied directory that belong to processes that have gone away.
+     * Directories that aren't named after a process are only removed once they're old. This blocks, so it shouldn't
+     * be called from an event loop thread.
+     *
+     * @param aParentDir The directory that scratch space directories are created in
+     * @return The scratch space directories that were removed
+     */
+    static List<Path> sweep(final Path aParentDir) {
+        final List<Path> removed = new ArrayList<>();
+        final long currentPID = ProcessHandle.current().pid();
+        final FileTime unnamedCutoff = FileTime.from(Instant.now().minus(UNNAMED_DIR_AGE));
+        final List<Path> dirs;
+
+        try (Stream<Path> paths = Files.list(aParentDir)) {
+            dirs = paths.filter(path -> path.getFileName().toString().startsWith(PREFIX))
+                    .filter(Files::isDirectory).collect(Collectors.toList());
+        } catch (final IOException details) {
+            LOGGER.warn(MessageCodes.AVPT_047, aParentDir, details.getMessage());
+            return removed;
+        }
+
+        for (final Path dir : dirs) {
+            final Matcher matcher = PROCESS_DIR_PATTERN.matcher(dir.getFileName().toString());
+
+            try {
+                final boolean isOrphaned;
+
+                if (matcher.matches()) {
+                    final long pid = Long.parseLong(matcher.group(1));
+                    final Optional<ProcessHandle> process = ProcessHandle.of(pid);
+
+                    isOrphaned = pid != currentPID && !process.map(ProcessHandle::isAlive).orElse(false);
+                } else {
+                    isOrphaned = Files.getLastModifiedTime(dir).compareTo(unnamedCutoff) < 0;
+                }
+
+                if (isOrphaned) {
+                    deleteRecursively(dir);
+                    removed.add(dir);
+                    LOGGER.info(MessageCodes.AVPT_046, dir);
+                }
+            } catch (final IOException | NumberFormatException details) {
+                // Another process may be sweeping at the same time, so a directory can go away while it's removed
+                LOGGER.warn(MessageCodes.AVPT_047, dir, details.getMessage());
+            }
+        }
+
+        return removed;
+    }
+
+    /**
+     * Deletes a directory and everything in it.
+     *
+     * @param aDir A directory
+     * @throws IOException If the directory can't be deleted
+     */
+    private static void deleteRecursively(final Path aDir) throws IOException {
+        final List<Path> paths;
+
+        try (Stream<Path> walk = Files.walk(aDir)) {
+            paths = walk.sorted(Comparator.reverseOrder()).collect(Collectors.toList());
+        }
+
+        for (final Path path : paths) {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    /**
+     * Space that's reserved in the scratch space for a conversion.
+     */
+    public static final class Reservation {
+
+        /**
+         * The quota that the space is reserved from.
+         */
+        private final Quota myQuota;
+
+        /**
+         * The directory that the conversion should write its files to.
+         */
+        private final String myDir;
+
+        /**
+         * The number of bytes that are reserved.
+         */
+        private final long mySize;
+
+        /**
+         * Whether the space is reserved in the RAM-backed directory.
+         */
+        private final boolean isRam;
+
+        /**
+         * Whether the space has been released.
+         */
+        private boolean isReleased;
+
+        /**
+         * Creates a new reservation.
+         *
+         * @param aQuota The quota that the space is reserved from
+         * @param aDir The directory that the conversion should write its files to
+         * @param aSize The number of bytes that are reserved
+         * @param aRam Whether the space is reserved in the RAM-backed directory
+         */
+        private Reservation(final Quota aQuota, final String aDir, final long aSize, final boolean aRam) {
+            myQuota = aQuota;
+            myDir = aDir;
+            mySize = aSize;
+            isRam = aRam;
+        }
+
+        /**
+         * Gets the directory that the conversion should write its files to.
+         *
+         * @return The path of a scratch space directory
+         */
+        public String getDir() {
+            return myDir;
+        }
+
+        /**
+         * Releases the reserved space, letting in any conversions that are waiting for it. Releasing it more than once
+         * doesn't do anything.
+         */
+        public void release() {
+            if (!isReleased) {
+                isReleased = true;
+                myQuota.release(mySize, isRam);
+            }
+        }
+    }
+
+    /**
+     * The byte quota of the scratch space, which is shared by all of its users in a Vert.x instance.
+     */
+    private static final class Quota implements Shareable {
+
+        /**
+         * The most bytes that can be reserved at once, or zero if there's no limit.
+         */
+        private final long myLimit;
+
+        /**
+         * The reservations that are waiting for room within the quota, in the order they were asked for.
+         */
+        private final Deque<Waiter> myWaiters = new ArrayDeque<>();
+
+        /**
+         * The number of bytes that are reserved.
+         */
+        private long myReserved;
+
+        /**
+         * The number of bytes that are reserved in the RAM-backed directory.
+         */
+        private long myRamReserved;
+
+        /**
+         * Creates a new quota.
+         *
+         * @param aLimit The most bytes that can be reserved at once, or zero if there's no limit
+         */
+        private Quota(final long aLimit) {
+            myLimit = aLimit;
+        }
+
+        /**
+         * Reserves space if there's room for it and no one else is waiting; otherwise, queues the reservation.
+         *
+         * @param aSize The number of bytes to reserve
+         * @param aAdmission What to do once a queued reservation has been made
+         * @return True if the space was reserved straight away; else, false
+         */
+        private synchronized boolean reserve(final long aSize, final Runnable aAdmission) {
+            if (myWaiters.isEmpty() && fits(aSize)) {
+                myReserved += aSize;
+                return true;
+            }
+
+            myWaiters.add(new Waiter(aSize, aAdmission));
+            return false;
+        }
+
+        /**
+         * Reserves space in the RAM-backed directory, if it has room for it.
+         *
+         * @param aSize The number of bytes to reserve
+         * @param aUsableSpace The number of bytes that are free in the RAM-backed directory
+         * @return True if the space was reserved; else, false
+         */
+        private synchronized boolean reserveRam(final long aSize, final long aUsableSpace) {
+            if (myRamReserved + aSize > aUsableSpace) {
+                return false;
+            }
+
+            myRamReserved += aSize;
+            return true;
+        }
+
+        /**
+         * Releases reserved space and makes the queued reservations that now fit.
+         *
+         * @param aSize The number of bytes that were reserved
+         * @param aRam Whether the space was reserved in the RAM-backed directory
+         */
+        private void release(final long aSize, final boolean aRam) {
+            final List<Runnable> admissions = new ArrayList<>();
+
+            synchronized (this) {
+                myReserved -= aSize;
+
+                if (aRam) {
+                    myRamReserved -= aSize;
+                }
+
+                while (!myWaiters.isEmpty() && fits(myWaiters.peek().mySize)) {
+                    final Waiter waiter = myWaiters.poll();
+
+                    myReserved += waiter.mySize;
+                    admissions.add(waiter.myAdmission);
+                }
+            }
+
+            admissions.forEach(Runnable::run);
+        }
+
+        /**
+         * Checks whether a reservation fits within the quota.
+         *
+         * @param aSize The number of bytes to reserve
+         * @return True if the reservation fits; else, false
+         */
+        private boolean fits(final long aSize) {
+            return myLimit <= 0 || myReserved == 0 || myReserved + aSize <= myLimit;
+        }
+    }
+
+    /**
+     * A reservation that's waiting for room within the quota.
+     */
+    private static final class Waiter {
+
+        /**
+         * The number of bytes to reserve.
+         */
+        private final long mySize;
+
+        /**
+         * What to do once the reservation has been made.
+         */
+        private final Runnable myAdmission;
+
+        /**
+         * Creates a new waiting reservation.
+         *
+         * @param aSize The number of bytes to reserve
+         * @param aAdmission What to do once the reservation has been made
+         */
+        private Waiter(final long aSize, final Runnable aAdmission) {
+            mySize = aSize;
+            myAdmission = aAdmission;
+        }
+    }
+}
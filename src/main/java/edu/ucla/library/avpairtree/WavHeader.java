@@ -0,0 +1,303 @@
+package edu.ucla.library.avpairtree;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import info.freelibrary.util.Logger;
+import info.freelibrary.util.LoggerFactory;
+
+/**
+ * The format of a WAV file and where its audio frames are, as read from the file's header. Only uncompressed WAV files
+ * (integer PCM with 8, 16, 24, or 32 bits per sample, or 32-bit floating point PCM) are supported.
+ */
+public final class WavHeader {
+
+    /**
+     * The logger for WAV headers.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(WavHeader.class, MessageCodes.BUNDLE);
+
+    /**
+     * The size of a RIFF chunk header.
+     */
+    private static final int CHUNK_HEADER_SIZE = 8;
+
+    /**
+     * The size of the RIFF header (i.e. the RIFF chunk header and the WAVE form type).
+     */
+    private static final int RIFF_HEADER_SIZE = 12;
+
+    /**
+     * The largest part of a WAV "fmt " chunk that's read.
+     */
+    private static final int FORMAT_CHUNK_SIZE = 40;
+
+    /**
+     * The smallest size of a WAV "fmt " chunk.
+     */
+    private static final int MIN_FORMAT_CHUNK_SIZE = 16;
+
+    /**
+     * The WAV format code for integer PCM.
+     */
+    private static final int PCM_FORMAT = 1;
+
+    /**
+     * The WAV format code for floating point PCM.
+     */
+    private static final int FLOAT_FORMAT = 3;
+
+    /**
+     * The WAV format code for a format that's given by the "fmt " chunk's subformat.
+     */
+    private static final int EXTENSIBLE_FORMAT = 0xFFFE;
+
+    /** The number of channels. */
+    private int myChannels;
+
+    /** The sample rate. */
+    private int mySampleRate;
+
+    /** The size of each frame (i.e. a sample from each of the channels), in bytes. */
+    private int myBlockAlign;
+
+    /** The number of bits in each sample. */
+    private int myBitsPerSample;
+
+    /** Whether the samples are floating point numbers. */
+    private boolean isFloat;
+
+    /** The position of the audio frames in the file. */
+    private long myDataOffset;
+
+    /** The size of the audio frames, in bytes. */
+    private long myDataSize;
+
+    /**
+     * Creates a new WAV header.
+     */
+    private WavHeader() {
+        // This is intentionally left empty
+    }
+
+    /**
+     * Reads the header of a WAV file.
+     *
+     * @param aWavFile A WAV file
+     * @return The WAV file's header
+     * @throws IOException If the file can't be read or isn't a WAV file that can be handled
+     */
+    public static WavHeader read(final Path aWavFile) throws IOException {
+        try (FileChannel channel = FileChannel.open(aWavFile, StandardOpenOption.READ)) {
+            return read(aWavFile, channel);
+        }
+    }
+
+    /**
+     * Reads the header of an open WAV file.
+     *
+     * @param aWavFile The path of the WAV file, for error messages
+     * @param aChannel The WAV file
+     * @return The WAV file's header
+     * @throws IOException If the file can't be read or isn't a WAV file that can be handled
+     */
+    static WavHeader read(final Path aWavFile, final FileChannel aChannel) throws IOException {
+        final ByteBuffer riffHeader = read(aChannel, 0, RIFF_HEADER_SIZE);
+        final WavHeader header = new WavHeader();
+        long position = RIFF_HEADER_SIZE;
+
+        if (riffHeader.remaining() < RIFF_HEADER_SIZE || !"RIFF".equals(getChunkID(riffHeader, 0)) ||
+                !"WAVE".equals(getChunkID(riffHeader, 8))) {
+            throw new IOException(LOGGER.getMessage(MessageCodes.AVPT_041, aWavFile));
+        }
+
+        while (header.myDataOffset == 0) {
+            final ByteBuffer chunkHeader = read(aChannel, position, CHUNK_HEADER_SIZE);
+
+            if (chunkHeader.remaining() < CHUNK_HEADER_SIZE) {
+                throw new IOException(LOGGER.getMessage(MessageCodes.AVPT_041, aWavFile));
+            }
+
+            final String chunkID = getChunkID(chunkHeader, 0);
+            final long chunkSize = Integer.toUnsignedLong(chunkHeader.getInt(4));
+
+            position += CHUNK_HEADER_SIZE;
+
+            if ("fmt ".equals(chunkID)) {
+                final ByteBuffer fmt = read(aChannel, position, (int) Math.min(chunkSize, FORMAT_CHUNK_SIZE));
+
+                if (fmt.remaining() < MIN_FORMAT_CHUNK_SIZE) {
+                    throw new IOException(LOGGER.getMessage(MessageCodes.AVPT_041, aWavFile));
+                }
+
+                final int formatCode = fmt.getShort(0) & 0xFFFF;
+                final int subformatCode = fmt.remaining() >= FORMAT_CHUNK_SIZE ? fmt.getShort(24) & 0xFFFF : 0;
+                final int code = formatCode == EXTENSIBLE_FORMAT ? subformatCode : formatCode;
+
+                header.myChannels = fmt.getShort(2) & 0xFFFF;
+                header.mySampleRate = fmt.getInt(4);
+                header.myBlockAlign = fmt.getShort(12) & 0xFFFF;
+                header.myBitsPerSample = fmt.getShort(14) & 0xFFFF;
+                header.isFloat = code == FLOAT_FORMAT;
+
+                if (!header.isSupported(code)) {
+                    throw new IOException(LOGGER.getMessage(MessageCodes.AVPT_042, aWavFile, formatCode,
+                            header.myBitsPerSample, header.myChannels));
+                }
+            } else if ("data".equals(chunkID)) {
+                if (header.myChannels == 0) {
+                    throw new IOException(LOGGER.getMessage(MessageCodes.AVPT_041, aWavFile));
+                }
+
+                // A WAV file that was written as a stream may not have its real data size in its header
+                header.myDataOffset = position;
+                header.myDataSize = Math.min(chunkSize, aChannel.size() - position);
+            }
+
+            // RIFF chunks are padded to an even number of bytes
+            position += chunkSize + (chunkSize & 1);
+        }
+
+        return header;
+    }
+
+    /**
+     * Gets the number of channels.
+     *
+     * @return The number of channels
+     */
+    public int getChannels() {
+        return myChannels;
+    }
+
+    /**
+     * Gets the sample rate.
+     *
+     * @return The number of frames per second
+     */
+    public int getSampleRate() {
+        return mySampleRate;
+    }
+
+    /**
+     * Gets the size of each frame (i.e. a sample from each of the channels).
+     *
+     * @return The size of each frame, in bytes
+     */
+    public int getBlockAlign() {
+        return myBlockAlign;
+    }
+
+    /**
+     * Gets the number of bits in each sample.
+     *
+     * @return The number of bits in each sample
+     */
+    public int getBitsPerSample() {
+        return myBitsPerSample;
+    }
+
+    /**
+     * Gets whether the samples are floating point numbers.
+     *
+     * @return True if the samples are floating point numbers; else, false
+     */
+    public boolean isFloat() {
+        return isFloat;
+    }
+
+    /**
+     * Gets the position of the audio frames in the file.
+     *
+     * @return The position of the audio frames
+     */
+    public long getDataOffset() {
+        return myDataOffset;
+    }
+
+    /**
+     * Gets the size of the audio frames.
+     *
+     * @return The size of the audio frames, in bytes
+     */
+    public long getDataSize() {
+        return myDataSize;
+    }
+
+    /**
+     * Gets the number of audio frames.
+     *
+     * @return The number of audio frames
+     */
+    public long getFrameCount() {
+        return myDataSize / myBlockAlign;
+    }
+
+    /**
+     * Gets the duration of the audio.
+     *
+     * @return The duration of the audio, in seconds
+     */
+    public double getDuration() {
+        return (double) getFrameCount() / mySampleRate;
+    }
+
+    /**
+     * Checks whether the WAV file's format is one that can be handled.
+     *
+     * @param aFormatCode The WAV file's format code
+     * @return True if the WAV file can be handled; else, false
+     */
+    private boolean isSupported(final int aFormatCode) {
+        final int bits = myBitsPerSample;
+        final boolean isSupportedCode = (aFormatCode == PCM_FORMAT && (bits == 8 || bits == 16 || bits == 24 ||
+                bits == 32)) || (aFormatCode == FLOAT_FORMAT && bits == 32);
+
+        return isSupportedCode && myChannels > 0 && mySampleRate > 0 &&
+                myBlockAlign >= myChannels * bits / Byte.SIZE;
+    }
+
+    /**
+     * Reads part of a file.
+     *
+     * @param aChannel A file
+     * @param aPosition The position in the file to read from
+     * @param aLength The number of bytes to read
+     * @return A little-endian buffer with the bytes that were read, which can be fewer than asked for at the end of the
+     *         file
+     * @throws IOException If the file can't be read
+     */
+    private static ByteBuffer read(final FileChannel aChannel, final long aPosition, final int aLength)
+            throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(aLength).order(ByteOrder.LITTLE_ENDIAN);
+        int count;
+
+        // Keep reading until the buffer is full or the end of the file has been reached
+        do {
+            count = aChannel.read(buffer, aPosition + buffer.position());
+        } while (count > 0 && buffer.hasRemaining());
+
+        return buffer.flip();
+    }
+
+    /**
+     * Gets the four character ID of a RIFF chunk.
+     *
+     * @param aBuffer A buffer with a RIFF chunk header in it
+     * @param aIndex The index of the ID in the buffer
+     * @return The chunk's ID
+     */
+    private static String getChunkID(final ByteBuffer aBuffer, final int aIndex) {
+        final StringBuilder id = new StringBuilder(4);
+
+        for (int index = aIndex; index < aIndex + 4; index++) {
+            id.append((char) aBuffer.get(index));
+        }
+
+        return id.toString();
+    }
+}
@@ -0,0 +1,195 @@
+package edu.ucla.library.avpairtree;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.stream.IntStream;
+
+/**
+ * A pure Java generator of audiowaveform data, for when the audiowaveform program isn't installed. It writes the same
+ * bytes as <code>audiowaveform --output-format dat --bits 8</code>: the WAV file's channels are averaged into a single
+ * channel, and the minimum and maximum of each window of 256 frames is scaled down to eight bits.
+ * <p>
+ * The WAV file is memory-mapped and read in chunks, which are worked on in parallel, so long recordings use all of the
+ * machine's cores.
+ * </p>
+ */
+public final class WaveformGenerator {
+
+    /**
+     * The number of audio frames that make up each pixel of the waveform (audiowaveform's default zoom level).
+     */
+    public static final int SAMPLES_PER_PIXEL = 256;
+
+    /**
+     * The version of the audiowaveform data format that's written.
+     */
+    private static final int DATA_VERSION = 1;
+
+    /**
+     * The audiowaveform data format flag for 8-bit data.
+     */
+    private static final int EIGHT_BIT_FLAG = 1;
+
+    /**
+     * The size of the audiowaveform data header.
+     */
+    private static final int HEADER_SIZE = 20;
+
+    /**
+     * The largest 16-bit sample value.
+     */
+    private static final int MAX_SAMPLE = Short.MAX_VALUE;
+
+    /**
+     * The smallest 16-bit sample value.
+     */
+    private static final int MIN_SAMPLE = Short.MIN_VALUE;
+
+    /**
+     * The most bytes of the WAV file that are mapped into memory for each chunk of work.
+     */
+    private static final long MAX_CHUNK_SIZE = 64L * 1024 * 1024;
+
+    /**
+     * Creates a new waveform generator.
+     */
+    private WaveformGenerator() {
+        // This is intentionally left empty
+    }
+
+    /**
+     * Generates 8-bit audiowaveform data for the supplied WAV file.
+     *
+     * @param aWavFile A WAV file
+     * @return The audiowaveform data
+     * @throws IOException If the WAV file can't be read or isn't a WAV file that can be handled
+     */
+    public static byte[] generate(final Path aWavFile) throws IOException {
+        return generate(aWavFile, 0);
+    }
+
+    /**
+     * Generates 8-bit audiowaveform data for the supplied WAV file, working on the supplied number of pixels at a time.
+     *
+     * @param aWavFile A WAV file
+     * @param aPixelsPerChunk The number of pixels to work on at a time, or zero to pick it based on the WAV's format
+     * @return The audiowaveform data
+     * @throws IOException If the WAV file can't be read or isn't a WAV file that can be handled
+     */
+    static byte[] generate(final Path aWavFile, final int aPixelsPerChunk) throws IOException {
+        try (FileChannel channel = FileChannel.open(aWavFile, StandardOpenOption.READ)) {
+            final WavHeader header = WavHeader.read(aWavFile, channel);
+            final long frameCount = header.getFrameCount();
+            final long pixelCount = (frameCount + SAMPLES_PER_PIXEL - 1) / SAMPLES_PER_PIXEL;
+            final long chunkPixels = aPixelsPerChunk > 0 ? aPixelsPerChunk
+                    : Math.max(1, MAX_CHUNK_SIZE / ((long) SAMPLES_PER_PIXEL * header.getBlockAlign()));
+            final int chunkCount = (int) ((pixelCount + chunkPixels - 1) / chunkPixels);
+            final byte[] data = new byte[Math.toIntExact(HEADER_SIZE + pixelCount * 2)];
+            final ByteBuffer dataHeader = ByteBuffer.wrap(data, 0, HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+            dataHeader.putInt(DATA_VERSION).putInt(EIGHT_BIT_FLAG).putInt(header.getSampleRate())
+                    .putInt(SAMPLES_PER_PIXEL).putInt((int) pixelCount);
+
+            // Each chunk of pixels is written into its own part of the data array, so they can be worked on in parallel
+            try {
+                IntStream.range(0, chunkCount).parallel().forEach(chunk -> {
+                    final long firstPixel = chunk * chunkPixels;
+                    final long firstFrame = firstPixel * SAMPLES_PER_PIXEL;
+                    final long lastFrame = Math.min(frameCount, (firstPixel + chunkPixels) * SAMPLES_PER_PIXEL);
+                    final long position = header.getDataOffset() + firstFrame * header.getBlockAlign();
+                    final long size = (lastFrame - firstFrame) * header.getBlockAlign();
+
+                    try {
+                        final ByteBuffer samples = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+
+                        samples.order(ByteOrder.LITTLE_ENDIAN);
+                        computePeaks(samples, header, data, HEADER_SIZE + (int) (firstPixel * 2));
+                    } catch (final IOException details) {
+                        throw new UncheckedIOException(details);
+                    }
+                });
+            } catch (final UncheckedIOException details) {
+                throw details.getCause();
+            }
+
+            return data;
+        }
+    }
+
+    /**
+     * Computes the 8-bit minimum and maximum of each pixel's worth of audio frames.
+     *
+     * @param aSamples The audio frames
+     * @param aHeader The header of the WAV file
+     * @param aData The array the minimums and maximums are written to
+     * @param aOffset The index in the array of the first pixel's minimum
+     */
+    private static void computePeaks(final ByteBuffer aSamples, final WavHeader aHeader, final byte[] aData,
+            final int aOffset) {
+        final int blockAlign = aHeader.getBlockAlign();
+        final int sampleSize = aHeader.getBitsPerSample() / Byte.SIZE;
+        final int channels = aHeader.getChannels();
+        final int frameCount = aSamples.limit() / blockAlign;
+        int index = aOffset;
+        int min = MAX_SAMPLE;
+        int max = MIN_SAMPLE;
+        int count = 0;
+
+        for (int frame = 0; frame < frameCount; frame++) {
+            final int frameStart = frame * blockAlign;
+            int sample = 0;
+
+            for (int channel = 0; channel < channels; channel++) {
+                sample += readSample(aSamples, frameStart + channel * sampleSize, aHeader);
+            }
+
+            // Like audiowaveform, channels are mixed down by averaging them, rounding toward zero
+            sample /= channels;
+
+            min = Math.min(min, sample);
+            max = Math.max(max, sample);
+
+            if (++count == SAMPLES_PER_PIXEL || frame == frameCount - 1) {
+                // Like audiowaveform, 16-bit values are scaled to eight bits by dividing them, rounding toward zero
+                aData[index++] = (byte) (min / 256);
+                aData[index++] = (byte) (max / 256);
+
+                min = MAX_SAMPLE;
+                max = MIN_SAMPLE;
+                count = 0;
+            }
+        }
+    }
+
+    /**
+     * Reads a sample, scaling it to a 16-bit value the way libsndfile (which audiowaveform uses) does.
+     *
+     * @param aSamples The audio frames
+     * @param aIndex The index of the sample
+     * @param aHeader The header of the WAV file
+     * @return The sample, as a 16-bit value
+     */
+    private static int readSample(final ByteBuffer aSamples, final int aIndex, final WavHeader aHeader) {
+        if (aHeader.isFloat()) {
+            final float sample = Math.max(-1f, Math.min(1f, aSamples.getFloat(aIndex)));
+            return (int) Math.rint(sample * MAX_SAMPLE);
+        }
+
+        switch (aHeader.getBitsPerSample()) {
+            case 8:
+                // 8-bit WAV samples are unsigned
+                return ((aSamples.get(aIndex) & 0xFF) - 128) << 8;
+            case 16:
+                return aSamples.getShort(aIndex);
+            case 24:
+                return aSamples.getShort(aIndex + 1);
+            default:
+                return aSamples.getInt(aIndex) >> 16;
+        }
+    }
+}
@@ -1,10 +1,21 @@
 
 package edu.ucla.library.avpairtree.handlers;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadLocalRandom;
 
 import info.freelibrary.util.Logger;
 import info.freelibrary.util.LoggerFactory;
@@ -13,23 +24,57 @@ import info.freelibrary.util.StringUtils;
 import edu.ucla.library.avpairtree.Config;
 import edu.ucla.library.avpairtree.MessageCodes;
 import edu.ucla.library.avpairtree.Op;
+import edu.ucla.library.avpairtree.RequestQueue;
 
+import io.vertx.core.Context;
+import io.vertx.core.Future;
 import io.vertx.core.Handler;
 import io.vertx.core.MultiMap;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.WorkerExecutor;
 import io.vertx.core.eventbus.Message;
 import io.vertx.core.json.JsonObject;
-import software.amazon.awssdk.core.async.AsyncRequestBody;
+
+import software.amazon.awssdk.http.nio.netty.NettyNioAsyncHttpClient;
 import software.amazon.awssdk.profiles.ProfileProperty;
 import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.s3.S3AsyncClient;
 import software.amazon.awssdk.services.s3.S3AsyncClientBuilder;
-import software.amazon.awssdk.services.s3.model.PutObjectRequest;
-import software.amazon.awssdk.services.s3.model.PutObjectRequest.Builder;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.S3Exception;
 
 /**
- * A consumer of waveform data that uses Amazon S3 as storage.
+ * A consumer of waveform data that uses Amazon S3 as storage. Messages carry the path of a file with the waveform data
+ * in it, which is streamed to S3 so that no more than one upload part's worth of the data is held in memory at a time.
+ * <p>
+ * The waveform data is first put in an on-disk outbox (compressed, if it's to be stored with a <code>gzip</code>
+ * content encoding), from which it's uploaded. An upload that fails is retried after an exponential backoff, with
+ * jitter, and the message is only replied to once the upload has succeeded. If the uploads of a waveform all fail, or
+ * the application stops before they're done, its data is left in the outbox, and its upload is resumed when the
+ * application starts again, so an S3 outage doesn't mean that waveforms have to be generated again.
+ * </p>
+ * <p>
+ * Uploads to the same key are run one after another, so older waveform data can never overwrite newer data. Once newer
+ * waveform data for a key has been put in the outbox, the older data is removed from it, and any of its uploads that
+ * haven't started yet (including its retries) are skipped; whoever's waiting for it gets the outcome of the newer
+ * data's upload instead.
+ * </p>
+ * <p>
+ * Waveform data that S3 already has (i.e. there's an object at its key with the ETag that it would get if it were
+ * uploaded) isn't uploaded again. Only the object at the key is looked at, with a HEAD request, and nothing is kept
+ * from one upload to the next, so rerunning a CSV file costs a HEAD request instead of a put for each of its items, no
+ * matter how many other objects are in the bucket.
+ * </p>
+ * <p>
+ * The S3 client's connection pool and timeouts are configurable. No more uploads are run at once than the client has
+ * connections for; the rest wait their turn in a request queue, rather than inside the client, so how many uploads
+ * are in flight and how many are waiting can be seen in the application's status. Uploads, and the outbox's file I/O,
+ * run on their own pool of worker threads, which has as many threads as the client has connections, so they don't
+ * hold on to the threads of Vert.x's shared worker pool that the rest of the application uses.
+ * </p>
  */
-public class AmazonS3WaveformConsumer implements Handler<Message<byte[]>> {
+public class AmazonS3WaveformConsumer implements Handler<Message<String>> {
 
     /**
      * Logger for the consumer.
@@ -46,6 +91,62 @@ public class AmazonS3WaveformConsumer implements Handler<Message<byte[]>> {
      */
     private static final String CONTENT_ENCODING = "contentEncoding";
 
+    /**
+     * The default size of the parts that large waveform data is uploaded in.
+     */
+    private static final int DEFAULT_PART_SIZE = 8 * 1024 * 1024;
+
+    /**
+     * The default number of connections to S3, which is also the number of uploads that can be in flight at once and
+     * the number of worker threads they run on.
+     */
+    private static final int DEFAULT_MAX_CONNECTIONS = 16;
+
+    /**
+     * The status code of an S3 response about an object that isn't there.
+     */
+    private static final int HTTP_NOT_FOUND = 404;
+
+    /**
+     * The name of the pool of worker threads that uploads, and the outbox's file I/O, run on.
+     */
+    private static final String WORKER_POOL_NAME = "av-pairtree-s3-uploads";
+
+    /**
+     * The default number of seconds that an upload waits for a connection to S3.
+     */
+    private static final int DEFAULT_ACQUIRE_TIMEOUT = 10;
+
+    /**
+     * The default number of seconds that S3 has to respond to (or accept) data before a request fails.
+     */
+    private static final int DEFAULT_READ_WRITE_TIMEOUT = 30;
+
+    /**
+     * The name of the default outbox directory, which is kept in the output directory.
+     */
+    private static final String OUTBOX_DIR_NAME = "av-pairtree-outbox";
+
+    /**
+     * The default number of times that an upload is attempted before it's given up on.
+     */
+    private static final int DEFAULT_UPLOAD_ATTEMPTS = 6;
+
+    /**
+     * The default number of milliseconds that the first retry of an upload is delayed by, at most.
+     */
+    private static final long DEFAULT_UPLOAD_BACKOFF = 1000;
+
+    /**
+     * The most milliseconds that a retry of an upload is delayed by.
+     */
+    private static final long MAX_UPLOAD_BACKOFF = 60_000;
+
+    /**
+     * The most times the backoff is doubled, which keeps it from overflowing.
+     */
+    private static final int MAX_BACKOFF_DOUBLINGS = 20;
+
     /**
      * The S3 object URL template.
      */
@@ -61,6 +162,56 @@ public class AmazonS3WaveformConsumer implements Handler<Message<byte[]>> {
      */
     private final S3AsyncClient myS3Client;
 
+    /**
+     * The size of the parts that large waveform data is uploaded in.
+     */
+    private final int myPartSize;
+
+    /**
+     * The queue of uploads, which limits how many are in flight at once.
+     */
+    private final RequestQueue myUploads;
+
+    /**
+     * The number of connections to S3, which is also the number of worker threads that uploads run on.
+     */
+    private final int myMaxConnections;
+
+    /**
+     * The pool of worker threads that uploads, and the outbox's file I/O, run on, once it's been created.
+     */
+    private WorkerExecutor myWorkers;
+
+    /**
+     * The newest outbox entry for each S3 object key that has uploads pending.
+     */
+    private final Map<String, WaveformOutbox.Entry> myNewestEntries = new HashMap<>();
+
+    /**
+     * The last of the pending uploads to each S3 object key, which the next upload to the key waits for.
+     */
+    private final Map<String, Future<String>> myKeyUploads = new HashMap<>();
+
+    /**
+     * The outbox that waveform data is uploaded from.
+     */
+    private final WaveformOutbox myOutbox;
+
+    /**
+     * The number of times that an upload is attempted before it's given up on.
+     */
+    private final int myUploadAttempts;
+
+    /**
+     * The number of milliseconds that the first retry of an upload is delayed by, at most.
+     */
+    private final long myUploadBackoff;
+
+    /**
+     * Whether waveform data that S3 already has is skipped, rather than uploaded again.
+     */
+    private final boolean isSkippingUnchanged;
+
     /**
      * Creates a new consumer of waveform data that uses Amazon S3 as storage.
      *
@@ -75,6 +226,7 @@ public class AmazonS3WaveformConsumer implements Handler<Message<byte[]>> {
         final String awsDefaultRegion = aConfig.getString("AWS_DEFAULT_REGION");
         final String s3BucketName = aConfig.getString(Config.AUDIOWAVEFORM_S3_BUCKET);
         final String s3EndpointURL = aConfig.getString(Config.AWS_ENDPOINT_URL);
+        final int maxConnections = aConfig.getInteger(Config.S3_MAX_CONNECTIONS, DEFAULT_MAX_CONNECTIONS);
 
         if (awsDefaultRegion == null) {
             configErrorMsg = LOGGER.getMessage(MessageCodes.AVPT_018);
@@ -115,56 +267,400 @@ public class AmazonS3WaveformConsumer implements Handler<Message<byte[]>> {
         LOGGER.debug(MessageCodes.AVPT_026, s3BucketName, awsDefaultRegion);
 
         myS3BucketName = s3BucketName;
-        myS3Client = s3ClientBuilder.region(Region.of(awsDefaultRegion)).build();
+        myS3Client = s3ClientBuilder.region(Region.of(awsDefaultRegion))
+                .httpClientBuilder(getHttpClientBuilder(aConfig, maxConnections)).build();
+        myPartSize = aConfig.getInteger(Config.WAVEFORM_S3_PART_SIZE, DEFAULT_PART_SIZE);
+        myUploads = new RequestQueue(maxConnections);
+        myMaxConnections = maxConnections;
+        myOutbox = new WaveformOutbox(getOutboxDir(aConfig));
+        myUploadAttempts = Math.max(1, aConfig.getInteger(Config.WAVEFORM_UPLOAD_ATTEMPTS, DEFAULT_UPLOAD_ATTEMPTS));
+        myUploadBackoff = aConfig.getLong(Config.WAVEFORM_UPLOAD_BACKOFF, DEFAULT_UPLOAD_BACKOFF);
+        isSkippingUnchanged = aConfig.getBoolean(Config.WAVEFORM_S3_SKIP_UNCHANGED, true);
     }
 
     /**
-     * Puts the waveform data on Amazon S3, using the key and content encoding specified in the message headers, and
-     * replies with the URL of the object.
+     * Gets the outbox directory, which is in the output directory (or, failing that, the system's temporary
+     * directory) unless it's configured.
      *
-     * @param aMessage A message containing the waveform data and headers
+     * @param aConfig A JSON configuration
+     * @return The outbox directory
+     */
+    private static Path getOutboxDir(final JsonObject aConfig) {
+        final String outboxDir = aConfig.getString(Config.WAVEFORM_OUTBOX_DIR);
+
+        if (outboxDir != null) {
+            return Path.of(outboxDir);
+        }
+
+        return Path.of(aConfig.getString(Config.OUTPUT_DIR, System.getProperty("java.io.tmpdir")), OUTBOX_DIR_NAME);
+    }
+
+    /**
+     * Gets a builder of the S3 client's HTTP client, with its connection pool and timeouts configured.
+     *
+     * @param aConfig A JSON configuration
+     * @param aMaxConnections The maximum number of connections to S3
+     * @return An HTTP client builder
+     */
+    private static NettyNioAsyncHttpClient.Builder getHttpClientBuilder(final JsonObject aConfig,
+            final int aMaxConnections) {
+        final int acquireTimeout = aConfig.getInteger(Config.S3_ACQUIRE_TIMEOUT, DEFAULT_ACQUIRE_TIMEOUT);
+        final int readTimeout = aConfig.getInteger(Config.S3_READ_TIMEOUT, DEFAULT_READ_WRITE_TIMEOUT);
+        final int writeTimeout = aConfig.getInteger(Config.S3_WRITE_TIMEOUT, DEFAULT_READ_WRITE_TIMEOUT);
+
+        return NettyNioAsyncHttpClient.builder().maxConcurrency(aMaxConnections)
+                .connectionAcquisitionTimeout(Duration.ofSeconds(acquireTimeout))
+                .readTimeout(Duration.ofSeconds(readTimeout)).writeTimeout(Duration.ofSeconds(writeTimeout));
+    }
+
+    /**
+     * Puts the waveform data in the file at the path in the message on Amazon S3, using the key and content encoding
+     * specified in the message headers, and replies with the URL of the object. The data is put in the outbox before
+     * it's uploaded, so the file at the path in the message can be deleted as soon as the message is replied to.
+     *
+     * @param aMessage A message containing the path of a waveform data file, and headers
      * @throws IllegalArgumentException If an object key was not supplied in the message headers
      */
     @Override
-    public void handle(final Message<byte[]> aMessage) {
+    public void handle(final Message<String> aMessage) {
         final MultiMap headers = aMessage.headers();
-        final Builder putRequestBuilder = PutObjectRequest.builder().bucket(myS3BucketName);
-        final PutObjectRequest putRequest;
+        final Context context = Vertx.currentContext();
+        final Path dataFilePath = Path.of(aMessage.body());
         final String s3ObjectKey;
 
         // Required
         if (headers.contains(KEY)) {
             s3ObjectKey = headers.get(KEY);
-            putRequestBuilder.key(s3ObjectKey);
         } else {
             throw new IllegalArgumentException(LOGGER.getMessage(MessageCodes.AVPT_024));
         }
 
-        // Optional
-        if (headers.contains(CONTENT_ENCODING)) {
-            putRequestBuilder.contentEncoding(headers.get(CONTENT_ENCODING));
+        // The waveform data is put in the outbox first, so that it isn't lost if it can't be uploaded right away
+        getWorkers(context).<WaveformOutbox.Entry>executeBlocking(promise -> {
+            try {
+                // The content encoding header is optional
+                promise.complete(myOutbox.put(s3ObjectKey, headers.get(CONTENT_ENCODING), dataFilePath));
+            } catch (final IOException details) {
+                promise.fail(details);
+            }
+        }, false).compose(entry -> upload(context, entry)).onSuccess(audiowaveformURL -> {
+            // Reply with a JsonObject associating the item ARK with the URL for the audiowaveform data
+            aMessage.reply(audiowaveformURL);
+        }).onFailure(error -> {
+            final String s3ErrorMsg = LOGGER.getMessage(MessageCodes.AVPT_022, s3ObjectKey, error.getMessage());
+
+            // Since the sender (WatcherVerticle) just logs all errors, should be okay to use a single
+            // failureCode for all errors
+            aMessage.fail(Op.ERROR_CODE, s3ErrorMsg);
+        });
+    }
+
+    /**
+     * Resumes the uploads of the waveform data that was left in the outbox (e.g. by an S3 outage that outlasted an
+     * upload's retries, or by the application stopping). This should be called on the context that the consumer is
+     * registered on, and before it's registered, since new waveform data can't be put in the outbox while it's being
+     * read.
+     *
+     * @param aVertx A Vert.x instance
+     * @return A future that completes once the outbox has been read; the uploads carry on after it has completed
+     */
+    public Future<Void> resumeUploads(final Vertx aVertx) {
+        final Context context = aVertx.getOrCreateContext();
+
+        return getWorkers(context).<List<WaveformOutbox.Entry>>executeBlocking(promise -> {
+            try {
+                promise.complete(myOutbox.list());
+            } catch (final IOException details) {
+                promise.fail(details);
+            }
+        }, false).onSuccess(entries -> {
+            for (final WaveformOutbox.Entry entry : entries) {
+                LOGGER.info(MessageCodes.AVPT_055, entry.getKey());
+
+                // Nobody's waiting for a reply, but a failure has already been logged
+                upload(context, entry);
+            }
+        }).mapEmpty();
+    }
+
+    /**
+     * Uploads an outbox entry's waveform data to S3 once the uploads to its key that came before it have finished. If
+     * newer data for its key is put in the outbox before its data is uploaded, its data is never uploaded, and the
+     * outcome of the newer data's upload is used instead.
+     *
+     * @param aContext The context that the upload is done on
+     * @param anEntry An outbox entry
+     * @return A future that completes with the URL of the uploaded waveform data
+     */
+    private Future<String> upload(final Context aContext, final WaveformOutbox.Entry anEntry) {
+        final String s3ObjectKey = anEntry.getKey();
+        final Future<String> previousUpload = myKeyUploads.get(s3ObjectKey);
+        final WaveformOutbox.Entry newestEntry = myNewestEntries.get(s3ObjectKey);
+        final Future<String> upload;
+
+        if (newestEntry == null || anEntry.isNewerThan(newestEntry)) {
+            myNewestEntries.put(s3ObjectKey, anEntry);
+        }
+
+        // An upload doesn't start until the previous one to its key has finished, whether or not that one succeeded
+        upload = (previousUpload == null ? Future.<String>succeededFuture() : previousUpload.otherwiseEmpty())
+                .compose(previous -> isSuperseded(anEntry) ? Future.<String>succeededFuture()
+                        : uploadIfChanged(aContext, anEntry).recover(error -> {
+                            // The entry's data file is removed when it's superseded, so it can fail to be read
+                            return isSuperseded(anEntry) ? Future.succeededFuture() : Future.failedFuture(error);
+                        }));
+
+        myKeyUploads.put(s3ObjectKey, upload);
+
+        upload.onComplete(result -> {
+            // Once the last of a key's uploads has finished, there's nothing more to keep track of for the key
+            if (myKeyUploads.remove(s3ObjectKey, upload)) {
+                myNewestEntries.remove(s3ObjectKey);
+            }
+        });
+
+        return getOutcome(s3ObjectKey, upload);
+    }
+
+    /**
+     * Gets the outcome of an upload to a key, which, if the upload was superseded, is the outcome of the key's last
+     * upload.
+     *
+     * @param aKey An S3 object key
+     * @param anUpload An upload to the key, which completes without a URL if it was superseded
+     * @return A future that completes with the URL of the key's uploaded waveform data
+     */
+    private Future<String> getOutcome(final String aKey, final Future<String> anUpload) {
+        return anUpload.compose(url -> {
+            if (url != null) {
+                return Future.succeededFuture(url);
+            }
+
+            final Future<String> lastUpload = myKeyUploads.get(aKey);
+
+            // The last upload can be superseded too, if even newer data is put in the outbox before it starts
+            return lastUpload == null ? Future.succeededFuture(getURL(aKey)) : getOutcome(aKey, lastUpload);
+        });
+    }
+
+    /**
+     * Gets whether newer waveform data than an outbox entry's has been put in the outbox for its key.
+     *
+     * @param anEntry An outbox entry
+     * @return True if the entry's data has been superseded; else, false
+     */
+    private boolean isSuperseded(final WaveformOutbox.Entry anEntry) {
+        final WaveformOutbox.Entry newestEntry = myNewestEntries.get(anEntry.getKey());
+        return newestEntry != null && newestEntry.isNewerThan(anEntry);
+    }
+
+    /**
+     * Uploads an outbox entry's waveform data to S3, retrying if it fails, and then removes it from the outbox. If S3
+     * already has the data, it's just removed from the outbox.
+     *
+     * @param aContext The context that the upload is done on
+     * @param anEntry An outbox entry
+     * @return A future that completes with the URL of the uploaded waveform data, or with null if it was superseded
+     *         before it could be uploaded
+     */
+    private Future<String> uploadIfChanged(final Context aContext, final WaveformOutbox.Entry anEntry) {
+        final String s3ObjectKey = anEntry.getKey();
+
+        if (!isSkippingUnchanged) {
+            final Promise<String> promise = Promise.promise();
+
+            upload(aContext, anEntry, 1, promise);
+            return promise.future();
         }
 
-        putRequest = putRequestBuilder.build();
+        final WorkerExecutor workers = getWorkers(aContext);
+        final Future<String> storedETag =
+                Future.fromCompletionStage(getStoredETag(myS3Client, myS3BucketName, s3ObjectKey), aContext);
+
+        return storedETag.compose(stored -> workers.<String>executeBlocking(promise -> {
+            try {
+                promise.complete(S3StreamingUpload.getETag(anEntry.getDataFile(), myPartSize));
+            } catch (final IOException details) {
+                promise.fail(details);
+            }
+        }, false).compose(eTag -> {
+            final Promise<String> promise = Promise.promise();
+
+            if (eTag.equals(stored)) {
+                LOGGER.debug(MessageCodes.AVPT_057, s3ObjectKey);
+
+                return workers.<Void>executeBlocking(removal -> {
+                    remove(anEntry);
+                    removal.complete();
+                }, false).map(getURL(s3ObjectKey));
+            }
 
-        myS3Client.putObject(putRequest, AsyncRequestBody.fromBytes(aMessage.body())).whenComplete((resp, err) -> {
-            if (resp != null) {
-                // Success!
-                final String audiowaveformURL = StringUtils.format(myS3ObjectUrlTemplate,
-                        URLEncoder.encode(s3ObjectKey, StandardCharsets.UTF_8));
+            upload(aContext, anEntry, 1, promise);
+            return promise.future();
+        }));
+    }
 
-                // Reply with a JsonObject associating the item ARK with the URL for the audiowaveform data
-                aMessage.reply(audiowaveformURL);
+    /**
+     * Makes an attempt at uploading an outbox entry's waveform data to S3, scheduling another attempt if it fails and
+     * there are attempts left. The attempt is skipped if the entry's data has been superseded by the time it starts.
+     *
+     * @param aContext The context that the upload is done on
+     * @param anEntry An outbox entry
+     * @param anAttempt The number of the attempt, starting at one
+     * @param aPromise A promise that's completed with the URL of the uploaded waveform data, or with null if it was
+     *        superseded before it could be uploaded
+     */
+    private void upload(final Context aContext, final WaveformOutbox.Entry anEntry, final int anAttempt,
+            final Promise<String> aPromise) {
+        final String s3ObjectKey = anEntry.getKey();
+        final S3StreamingUpload upload = new S3StreamingUpload(myS3Client, myS3BucketName, s3ObjectKey,
+                anEntry.getContentEncoding(), myPartSize);
+
+        // The upload blocks while each of its parts is sent, so it's run off of the event loop
+        myUploads.enqueue(() -> {
+            // Newer data can be put in the outbox while the upload's waiting in the queue or for a retry
+            if (isSuperseded(anEntry)) {
+                return Future.succeededFuture(false);
+            }
+
+            return getWorkers(aContext).<Boolean>executeBlocking(promise -> {
+                try (InputStream data = Files.newInputStream(anEntry.getDataFile())) {
+                    upload.uploadEncoded(data);
+                } catch (final IOException details) {
+                    promise.fail(details);
+                    return;
+                }
+
+                remove(anEntry);
+                promise.complete(true);
+            }, false);
+        }).onSuccess(uploaded -> {
+            if (uploaded) {
+                aPromise.complete(getURL(s3ObjectKey));
+            } else {
+                LOGGER.debug(MessageCodes.AVPT_062, s3ObjectKey);
+                aPromise.complete();
+            }
+        }).onFailure(error -> {
+            if (isSuperseded(anEntry)) {
+                // The entry's data file is removed when it's superseded, so its upload can fail for want of it
+                LOGGER.debug(MessageCodes.AVPT_062, s3ObjectKey);
+                aPromise.complete();
+            } else if (anAttempt < myUploadAttempts) {
+                final long delay = getBackoff(anAttempt);
+
+                // The retry waits on a timer, rather than holding on to one of the places in the upload queue
+                LOGGER.warn(MessageCodes.AVPT_053, s3ObjectKey, anAttempt, myUploadAttempts, delay, error.getMessage());
+                aContext.owner().setTimer(delay, timer -> upload(aContext, anEntry, anAttempt + 1, aPromise));
             } else {
-                final String s3ErrorMsg = LOGGER.getMessage(MessageCodes.AVPT_022, s3ObjectKey, err.getMessage());
+                LOGGER.error(MessageCodes.AVPT_054, s3ObjectKey, myUploadAttempts, error.getMessage());
+                aPromise.fail(error);
+            }
+        });
+    }
+
+    /**
+     * Gets the ETag of the object that's on S3 at the supplied key. If there's no object at the key, or S3 can't be
+     * asked about it, there's no ETag to compare with, so the waveform data is uploaded.
+     *
+     * @param anS3Client An S3 client
+     * @param aBucket An S3 bucket name
+     * @param aKey An S3 object key
+     * @return A future that completes with the object's ETag, without the quotes that S3 puts around it, or with null
+     *         if there's no ETag to compare with
+     */
+    static CompletableFuture<String> getStoredETag(final S3AsyncClient anS3Client, final String aBucket,
+            final String aKey) {
+        final HeadObjectRequest request = HeadObjectRequest.builder().bucket(aBucket).key(aKey).build();
+
+        return anS3Client.headObject(request).handle((head, error) -> {
+            final Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+
+            if (cause == null) {
+                return head.eTag().replace("\"", "");
+            }
 
-                // Since the sender (WatcherVerticle) just logs all errors, should be okay to use a single
-                // failureCode for all errors
-                aMessage.fail(Op.ERROR_CODE, s3ErrorMsg);
+            // An object that isn't there yet is expected; anything else is worth knowing about
+            if (!(cause instanceof S3Exception) || ((S3Exception) cause).statusCode() != HTTP_NOT_FOUND) {
+                LOGGER.warn(MessageCodes.AVPT_056, aKey, cause.getMessage());
             }
+
+            return null;
         });
     }
 
+    /**
+     * Gets the pool of worker threads that uploads, and the outbox's file I/O, run on, creating it if it hasn't been
+     * created yet.
+     *
+     * @param aContext The context that the consumer is used on
+     * @return The pool of worker threads
+     */
+    private WorkerExecutor getWorkers(final Context aContext) {
+        if (myWorkers == null) {
+            myWorkers = aContext.owner().createSharedWorkerExecutor(WORKER_POOL_NAME, myMaxConnections);
+        }
+
+        return myWorkers;
+    }
+
+    /**
+     * Removes an entry from the outbox, once S3 has its data. This blocks, so it shouldn't be called from an event loop
+     * thread.
+     *
+     * @param anEntry An outbox entry
+     */
+    private void remove(final WaveformOutbox.Entry anEntry) {
+        try {
+            anEntry.remove();
+        } catch (final IOException details) {
+            // The data's on S3, so at worst it'll be uploaded again when the outbox is next resumed
+            LOGGER.error(details, details.getMessage());
+        }
+    }
+
+    /**
+     * Gets the URL of the object with the supplied key.
+     *
+     * @param aKey An S3 object key
+     * @return The object's URL
+     */
+    private String getURL(final String aKey) {
+        return StringUtils.format(myS3ObjectUrlTemplate, URLEncoder.encode(aKey, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Gets how long to wait before the next attempt at an upload, which is a random delay (i.e. with "full jitter")
+     * of up to the backoff, which doubles with each failed attempt.
+     *
+     * @param anAttempt The number of the attempt that failed, starting at one
+     * @return The number of milliseconds to wait before the next attempt
+     */
+    private long getBackoff(final int anAttempt) {
+        final long backoff = myUploadBackoff * (1L << Math.min(anAttempt - 1, MAX_BACKOFF_DOUBLINGS));
+
+        // Timers have to be at least a millisecond long
+        return ThreadLocalRandom.current().nextLong(1, Math.max(1, Math.min(MAX_UPLOAD_BACKOFF, backoff)) + 1);
+    }
+
+    /**
+     * Gets the number of uploads that are in flight.
+     *
+     * @return The number of uploads that are in flight
+     */
+    public int getInFlightUploadCount() {
+        return myUploads.getInFlightCount();
+    }
+
+    /**
+     * Gets the number of uploads that are waiting for one of the uploads in flight to finish.
+     *
+     * @return The number of uploads that are waiting
+     */
+    public int getWaitingUploadCount() {
+        return myUploads.size();
+    }
+
     /**
      * Gets the consumer's S3 client.
      *
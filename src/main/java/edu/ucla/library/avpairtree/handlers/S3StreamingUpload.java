@@ -0,0 +1,437 @@
+package edu.ucla.library.avpairtree.handlers;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.zip.GZIPOutputStream;
+
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import info.freelibrary.util.Logger;
+import info.freelibrary.util.LoggerFactory;
+
+import edu.ucla.library.avpairtree.MessageCodes;
+
+import software.amazon.awssdk.core.async.AsyncRequestBody;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompletedMultipartUpload;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+
+/**
+ * An upload of a stream of data to S3 that never holds more than one part of the data in memory. The data is
+ * (optionally) compressed as it's read, and each part's Content-MD5 is worked out as the part is filled. Data that
+ * fits in a single part is uploaded with a plain put; anything bigger is uploaded in parts, one at a time, with the
+ * part buffer reused once each part has been uploaded.
+ * <p>
+ * Uploads block while their parts are sent, so they should be run on a worker thread.
+ * </p>
+ */
+final class S3StreamingUpload extends OutputStream {
+
+    /**
+     * The smallest part size that S3 allows for every part of a multipart upload but the last.
+     */
+    static final int MIN_PART_SIZE = 5 * 1024 * 1024;
+
+    /**
+     * The logger for streaming uploads.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(S3StreamingUpload.class, MessageCodes.BUNDLE);
+
+    /**
+     * The size that the part buffer starts at, so small uploads don't need a whole part's worth of memory.
+     */
+    private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * The content encoding of compressed data.
+     */
+    private static final String GZIP = "gzip";
+
+    /**
+     * The size of the buffer that data is read into when its ETag is worked out.
+     */
+    private static final int READ_SIZE = 8192;
+
+    /**
+     * The S3 client.
+     */
+    private final S3AsyncClient myS3Client;
+
+    /**
+     * The S3 bucket that the data is uploaded to.
+     */
+    private final String myBucket;
+
+    /**
+     * The S3 object key that the data is uploaded to.
+     */
+    private final String myKey;
+
+    /**
+     * The content encoding of the uploaded data, or null if it's uploaded as it is.
+     */
+    private final String myContentEncoding;
+
+    /**
+     * The size of each uploaded part.
+     */
+    private final int myPartSize;
+
+    /**
+     * The digest of the part that's being filled.
+     */
+    private final MessageDigest myDigest;
+
+    /**
+     * The parts that have been uploaded so far.
+     */
+    private final List<CompletedPart> myParts = new ArrayList<>();
+
+    /**
+     * The buffer of the part that's being filled.
+     */
+    private byte[] myBuffer = new byte[INITIAL_BUFFER_SIZE];
+
+    /**
+     * The number of bytes in the part buffer.
+     */
+    private int myCount;
+
+    /**
+     * The ID of the multipart upload, once the data has turned out to be bigger than a part.
+     */
+    private String myUploadID;
+
+    /**
+     * Creates a new streaming upload.
+     *
+     * @param aS3Client An S3 client
+     * @param aBucket The S3 bucket that the data is uploaded to
+     * @param aKey The S3 object key that the data is uploaded to
+     * @param aContentEncoding The content encoding of the uploaded data (only <code>gzip</code> is done by the upload
+     *        itself), or null if it's uploaded as it is
+     * @param aPartSize The size of each uploaded part, which is raised to S3's minimum if it's smaller
+     */
+    S3StreamingUpload(final S3AsyncClient aS3Client, final String aBucket, final String aKey,
+            final String aContentEncoding, final int aPartSize) {
+        myS3Client = aS3Client;
+        myBucket = aBucket;
+        myKey = aKey;
+        myContentEncoding = aContentEncoding;
+        myPartSize = Math.max(MIN_PART_SIZE, aPartSize);
+        myDigest = getMD5();
+    }
+
+    /**
+     * Gets the ETag that S3 gives the object that the data in the supplied file is uploaded to, when it's uploaded as
+     * it is (i.e. with {@link #uploadEncoded(InputStream)}) in parts of the supplied size. That's the MD5 digest of
+     * data that fits in one part; for data that's uploaded in parts, it's the MD5 digest of the parts' digests,
+     * followed by the number of parts. This blocks, so it shouldn't be called from an event loop thread.
+     *
+     * @param aDataFile A data file
+     * @param aPartSize The size of each uploaded part, which is raised to S3's minimum if it's smaller
+     * @return The ETag, without the quotes that S3 puts around it
+     * @throws IOException If the data file can't be read
+     */
+    static String getETag(final Path aDataFile, final int aPartSize) throws IOException {
+        final int partSize = Math.max(MIN_PART_SIZE, aPartSize);
+        final MessageDigest partDigest = getMD5();
+        final MessageDigest eTagDigest = getMD5();
+        final byte[] buffer = new byte[READ_SIZE];
+        int partCount = 0;
+        int partLength = 0;
+        int count;
+
+        try (InputStream data = Files.newInputStream(aDataFile)) {
+            // Parts are split up the same way that they are when they're uploaded
+            while ((count = data.read(buffer)) != -1) { // NOPMD - assignment in operand
+                int offset = 0;
+
+                while (offset < count) {
+                    if (partLength == partSize) {
+                        eTagDigest.update(partDigest.digest());
+                        partCount += 1;
+                        partLength = 0;
+                    }
+
+                    final int length = Math.min(count - offset, partSize - partLength);
+
+                    partDigest.update(buffer, offset, length);
+                    partLength += length;
+                    offset += length;
+                }
+            }
+        }
+
+        if (partCount == 0) {
+            return toHex(partDigest.digest());
+        }
+
+        eTagDigest.update(partDigest.digest());
+        return toHex(eTagDigest.digest()) + "-" + (partCount + 1);
+    }
+
+    /**
+     * Uploads the data that's read from the supplied stream, compressing it first if its content encoding is
+     * <code>gzip</code>. The stream is read to its end, but isn't closed.
+     *
+     * @param aData A stream of data
+     * @throws IOException If the data can't be read, compressed, or uploaded
+     */
+    void upload(final InputStream aData) throws IOException {
+        upload(aData, GZIP.equals(myContentEncoding));
+    }
+
+    /**
+     * Uploads the data that's read from the supplied stream, which is already stored with the upload's content
+     * encoding (e.g. it's already been compressed). The stream is read to its end, but isn't closed.
+     *
+     * @param aData A stream of encoded data
+     * @throws IOException If the data can't be read or uploaded
+     */
+    void uploadEncoded(final InputStream aData) throws IOException {
+        upload(aData, false);
+    }
+
+    /**
+     * Uploads the data that's read from the supplied stream, compressing it first if asked to.
+     *
+     * @param aData A stream of data
+     * @param aCompressing Whether the data is compressed before it's uploaded
+     * @throws IOException If the data can't be read, compressed, or uploaded
+     */
+    private void upload(final InputStream aData, final boolean aCompressing) throws IOException {
+        try {
+            // Closing the compressing stream writes its trailer to us, but doesn't finish the upload
+            try (OutputStream out = aCompressing ? new GZIPOutputStream(this) : this) {
+                aData.transferTo(out);
+            }
+
+            finish();
+        } catch (final IOException | CompletionException details) {
+            abort();
+
+            throw details instanceof IOException ? (IOException) details
+                    : new IOException(LOGGER.getMessage(MessageCodes.AVPT_022, myKey, details.getMessage()), details);
+        }
+    }
+
+    @Override
+    public void write(final int aByte) throws IOException {
+        write(new byte[] { (byte) aByte }, 0, 1);
+    }
+
+    @Override
+    public void write(final byte[] aBytes, final int aOffset, final int aLength) throws IOException {
+        int offset = aOffset;
+        int remaining = aLength;
+
+        while (remaining > 0) {
+            if (myCount == myPartSize) {
+                uploadPart();
+            }
+
+            final int length = Math.min(remaining, myPartSize - myCount);
+
+            // The part buffer grows as it's needed, up to the size of a part
+            if (myCount + length > myBuffer.length) {
+                final int size = Math.min(myPartSize, Math.max(myBuffer.length * 2, myCount + length));
+
+                myBuffer = Arrays.copyOf(myBuffer, size);
+            }
+
+            System.arraycopy(aBytes, offset, myBuffer, myCount, length);
+            myDigest.update(aBytes, offset, length);
+            myCount += length;
+            offset += length;
+            remaining -= length;
+        }
+    }
+
+    /**
+     * Does nothing; the upload is only finished once all of the data has been written without an error.
+     */
+    @Override
+    public void close() {
+        // This is intentionally left empty
+    }
+
+    /**
+     * Finishes the upload by putting the whole object, if it fit in one part, or by uploading the last part and
+     * completing the multipart upload.
+     */
+    private void finish() {
+        if (myUploadID == null) {
+            final String md5 = getContentMD5();
+            final PutObjectRequest.Builder request = PutObjectRequest.builder().bucket(myBucket).key(myKey)
+                    .contentMD5(md5).contentLength((long) myCount);
+
+            if (myContentEncoding != null) {
+                request.contentEncoding(myContentEncoding);
+            }
+
+            myS3Client.putObject(request.build(), new PartBody(myBuffer, myCount)).join();
+        } else {
+            uploadPart();
+
+            myS3Client.completeMultipartUpload(CompleteMultipartUploadRequest.builder().bucket(myBucket).key(myKey)
+                    .uploadId(myUploadID).multipartUpload(CompletedMultipartUpload.builder().parts(myParts).build())
+                    .build()).join();
+        }
+    }
+
+    /**
+     * Uploads the part that's in the part buffer, starting the multipart upload if this is its first part, and then
+     * empties the part buffer so it can be reused.
+     */
+    private void uploadPart() {
+        final int partNumber = myParts.size() + 1;
+        final String md5 = getContentMD5();
+
+        if (myUploadID == null) {
+            final CreateMultipartUploadRequest.Builder request =
+                    CreateMultipartUploadRequest.builder().bucket(myBucket).key(myKey);
+
+            if (myContentEncoding != null) {
+                request.contentEncoding(myContentEncoding);
+            }
+
+            myUploadID = myS3Client.createMultipartUpload(request.build()).join().uploadId();
+        }
+
+        // We wait for the part to be uploaded before its buffer is filled again
+        final String eTag = myS3Client.uploadPart(UploadPartRequest.builder().bucket(myBucket).key(myKey)
+                .uploadId(myUploadID).partNumber(partNumber).contentMD5(md5).contentLength((long) myCount).build(),
+                new PartBody(myBuffer, myCount)).join().eTag();
+
+        myParts.add(CompletedPart.builder().partNumber(partNumber).eTag(eTag).build());
+        myCount = 0;
+    }
+
+    /**
+     * Aborts the multipart upload, if one was started, so that its uploaded parts aren't left behind.
+     */
+    private void abort() {
+        if (myUploadID != null) {
+            final CompletableFuture<?> abort = myS3Client.abortMultipartUpload(AbortMultipartUploadRequest.builder()
+                    .bucket(myBucket).key(myKey).uploadId(myUploadID).build());
+
+            abort.whenComplete((response, error) -> {
+                if (error != null) {
+                    LOGGER.warn(MessageCodes.AVPT_050, myKey, error.getMessage());
+                }
+            });
+        }
+    }
+
+    /**
+     * Gets the Content-MD5 of the part that's in the part buffer, resetting the digest for the next part.
+     *
+     * @return The base64-encoded MD5 digest of the part
+     */
+    private String getContentMD5() {
+        return Base64.getEncoder().encodeToString(myDigest.digest());
+    }
+
+    /**
+     * Gets a new MD5 message digest.
+     *
+     * @return An MD5 message digest
+     */
+    private static MessageDigest getMD5() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (final NoSuchAlgorithmException details) {
+            throw new IllegalStateException(details); // Every Java platform has to support MD5
+        }
+    }
+
+    /**
+     * Hex-encodes a digest.
+     *
+     * @param aDigest A digest
+     * @return The hex-encoded digest
+     */
+    private static String toHex(final byte[] aDigest) {
+        final StringBuilder hex = new StringBuilder();
+
+        for (final byte value : aDigest) {
+            hex.append(String.format("%02x", value));
+        }
+
+        return hex.toString();
+    }
+
+    /**
+     * A request body that publishes the contents of the part buffer, without copying it.
+     */
+    private static final class PartBody implements AsyncRequestBody {
+
+        /**
+         * The part's data.
+         */
+        private final ByteBuffer myData;
+
+        /**
+         * Creates a new request body for a part.
+         *
+         * @param aBuffer The part buffer
+         * @param aLength The number of bytes in the part buffer
+         */
+        private PartBody(final byte[] aBuffer, final int aLength) {
+            myData = ByteBuffer.wrap(aBuffer, 0, aLength).asReadOnlyBuffer();
+        }
+
+        @Override
+        public Optional<Long> contentLength() {
+            return Optional.of((long) myData.remaining());
+        }
+
+        @Override
+        public void subscribe(final Subscriber<? super ByteBuffer> aSubscriber) {
+            // A request can be retried, so each subscriber gets the part from its start
+            final ByteBuffer data = myData.duplicate();
+
+            aSubscriber.onSubscribe(new Subscription() {
+
+                /**
+                 * Whether the part has been published or the subscription has been cancelled.
+                 */
+                private boolean isDone;
+
+                @Override
+                public void request(final long aCount) {
+                    if (!isDone && aCount > 0) {
+                        isDone = true;
+                        aSubscriber.onNext(data);
+                        aSubscriber.onComplete();
+                    }
+                }
+
+                @Override
+                public void cancel() {
+                    isDone = true;
+                }
+            });
+        }
+    }
+}
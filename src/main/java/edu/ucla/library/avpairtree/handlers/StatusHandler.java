@@ -13,7 +13,8 @@ import io.vertx.core.json.JsonObject;
 import io.vertx.ext.web.RoutingContext;
 
 /**
- * A handler that returns the application's status.
+ * A handler that returns the application's status, including how many waveform uploads are in flight and waiting once
+ * the waveform consumer has been configured.
  */
 public class StatusHandler implements Handler<RoutingContext> {
 
@@ -22,6 +23,11 @@ public class StatusHandler implements Handler<RoutingContext> {
      */
     private final Vertx myVertx;
 
+    /**
+     * The waveform consumer, once it's been configured.
+     */
+    private AmazonS3WaveformConsumer myWaveformConsumer;
+
     /**
      * Creates a new handler to respond to status requests.
      *
@@ -38,10 +44,27 @@ public class StatusHandler implements Handler<RoutingContext> {
 
         status.put(AvPtConstants.STATUS, "ok");
 
+        if (myWaveformConsumer != null) {
+            status.put(AvPtConstants.WAVEFORM_UPLOADS,
+                    new JsonObject().put(AvPtConstants.IN_FLIGHT, myWaveformConsumer.getInFlightUploadCount())
+                            .put(AvPtConstants.WAITING, myWaveformConsumer.getWaitingUploadCount()));
+        }
+
         response.setStatusCode(HTTP.OK);
         response.putHeader(HttpHeaders.CONTENT_TYPE, AvPtConstants.JSON).end(status.encodePrettily());
     }
 
+    /**
+     * Sets the waveform consumer whose uploads are reported in the application's status.
+     *
+     * @param aWaveformConsumer A waveform consumer
+     * @return This handler
+     */
+    public StatusHandler setWaveformConsumer(final AmazonS3WaveformConsumer aWaveformConsumer) {
+        myWaveformConsumer = aWaveformConsumer;
+        return this;
+    }
+
     /**
      * Gets the Vert.x instance associated with this handler.
      *
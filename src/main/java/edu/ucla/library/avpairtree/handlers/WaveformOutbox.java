@@ -0,0 +1,295 @@
+package edu.ucla.library.avpairtree.handlers;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * An on-disk outbox of waveform data that's waiting to be uploaded to S3. Each entry is a data file, stored with the
+ * content encoding that it's to be uploaded with (i.e. already compressed, if it's to be stored compressed), and a
+ * small properties file with its S3 object key and content encoding. An entry's data file is only moved into place
+ * once it's been completely written, so entries that are found in the outbox (e.g. after a restart) are always whole.
+ * Only the newest entry for a key is kept; putting an entry in the outbox removes any older ones for the same key.
+ * <p>
+ * The outbox's methods do blocking file I/O, so they should be called on a worker thread. It shouldn't be listed while
+ * entries are being put in it, since listing it cleans up after entries that weren't completely put in it.
+ * </p>
+ */
+final class WaveformOutbox {
+
+    /**
+     * The extension of an entry's data file.
+     */
+    private static final String DATA_EXT = ".dat";
+
+    /**
+     * The extension of an entry's properties file.
+     */
+    private static final String PROPERTIES_EXT = ".properties";
+
+    /**
+     * The extension of an entry's data file while it's being written.
+     */
+    private static final String PARTIAL_EXT = ".partial";
+
+    /**
+     * The property of an entry's S3 object key.
+     */
+    private static final String KEY = "key";
+
+    /**
+     * The property of an entry's content encoding.
+     */
+    private static final String CONTENT_ENCODING = "contentEncoding";
+
+    /**
+     * The content encoding of compressed data.
+     */
+    private static final String GZIP = "gzip";
+
+    /**
+     * The outbox directory.
+     */
+    private final Path myDir;
+
+    /**
+     * The number of entries that have been put in, or found in, the outbox, which orders them from oldest to newest.
+     */
+    private long myEntryCount;
+
+    /**
+     * Creates a new outbox in the supplied directory, which is created when the first entry is put in it.
+     *
+     * @param aDir An outbox directory
+     */
+    WaveformOutbox(final Path aDir) {
+        myDir = aDir;
+    }
+
+    /**
+     * Puts the waveform data in the supplied file in the outbox, compressing it if its content encoding is
+     * <code>gzip</code>, and removes any older entries for the same key. The supplied file is left where it is.
+     *
+     * @param aKey The S3 object key that the data is to be uploaded to
+     * @param aContentEncoding The content encoding of the uploaded data, or null if it's uploaded as it is
+     * @param aDataFile A waveform data file
+     * @return The outbox entry
+     * @throws IOException If the data can't be put in the outbox
+     */
+    Entry put(final String aKey, final String aContentEncoding, final Path aDataFile) throws IOException {
+        // An entry is briefly in the outbox with the one it replaces, so they're told apart by a unique suffix
+        final String keyName = URLEncoder.encode(aKey, StandardCharsets.UTF_8);
+        final String name = keyName + "-" + UUID.randomUUID();
+        final Path partialFile = myDir.resolve(name + PARTIAL_EXT);
+        final Properties properties = new Properties();
+        final Entry entry;
+
+        Files.createDirectories(myDir);
+
+        try (InputStream in = Files.newInputStream(aDataFile); OutputStream file = Files.newOutputStream(partialFile);
+                OutputStream out = GZIP.equals(aContentEncoding) ? new GZIPOutputStream(file) : file) {
+            in.transferTo(out);
+        }
+
+        properties.setProperty(KEY, aKey);
+
+        if (aContentEncoding != null) {
+            properties.setProperty(CONTENT_ENCODING, aContentEncoding);
+        }
+
+        try (OutputStream out = Files.newOutputStream(myDir.resolve(name + PROPERTIES_EXT))) {
+            properties.store(out, null);
+        }
+
+        // Entries are put in place one at a time, so an entry never removes one that was put in place after it
+        synchronized (this) {
+            // An entry counts as being in the outbox once its data file has its final name
+            entry = new Entry(Files.move(partialFile, myDir.resolve(name + DATA_EXT), StandardCopyOption.ATOMIC_MOVE),
+                    properties, ++myEntryCount);
+
+            // The older entries' data is out of date, so it mustn't be uploaded after this entry's data
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(myDir)) {
+                for (final Path file : files) {
+                    final String fileName = file.getFileName().toString();
+
+                    // A longer key can start with the same characters as this one, but its entries' names are longer
+                    if (fileName.startsWith(keyName + "-") && fileName.endsWith(DATA_EXT) &&
+                            fileName.length() == name.length() + DATA_EXT.length() && !file.equals(entry.myDataFile)) {
+                        new Entry(file, properties, 0).remove();
+                    }
+                }
+            }
+        }
+
+        return entry;
+    }
+
+    /**
+     * Lists the entries in the outbox, oldest first, removing any files that were left behind by entries that were
+     * never completely put in the outbox or were only partly removed from it, and any entries that have been replaced
+     * by newer ones for the same key.
+     *
+     * @return The entries in the outbox
+     * @throws IOException If the outbox can't be read
+     */
+    synchronized List<Entry> list() throws IOException {
+        final List<Entry> entries = new ArrayList<>();
+        final Map<String, Entry> newestEntries = new LinkedHashMap<>();
+
+        if (!Files.isDirectory(myDir)) {
+            return entries;
+        }
+
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(myDir)) {
+            for (final Path file : files) {
+                final String fileName = file.getFileName().toString();
+
+                if (fileName.endsWith(PARTIAL_EXT)) {
+                    Files.deleteIfExists(file);
+                } else if (fileName.endsWith(PROPERTIES_EXT)) {
+                    final String name = fileName.substring(0, fileName.length() - PROPERTIES_EXT.length());
+                    final Path dataFile = myDir.resolve(name + DATA_EXT);
+
+                    if (Files.exists(dataFile)) {
+                        entries.add(new Entry(dataFile, load(file), 0));
+                    } else {
+                        Files.deleteIfExists(file);
+                    }
+                }
+            }
+        }
+
+        // If the application stopped before it could remove an entry's older ones, only the newest is uploaded
+        entries.sort(Comparator.comparing(entry -> entry.myDataFile.toFile().lastModified()));
+
+        for (final Entry entry : entries) {
+            final Entry olderEntry = newestEntries.remove(entry.getKey());
+
+            if (olderEntry != null) {
+                olderEntry.remove();
+            }
+
+            entry.myNumber = ++myEntryCount;
+            newestEntries.put(entry.getKey(), entry);
+        }
+
+        return new ArrayList<>(newestEntries.values());
+    }
+
+    /**
+     * Loads an entry's properties.
+     *
+     * @param aPropertiesFile An entry's properties file
+     * @return The entry's properties
+     * @throws IOException If the properties file can't be read
+     */
+    private static Properties load(final Path aPropertiesFile) throws IOException {
+        final Properties properties = new Properties();
+
+        try (InputStream in = Files.newInputStream(aPropertiesFile)) {
+            properties.load(in);
+        }
+
+        return properties;
+    }
+
+    /**
+     * An entry in the outbox.
+     */
+    static final class Entry {
+
+        /**
+         * The entry's data file.
+         */
+        private final Path myDataFile;
+
+        /**
+         * The entry's properties.
+         */
+        private final Properties myProperties;
+
+        /**
+         * The entry's number, which is higher than those of the entries that were put in the outbox before it.
+         */
+        private long myNumber;
+
+        /**
+         * Creates a new outbox entry.
+         *
+         * @param aDataFile The entry's data file
+         * @param aProperties The entry's properties
+         * @param aNumber The entry's number
+         */
+        private Entry(final Path aDataFile, final Properties aProperties, final long aNumber) {
+            myDataFile = aDataFile;
+            myProperties = aProperties;
+            myNumber = aNumber;
+        }
+
+        /**
+         * Gets whether the entry was put in the outbox after the supplied one.
+         *
+         * @param anEntry Another outbox entry
+         * @return True if the entry is newer than the supplied one; else, false
+         */
+        boolean isNewerThan(final Entry anEntry) {
+            return myNumber > anEntry.myNumber;
+        }
+
+        /**
+         * Gets the S3 object key that the entry's data is to be uploaded to.
+         *
+         * @return The S3 object key
+         */
+        String getKey() {
+            return myProperties.getProperty(KEY);
+        }
+
+        /**
+         * Gets the content encoding that the entry's data is stored, and is to be uploaded, with.
+         *
+         * @return The content encoding, or null if the data is uploaded as it is
+         */
+        String getContentEncoding() {
+            return myProperties.getProperty(CONTENT_ENCODING);
+        }
+
+        /**
+         * Gets the entry's data file.
+         *
+         * @return The entry's data file
+         */
+        Path getDataFile() {
+            return myDataFile;
+        }
+
+        /**
+         * Removes the entry from the outbox, once its data has been uploaded.
+         *
+         * @throws IOException If the entry's files can't be deleted
+         */
+        void remove() throws IOException {
+            final String fileName = myDataFile.getFileName().toString();
+            final String name = fileName.substring(0, fileName.length() - DATA_EXT.length());
+
+            // The data file goes first; a properties file that's left on its own is cleaned up when the outbox is
+            // listed
+            Files.deleteIfExists(myDataFile);
+            Files.deleteIfExists(myDataFile.resolveSibling(name + PROPERTIES_EXT));
+        }
+    }
+}
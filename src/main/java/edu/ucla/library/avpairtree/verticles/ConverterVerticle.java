@@ -1,38 +1,94 @@
 
 package edu.ucla.library.avpairtree.verticles;
 
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 import info.freelibrary.util.Constants;
 import info.freelibrary.util.FileUtils;
 import info.freelibrary.util.Logger;
 import info.freelibrary.util.LoggerFactory;
+import info.freelibrary.util.StringUtils;
 
+import info.freelibrary.pairtree.PairtreeUtils;
+
+import edu.ucla.library.avpairtree.AdtsFrames;
+import edu.ucla.library.avpairtree.AudioRendition;
+import edu.ucla.library.avpairtree.AvPtConstants;
 import edu.ucla.library.avpairtree.AvPtUtils;
 import edu.ucla.library.avpairtree.Config;
 import edu.ucla.library.avpairtree.CsvItem;
 import edu.ucla.library.avpairtree.MessageCodes;
 import edu.ucla.library.avpairtree.Op;
+import edu.ucla.library.avpairtree.ProcessRunner;
+import edu.ucla.library.avpairtree.RequestQueue;
+import edu.ucla.library.avpairtree.ScratchSpace;
+import edu.ucla.library.avpairtree.WavHeader;
+import edu.ucla.library.avpairtree.WaveformGenerator;
 
 import io.vertx.core.AbstractVerticle;
+import io.vertx.core.CompositeFuture;
+import io.vertx.core.Future;
 import io.vertx.core.Promise;
 import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
 import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.file.FileProps;
+import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
-import ws.schild.jave.Encoder;
-import ws.schild.jave.MultimediaObject;
-import ws.schild.jave.encode.AudioAttributes;
-import ws.schild.jave.encode.EncodingAttributes;
+import io.vertx.core.parsetools.RecordParser;
+import ws.schild.jave.process.ffmpeg.DefaultFFMPEGLocator;
 
 /**
- * A verticle that converts archival media files into derivative media files.
+ * A verticle that converts archival media files into derivative media files. The FFmpeg arguments for the configured
+ * encoding are built once, when the verticle starts, and FFmpeg is run as a managed process rather than on a blocked
+ * thread. While a file is being converted, FFmpeg's progress reports are published on the event bus; a conversion can
+ * be cancelled by publishing its item's ARK.
+ * <p>
+ * When audio files are only decoded once, FFmpeg also pipes the decoded audio to audiowaveform while it converts the
+ * file, and the resulting audiowaveform data is handed to the waveform verticle once the converted file has been put
+ * into the Pairtree. The reply is then the waveform verticle's reply, rather than the Pairtree verticle's.
+ * </p>
+ * <p>
+ * WAV files that are longer than the segmentation threshold are split into segments (at AAC frame boundaries), which
+ * are encoded in parallel by the converter's worker instances and then joined together without being encoded again.
+ * </p>
+ * <p>
+ * When audio renditions are configured, every rendition is encoded by the same FFmpeg process (which decodes the audio
+ * file once and has an output for each rendition), and each rendition is then put into the Pairtree under its own
+ * name. Renditions aren't encoded in segments.
+ * </p>
+ * <p>
+ * When batching is turned on, short audio files (those no bigger than the batch threshold) that arrive at about the
+ * same time are converted together by one FFmpeg process, which has an input and output(s) for each of them, so that
+ * each short file doesn't pay for an FFmpeg process of its own. If a batch fails, its files are converted one at a
+ * time, so that each item's failure is its own.
+ * </p>
  */
 public class ConverterVerticle extends AbstractVerticle {
 
     /**
      * The prefix of the scratch space into which to write converted audio files.
      */
-    public static final String SCRATCH_SPACE_PREFIX = "av-pairtree-";
+    public static final String SCRATCH_SPACE_PREFIX = ScratchSpace.PREFIX;
+
+    /**
+     * The default file encoding format, which is also the format of the files that are put into the Pairtree.
+     */
+    public static final String DEFAULT_ENCODING_FORMAT = "mp4";
 
     /**
      * The logger used for messages from the ConverterVerticle.
@@ -60,69 +116,324 @@ public class ConverterVerticle extends AbstractVerticle {
     private static final int DEFAULT_SAMPLING_RATE = 44_100;
 
     /**
-     * The default file encoding format.
+     * The file extension of FFmpeg's progress file.
+     */
+    private static final String PROGRESS_EXT = ".progress";
+
+    /**
+     * The file extension of the audiowaveform data that's written while an audio file is being converted.
+     */
+    private static final String WAVEFORM_EXT = ".dat";
+
+    /**
+     * The file extension of a converted media file that's being written straight into the Pairtree.
+     */
+    private static final String PARTIAL_EXT = ".part";
+
+    /**
+     * The FFmpeg progress key that ends each progress report.
+     */
+    private static final String PROGRESS_KEY = "progress";
+
+    /**
+     * The file extension of the ADTS stream that encoded segments are joined into.
+     */
+    private static final String JOINED_EXT = ".joined.aac";
+
+    /**
+     * The template for the file extension of an encoded segment, which is an ADTS stream. The slot is the segment's
+     * index.
+     */
+    private static final String SEGMENT_EXT_TEMPLATE = ".segment-{}.aac";
+
+    /**
+     * The number of audio frames in an AAC frame, which segments are a multiple of.
+     */
+    private static final int AAC_FRAME_SIZE = 1024;
+
+    /**
+     * The number of AAC frames of priming that FFmpeg's AAC encoder puts at the start of what it encodes.
+     */
+    private static final int AAC_PRIMING_FRAMES = 1;
+
+    /**
+     * The least number of AAC frames that segments are encoded with on either side of their own part of the audio,
+     * so the encoder has warmed up by the time it gets to a segment's first frame and hasn't wound down before its
+     * last one.
+     */
+    private static final int SEGMENT_OVERLAP_FRAMES = 8;
+
+    /**
+     * The default duration of an encoded segment, in seconds.
+     */
+    private static final int DEFAULT_SEGMENT_DURATION = 900;
+
+    /**
+     * The default number of an item's segments that are encoded at once (i.e. the default number of conversion
+     * workers).
+     */
+    private static final int DEFAULT_SEGMENT_PARALLELISM = 2;
+
+    /**
+     * The JSON key for the ARK of the item that a segment belongs to.
+     */
+    private static final String ARK = "ark";
+
+    /**
+     * The JSON key for the FFmpeg input arguments of a segment.
+     */
+    private static final String INPUT = "input";
+
+    /**
+     * The JSON key for the path of an encoded segment.
+     */
+    private static final String OUTPUT = "output";
+
+    /**
+     * The default size, in bytes, at or below which an audio file can be converted in a batch.
+     */
+    private static final long DEFAULT_BATCH_THRESHOLD = 16L * 1024 * 1024;
+
+    /**
+     * The default time, in milliseconds, that a batch waits to be filled before it's converted.
+     */
+    private static final long DEFAULT_BATCH_LINGER = 100;
+
+    /**
+     * The scratch space that's reserved for a conversion's progress file, in bytes.
+     */
+    private static final long PROGRESS_SPACE = 1024L * 1024;
+
+    /**
+     * How much larger than its encoded audio a converted file can be, for its container and the segments' overlaps.
+     */
+    private static final double CONTAINER_OVERHEAD = 1.1;
+
+    /**
+     * The number of bytes in each point of the audiowaveform data (an 8-bit minimum and maximum).
+     */
+    private static final int WAVEFORM_POINT_SIZE = 2;
+
+    /**
+     * The conversions that are in progress, keyed by the ARKs of the items being converted.
+     */
+    private final Map<String, List<ProcessRunner>> myConversions = new HashMap<>();
+
+    /**
+     * The queue of segments that are waiting to be encoded by this instance, which encodes its share of the
+     * configured number of conversion workers' segments at a time.
+     */
+    private RequestQueue mySegmentQueue;
+
+    /**
+     * The short audio files that are waiting to be converted together.
+     */
+    private final List<BatchItem> myBatch = new ArrayList<>();
+
+    /**
+     * The ARKs of the items whose conversions have been cancelled while they were being converted.
+     */
+    private final Set<String> myCancellations = new HashSet<>();
+
+    /**
+     * The temporary scratch space for converted media files.
+     */
+    private ScratchSpace myScratchSpace;
+
+    /**
+     * The path to the FFmpeg executable.
+     */
+    private String myFFmpeg;
+
+    /**
+     * The FFmpeg arguments for the configured encoding.
+     */
+    private List<String> myEncodingArgs;
+
+    /**
+     * The FFmpeg arguments for the configured encoding of a segment, which is written as an ADTS stream.
+     */
+    private List<String> mySegmentArgs;
+
+    /**
+     * The sampling rate of converted audio files.
+     */
+    private int mySamplingRate;
+
+    /**
+     * The renditions that audio files are converted to, if more than one rendition is configured.
      */
-    private static final String DEFAULT_ENCODING_FORMAT = "mp4";
+    private List<AudioRendition> myRenditions;
 
     /**
-     * The path to the temporary scratch space for converted media files.
+     * The bit rate that audio files are encoded at when there aren't any renditions.
      */
-    private String myScratchSpace;
+    private int myBitRate;
+
+    /**
+     * The file encoding format of converted media files.
+     */
+    private String myOutputFormat;
+
+    /**
+     * Whether converted media files are written straight into the Pairtree.
+     */
+    private boolean isPlacedDirectly;
+
+    /**
+     * Whether audiowaveform data is created from the same decoding of an audio file as its conversion.
+     */
+    private boolean isDecodedOnce;
+
+    /**
+     * The duration, in seconds, above which WAV files are encoded in segments; zero if they never are.
+     */
+    private int mySegmentThreshold;
+
+    /**
+     * Whether the configured audio codec's encoded segments can be joined together seamlessly.
+     */
+    private boolean isSegmentable;
+
+    /**
+     * The duration, in seconds, of each encoded segment.
+     */
+    private int mySegmentDuration;
+
+    /**
+     * The number of an item's segments that are encoded at once.
+     */
+    private int mySegmentParallelism;
+
+    /**
+     * The most short audio files that are converted together; batching is off if it's not more than one.
+     */
+    private int myBatchSize;
+
+    /**
+     * The size, in bytes, at or below which an audio file can be converted in a batch.
+     */
+    private long myBatchThreshold;
+
+    /**
+     * The time, in milliseconds, that a batch waits to be filled before it's converted.
+     */
+    private long myBatchLinger;
+
+    /**
+     * The ID of the timer that converts the current batch once it's waited long enough.
+     */
+    private long myBatchTimerID;
 
     @Override
     public void start(final Promise<Void> aPromise) {
         final DeliveryOptions options = new DeliveryOptions().setSendTimeout(Integer.MAX_VALUE);
         final JsonObject config = config();
         final String sourceDir = config.getString(Config.SOURCE_DIR);
+        final String waveformAddress = WaveformVerticle.class.getName();
         final Vertx vertx = getVertx();
 
         LOGGER.debug(MessageCodes.AVPT_011, ConverterVerticle.class.getSimpleName(), Thread.currentThread().getName());
 
+        myOutputFormat = config.getString(Config.ENCODING_FORMAT, DEFAULT_ENCODING_FORMAT);
+        myBitRate = config.getInteger(Config.BIT_RATE, DEFAULT_BIT_RATE);
+        myEncodingArgs = getEncodingArgs(config, myBitRate);
+        mySegmentArgs = getCodecArgs(config, myBitRate);
+        mySegmentArgs.addAll(List.of("-f", "adts"));
+        mySamplingRate = config.getInteger(Config.SAMPLING_RATE, DEFAULT_SAMPLING_RATE);
+        myFFmpeg = new DefaultFFMPEGLocator().getExecutablePath();
+        isPlacedDirectly = config.getBoolean(Config.CONVERSION_DIRECT_PLACEMENT, false);
+        isDecodedOnce = config.getBoolean(Config.AUDIO_SINGLE_DECODE, false);
+        mySegmentThreshold = config.getInteger(Config.AUDIO_SEGMENT_THRESHOLD, 0);
+        // How much priming the encoder adds is only known for FFmpeg's own AAC encoder
+        isSegmentable = DEFAULT_AUDIO_CODEC.equals(config.getString(Config.AUDIO_CODEC, DEFAULT_AUDIO_CODEC));
+        mySegmentDuration = config.getInteger(Config.AUDIO_SEGMENT_DURATION, DEFAULT_SEGMENT_DURATION);
+        mySegmentParallelism = config.getInteger(Config.CONVERSION_WORKERS, DEFAULT_SEGMENT_PARALLELISM);
+        myBatchSize = config.getInteger(Config.AUDIO_BATCH_SIZE, 1);
+        myBatchThreshold = config.getLong(Config.AUDIO_BATCH_THRESHOLD, DEFAULT_BATCH_THRESHOLD);
+        myBatchLinger = config.getLong(Config.AUDIO_BATCH_LINGER, DEFAULT_BATCH_LINGER);
+
+        // FFmpeg runs in its own process, so an instance isn't tied up while it waits on one; the instances between
+        // them encode as many segments at once as there are conversion workers, however many instances there are
+        mySegmentQueue = new RequestQueue(Math.max(1,
+                (mySegmentParallelism + context.getInstanceCount() - 1) / context.getInstanceCount()));
+
+        try {
+            myRenditions = AudioRendition.fromConfig(config);
+        } catch (final IllegalArgumentException details) {
+            aPromise.fail(details);
+            return;
+        }
+
         vertx.eventBus().<CsvItem>consumer(getClass().getName()).handler(message -> {
-            final String outputFormat = config.getString(Config.ENCODING_FORMAT, DEFAULT_ENCODING_FORMAT);
             final CsvItem csvItem = message.body();
 
             try {
                 final Path inputFilePath = AvPtUtils.getInputFilePath(csvItem, sourceDir).toAbsolutePath();
-                final Path outputFilePath = getOutputFilePath(inputFilePath, outputFormat).toAbsolutePath();
-                final EncodingAttributes encoding = new EncodingAttributes();
-                final AudioAttributes audio = new AudioAttributes();
-                final Encoder encoder = new Encoder();
-
-                audio.setCodec(config.getString(Config.AUDIO_CODEC, DEFAULT_AUDIO_CODEC));
-                audio.setBitRate(config.getInteger(Config.BIT_RATE, DEFAULT_BIT_RATE));
-                audio.setChannels(config.getInteger(Config.CHANNELS, DEFAULT_CHANNELS));
-                audio.setSamplingRate(config.getInteger(Config.SAMPLING_RATE, DEFAULT_SAMPLING_RATE));
-
-                encoding.setOutputFormat(outputFormat);
-                encoding.setAudioAttributes(audio);
-                encoding.setEncodingThreads(config.getInteger(Config.ENCODING_THREADS));
-
-                encoder.encode(new MultimediaObject(inputFilePath.toFile()), outputFilePath.toFile(), encoding);
-                csvItem.setFilePath(outputFilePath.toString());
-
-                // Send our converted file to the Pairtree verticle for placement in the A/V Pairtree
-                vertx.eventBus().request(PairtreeVerticle.class.getName(), csvItem, options).onSuccess(result -> {
-                    // Clean up our converted file after it has been successfully put into the Pairtree
-                    vertx.fileSystem().delete(outputFilePath.toString()).onComplete(deletion -> {
-                        if (deletion.succeeded()) {
-                            // If our scratch space file was cleaned up, report the success back to the watcher
-                            message.reply(result.body());
-                        } else {
-                            LOGGER.error(deletion.cause(), deletion.cause().getMessage());
-                            message.fail(Op.ERROR_CODE, deletion.cause().getMessage());
+
+                // Wait for enough scratch space for the conversion before it's started, which depends on how long the
+                // audio is rather than how large its source file is
+                final Future<FileProps> inputProps = vertx.fileSystem().props(inputFilePath.toString());
+                final Future<WavHeader> inputHeader = inputProps.compose(props -> readHeader(inputFilePath));
+                final Future<ScratchSpace.Reservation> reservation = inputHeader.compose(header -> {
+                    return myScratchSpace.reserve(getScratchSize(inputProps.result().size(), header));
+                });
+
+                final Future<List<Path>> outputs = reservation
+                        .compose(reserved -> getOutputFilePaths(csvItem, inputFilePath, reserved.getDir()));
+
+                outputs.onSuccess(outputFilePaths -> {
+                    final String waveformFilePath = getScratchFilePath(csvItem, WAVEFORM_EXT);
+
+                    final long inputSize = inputProps.result().size();
+                    final WavHeader header = inputHeader.result();
+
+                    convert(csvItem, inputFilePath, inputSize, header, outputFilePaths).compose(conversion -> {
+                        // Send our converted files to the Pairtree verticle for placement in the A/V Pairtree
+                        return place(csvItem, outputFilePaths, options);
+                    }).compose(placement -> {
+                        if (!isDecodedOnce) {
+                            return Future.succeededFuture(placement);
                         }
-                    });
-                }).onFailure(error -> {
-                    // Don't need to wait for file cleanup to complete to send our fail message; just log error
-                    vertx.fileSystem().delete(outputFilePath.toString()).onComplete(deletion -> {
-                        if (deletion.failed()) {
-                            LOGGER.error(deletion.cause(), deletion.cause().getMessage());
+
+                        final DeliveryOptions waveformOptions = new DeliveryOptions(options)
+                                .addHeader(WaveformVerticle.DATA_FILE_HEADER, waveformFilePath);
+
+                        // Send the audiowaveform data that was created along with our converted file to be uploaded
+                        return vertx.eventBus().<Object>request(waveformAddress, csvItem, waveformOptions)
+                                .map(Message::body);
+                    }).compose(result -> {
+                        @SuppressWarnings("rawtypes") // Composite futures don't support typing
+                        final List<Future> deletions = new ArrayList<>();
+
+                        // Converted files that were renamed into place don't need to be cleaned up
+                        if (!isPlacedDirectly) {
+                            // Clean up our converted files after they've been successfully put into the Pairtree
+                            outputFilePaths.forEach(path -> deletions.add(vertx.fileSystem().delete(path.toString())));
+                        }
+
+                        return CompositeFuture.all(deletions).map(result);
+                    }).onSuccess(message::reply).onFailure(error -> {
+                        // Don't need to wait for file cleanup to complete to send our fail message; just log error
+                        outputFilePaths.forEach(this::deleteQuietly);
+
+                        LOGGER.error(error, error.getMessage());
+                        message.fail(AvPtUtils.getErrorCode(error), error.getMessage());
+                    }).onComplete(processing -> {
+                        reservation.result().release();
+                        myCancellations.remove(csvItem.getItemARK());
+
+                        if (isDecodedOnce) {
+                            deleteQuietly(Path.of(waveformFilePath));
                         }
                     });
+                }).onFailure(error -> {
+                    if (reservation.succeeded()) {
+                        reservation.result().release();
+                    }
 
                     LOGGER.error(error, error.getMessage());
-                    message.fail(Op.ERROR_CODE, error.getMessage());
+                    message.fail(AvPtUtils.getErrorCode(error), error.getMessage());
                 });
             } catch (final Exception details) { // NOPMD - don't check generic exceptions
                 LOGGER.error(details, details.getMessage());
@@ -130,27 +441,699 @@ public class ConverterVerticle extends AbstractVerticle {
             }
         });
 
-        // Create an temporary scratch space for converted media files
-        vertx.fileSystem().createTempDirectory(SCRATCH_SPACE_PREFIX).onSuccess(result -> {
-            LOGGER.debug(MessageCodes.AVPT_005, result);
+        // Segments of long audio files are spread across all the instances of the verticle
+        vertx.eventBus().<JsonObject>consumer(AvPtConstants.CONVERSION_SEGMENT).handler(message -> {
+            final JsonObject segment = message.body();
+
+            mySegmentQueue.enqueue(() -> encodeSegment(segment)).onSuccess(encoding -> {
+                message.reply(segment.getString(OUTPUT));
+            }).onFailure(error -> {
+                LOGGER.error(error, error.getMessage());
+                message.fail(AvPtUtils.getErrorCode(error), error.getMessage());
+            });
+        });
+
+        // Conversions can be cancelled by any instance of the verticle, so cancellations are published to them all
+        vertx.eventBus().<String>consumer(AvPtConstants.CONVERSION_CANCEL).handler(message -> {
+            final List<ProcessRunner> conversions = myConversions.get(message.body());
+
+            if (conversions != null) {
+                LOGGER.info(MessageCodes.AVPT_040, message.body());
+                myCancellations.add(message.body());
+                List.copyOf(conversions).forEach(ProcessRunner::cancel);
+            }
+
+            cancelBatched(message.body());
+        });
+
+        // Create a temporary scratch space for converted media files, sweeping up any left behind by crashed runs
+        ScratchSpace.create(vertx, config).onSuccess(scratchSpace -> {
+            LOGGER.debug(MessageCodes.AVPT_005, scratchSpace.getDir());
 
-            myScratchSpace = result;
+            myScratchSpace = scratchSpace;
 
             aPromise.complete();
         }).onFailure(aPromise::fail);
     }
 
+    @Override
+    public void stop(final Promise<Void> aPromise) {
+        myConversions.values().forEach(conversions -> List.copyOf(conversions).forEach(ProcessRunner::cancel));
+
+        if (myScratchSpace == null) {
+            aPromise.complete();
+        } else {
+            myScratchSpace.delete().onComplete(aPromise);
+        }
+    }
+
+    /**
+     * Gets the FFmpeg arguments for the configured encoding, at the supplied bit rate.
+     *
+     * @param aConfig A configuration
+     * @param aBitRate The bit rate of the audio codec
+     * @return The FFmpeg arguments that come between the input file and the output file
+     */
+    private static List<String> getEncodingArgs(final JsonObject aConfig, final int aBitRate) {
+        final List<String> args = getCodecArgs(aConfig, aBitRate);
+
+        args.addAll(List.of("-f", aConfig.getString(Config.ENCODING_FORMAT, DEFAULT_ENCODING_FORMAT)));
+
+        return List.copyOf(args);
+    }
+
+    /**
+     * Gets the FFmpeg arguments for the configured audio codec, at the supplied bit rate.
+     *
+     * @param aConfig A configuration
+     * @param aBitRate The bit rate of the audio codec
+     * @return A modifiable list of the FFmpeg arguments for the audio codec
+     */
+    private static List<String> getCodecArgs(final JsonObject aConfig, final int aBitRate) {
+        final List<String> args = new ArrayList<>();
+        final Integer threads = aConfig.getInteger(Config.ENCODING_THREADS);
+
+        args.addAll(List.of("-vn", "-acodec", aConfig.getString(Config.AUDIO_CODEC, DEFAULT_AUDIO_CODEC)));
+        args.addAll(List.of("-b:a", String.valueOf(aBitRate)));
+        args.addAll(List.of("-ac", String.valueOf(aConfig.getInteger(Config.CHANNELS, DEFAULT_CHANNELS))));
+        args.addAll(List.of("-ar", String.valueOf(aConfig.getInteger(Config.SAMPLING_RATE, DEFAULT_SAMPLING_RATE))));
+
+        if (threads != null) {
+            args.addAll(List.of("-threads", threads.toString()));
+        }
+
+        return args;
+    }
+
+    /**
+     * Gets the FFmpeg arguments for one of an audio file's outputs.
+     *
+     * @param aIndex The index of the output, which is also the index of its rendition (if renditions are configured)
+     * @return The FFmpeg arguments that come between the input file and the output file
+     */
+    private List<String> getEncodingArgs(final int aIndex) {
+        return myRenditions.isEmpty() ? myEncodingArgs
+                : getEncodingArgs(config(), myRenditions.get(aIndex).getBitRate());
+    }
+
+    /**
+     * Gets a parser for FFmpeg's progress output that publishes each of its progress reports on the event bus.
+     *
+     * @param aItemARK The ARK of the item that's being converted
+     * @return A parser of FFmpeg's progress output
+     */
+    private RecordParser getProgressParser(final String aItemARK) {
+        final JsonObject progress = new JsonObject();
+
+        return RecordParser.newDelimited("\n", line -> {
+            final String[] keyValue = line.toString().trim().split("=", 2);
+
+            if (keyValue.length == 2) {
+                progress.put(keyValue[0], keyValue[1]);
+
+                // Each report is a block of key/value pairs that ends with whether the conversion is still going
+                if (PROGRESS_KEY.equals(keyValue[0])) {
+                    vertx.eventBus().publish(AvPtConstants.CONVERSION_PROGRESS, progress.copy().put(ARK, aItemARK));
+                    progress.clear();
+                }
+            }
+        });
+    }
+
+    /**
+     * Deletes a converted file, if there is one, just logging it if it can't be deleted.
+     *
+     * @param aFilePath The path of a converted file
+     */
+    private void deleteQuietly(final Path aFilePath) {
+        final String path = aFilePath.toString();
+
+        vertx.fileSystem().exists(path).compose(exists -> {
+            return exists ? vertx.fileSystem().delete(path) : Future.<Void>succeededFuture();
+        }).onComplete(deletion -> {
+            if (deletion.failed()) {
+                LOGGER.error(deletion.cause(), deletion.cause().getMessage());
+            }
+        });
+    }
+
+    /**
+     * Reads the header of an audio file, if it's a WAV file.
+     *
+     * @param aInputFilePath The path of the input audio file
+     * @return A future with the audio file's WAV header, which is null if it isn't a WAV file that we can read
+     */
+    private Future<WavHeader> readHeader(final Path aInputFilePath) {
+        return vertx.<WavHeader>executeBlocking(promise -> {
+            try {
+                promise.complete(WavHeader.read(aInputFilePath));
+            } catch (final IOException details) {
+                promise.fail(details);
+            }
+        }, false).otherwiseEmpty();
+    }
+
+    /**
+     * Gets whether an audio file is encoded in segments, which is only done for WAV files that are longer than the
+     * segmentation threshold.
+     *
+     * @param aHeader The audio file's WAV header, or null if it isn't a WAV file
+     * @return True if the audio file is encoded in segments; else, false
+     */
+    private boolean isSegmented(final WavHeader aHeader) {
+        // When audio files are only decoded once, audiowaveform needs to be fed the whole audio file in one go
+        return aHeader != null && mySegmentThreshold > 0 && isSegmentable && !isDecodedOnce &&
+                myRenditions.isEmpty() && aHeader.getDuration() > mySegmentThreshold;
+    }
+
+    /**
+     * Gets how much scratch space the conversion of an audio file needs. The converted files' sizes follow from their
+     * bit rates and how long the audio is; when that isn't known, they're assumed to be no larger than the source file.
+     * Converted files that are written straight into the Pairtree don't take up any scratch space, but a segmented
+     * encoding's segments and the file they're joined into do.
+     *
+     * @param aInputSize The size of the input audio file, in bytes
+     * @param aHeader The audio file's WAV header, or null if it isn't a WAV file
+     * @return The number of bytes of scratch space to reserve
+     */
+    private long getScratchSize(final long aInputSize, final WavHeader aHeader) {
+        if (aHeader == null) {
+            return isPlacedDirectly ? PROGRESS_SPACE : PROGRESS_SPACE + aInputSize;
+        }
+
+        final double duration = aHeader.getDuration();
+        final long bitRate = myRenditions.isEmpty() ? myBitRate
+                : myRenditions.stream().mapToLong(AudioRendition::getBitRate).sum();
+        final long outputSize = (long) Math.ceil(duration * bitRate / Byte.SIZE * CONTAINER_OVERHEAD);
+        long size = PROGRESS_SPACE;
+
+        if (!isPlacedDirectly) {
+            size += outputSize;
+        }
+
+        if (isSegmented(aHeader)) {
+            size += outputSize * 2; // The encoded segments and the file they're joined into
+        }
+
+        if (isDecodedOnce) {
+            size += (long) Math.ceil(duration * aHeader.getSampleRate() / WaveformGenerator.SAMPLES_PER_PIXEL) *
+                    WAVEFORM_POINT_SIZE;
+        }
+
+        return size;
+    }
+
+    /**
+     * Converts an audio file: in a batch if it's short enough, or in segments if it's a WAV file that's longer than the
+     * segmentation threshold.
+     *
+     * @param aCsvItem The item whose audio file is being converted
+     * @param aInputFilePath The path of the input audio file
+     * @param aInputSize The size of the input audio file, in bytes
+     * @param aHeader The input audio file's WAV header, or null if it isn't a WAV file
+     * @param aOutputFilePaths The paths of the output audio files, one for each rendition
+     * @return A future that completes once the audio file has been converted
+     */
+    private Future<Void> convert(final CsvItem aCsvItem, final Path aInputFilePath, final long aInputSize,
+            final WavHeader aHeader, final List<Path> aOutputFilePaths) {
+        // A batch's FFmpeg process can't also pipe each of its files' decoded audio to audiowaveform
+        if (myBatchSize > 1 && !isDecodedOnce && aInputSize <= myBatchThreshold) {
+            return batch(aCsvItem, aInputFilePath, aOutputFilePaths);
+        }
+
+        if (isSegmented(aHeader)) {
+            return encodeInSegments(aCsvItem, aInputFilePath, aOutputFilePaths.get(0), aHeader);
+        }
+
+        return encode(aCsvItem, aInputFilePath, aOutputFilePaths);
+    }
+
+    /**
+     * Encodes an audio file, publishing FFmpeg's progress reports while it runs. Each of the audio renditions is an
+     * output of the same FFmpeg process, so the audio file is only decoded once. When audio files are only decoded
+     * once, the audio file's audiowaveform data is written to our scratch space at the same time.
+     *
+     * @param aCsvItem The item whose audio file is being converted
+     * @param aInputFilePath The path of the input audio file
+     * @param aOutputFilePaths The paths of the output audio files, one for each rendition
+     * @return A future that completes once the audio file has been encoded
+     */
+    private Future<Void> encode(final CsvItem aCsvItem, final Path aInputFilePath, final List<Path> aOutputFilePaths) {
+        final String ark = aCsvItem.getItemARK();
+        final String progressFilePath = getScratchFilePath(aCsvItem, PROGRESS_EXT);
+        final List<String> command = new ArrayList<>(List.of(myFFmpeg, "-nostdin", "-hide_banner", "-nostats", "-y",
+                "-i", aInputFilePath.toString(), "-progress", progressFilePath));
+
+        for (int index = 0; index < aOutputFilePaths.size(); index++) {
+            command.addAll(getEncodingArgs(index));
+            command.add(aOutputFilePaths.get(index).toString());
+        }
+
+        if (isDecodedOnce) {
+            // A second FFmpeg output, the decoded audio, is piped to audiowaveform while the conversion is running
+            command.addAll(List.of("-vn", "-acodec", "pcm_s16le", "-f", "wav", "pipe:1"));
+        }
+
+        final ProcessRunner conversion =
+                new ProcessRunner(vertx, command).follow(progressFilePath, getProgressParser(ark));
+
+        if (isDecodedOnce) {
+            conversion.pipeTo(WaveformVerticle.getCommand("-", "--input-format", "wav", "--output-filename",
+                    getScratchFilePath(aCsvItem, WAVEFORM_EXT)));
+        }
+
+        return run(ark, conversion).onComplete(run -> vertx.fileSystem().delete(progressFilePath));
+    }
+
+    /**
+     * Adds a short audio file to the current batch, which is encoded once it's full or has waited long enough.
+     *
+     * @param aCsvItem The item whose audio file is being converted
+     * @param aInputFilePath The path of the input audio file
+     * @param aOutputFilePaths The paths of the output audio files, one for each rendition
+     * @return A future that completes once the audio file has been encoded
+     */
+    private Future<Void> batch(final CsvItem aCsvItem, final Path aInputFilePath, final List<Path> aOutputFilePaths) {
+        final BatchItem item = new BatchItem(aCsvItem, aInputFilePath, aOutputFilePaths);
+
+        myBatch.add(item);
+
+        if (myBatch.size() >= myBatchSize) {
+            vertx.cancelTimer(myBatchTimerID);
+            encodeBatch();
+        } else if (myBatch.size() == 1) {
+            myBatchTimerID = vertx.setTimer(myBatchLinger, timerID -> encodeBatch());
+        }
+
+        return item.myPromise.future();
+    }
+
+    /**
+     * Takes an item whose audio file is still waiting in the current batch out of it, failing its conversion, so that
+     * it isn't encoded when the batch is.
+     *
+     * @param anItemARK The ARK of the item whose conversion has been cancelled
+     */
+    private void cancelBatched(final String anItemARK) {
+        final Iterator<BatchItem> iterator = myBatch.iterator();
+        boolean isRemoved = false;
+
+        while (iterator.hasNext()) {
+            final BatchItem item = iterator.next();
+
+            if (anItemARK.equals(item.myCsvItem.getItemARK())) {
+                LOGGER.info(MessageCodes.AVPT_040, anItemARK);
+                iterator.remove();
+                isRemoved = true;
+                item.myPromise.fail(LOGGER.getMessage(MessageCodes.AVPT_059, anItemARK));
+            }
+        }
+
+        // There's nothing left for the linger timer to flush
+        if (isRemoved && myBatch.isEmpty()) {
+            vertx.cancelTimer(myBatchTimerID);
+        }
+    }
+
+    /**
+     * Encodes the current batch of short audio files with one FFmpeg process, which has an input for each audio file
+     * and maps each input's audio to its own output(s). If the process fails, there's no telling which of the audio
+     * files it failed on, so each of them is then encoded on its own.
+     */
+    private void encodeBatch() {
+        final List<BatchItem> batch = List.copyOf(myBatch);
+        final List<String> arks = batch.stream().map(item -> item.myCsvItem.getItemARK()).collect(Collectors.toList());
+        final List<String> command = new ArrayList<>(List.of(myFFmpeg, "-nostdin", "-hide_banner", "-nostats", "-y"));
+
+        myBatch.clear();
+
+        if (batch.size() == 1) {
+            final BatchItem item = batch.get(0);
+
+            encode(item.myCsvItem, item.myInputFilePath, item.myOutputFilePaths).onComplete(item.myPromise);
+            return;
+        }
+
+        batch.forEach(item -> command.addAll(List.of("-i", item.myInputFilePath.toString())));
+
+        for (int index = 0; index < batch.size(); index++) {
+            final List<Path> outputFilePaths = batch.get(index).myOutputFilePaths;
+
+            for (int output = 0; output < outputFilePaths.size(); output++) {
+                command.addAll(List.of("-map", index + ":a:0"));
+                command.addAll(getEncodingArgs(output));
+                command.add(outputFilePaths.get(output).toString());
+            }
+        }
+
+        run(arks, new ProcessRunner(vertx, command)).onSuccess(encoding -> {
+            batch.forEach(item -> item.myPromise.complete());
+        }).onFailure(error -> {
+            LOGGER.warn(MessageCodes.AVPT_049, batch.size(), error.getMessage());
+
+            // Items that were cancelled stay failed; the others get a chance to succeed on their own
+            for (final BatchItem item : batch) {
+                if (myCancellations.contains(item.myCsvItem.getItemARK())) {
+                    item.myPromise.fail(error);
+                } else {
+                    encode(item.myCsvItem, item.myInputFilePath, item.myOutputFilePaths).onComplete(item.myPromise);
+                }
+            }
+        });
+    }
+
+    /**
+     * Encodes a WAV file in segments, which are spread across the verticle's instances, and then joins the encoded
+     * segments together. Segments are fed to FFmpeg as raw audio, straight from their part of the WAV file, so each
+     * segment starts at exactly the right frame and only its part of the WAV file is read.
+     * <p>
+     * Each segment is encoded with some of the audio on either side of its own part, and only the AAC frames of its
+     * own part are kept when the segments are joined. That way, the encoder's priming and padding at the edges of a
+     * segment are left out, and the joined audio has the same frames, in the same places, as it would have had if the
+     * WAV file had been encoded in one go.
+     * </p>
+     *
+     * @param aCsvItem The item whose audio file is being converted
+     * @param aInputFilePath The path of the input WAV file
+     * @param aOutputFilePath The path of the output audio file
+     * @param aHeader The WAV file's header
+     * @return A future that completes once the audio file has been encoded
+     */
+    @SuppressWarnings("rawtypes")
+    private Future<Void> encodeInSegments(final CsvItem aCsvItem, final Path aInputFilePath,
+            final Path aOutputFilePath, final WavHeader aHeader) {
+        final String ark = aCsvItem.getItemARK();
+        final DeliveryOptions options = new DeliveryOptions().setSendTimeout(Integer.MAX_VALUE);
+        final long frameCount = aHeader.getFrameCount();
+        final long sampleRate = aHeader.getSampleRate();
+        // Segments are cut on the shortest run of WAV frames that's resampled into a whole number of AAC frames
+        final long unitAacFrames = mySamplingRate / gcd(mySamplingRate, AAC_FRAME_SIZE * sampleRate);
+        final long unitFrames = unitAacFrames * AAC_FRAME_SIZE * sampleRate / mySamplingRate;
+        final long overlapUnits = (SEGMENT_OVERLAP_FRAMES + unitAacFrames - 1) / unitAacFrames;
+        final long segmentUnits = Math.max(1, mySegmentDuration * sampleRate / unitFrames);
+        final long segmentFrames = segmentUnits * unitFrames;
+        final RequestQueue queue = new RequestQueue(mySegmentParallelism);
+        final List<String> segmentPaths = new ArrayList<>();
+        final List<long[]> keptAacFrames = new ArrayList<>();
+        final List<Future> segments = new ArrayList<>();
+
+        for (long firstFrame = 0; firstFrame < frameCount; firstFrame += segmentFrames) {
+            final boolean isFirst = firstFrame == 0;
+            final boolean isLast = firstFrame + segmentFrames >= frameCount;
+            final long startFrame = Math.max(0, firstFrame - overlapUnits * unitFrames);
+            final long endFrame = Math.min(frameCount, firstFrame + segmentFrames + overlapUnits * unitFrames);
+            final long start = aHeader.getDataOffset() + startFrame * aHeader.getBlockAlign();
+            final long end = aHeader.getDataOffset() + endFrame * aHeader.getBlockAlign();
+            final String segmentPath =
+                    getScratchFilePath(ark, StringUtils.format(SEGMENT_EXT_TEMPLATE, segmentPaths.size()));
+            final JsonArray input = new JsonArray().add("-f").add(getRawFormat(aHeader))
+                    .add("-ar").add(String.valueOf(sampleRate))
+                    .add("-ac").add(String.valueOf(aHeader.getChannels()))
+                    .add("-i").add(StringUtils.format("subfile,,start,{},end,{},,:{}", start, end, aInputFilePath));
+            final JsonObject segment = new JsonObject().put(ARK, ark).put(INPUT, input).put(OUTPUT, segmentPath);
+
+            // An AAC frame decodes into the end of the audio in the frame before it and the start of the audio in its
+            // own, so a segment's own part starts one frame in, and it takes the next segment's first frame with it;
+            // the first segment keeps the encoder's priming, which the muxer has players skip
+            if (isFirst) {
+                keptAacFrames.add(new long[] { 0, isLast ? -1 : segmentUnits * unitAacFrames + AAC_PRIMING_FRAMES });
+            } else {
+                keptAacFrames.add(new long[] { overlapUnits * unitAacFrames + AAC_PRIMING_FRAMES,
+                    isLast ? -1 : segmentUnits * unitAacFrames });
+            }
+
+            segmentPaths.add(segmentPath);
+            segments.add(queue.enqueue(() -> {
+                // Once one of the segments has failed, there's no point in encoding the rest of them
+                for (final Future encoding : segments) {
+                    if (encoding.failed()) {
+                        return Future.failedFuture(encoding.cause());
+                    }
+                }
+
+                return vertx.eventBus().request(AvPtConstants.CONVERSION_SEGMENT, segment, options);
+            }));
+        }
+
+        return CompositeFuture.join(segments)
+                .compose(encoded -> join(ark, segmentPaths, keptAacFrames, aOutputFilePath))
+                .onComplete(joining -> segmentPaths.forEach(segmentPath -> deleteQuietly(Path.of(segmentPath))));
+    }
+
+    /**
+     * Encodes a segment of a WAV file into an ADTS stream, which has nothing but the encoded AAC frames in it.
+     *
+     * @param aSegment The segment's item ARK, FFmpeg input arguments, and output path
+     * @return A future that completes once the segment has been encoded
+     */
+    private Future<Void> encodeSegment(final JsonObject aSegment) {
+        final List<String> command = new ArrayList<>(List.of(myFFmpeg, "-nostdin", "-hide_banner", "-nostats", "-y"));
+
+        aSegment.getJsonArray(INPUT).forEach(arg -> command.add(arg.toString()));
+        command.addAll(mySegmentArgs);
+        command.add(aSegment.getString(OUTPUT));
+
+        return run(aSegment.getString(ARK), new ProcessRunner(vertx, command));
+    }
+
+    /**
+     * Joins encoded segments together, without encoding them again. The AAC frames that are kept from each segment
+     * are copied into one ADTS stream, which FFmpeg then puts in the output format's container.
+     *
+     * @param aItemARK The ARK of the item whose audio file was encoded in segments
+     * @param aSegmentPaths The paths of the encoded segments, in order
+     * @param aKeptAacFrames The index of the first AAC frame that's kept from each segment, and the number of frames
+     *        that are kept from it (or -1 if all the rest of them are)
+     * @param aOutputFilePath The path of the output audio file
+     * @return A future that completes once the segments have been joined together
+     */
+    private Future<Void> join(final String aItemARK, final List<String> aSegmentPaths,
+            final List<long[]> aKeptAacFrames, final Path aOutputFilePath) {
+        final String joinedPath = getScratchFilePath(aItemARK, JOINED_EXT);
+        final double priming = (double) AAC_PRIMING_FRAMES * AAC_FRAME_SIZE / mySamplingRate;
+
+        return vertx.<Void>executeBlocking(promise -> {
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(Path.of(joinedPath)))) {
+                for (int index = 0; index < aSegmentPaths.size(); index++) {
+                    final Path segmentPath = Path.of(aSegmentPaths.get(index));
+                    final long[] kept = aKeptAacFrames.get(index);
+
+                    // A segment that's short of frames would leave a gap in the joined audio
+                    if (AdtsFrames.copy(segmentPath, out, kept[0], kept[1]) < kept[1]) {
+                        throw new IOException(LOGGER.getMessage(MessageCodes.AVPT_060, segmentPath));
+                    }
+                }
+
+                promise.complete();
+            } catch (final IOException details) {
+                promise.fail(details);
+            }
+        }, false).compose(joined -> {
+            // Starting the stream before zero has the muxer write an edit list that skips the encoder's priming, just
+            // as it does when an audio file is encoded in one go
+            return run(aItemARK, new ProcessRunner(vertx, List.of(myFFmpeg, "-nostdin", "-hide_banner", "-nostats",
+                    "-y", "-itsoffset", String.format(Locale.ROOT, "-%.6f", priming), "-f", "aac", "-i", joinedPath,
+                    "-c", "copy", "-f", myOutputFormat, aOutputFilePath.toString())));
+        }).onComplete(joining -> deleteQuietly(Path.of(joinedPath)));
+    }
+
+    /**
+     * Gets the greatest common divisor of two numbers.
+     *
+     * @param aFirst A positive number
+     * @param aSecond Another positive number
+     * @return The greatest common divisor of the two numbers
+     */
+    private static long gcd(final long aFirst, final long aSecond) {
+        return aSecond == 0 ? aFirst : gcd(aSecond, aFirst % aSecond);
+    }
+
+    /**
+     * Runs an FFmpeg process for an item, keeping track of it so that it can be cancelled.
+     *
+     * @param aItemARK The ARK of the item that the process is working on
+     * @param aRunner The process
+     * @return A future that completes once the process has exited cleanly
+     */
+    private Future<Void> run(final String aItemARK, final ProcessRunner aRunner) {
+        return run(List.of(aItemARK), aRunner);
+    }
+
+    /**
+     * Runs an FFmpeg process for some items, keeping track of it so that it can be cancelled through any of them.
+     *
+     * @param aItemARKs The ARKs of the items that the process is working on
+     * @param aRunner The process
+     * @return A future that completes once the process has exited cleanly
+     */
+    private Future<Void> run(final List<String> aItemARKs, final ProcessRunner aRunner) {
+        for (final String itemARK : aItemARKs) {
+            myConversions.computeIfAbsent(itemARK, ark -> new ArrayList<>()).add(aRunner);
+        }
+
+        return aRunner.run().onComplete(run -> {
+            for (final String itemARK : aItemARKs) {
+                final List<ProcessRunner> conversions = myConversions.get(itemARK);
+
+                if (conversions != null) {
+                    conversions.remove(aRunner);
+
+                    if (conversions.isEmpty()) {
+                        myConversions.remove(itemARK);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Gets the FFmpeg raw audio format of a WAV file's audio frames.
+     *
+     * @param aHeader A WAV file's header
+     * @return The name of FFmpeg's demuxer for the raw audio frames
+     */
+    private static String getRawFormat(final WavHeader aHeader) {
+        if (aHeader.isFloat()) {
+            return "f32le";
+        }
+
+        switch (aHeader.getBitsPerSample()) {
+            case 8:
+                return "u8";
+            case 16:
+                return "s16le";
+            case 24:
+                return "s24le";
+            default:
+                return "s32le";
+        }
+    }
+
+    /**
+     * Gets the path of a file in our scratch space that's named after an item.
+     *
+     * @param aCsvItem An item
+     * @param aFileExt The extension of the file, including its leading period
+     * @return The path of the file
+     */
+    private String getScratchFilePath(final CsvItem aCsvItem, final String aFileExt) {
+        return getScratchFilePath(aCsvItem.getItemARK(), aFileExt);
+    }
+
+    /**
+     * Gets the path of a file in our scratch space that's named after an item's ARK.
+     *
+     * @param aItemARK An item's ARK
+     * @param aFileExt The extension of the file, including its leading period
+     * @return The path of the file
+     */
+    private String getScratchFilePath(final String aItemARK, final String aFileExt) {
+        return Path.of(myScratchSpace.getDir(), PairtreeUtils.encodeID(aItemARK) + aFileExt).toString();
+    }
+
     /**
-     * Gets the output file path from available variables.
+     * Sends an item's converted audio files to the Pairtree verticle, one after another, for placement in the A/V
+     * Pairtree. Each rendition is sent with its name, so that it's placed under its own name.
      *
+     * @param aCsvItem The item whose audio file was converted
+     * @param aOutputFilePaths The paths of the converted audio files, one for each rendition
+     * @param aOptions The delivery options for requests to the Pairtree verticle
+     * @return A future with the Pairtree verticle's reply for the last of the converted audio files
+     */
+    private Future<Object> place(final CsvItem aCsvItem, final List<Path> aOutputFilePaths,
+            final DeliveryOptions aOptions) {
+        final String pairtreeAddress = PairtreeVerticle.class.getName();
+        Future<Object> placement = Future.succeededFuture();
+
+        for (int index = 0; index < aOutputFilePaths.size(); index++) {
+            final String outputFilePath = aOutputFilePaths.get(index).toString();
+            final DeliveryOptions options = new DeliveryOptions(aOptions);
+
+            if (!myRenditions.isEmpty()) {
+                options.addHeader(PairtreeVerticle.RENDITION_HEADER, myRenditions.get(index).getName());
+            }
+
+            placement = placement.compose(previous -> {
+                aCsvItem.setFilePath(outputFilePath);
+                return vertx.eventBus().<Object>request(pairtreeAddress, aCsvItem, options).map(Message::body);
+            });
+        }
+
+        return placement;
+    }
+
+    /**
+     * Gets the paths that an item's audio file should be converted to, one for each rendition. When converted files
+     * are placed directly, they're temporary (hidden) names in the item's Pairtree object directory, so that the
+     * Pairtree verticle can just rename them into place; otherwise, they're in our scratch space.
+     *
+     * @param aCsvItem The item whose audio file is being converted
      * @param aInputFilePath The path of the input audio file
-     * @param aOutputFormat The output format for the audio file
-     * @return A file system path for the output file
+     * @param aScratchDir The scratch space directory that's reserved for the conversion
+     * @return A future with file system paths for the output files
      */
-    private Path getOutputFilePath(final Path aInputFilePath, final String aOutputFormat) {
+    private Future<List<Path>> getOutputFilePaths(final CsvItem aCsvItem, final Path aInputFilePath,
+            final String aScratchDir) {
         final String baseFileName = FileUtils.stripExt(aInputFilePath.getFileName().toString());
-        final String outputFileName = baseFileName + Constants.PERIOD + aOutputFormat;
+        final List<String> outputFileNames = new ArrayList<>();
+
+        if (myRenditions.isEmpty()) {
+            outputFileNames.add(baseFileName + Constants.PERIOD + myOutputFormat);
+        } else {
+            myRenditions.forEach(rendition -> {
+                outputFileNames.add(rendition.getFileName(baseFileName) + Constants.PERIOD + myOutputFormat);
+            });
+        }
+
+        if (!isPlacedDirectly) {
+            return Future.succeededFuture(outputFileNames.stream()
+                    .map(outputFileName -> Path.of(aScratchDir, outputFileName).toAbsolutePath())
+                    .collect(Collectors.toList()));
+        }
+
+        return vertx.eventBus().<String>request(AvPtConstants.PAIRTREE_PREPARE, aCsvItem).map(reply -> {
+            return outputFileNames.stream()
+                    .map(outputFileName -> Path.of(reply.body(), Constants.PERIOD + outputFileName + PARTIAL_EXT))
+                    .collect(Collectors.toList());
+        });
+    }
+
+    /**
+     * A short audio file that's waiting to be converted in a batch.
+     */
+    private static final class BatchItem {
+
+        /**
+         * The item whose audio file is being converted.
+         */
+        private final CsvItem myCsvItem;
+
+        /**
+         * The path of the input audio file.
+         */
+        private final Path myInputFilePath;
+
+        /**
+         * The paths of the output audio files, one for each rendition.
+         */
+        private final List<Path> myOutputFilePaths;
+
+        /**
+         * The promise that's completed once the audio file has been encoded.
+         */
+        private final Promise<Void> myPromise = Promise.promise();
 
-        return Path.of(myScratchSpace, outputFileName);
+        /**
+         * Creates a new batched audio file.
+         *
+         * @param aCsvItem The item whose audio file is being converted
+         * @param aInputFilePath The path of the input audio file
+         * @param aOutputFilePaths The paths of the output audio files, one for each rendition
+         */
+        private BatchItem(final CsvItem aCsvItem, final Path aInputFilePath, final List<Path> aOutputFilePaths) {
+            myCsvItem = aCsvItem;
+            myInputFilePath = aInputFilePath;
+            myOutputFilePaths = aOutputFilePaths;
+        }
     }
 }
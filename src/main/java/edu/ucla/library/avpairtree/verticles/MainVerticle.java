@@ -13,6 +13,7 @@ import info.freelibrary.util.Logger;
 import info.freelibrary.util.LoggerFactory;
 
 import edu.ucla.library.avpairtree.Config;
+import edu.ucla.library.avpairtree.CsvChangeCoalescer;
 import edu.ucla.library.avpairtree.CsvItem;
 import edu.ucla.library.avpairtree.CsvItemCodec;
 import edu.ucla.library.avpairtree.MessageCodes;
@@ -65,6 +66,11 @@ public class MainVerticle extends AbstractVerticle {
      */
     private static final String WORKER = "worker";
 
+    /**
+     * The default number of milliseconds a CSV file must stay unchanged before it's processed.
+     */
+    private static final long DEFAULT_STABILITY_INTERVAL = 2000;
+
     /**
      * The drop box watcher.
      */
@@ -120,9 +126,10 @@ public class MainVerticle extends AbstractVerticle {
                 final HttpServerOptions serverOptions = new HttpServerOptions().setPort(port).setHost(host);
                 final RouterBuilder routerBuilder = routerConfig.result();
                 final Vertx vertx = getVertx();
+                final StatusHandler statusHandler = new StatusHandler(vertx);
 
                 // Associate handlers with operation IDs from the application's OpenAPI specification
-                routerBuilder.operation(Op.GET_STATUS).handler(new StatusHandler(getVertx()));
+                routerBuilder.operation(Op.GET_STATUS).handler(statusHandler);
 
                 // Create the application server
                 myServer = vertx.createHttpServer(serverOptions).requestHandler(routerBuilder.createRouter());
@@ -139,11 +146,19 @@ public class MainVerticle extends AbstractVerticle {
 
                     CompositeFuture.all(futures).onSuccess(result -> {
                         try {
-                            // Configure the waveform consumer
-                            vertx.eventBus().<byte[]>consumer(WAVEFORM_CONSUMER,
-                                    new AmazonS3WaveformConsumer(aConfig)::handle);
-
-                            startCsvDirWatcher(aConfig).onComplete(startup -> {
+                            // Configure the waveform consumer, whose uploads are reported in the status
+                            final AmazonS3WaveformConsumer waveformConsumer = new AmazonS3WaveformConsumer(aConfig);
+
+                            // Uploads that were left in the outbox are resumed before any more can be put in it
+                            waveformConsumer.resumeUploads(vertx).otherwise(error -> {
+                                LOGGER.error(error, error.getMessage());
+                                return null;
+                            }).compose(resumed -> {
+                                vertx.eventBus().<String>consumer(WAVEFORM_CONSUMER, waveformConsumer::handle);
+                                statusHandler.setWaveformConsumer(waveformConsumer);
+
+                                return startCsvDirWatcher(aConfig);
+                            }).onComplete(startup -> {
                                 // Register the codec for passing CsvItem(s) over the event bus
                                 vertx.eventBus().registerDefaultCodec(CsvItem.class, new CsvItemCodec());
 
@@ -182,9 +197,9 @@ public class MainVerticle extends AbstractVerticle {
             final int nWorkerInstances;
 
             if (ConverterVerticle.class.equals(verticleClass)) {
-                nWorkerInstances = aConfig.getInteger(Config.CONVERSION_WORKERS, DEFAULT_WORKER_COUNT);
+                nWorkerInstances = getWorkerCount(aConfig, Config.CONVERSION_WORKERS);
             } else if (WaveformVerticle.class.equals(verticleClass)) {
-                nWorkerInstances = aConfig.getInteger(Config.WAVEFORM_WORKERS, DEFAULT_WORKER_COUNT);
+                nWorkerInstances = getWorkerCount(aConfig, Config.WAVEFORM_WORKERS);
             } else {
                 nWorkerInstances = DEFAULT_WORKER_COUNT;
             }
@@ -208,6 +223,25 @@ public class MainVerticle extends AbstractVerticle {
         return promise.future();
     }
 
+    /**
+     * Gets the number of worker instances to deploy. When the watcher's request queues are adaptive, there need to be
+     * enough workers to handle as many requests as the queues might allow in flight.
+     *
+     * @param aConfig An application configuration
+     * @param aWorkersProperty The configuration property for the number of workers
+     * @return The number of worker instances to deploy
+     */
+    private int getWorkerCount(final JsonObject aConfig, final String aWorkersProperty) {
+        final int workerCount = aConfig.getInteger(aWorkersProperty, DEFAULT_WORKER_COUNT);
+
+        if (aConfig.getBoolean(Config.QUEUE_ADAPTIVE, false)) {
+            return Math.max(workerCount, aConfig.getInteger(Config.QUEUE_ADAPTIVE_MAX_IN_FLIGHT,
+                    Runtime.getRuntime().availableProcessors()));
+        }
+
+        return workerCount;
+    }
+
     /**
      * Map the supplied ID and verticle name, and deploy the next verticle (if there is one).
      *
@@ -239,9 +273,15 @@ public class MainVerticle extends AbstractVerticle {
      */
     private Future<Void> startCsvDirWatcher(final JsonObject aConfig) {
         final String dirPath = aConfig.getString(Config.CSV_DIR);
+        final long interval = aConfig.getLong(Config.CSV_STABILITY_INTERVAL, DEFAULT_STABILITY_INTERVAL);
+        final DeliveryOptions options = new DeliveryOptions().setSendTimeout(Integer.MAX_VALUE);
         final Promise<Void> promise = Promise.promise();
 
         try {
+            // Copying a CSV file in can fire many events, so wait for it to settle before sending it to be processed
+            final CsvChangeCoalescer coalescer = new CsvChangeCoalescer(vertx, interval,
+                    filePath -> vertx.eventBus().request(WatcherVerticle.class.getName(), filePath, options));
+
             myWatcher = DirectoryWatcher.builder().path(Path.of(dirPath)).listener(event -> {
                 final String filePath = event.path().toAbsolutePath().toString();
 
@@ -250,8 +290,7 @@ public class MainVerticle extends AbstractVerticle {
                     case CREATE:
                     case MODIFY:
                         if (!event.isDirectory() && filePath.endsWith(".csv")) {
-                            final DeliveryOptions options = new DeliveryOptions().setSendTimeout(Integer.MAX_VALUE);
-                            vertx.eventBus().request(WatcherVerticle.class.getName(), filePath, options);
+                            coalescer.changed(filePath);
                         }
 
                         break;
@@ -263,7 +302,7 @@ public class MainVerticle extends AbstractVerticle {
             // Start the directory watcher in a background thread
             myWatcher.watchAsync();
             promise.complete();
-        } catch (final IOException details) {
+        } catch (final IOException | IllegalArgumentException details) {
             promise.fail(details);
         }
 
@@ -2,7 +2,12 @@
 package edu.ucla.library.avpairtree.verticles;
 
 import java.io.File;
+import java.io.IOException;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 import info.freelibrary.util.Constants;
 import info.freelibrary.util.Logger;
@@ -14,26 +19,67 @@ import info.freelibrary.pairtree.PairtreeFactory;
 import info.freelibrary.pairtree.PairtreeObject;
 import info.freelibrary.pairtree.PairtreeUtils;
 
+import edu.ucla.library.avpairtree.AudioRendition;
+import edu.ucla.library.avpairtree.AvPtConstants;
 import edu.ucla.library.avpairtree.Config;
 import edu.ucla.library.avpairtree.CsvItem;
 import edu.ucla.library.avpairtree.MessageCodes;
+import edu.ucla.library.avpairtree.Mp4Atoms;
 import edu.ucla.library.avpairtree.Op;
+import edu.ucla.library.avpairtree.ProcessRunner;
 
 import io.vertx.core.AbstractVerticle;
+import io.vertx.core.CompositeFuture;
 import io.vertx.core.Future;
 import io.vertx.core.Promise;
 import io.vertx.core.Vertx;
+import io.vertx.core.file.CopyOptions;
+import io.vertx.core.file.FileSystem;
+import io.vertx.core.json.JsonObject;
+import ws.schild.jave.process.ffmpeg.DefaultFFMPEGLocator;
 
 /**
- * A verticle that stores a media file in a Pairtree directory structure.
+ * A verticle that stores a media file in a Pairtree directory structure. A media file that has already been written
+ * into its Pairtree object's directory (under a temporary name) is renamed into place rather than copied; the directory
+ * that a media file should be written into can be requested at {@link AvPtConstants#PAIRTREE_PREPARE}.
+ * <p>
+ * An audio rendition is sent with its name in the {@link #RENDITION_HEADER} header and is stored under its own name,
+ * alongside the item's other renditions.
+ * </p>
+ * <p>
+ * When fast start is turned on, a source video file (sent with the {@link #VIDEO_HEADER} header) whose
+ * <code>moov</code> atom is at the end is remuxed by FFmpeg, without being encoded again, straight into its Pairtree
+ * object's directory with the <code>moov</code> atom at the front, so that players can start playing it without first
+ * reading the end of the file.
+ * </p>
  */
 public class PairtreeVerticle extends AbstractVerticle {
 
+    /**
+     * The message header with the name of the audio rendition that's being stored, if it's one of several.
+     */
+    public static final String RENDITION_HEADER = "rendition";
+
+    /**
+     * The message header that marks a media file as a source video file, rather than a converted audio file.
+     */
+    public static final String VIDEO_HEADER = "video";
+
     /**
      * Logger for the Pairtree verticle.
      */
     private static final Logger LOGGER = LoggerFactory.getLogger(PairtreeVerticle.class, MessageCodes.BUNDLE);
 
+    /**
+     * The file extension of a remuxed video file that's being written straight into the Pairtree.
+     */
+    private static final String PARTIAL_EXT = ".part";
+
+    /**
+     * The path to the FFmpeg executable, if video files are remuxed for fast start.
+     */
+    private String myFFmpeg;
+
     @Override
     public void start(final Promise<Void> aPromise) {
         final Vertx vertx = getVertx();
@@ -41,28 +87,53 @@ public class PairtreeVerticle extends AbstractVerticle {
         final File ptDirectory = new File(config().getString(Config.OUTPUT_DIR));
         final PairtreeFactory ptFactory = new PairtreeFactory(vertx);
 
+        if (config().getBoolean(Config.VIDEO_FASTSTART, false)) {
+            myFFmpeg = new DefaultFFMPEGLocator().getExecutablePath();
+        }
+
         vertx.eventBus().<CsvItem>consumer(getClass().getName()).handler(message -> {
             try {
                 final CsvItem csvItem = message.body();
                 final File itemDirectory = new File(ptDirectory, csvItem.getPathRoot());
                 final Pairtree pairtree = ptFactory.getPrefixedPairtree(ptPrefix, itemDirectory);
                 final String filePath = getFilePath(csvItem.getFilePath());
+                final String rendition = message.headers().get(RENDITION_HEADER);
+                final String id = PairtreeUtils.encodeID(csvItem.getItemARK());
+                final String extension = getFormat(config());
+                final String fileName = getFileName(id, rendition) + Constants.PERIOD + extension;
+                final Set<String> fileNames = getFileNames(id, rendition, extension);
 
                 createIfNeeded(pairtree).onSuccess(creation -> {
                     vertx.fileSystem().exists(filePath).onSuccess(exists -> {
                         final PairtreeObject ptObject = pairtree.getObject(csvItem.getItemARK());
-                        final String id = PairtreeUtils.encodeID(csvItem.getItemARK());
-                        final String extension = config().getString(Config.ENCODING_FORMAT);
-
-                        removeIfNeeded(ptObject).onSuccess(clean -> {
-                            ptObject.put(id + Constants.PERIOD + extension, filePath, put -> {
-                                if (put.succeeded()) {
-                                    message.reply(csvItem.setProcessingStatus(true));
-                                } else {
-                                    LOGGER.error(put.cause(), put.cause().getMessage());
-                                    message.fail(Op.ERROR_CODE, put.cause().getMessage());
-                                }
+
+                        // A file that has been written straight into the object's directory just needs renaming
+                        if (Path.of(filePath).toAbsolutePath().normalize().getParent()
+                                .equals(getObjectDir(csvItem))) {
+                            placeDirectly(filePath, fileName, fileNames).onSuccess(placement -> {
+                                message.reply(csvItem.setProcessingStatus(true));
+                            }).onFailure(error -> {
+                                LOGGER.error(error, error.getMessage());
+                                message.fail(Op.ERROR_CODE, error.getMessage());
                             });
+
+                            return;
+                        }
+
+                        final Future<Void> placement;
+
+                        if (myFFmpeg != null && message.headers().contains(VIDEO_HEADER)) {
+                            placement = placeFastStart(csvItem, ptObject, filePath, fileName);
+                        } else if (rendition == null) {
+                            placement = removeIfNeeded(ptObject).compose(clean -> put(ptObject, fileName, filePath));
+                        } else {
+                            // A rendition mustn't remove the item's other renditions, so it cleans up after it's put
+                            placement = put(ptObject, fileName, filePath)
+                                    .compose(put -> removeOthers(getObjectDir(csvItem), fileNames));
+                        }
+
+                        placement.onSuccess(put -> {
+                            message.reply(csvItem.setProcessingStatus(true));
                         }).onFailure(error -> {
                             LOGGER.error(error, error.getMessage());
                             message.fail(Op.ERROR_CODE, error.getMessage());
@@ -75,6 +146,26 @@ public class PairtreeVerticle extends AbstractVerticle {
                     LOGGER.error(error, error.getMessage());
                     message.fail(Op.ERROR_CODE, error.getMessage());
                 });
+            } catch (final PairtreeException | IllegalArgumentException details) {
+                LOGGER.error(details, details.getMessage());
+                message.fail(Op.ERROR_CODE, details.getMessage());
+            }
+        });
+
+        // Reply with the directory that a media file can be written into, so that it can later be renamed into place
+        vertx.eventBus().<CsvItem>consumer(AvPtConstants.PAIRTREE_PREPARE).handler(message -> {
+            try {
+                final CsvItem csvItem = message.body();
+                final File itemDirectory = new File(ptDirectory, csvItem.getPathRoot());
+                final Pairtree pairtree = ptFactory.getPrefixedPairtree(ptPrefix, itemDirectory);
+                final String objectDir = getObjectDir(csvItem).toString();
+
+                createIfNeeded(pairtree).compose(creation -> vertx.fileSystem().mkdirs(objectDir)).onSuccess(mkdirs -> {
+                    message.reply(objectDir);
+                }).onFailure(error -> {
+                    LOGGER.error(error, error.getMessage());
+                    message.fail(Op.ERROR_CODE, error.getMessage());
+                });
             } catch (final PairtreeException details) {
                 LOGGER.error(details, details.getMessage());
                 message.fail(Op.ERROR_CODE, details.getMessage());
@@ -85,6 +176,213 @@ public class PairtreeVerticle extends AbstractVerticle {
 
     }
 
+    /**
+     * Gets the directory of the Pairtree object that an item's media file is stored in.
+     *
+     * @param aCsvItem An item from a CSV file
+     * @return The absolute path of the item's Pairtree object directory
+     */
+    private Path getObjectDir(final CsvItem aCsvItem) {
+        return getObjectDir(config(), aCsvItem);
+    }
+
+    /**
+     * Gets the directory of the Pairtree object that an item's media file is stored in.
+     *
+     * @param aConfig A configuration
+     * @param aCsvItem An item from a CSV file
+     * @return The absolute path of the item's Pairtree object directory
+     */
+    private static Path getObjectDir(final JsonObject aConfig, final CsvItem aCsvItem) {
+        final String ark = aCsvItem.getItemARK();
+        final String pathARK = ark.replace(aConfig.getString(Config.PAIRTREE_PREFIX), Constants.EMPTY);
+        final Path ptRoot = Path.of(aConfig.getString(Config.OUTPUT_DIR), aCsvItem.getPathRoot(), Pairtree.ROOT);
+
+        return Path.of(PairtreeUtils.mapToPtPath(ptRoot.toString(), pathARK, pathARK)).toAbsolutePath().normalize();
+    }
+
+    /**
+     * Gets the paths of the media files that are put into an item's Pairtree object once it has been processed.
+     *
+     * @param aConfig A configuration
+     * @param aCsvItem An item from a CSV file
+     * @return The absolute paths of the item's media files in its Pairtree object
+     * @throws IllegalArgumentException If the configured audio renditions aren't valid
+     */
+    static List<Path> getMediaFiles(final JsonObject aConfig, final CsvItem aCsvItem) {
+        final Path objectDir = getObjectDir(aConfig, aCsvItem);
+        final String id = PairtreeUtils.encodeID(aCsvItem.getItemARK());
+        final String extension = Constants.PERIOD + getFormat(aConfig);
+        final List<AudioRendition> renditions = aCsvItem.isAudio() ? AudioRendition.fromConfig(aConfig) : List.of();
+
+        if (renditions.isEmpty()) {
+            return List.of(objectDir.resolve(id + extension));
+        }
+
+        return renditions.stream().map(rendition -> objectDir.resolve(rendition.getFileName(id) + extension))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Gets the name, without its extension, that a media file is stored under in its Pairtree object.
+     *
+     * @param aID The encoded ID of the item
+     * @param aRendition The name of the audio rendition, or null if the media file isn't one of several renditions
+     * @return The name of the media file
+     * @throws IllegalArgumentException If the audio rendition isn't one that's configured
+     */
+    private String getFileName(final String aID, final String aRendition) {
+        final AudioRendition rendition = aRendition == null ? null : AudioRendition.fromConfig(config(), aRendition);
+
+        if (aRendition != null && rendition == null) {
+            throw new IllegalArgumentException(LOGGER.getMessage(MessageCodes.AVPT_044, aRendition));
+        }
+
+        return rendition == null ? aID : rendition.getFileName(aID);
+    }
+
+    /**
+     * Gets the names of all the media files that belong in an item's Pairtree object.
+     *
+     * @param aID The encoded ID of the item
+     * @param aRendition The name of the audio rendition, or null if the media file isn't one of several renditions
+     * @param aExtension The media files' extension
+     * @return The names of the media files
+     */
+    private Set<String> getFileNames(final String aID, final String aRendition, final String aExtension) {
+        if (aRendition == null) {
+            return Set.of(aID + Constants.PERIOD + aExtension);
+        }
+
+        return AudioRendition.fromConfig(config()).stream()
+                .map(rendition -> rendition.getFileName(aID) + Constants.PERIOD + aExtension)
+                .collect(Collectors.toSet());
+    }
+
+    /**
+     * Renames a media file that has been written into its Pairtree object's directory into place, replacing any
+     * earlier version of it. Anything else that was in the object's directory, except for the item's other media files
+     * and files that are still being written (i.e. ones with hidden names), is removed.
+     *
+     * @param aFilePath The path of a media file in its Pairtree object's directory
+     * @param aFileName The name the media file should have in the Pairtree object
+     * @param aFileNames The names of all the media files that belong in the Pairtree object
+     * @return A future that completes once the media file is in place
+     */
+    private Future<Void> placeDirectly(final String aFilePath, final String aFileName, final Set<String> aFileNames) {
+        final Path source = Path.of(aFilePath);
+        final Path target = source.resolveSibling(aFileName);
+        final CopyOptions options = new CopyOptions().setReplaceExisting(true).setAtomicMove(true);
+
+        return vertx.fileSystem().move(aFilePath, target.toString(), options).compose(move -> {
+            return removeOthers(source.getParent(), aFileNames);
+        });
+    }
+
+    /**
+     * Puts a video file into its Pairtree object, remuxing it on the way so that its <code>moov</code> atom is at the
+     * front if it's at the end. A video file that's already laid out for fast start, or that FFmpeg can't remux, is
+     * just copied.
+     *
+     * @param aCsvItem The video item
+     * @param aPtObject The item's Pairtree object
+     * @param aFilePath The path of the video file
+     * @param aFileName The name the video file should have in the Pairtree object
+     * @return A future that completes once the video file is in place
+     */
+    private Future<Void> placeFastStart(final CsvItem aCsvItem, final PairtreeObject aPtObject, final String aFilePath,
+            final String aFileName) {
+        final FileSystem fileSystem = vertx.fileSystem();
+        final String objectDir = getObjectDir(aCsvItem).toString();
+        final String partPath = Path.of(objectDir, Constants.PERIOD + aFileName + PARTIAL_EXT).toString();
+        final String format = getFormat(config());
+
+        return vertx.<Boolean>executeBlocking(promise -> {
+            try {
+                promise.complete(Mp4Atoms.hasTrailingMoov(Path.of(aFilePath)));
+            } catch (final IOException details) {
+                promise.fail(details);
+            }
+        }, false).compose(hasTrailingMoov -> {
+            if (!hasTrailingMoov) {
+                return removeIfNeeded(aPtObject).compose(clean -> put(aPtObject, aFileName, aFilePath));
+            }
+
+            // The streams are copied as they are; the faststart flag just has the muxer write the moov atom first
+            return fileSystem.mkdirs(objectDir).compose(mkdirs -> {
+                return new ProcessRunner(vertx, List.of(myFFmpeg, "-nostdin", "-hide_banner", "-nostats", "-y", "-i",
+                        aFilePath, "-map", "0", "-c", "copy", "-movflags", "+faststart", "-f", format, partPath))
+                                .run();
+            }).compose(remux -> placeDirectly(partPath, aFileName, Set.of(aFileName))).recover(error -> {
+                LOGGER.warn(MessageCodes.AVPT_045, aCsvItem.getItemARK(), error.getMessage());
+
+                return fileSystem.exists(partPath).compose(exists -> {
+                    return exists ? fileSystem.delete(partPath) : Future.<Void>succeededFuture();
+                }).otherwiseEmpty().compose(clean -> removeIfNeeded(aPtObject))
+                        .compose(clean -> put(aPtObject, aFileName, aFilePath));
+            });
+        });
+    }
+
+    /**
+     * Gets the format of the media files that are put into the Pairtree, which is also their file extension.
+     *
+     * @param aConfig A configuration
+     * @return The configured encoding format, or the converter's default if one isn't configured
+     */
+    static String getFormat(final JsonObject aConfig) {
+        return aConfig.getString(Config.ENCODING_FORMAT, ConverterVerticle.DEFAULT_ENCODING_FORMAT);
+    }
+
+    /**
+     * Removes everything from a Pairtree object's directory except for the supplied media files and files that are
+     * still being written (i.e. ones with hidden names).
+     *
+     * @param aObjectDir A Pairtree object's directory
+     * @param aFileNames The names of the media files to keep
+     * @return A future that completes once everything else has been removed
+     */
+    private Future<Void> removeOthers(final Path aObjectDir, final Set<String> aFileNames) {
+        final FileSystem fileSystem = vertx.fileSystem();
+
+        return fileSystem.readDir(aObjectDir.toString()).compose(paths -> {
+            @SuppressWarnings("rawtypes") // Composite futures don't support typing
+            final List<Future> deletions = new ArrayList<>();
+
+            for (final String path : paths) {
+                final String fileName = Path.of(path).getFileName().toString();
+
+                if (!aFileNames.contains(fileName) && !fileName.startsWith(Constants.PERIOD)) {
+                    deletions.add(fileSystem.deleteRecursive(path, true));
+                }
+            }
+
+            return CompositeFuture.all(deletions).<Void>mapEmpty();
+        });
+    }
+
+    /**
+     * A convenience wrapper to reduce callback hell until vertx-pairtree supports futures.
+     *
+     * @param aPtObject A Pairtree object
+     * @param aFileName The name the file should have in the Pairtree object
+     * @param aFilePath The path of the file to put into the Pairtree object
+     * @return A future that completes once the file has been put into the Pairtree object
+     */
+    private Future<Void> put(final PairtreeObject aPtObject, final String aFileName, final String aFilePath) {
+        final Promise<Void> promise = Promise.promise();
+
+        aPtObject.put(aFileName, aFilePath, put -> {
+            if (put.succeeded()) {
+                promise.complete();
+            } else {
+                promise.fail(put.cause());
+            }
+        });
+
+        return promise.future();
+    }
+
     /**
      * A function to remove a pre-existing Pairtree object, if necessary, so that a new one can be written.
      *
@@ -2,46 +2,59 @@
 package edu.ucla.library.avpairtree.verticles; // NOPMD - excessive imports
 
 import java.io.BufferedWriter;
-import java.io.StringReader;
-import java.nio.charset.StandardCharsets;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import org.csveed.api.CsvClient;
 import org.csveed.api.CsvClientImpl;
-import org.csveed.api.Header;
-import org.csveed.report.CsvException;
 
 import info.freelibrary.util.Constants;
 import info.freelibrary.util.FileUtils;
 import info.freelibrary.util.Logger;
 import info.freelibrary.util.LoggerFactory;
-import info.freelibrary.util.StringUtils;
-
-import info.freelibrary.pairtree.Pairtree;
-import info.freelibrary.pairtree.PairtreeUtils;
 
+import edu.ucla.library.avpairtree.AccessUrlTemplate;
+import edu.ucla.library.avpairtree.AudioRendition;
+import edu.ucla.library.avpairtree.AvPtUtils;
 import edu.ucla.library.avpairtree.Config;
 import edu.ucla.library.avpairtree.CsvItem;
+import edu.ucla.library.avpairtree.CsvRowParser;
+import edu.ucla.library.avpairtree.CsvRows;
+import edu.ucla.library.avpairtree.FingerprintIndex;
+import edu.ucla.library.avpairtree.ItemBacklog;
 import edu.ucla.library.avpairtree.MessageCodes;
 import edu.ucla.library.avpairtree.Op;
 import edu.ucla.library.avpairtree.RequestQueue;
+import edu.ucla.library.avpairtree.ResultsJournal;
 
 import io.vertx.core.AbstractVerticle;
 import io.vertx.core.CompositeFuture;
 import io.vertx.core.Future;
+import io.vertx.core.Handler;
 import io.vertx.core.Promise;
 import io.vertx.core.Vertx;
 import io.vertx.core.eventbus.DeliveryOptions;
 import io.vertx.core.eventbus.EventBus;
 import io.vertx.core.eventbus.Message;
+import io.vertx.core.file.OpenOptions;
 import io.vertx.core.json.JsonObject;
+import io.vertx.core.parsetools.RecordParser;
 
 /**
  * A verticle that responds to events from the CSV directory watcher.
@@ -54,18 +67,48 @@ public class WatcherVerticle extends AbstractVerticle {
     private static final Logger LOGGER = LoggerFactory.getLogger(WatcherVerticle.class, MessageCodes.BUNDLE);
 
     /**
-     * A substitution pattern used in metadata.
+     * The delimiter that's used to split a CSV file into lines.
+     */
+    private static final String LINE_DELIMITER = "\n";
+
+    /**
+     * The file extension of the updated CSV file.
+     */
+    private static final String OUT_EXT = ".out";
+
+    /**
+     * The file extension of the CSV file that lists the rows that couldn't be processed.
+     */
+    private static final String RETRY_EXT = ".retry";
+
+    /**
+     * The pattern of the priority hint in a CSV file's name.
+     */
+    private static final Pattern PRIORITY_PATTERN = Pattern.compile("priority-(\\d+)", Pattern.CASE_INSENSITIVE);
+
+    /**
+     * The highest priority a CSV file can have.
      */
-    private static final String SUBSTITUTION_PATTERN = "{}";
+    private static final int MAX_PRIORITY = 100;
 
-    /** The number of concurrent conversions allowed. */
-    private static final int MAX_CONVERSIONS = 1;
+    /**
+     * A description of the settings that video files are processed with.
+     */
+    private static final String VIDEO_SETTINGS = "video";
 
-    /** The number of concurrent waveform creations allowed. */
-    private static final int MAX_WAVEFORMS = 2;
+    /**
+     * The default number of a CSV file's rows that are kept in memory before the rest are spilled to disk.
+     */
+    private static final int SPILL_THRESHOLD = 10_000;
 
-    /** The number of video processes allowed. */
-    private static final int MAX_VIDEO_PAIRTREE = 4;
+    /** The default number of concurrent conversions and waveform creations allowed (i.e. the default worker count). */
+    private static final int DEFAULT_MAX_IN_FLIGHT = 2;
+
+    /** The default number of video processes allowed. */
+    private static final int DEFAULT_MAX_VIDEO_PAIRTREE = 4;
+
+    /** The number of media files that can be fingerprinted at once. */
+    private static final int MAX_FINGERPRINTS_IN_FLIGHT = 4;
 
     /** The audio conversion queue. */
     private RequestQueue myConversionQueue;
@@ -76,239 +119,640 @@ public class WatcherVerticle extends AbstractVerticle {
     /** The video pairtree queue. */
     private RequestQueue myVideoPairtreeQueue;
 
+    /** The media file fingerprinting queue. */
+    private RequestQueue myFingerprintQueue;
+
+    /** The index of the fingerprints of media files that have been processed, if it's enabled. */
+    private FingerprintIndex myFingerprintIndex;
+
+    /** A description of the settings that audio files are processed with. */
+    private String myAudioSettings;
+
+    /** A description of the settings that video files are processed with. */
+    private String myVideoSettings;
+
+    /** The template for the IIIF access URLs of processed items. */
+    private AccessUrlTemplate myAccessUrlTemplate;
+
+    /** The ARK prefix that's stripped from ARKs before they're mapped to Pairtree paths. */
+    private String myArkPrefix;
+
+    /** The file extension of processed media files, including its leading period. */
+    private String myFileExt;
+
+    /** Whether audio files are converted and transformed into audiowaveform data from a single decoding. */
+    private boolean isDecodedOnce;
+
+    /** The renditions that audio files are converted to, if more than one rendition is configured. */
+    private List<AudioRendition> myRenditions;
+
     @Override
     public void start(final Promise<Void> aPromise) {
         final DeliveryOptions options = new DeliveryOptions().setSendTimeout(Integer.MAX_VALUE);
         final Vertx vertx = getVertx();
         final EventBus eventBus = vertx.eventBus();
 
-        myConversionQueue = new RequestQueue(MAX_CONVERSIONS);
-        myWaveformQueue = new RequestQueue(MAX_WAVEFORMS);
-        myVideoPairtreeQueue = new RequestQueue(MAX_VIDEO_PAIRTREE);
+        try {
+            final JsonObject config = config();
+            final int conversionWorkers = config.getInteger(Config.CONVERSION_WORKERS, DEFAULT_MAX_IN_FLIGHT);
+            final int waveformWorkers = config.getInteger(Config.WAVEFORM_WORKERS, DEFAULT_MAX_IN_FLIGHT);
+            final int batchSize = Math.max(1, config.getInteger(Config.AUDIO_BATCH_SIZE, 1));
+
+            // Enough conversions are let in flight for each conversion worker to fill a batch of short audio files
+            myConversionQueue = createQueue(
+                    config.getInteger(Config.CONVERSION_MAX_IN_FLIGHT, conversionWorkers * batchSize));
+            myWaveformQueue = createQueue(config.getInteger(Config.WAVEFORM_MAX_IN_FLIGHT, waveformWorkers));
+            myVideoPairtreeQueue =
+                    createQueue(config.getInteger(Config.VIDEO_MAX_IN_FLIGHT, DEFAULT_MAX_VIDEO_PAIRTREE));
+            myFingerprintQueue = new RequestQueue(MAX_FINGERPRINTS_IN_FLIGHT)
+                    .setCapacity(config.getInteger(Config.QUEUE_CAPACITY, 0));
+            isDecodedOnce = config.getBoolean(Config.AUDIO_SINGLE_DECODE, false);
+            myRenditions = AudioRendition.fromConfig(config);
+        } catch (final IllegalArgumentException details) {
+            aPromise.fail(details);
+            return;
+        }
+
+        // Check the access URL pattern now, rather than finding out it's wrong after the CSV's media has been processed
+        try {
+            final String urlPattern =
+                    config().getString(Config.ACCESS_URL_PATTERN, AccessUrlTemplate.SUBSTITUTION_PATTERN);
+            final int urlPatternIdIndex = config().getInteger(Config.ACCESS_URL_ID_INDEX, 1);
+
+            myAccessUrlTemplate = new AccessUrlTemplate(urlPattern, urlPatternIdIndex);
+        } catch (final IndexOutOfBoundsException | UnsupportedOperationException details) {
+            aPromise.fail(details);
+            return;
+        }
+
+        myArkPrefix = config().getString(Config.PAIRTREE_PREFIX);
+        myFileExt = Constants.PERIOD + PairtreeVerticle.getFormat(config());
+
+        // A change to any of these means that audio files have to be converted again
+        myAudioSettings = Stream.of(Config.ENCODING_FORMAT, Config.AUDIO_CODEC, Config.BIT_RATE, Config.CHANNELS,
+                Config.SAMPLING_RATE).map(key -> String.valueOf(config().getValue(key)))
+                .collect(Collectors.joining(","));
+
+        if (!myRenditions.isEmpty()) {
+            myAudioSettings += myRenditions.stream().map(AudioRendition::toString)
+                    .collect(Collectors.joining(",", ",", ""));
+        }
+
+        // Videos only need to be put into the Pairtree again if whether they're remuxed for fast start changes
+        myVideoSettings = config().getBoolean(Config.VIDEO_FASTSTART, false) ? VIDEO_SETTINGS + ",faststart"
+                : VIDEO_SETTINGS;
 
         // Consume messages containing a path location to an uploaded CSV file
         eventBus.<String>consumer(getClass().getName()).handler(message -> {
+            final String spillDir = config().getString(Config.SCRATCH_DIR, System.getProperty("java.io.tmpdir"));
+            final int spillThreshold = config().getInteger(Config.CSV_SPILL_THRESHOLD, SPILL_THRESHOLD);
+            final CsvRows rows = new CsvRows(vertx, spillDir, spillThreshold);
+            final AtomicInteger priority = new AtomicInteger(getPriority(message.body()));
+
             LOGGER.info(MessageCodes.AVPT_008, message.body());
 
-            // Read the CSV file and send audio and video items for further processing
-            vertx.fileSystem().readFile(message.body()).onSuccess(csvBuffer -> {
-                final StringReader csvReader = new StringReader(csvBuffer.toString(StandardCharsets.UTF_8));
-                final CsvClient<CsvItem> reader = new CsvClientImpl<>(csvReader, CsvItem.class);
-                @SuppressWarnings("rawtypes") // Composite futures don't support typing
-                final List<Future> futures = new ArrayList<>();
+            ResultsJournal.open(vertx, message.body(), getRenditionHeaders()).onSuccess(journal -> {
+                // Each item's results are journaled as soon as it's done, rather than held until they all are
+                final ItemBacklog backlog = new ItemBacklog(vertx, spillDir, this::getQueueCapacity, item -> {
+                    // Each CSV's items are queued in their own group, so CSVs take turns having items processed
+                    final QueueGroup group = new QueueGroup(message.body(), Math.max(1, priority.get()));
 
-                reader.readBeans().forEach(item -> {
-                    item.setPathRoot(item.getFilePath());
+                    return processIfChanged(item, group, options)
+                            .compose(waveformURL -> journal(journal, item, waveformURL))
+                            .recover(error -> journalFailure(journal, item, error));
+                });
 
-                    if (item.isAudio()) {
-                        // Audio gets converted from WAVE to a Web-friendly format + a waveform file is generated
+                // Reading the CSV file waits whenever the writes to the rows' or items' spill files fall behind
+                final Supplier<Future<Void>> drained =
+                        () -> CompositeFuture.all(rows.drained(), backlog.drained()).mapEmpty();
 
-                        futures.add(myConversionQueue.enqueue(
-                                () -> eventBus.<CsvItem>request(ConverterVerticle.class.getName(), item, options))
-                                .map(reply -> (Message<?>) reply));
+                // Stream through the CSV file, sending audio and video items for processing as their rows are read
+                readCsv(message.body(), rows, priority, item -> {
+                    item.setPathRoot(item.getFilePath());
 
-                        futures.add(myWaveformQueue.enqueue(
-                                () -> eventBus.<JsonObject>request(WaveformVerticle.class.getName(), item, options))
-                                .map(reply -> (Message<?>) reply));
-                    } else if (item.isVideo()) { // Videos are already in mp4 format so don't need conversion
-                        futures.add(myVideoPairtreeQueue.enqueue(
-                                () -> eventBus.<CsvItem>request(PairtreeVerticle.class.getName(), item, options))
-                                .map(reply -> (Message<?>) reply));
+                    if (item.isAudio() || item.isVideo()) {
+                        backlog.add(item);
                     } // else, ignore
-                });
+                }, drained).compose(ingestion -> rows.close()).compose(ingestion -> backlog.close()).recover(error -> {
+                    // Nothing more is started, and the journal is only closed once the items in flight have finished
+                    return backlog.stop().compose(stopped -> journal.close()).otherwiseEmpty()
+                            .compose(closed -> Future.<Void>failedFuture(error));
+                }).compose(processing -> journal.close())
+                        .compose(closed -> updateCSV(message.body(), rows, journal)).onSuccess(csvFilePath -> {
+                            final int failureCount = journal.getFailureCount();
+
+                            LOGGER.info(MessageCodes.AVPT_006, csvFilePath);
+
+                            if (failureCount == 0) {
+                                message.reply(Op.SUCCESS);
+                            } else {
+                                final String retryPath = FileUtils.stripExt(message.body()) + RETRY_EXT;
+                                final String errorMessage = LOGGER.getMessage(MessageCodes.AVPT_031, failureCount,
+                                        backlog.size(), retryPath);
+
+                                LOGGER.error(errorMessage);
+                                message.fail(Op.ERROR_CODE, errorMessage);
+                            }
+
+                            journal.delete();
+                        }).onFailure(error -> {
+                            // The journal is left behind, so the results of the items that did finish aren't lost
+                            LOGGER.error(error, error.getMessage());
+                            message.fail(Op.ERROR_CODE, error.getMessage());
+                        }).onComplete(update -> {
+                            rows.delete();
+                            backlog.delete();
+                        });
+            }).onFailure(error -> {
+                LOGGER.error(error, error.getMessage());
+                message.fail(Op.ERROR_CODE, error.getMessage());
+            });
+        });
+
+        if (config().getBoolean(Config.FINGERPRINT_INDEX, false)) {
+            FingerprintIndex.open(vertx, config().getString(Config.OUTPUT_DIR),
+                    config().getBoolean(Config.FINGERPRINT_HASH, false)).onSuccess(index -> {
+                        myFingerprintIndex = index;
+                        aPromise.complete();
+                    }).onFailure(aPromise::fail);
+        } else {
+            aPromise.complete();
+        }
+    }
+
+    @Override
+    public void stop(final Promise<Void> aPromise) {
+        if (myFingerprintIndex == null) {
+            aPromise.complete();
+        } else {
+            myFingerprintIndex.close().onComplete(aPromise);
+        }
+    }
+
+    /**
+     * Creates a request queue that allows the supplied number of requests in flight. If adaptive queues are turned on,
+     * that's just where the queue starts out; it can go up to the configured adaptive limit or down to one.
+     *
+     * @param aMaxInFlight The number of requests the queue allows in flight
+     * @return A new request queue
+     * @throws IllegalArgumentException If the number of requests allowed in flight or the queue's capacity isn't valid
+     */
+    private RequestQueue createQueue(final int aMaxInFlight) {
+        final int capacity = config().getInteger(Config.QUEUE_CAPACITY, 0);
+
+        if (config().getBoolean(Config.QUEUE_ADAPTIVE, false)) {
+            final int ceiling = config().getInteger(Config.QUEUE_ADAPTIVE_MAX_IN_FLIGHT,
+                    Runtime.getRuntime().availableProcessors());
+
+            return new RequestQueue(1, aMaxInFlight, Math.max(aMaxInFlight, ceiling), RequestQueue.systemLoad())
+                    .setCapacity(capacity);
+        }
+
+        return new RequestQueue(aMaxInFlight).setCapacity(capacity);
+    }
+
+    /**
+     * Gets a future that completes once all the request queues have room for more items.
+     *
+     * @return A future that completes once none of the request queues are full, which is already complete if none of
+     *         them are full now
+     */
+    private Future<Void> getQueueCapacity() {
+        final RequestQueue[] queues = { myFingerprintQueue, myConversionQueue, myWaveformQueue, myVideoPairtreeQueue };
+
+        for (final RequestQueue queue : queues) {
+            if (queue.isFull()) {
+                // Check them all again once this one has drained, since the others may have filled up in the meantime
+                return queue.drained().compose(drained -> getQueueCapacity());
+            }
+        }
+
+        return Future.succeededFuture();
+    }
+
+    /**
+     * Processes an item's media file, unless the fingerprint index shows that the item has already been processed and
+     * that neither its media file nor the settings it's processed with have changed since.
+     *
+     * @param aCsvItem An item from the CSV file
+     * @param aGroup The request queue group for the CSV file's items
+     * @param aOptions The delivery options for requests to the processing verticles
+     * @return A future with the item's audiowaveform URL, or an empty string if it doesn't have one
+     */
+    private Future<String> processIfChanged(final CsvItem aCsvItem, final QueueGroup aGroup,
+            final DeliveryOptions aOptions) {
+        final String ark = aCsvItem.getItemARK();
+
+        if (myFingerprintIndex == null) {
+            return process(aCsvItem, aGroup, aOptions);
+        }
+
+        final Path sourceFile = AvPtUtils.getInputFilePath(aCsvItem, config().getString(Config.SOURCE_DIR));
+        final String settings = aCsvItem.isAudio() ? myAudioSettings : myVideoSettings;
+
+        final Future<String> fingerprinting = myFingerprintQueue.enqueue(aGroup.myName, aGroup.myWeight,
+                () -> myFingerprintIndex.fingerprint(sourceFile, settings));
+
+        return fingerprinting.compose(fingerprint -> myFingerprintIndex.lookup(ark, fingerprint).compose(found -> {
+            if (found != null) {
+                LOGGER.info(MessageCodes.AVPT_037, ark);
+                return Future.succeededFuture(found);
+            }
+
+            return process(aCsvItem, aGroup, aOptions).compose(url -> {
+                // The media file is fingerprinted again now that it's been processed, and the item is only recorded
+                // if the file didn't change while it was being processed (or its output could be from the old one)
+                return myFingerprintQueue.enqueue(aGroup.myName, aGroup.myWeight,
+                        () -> myFingerprintIndex.fingerprint(sourceFile, settings)).otherwise((String) null)
+                        .compose(processed -> {
+                            if (!fingerprint.equals(processed)) {
+                                LOGGER.warn(MessageCodes.AVPT_061, ark);
+                                return Future.succeededFuture(url);
+                            }
+
+                            return myFingerprintIndex
+                                    .put(ark, processed, url, PairtreeVerticle.getMediaFiles(config(), aCsvItem))
+                                    .map(url);
+                        });
+            });
+        }));
+    }
+
+    /**
+     * Sends an item's media file to be processed.
+     *
+     * @param aCsvItem An audio or video item from the CSV file
+     * @param aGroup The request queue group for the CSV file's items
+     * @param aOptions The delivery options for requests to the processing verticles
+     * @return A future with the item's audiowaveform URL, or an empty string if it doesn't have one
+     */
+    private Future<String> process(final CsvItem aCsvItem, final QueueGroup aGroup, final DeliveryOptions aOptions) {
+        final EventBus eventBus = vertx.eventBus();
+        final String name = aGroup.myName;
+        final int weight = aGroup.myWeight;
+
+        if (aCsvItem.isAudio() && isDecodedOnce) {
+            // The converter creates the waveform file along with the conversion, and replies with its URL
+            return myConversionQueue.enqueue(name, weight,
+                    () -> eventBus.<JsonObject>request(ConverterVerticle.class.getName(), aCsvItem, aOptions))
+                    .map(processed -> processed.body().getString(aCsvItem.getItemARK(), ""));
+        }
+
+        if (aCsvItem.isAudio()) {
+            // Audio gets converted from its lossless archival format to a Web-friendly format + a waveform is generated
+            final Future<Message<CsvItem>> conversion = myConversionQueue.enqueue(name, weight,
+                    () -> eventBus.<CsvItem>request(ConverterVerticle.class.getName(), aCsvItem, aOptions));
+            final Future<Message<JsonObject>> waveform = myWaveformQueue.enqueue(name, weight,
+                    () -> eventBus.<JsonObject>request(WaveformVerticle.class.getName(), aCsvItem, aOptions));
+
+            // Wait for both to settle, so a failed item's other half isn't still running when it's recorded
+            return CompositeFuture.join(conversion, waveform)
+                    .map(processed -> waveform.result().body().getString(aCsvItem.getItemARK(), ""));
+        }
+
+        final DeliveryOptions videoOptions = new DeliveryOptions(aOptions).addHeader(PairtreeVerticle.VIDEO_HEADER, "");
+
+        // Videos are already in mp4 format so don't need conversion
+        return myVideoPairtreeQueue.enqueue(name, weight,
+                () -> eventBus.<CsvItem>request(PairtreeVerticle.class.getName(), aCsvItem, videoOptions)).map("");
+    }
 
-                CompositeFuture.all(futures).onSuccess(conversions -> {
-                    final List<Message<?>> results = conversions.result().list();
-
-                    // Filter the audiowaveform URLs out of the results and combine them all into a single JsonObject,
-                    // which we'll use as a lookup table when updating the CSV with audiowaveform URLs
-                    final JsonObject waveformUriMap =
-                            results.stream().filter(result -> result.body().getClass().equals(JsonObject.class))
-                                    .map(msg -> (JsonObject) msg.body()).reduce(new JsonObject(), JsonObject::mergeIn);
-
-                    // Map ARKs to their corresponding CsvItem
-                    final Map<String, CsvItem> csvItemMap = results.stream()
-                            .filter(result -> result.body().getClass().equals(CsvItem.class)).map(msg -> {
-                                final CsvItem item = (CsvItem) msg.body();
-
-                                LOGGER.info(MessageCodes.AVPT_009, item.getItemARK());
-                                return item;
-                            }).collect(Collectors.toMap(CsvItem::getItemARK, item -> item));
-
-                    updateCSV(message.body(), csvItemMap, waveformUriMap).onSuccess(csvFilePath -> {
-                        LOGGER.info(MessageCodes.AVPT_006, csvFilePath);
-                        message.reply(Op.SUCCESS);
-                    }).onFailure(error -> {
-                        LOGGER.error(error, error.getMessage());
-                        message.fail(Op.ERROR_CODE, error.getMessage());
-                    });
-                }).onFailure(error -> LOGGER.error(error, error.getMessage()));
-            }).onFailure(error -> LOGGER.error(error, error.getMessage()));
+    /**
+     * Gets the priority hint in a CSV file's name (e.g. <code>my-batch.priority-5.csv</code>), if it has one.
+     *
+     * @param aCsvFilePath The path to a CSV file
+     * @return The CSV file's priority, or zero if its name doesn't have a priority hint
+     */
+    private static int getPriority(final String aCsvFilePath) {
+        final Matcher matcher = PRIORITY_PATTERN.matcher(Path.of(aCsvFilePath).getFileName().toString());
+        return matcher.find() ? toPriority(matcher.group(1)) : 0;
+    }
+
+    /**
+     * Converts a priority hint into a priority.
+     *
+     * @param aPriority A priority hint
+     * @return The priority, limited to the maximum, or zero if the hint isn't a positive number
+     */
+    private static int toPriority(final String aPriority) {
+        try {
+            return Math.max(0, Math.min(MAX_PRIORITY, Integer.parseInt(aPriority.trim())));
+        } catch (final NumberFormatException details) {
+            return 0;
+        }
+    }
+
+    /**
+     * Reads a CSV file as a stream, handing each of its items to the supplied handler as soon as its row has been
+     * parsed. Only the rows that are currently being parsed are held in memory, no matter how large the CSV file is.
+     *
+     * @param aCsvFilePath The path to a CSV file
+     * @param aRows A store for the CSV file's rows, so they can be reused when the output file is written
+     * @param aPriority The CSV file's priority, which is set from its first priority value if it doesn't have one
+     * @param aItemHandler A handler for the items in the CSV file, which are passed to it in the order they're read
+     * @param aDrained A supplier of a future that completes once the files that rows and items are spilled to have
+     *        room for more of them, which is already complete if they have room now
+     * @return A future that completes once all the CSV file's rows have been read
+     */
+    private Future<Void> readCsv(final String aCsvFilePath, final CsvRows aRows, final AtomicInteger aPriority,
+            final Handler<CsvItem> aItemHandler, final Supplier<Future<Void>> aDrained) {
+        final OpenOptions openOptions = new OpenOptions().setRead(true).setWrite(false).setCreate(false);
+        final Promise<Void> promise = Promise.promise();
+
+        vertx.fileSystem().open(aCsvFilePath, openOptions).onSuccess(csvFile -> {
+            final CsvItemReader itemReader = new CsvItemReader(aRows, aPriority, aItemHandler);
+            final CsvRowParser rowParser = new CsvRowParser(itemReader);
+            final RecordParser lineParser = RecordParser.newDelimited(LINE_DELIMITER, csvFile);
+
+            lineParser.exceptionHandler(error -> {
+                csvFile.close();
+                promise.tryFail(error);
+            }).endHandler(end -> {
+                try {
+                    rowParser.end();
+                    promise.tryComplete();
+                } catch (final IllegalStateException details) {
+                    promise.tryFail(details);
+                }
+
+                csvFile.close();
+            }).handler(line -> {
+                try {
+                    rowParser.handle(line);
+                } catch (final IllegalArgumentException details) {
+                    // Stop reading a CSV file we can't understand
+                    lineParser.pause();
+                    csvFile.close();
+                    promise.tryFail(details);
+                    return;
+                }
+
+                final Future<Void> drained = aDrained.get();
+
+                // Don't read any further than the spill files' writes can keep up with
+                if (!drained.isComplete()) {
+                    lineParser.pause();
+                    drained.onComplete(resumed -> lineParser.resume());
+                }
+            });
+        }).onFailure(promise::fail);
+
+        return promise.future();
+    }
+
+    /**
+     * Records the results of a processed item in the CSV file's results journal.
+     *
+     * @param aJournal The CSV file's results journal
+     * @param aCsvItem An item that has been processed
+     * @param aWaveformURL The item's audiowaveform URL, or an empty string if it doesn't have one
+     * @return A future that completes once the item's results have been journaled
+     */
+    private Future<Void> journal(final ResultsJournal aJournal, final CsvItem aCsvItem, final String aWaveformURL) {
+        final String ark = aCsvItem.getItemARK();
+        final List<String> renditionURLs = new ArrayList<>();
+
+        LOGGER.info(MessageCodes.AVPT_009, ark);
+
+        if (!aCsvItem.isAudio() || myRenditions.isEmpty()) {
+            myRenditions.forEach(rendition -> renditionURLs.add(""));
+            return aJournal.append(ark, constructAccessURL(aCsvItem, Constants.EMPTY), aWaveformURL, renditionURLs);
+        }
+
+        myRenditions.forEach(rendition -> {
+            renditionURLs.add(constructAccessURL(aCsvItem, rendition.getFileNameSuffix()));
         });
 
-        aPromise.complete();
+        // The standard access URL column has the first rendition's access URL
+        return aJournal.append(ark, renditionURLs.get(0), aWaveformURL, renditionURLs);
     }
 
     /**
-     * Update the CSV file with our newly created IIIF access URLs and waveform URLs.
+     * Gets the names of the audio renditions' access URL columns.
+     *
+     * @return The names of the audio renditions' access URL columns, in the order the renditions are configured
+     */
+    private List<String> getRenditionHeaders() {
+        return myRenditions.stream().map(AudioRendition::getAccessUrlHeader).collect(Collectors.toList());
+    }
+
+    /**
+     * Records that an item couldn't be processed in the CSV file's results journal.
+     *
+     * @param aJournal The CSV file's results journal
+     * @param aCsvItem An item that couldn't be processed
+     * @param aError The reason the item couldn't be processed
+     * @return A future that completes once the item's failure has been journaled
+     */
+    private Future<Void> journalFailure(final ResultsJournal aJournal, final CsvItem aCsvItem, final Throwable aError) {
+        LOGGER.error(MessageCodes.AVPT_030, aCsvItem.getItemARK(), aError.getMessage());
+        return aJournal.appendFailure(aCsvItem.getItemARK(), aError);
+    }
+
+    /**
+     * Update the CSV file with our newly created IIIF access URLs and waveform URLs, along with each processed item's
+     * status. The CSV file isn't read again; instead, the rows that were kept from when it was first parsed are used,
+     * along with the results that were journaled as its items were processed. The rows of any items that couldn't be
+     * processed are also written, as they were, to a retry file that can be dropped back into the watched folder once
+     * the problems with them have been fixed.
      *
      * @param aCsvFilePath The path to the existing CSV file
-     * @param aCsvItemMap A map of ARKs to the items that have been processed
-     * @param aWaveformMap A map of ARKs to audiowaveform URLs for the items that have been processed
+     * @param aRows The rows that were read from the existing CSV file
+     * @param aJournal The closed results journal of the items that have been processed
      * @return The path of the new CSV file
      */
     @SuppressWarnings({ "PMD.ExcessiveMethodLength", "PMD.CognitiveComplexity" })
-    private Future<String> updateCSV(final String aCsvFilePath, final Map<String, CsvItem> aCsvItemMap,
-            final JsonObject aWaveformMap) {
-        final String newCsvPath = FileUtils.stripExt(aCsvFilePath) + ".out"; // Would be re-watched if ext was .csv
-        final Promise<String> promise = Promise.promise();
-
-        // Read CSV file in a non-blocking manner and then do something with the data
-        vertx.fileSystem().readFile(aCsvFilePath).onSuccess(csvBuffer -> {
-            final StringReader csvReader = new StringReader(csvBuffer.toString(StandardCharsets.UTF_8));
-            final CsvClient<CsvItem> reader = new CsvClientImpl<>(csvReader, CsvItem.class);
-
-            // Open the CSV file we'll be writing the updated information to
-            try (BufferedWriter csvWriter = Files.newBufferedWriter(Paths.get(newCsvPath))) {
+    private Future<String> updateCSV(final String aCsvFilePath, final CsvRows aRows, final ResultsJournal aJournal) {
+        final String newCsvPath = FileUtils.stripExt(aCsvFilePath) + OUT_EXT; // Would be re-watched if ext was .csv
+        final String retryCsvPath = FileUtils.stripExt(aCsvFilePath) + RETRY_EXT;
+        final boolean hasFailures = aJournal.getFailureCount() > 0;
+        final int partSize = Math.max(1, config().getInteger(Config.CSV_SPILL_THRESHOLD, SPILL_THRESHOLD));
+
+        // A journal with more results than the rows that are kept in memory is read back one part of the rows at a time
+        final boolean isReadInParts = aJournal.size() > partSize;
+
+        // Writing blocks (as does reading back any rows that were spilled to disk), so keep it off the event loop
+        return vertx.executeBlocking(promise -> {
+            final Path retryFile = Paths.get(retryCsvPath);
+
+            // Open the CSV files we'll be writing the updated information (and any failed rows) to
+            try (BufferedWriter csvWriter = Files.newBufferedWriter(Paths.get(newCsvPath));
+                    BufferedWriter retryWriter = hasFailures ? Files.newBufferedWriter(retryFile) : null) {
                 final CsvClient<?> writer = new CsvClientImpl<>(csvWriter);
-                final Header originalHeader = reader.readHeader();
-
-                final int originalRowSize = originalHeader.size();
-                final int originalAccessUrlIndex = getUrlAccessIndex(originalHeader);
-                final int originalWaveformIndex = getWaveformIndex(originalHeader);
+                final CsvClient<?> retries = hasFailures ? new CsvClientImpl<>(retryWriter) : null;
+                // ARK -> { URL, waveform, status, error, ... }, for all the rows or just the part that's being written
+                final Map<String, String[]> results = isReadInParts ? new HashMap<>() : aJournal.read();
+                final String[] originalHeader = aRows.getHeader();
+                final List<String> header = new ArrayList<>(Arrays.asList(originalHeader));
+
+                // Use the columns that already exist (e.g. if the CSV has been processed before) or else add them
+                final int originalAccessUrlIndex = aRows.getIndex(CsvItem.IIIF_ACCESS_URL_HEADER);
+                final int accessUrlIndex = getOrAddColumn(header, CsvItem.IIIF_ACCESS_URL_HEADER);
+                final int waveformIndex = getOrAddColumn(header, CsvItem.WAVEFORM_HEADER);
+                final int statusIndex = getOrAddColumn(header, CsvItem.PROCESSING_STATUS_HEADER);
+                final int errorIndex = getOrAddColumn(header, CsvItem.PROCESSING_ERROR_HEADER);
+                final int arkIndex = aRows.getIndex(CsvItem.ITEM_ARK_HEADER);
+                final List<String> renditionHeaders = getRenditionHeaders();
+                final int[] originalRenditionIndices = new int[renditionHeaders.size()];
+                final int[] renditionIndices = new int[renditionHeaders.size()];
+
+                for (int index = 0; index < renditionIndices.length; index++) {
+                    originalRenditionIndices[index] = aRows.getIndex(renditionHeaders.get(index));
+                    renditionIndices[index] = getOrAddColumn(header, renditionHeaders.get(index));
+                }
 
-                final int rowSize;
-                final int accessUrlIndex;
-                final int waveformIndex;
+                final int rowSize = header.size();
 
-                // Override the unusual out of the box defaults for the writer
+                // Override the unusual out of the box defaults for the writers
                 writer.setEscape('"').setQuote('"').setSeparator(',');
+                writer.writeHeader(header.toArray(new String[0]));
 
-                // Deal with the header row first; unless both columns exist already, we have to modify the underlying
-                // array (it's arguably a limitation of CSVeed that we have to do that)
-                if (originalWaveformIndex != -1 && originalAccessUrlIndex != -1) {
-                    // Both columns exist already, so just use the header as-is; record some useful metadata first
-                    rowSize = originalRowSize;
-                    accessUrlIndex = originalAccessUrlIndex;
-                    waveformIndex = originalWaveformIndex;
-
-                    writer.writeHeader(originalHeader);
-                } else {
-                    final String[] headerRow;
-
-                    if (originalAccessUrlIndex != -1) {
-                        // IIIF Access URL exists, but not Waveform; expand CSV by one column
-                        rowSize = originalRowSize + 1;
-                        accessUrlIndex = originalAccessUrlIndex;
-                    } else {
-                        // Neither IIIF Access URL or Waveform exist in the CSV yet (Waveform cannot possibly exist
-                        // without IIIF Access URL); expand CSV by two columns
-                        rowSize = originalRowSize + 2;
-                        accessUrlIndex = rowSize - 2;
-                    }
+                if (hasFailures) {
+                    retries.setEscape('"').setQuote('"').setSeparator(',');
+                    retries.writeHeader(originalHeader);
+                }
 
-                    waveformIndex = rowSize - 1;
-                    headerRow = new String[rowSize];
+                final List<String[]> part = new ArrayList<>();
+                final Consumer<String[]> rowWriter = originalRow -> {
+                    final String[] result = results.get(getValue(originalRow, arkIndex));
+                    final String[] row = new String[rowSize];
 
                     for (int index = 0; index < rowSize; index++) {
-                        // Put the new header fields where they belong
-                        if (accessUrlIndex == index) {
-                            headerRow[index] = CsvItem.IIIF_ACCESS_URL_HEADER;
+                        if (result == null) {
+                            // Items that weren't processed keep what was already there (e.g. in the case of images)
+                            row[index] = getValue(originalRow, index);
+                        } else if (accessUrlIndex == index) {
+                            // Don't overwrite an existing access URL with the empty one of an item that failed
+                            row[index] = result[0].isEmpty() && originalAccessUrlIndex != -1
+                                    ? getValue(originalRow, index) : result[0];
                         } else if (waveformIndex == index) {
-                            headerRow[index] = CsvItem.WAVEFORM_HEADER;
+                            row[index] = result[1];
+                        } else if (statusIndex == index) {
+                            row[index] = result[2];
+                        } else if (errorIndex == index) {
+                            row[index] = result[3];
                         } else {
-                            // Copy values from the original header row to the new one
-                            headerRow[index] = originalHeader.getName(index + 1); // Row and Header indices are 1-based
+                            row[index] = getValue(originalRow, index);
                         }
                     }
 
-                    writer.writeHeader(headerRow);
-                }
+                    // Like the access URL, a rendition's existing access URL isn't overwritten with an empty one
+                    for (int rendition = 0; result != null && rendition < renditionIndices.length; rendition++) {
+                        final String renditionURL = result[4 + rendition];
 
-                // Now, stream through all the non-header rows
-                reader.readRows().stream().forEach(originalRow -> {
-                    final String ark = originalRow.get(CsvItem.ITEM_ARK_HEADER);
-                    final CsvItem csvItem = aCsvItemMap.get(ark);
-                    final String[] row = new String[rowSize];
-
-                    for (int index = 0; index < rowSize; index++) {
-                        if (accessUrlIndex == index) {
-                            if (aCsvItemMap.containsKey(ark)) {
-                                row[index] = constructAccessURL(csvItem);
-                            } else if (originalAccessUrlIndex != -1) {
-                                // Don't overwrite what was already there (e.g. in the case of images)
-                                row[index] = originalRow.get(index + 1);
-                            } else {
-                                row[index] = "";
-                            }
-                        } else if (waveformIndex == index) {
-                            row[index] = aWaveformMap.getString(ark, "");
-                        } else {
-                            row[index] = originalRow.get(index + 1);
+                        if (!renditionURL.isEmpty() || originalRenditionIndices[rendition] == -1) {
+                            row[renditionIndices[rendition]] = renditionURL;
                         }
                     }
 
                     writer.writeRow(row);
+
+                    if (result != null && ResultsJournal.FAILED.equals(result[2])) {
+                        retries.writeRow(originalRow);
+                    }
+                };
+
+                // Now, stream through all the non-header rows
+                aRows.forEach(originalRow -> {
+                    if (!isReadInParts) {
+                        rowWriter.accept(originalRow);
+                        return;
+                    }
+
+                    part.add(originalRow);
+
+                    if (part.size() == partSize) {
+                        writePart(aJournal, part, arkIndex, results, rowWriter);
+                    }
                 });
 
+                if (isReadInParts) {
+                    writePart(aJournal, part, arkIndex, results, rowWriter);
+                }
+
                 csvWriter.close();
+
+                if (hasFailures) {
+                    retryWriter.close();
+                } else {
+                    // Don't leave a retry file from an earlier run behind once everything has succeeded
+                    Files.deleteIfExists(retryFile);
+                }
+
                 promise.complete(newCsvPath);
             } catch (final Exception details) { // NOPMD - avoid catching generic exceptions
                 promise.fail(details);
             }
         });
-
-        return promise.future();
     }
 
     /**
-     * Gets the IIIF access URL index.
+     * Writes a part of a CSV file's rows, reading back just the journaled results of their items first.
      *
-     * @param aHeader A header
-     * @return The IIIF access URL index
+     * @param aJournal The closed results journal of the items that have been processed
+     * @param aPart The rows in this part of the CSV file, which is emptied once they've been written
+     * @param aArkIndex The index of the item ARK column
+     * @param aResults The map that the rows' results are read into, replacing the results of the previous part
+     * @param aRowWriter A writer of rows, which looks up each row's results in the map
+     * @throws UncheckedIOException If the journal can't be read
      */
-    private int getUrlAccessIndex(final Header aHeader) {
+    private static void writePart(final ResultsJournal aJournal, final List<String[]> aPart, final int aArkIndex,
+            final Map<String, String[]> aResults, final Consumer<String[]> aRowWriter) {
+        final Set<String> itemARKs = aPart.stream().map(row -> getValue(row, aArkIndex)).collect(Collectors.toSet());
+
+        aResults.clear();
+
         try {
-            return aHeader.getIndex(CsvItem.IIIF_ACCESS_URL_HEADER) - 1; // Row and Header indices are 1-based
-        } catch (final CsvException details) {
-            return -1; // Seems odd to throw an exception for this
+            aResults.putAll(aJournal.read(itemARKs));
+        } catch (final IOException details) {
+            throw new UncheckedIOException(details);
         }
+
+        aPart.forEach(aRowWriter);
+        aPart.clear();
     }
 
     /**
-     * Gets the waveform index.
+     * Gets the index of a column in the supplied header, adding the column to the end of the header if it's not there.
      *
-     * @param aHeader A header
-     * @return The waveform index
+     * @param aHeader The header of a CSV file
+     * @param aColumnName A column name
+     * @return The index of the column
      */
-    private int getWaveformIndex(final Header aHeader) {
-        try {
-            return aHeader.getIndex(CsvItem.WAVEFORM_HEADER) - 1;
-        } catch (final CsvException details) {
-            return -1;
+    private static int getOrAddColumn(final List<String> aHeader, final String aColumnName) {
+        final int index = aHeader.indexOf(aColumnName);
+
+        if (index != -1) {
+            return index;
         }
+
+        aHeader.add(aColumnName);
+        return aHeader.size() - 1;
+    }
+
+    /**
+     * Gets the value at the supplied index of a row, or an empty string if the row doesn't have a value there.
+     *
+     * @param aRow A CSV row
+     * @param aIndex An index position in the row
+     * @return The value at the supplied index
+     */
+    private static String getValue(final String[] aRow, final int aIndex) {
+        return aIndex != -1 && aIndex < aRow.length ? aRow[aIndex] : "";
     }
 
     /**
      * Encodes the Pairtree path in the A/V server's access URL.
      *
      * @param aCsvItem An item from the CSV file
+     * @param aFileNameSuffix The part of the item's media file name that comes after its encoded ID, which may be
+     *        empty
      * @return An encoded path for the A/V server's access URL
-     * @throws IndexOutOfBoundsException If a supplied ID index position isn't valid
-     * @throws UnsupportedOperationException If the access URL pattern doesn't contain any placeholders
      */
-    private String constructAccessURL(final CsvItem aCsvItem) {
-        final String arkPrefix = config().getString(Config.PAIRTREE_PREFIX);
+    private String constructAccessURL(final CsvItem aCsvItem, final String aFileNameSuffix) {
         final String ark = aCsvItem.getItemARK();
-        final String pathARK = ark.replace(arkPrefix, Constants.EMPTY); // Strip ARK prefix
-        final String slug = aCsvItem.getPathRoot();
-        final String encodedARK = PairtreeUtils.encodeID(ark);
-        final String fileExt = Constants.PERIOD + config().getString(Config.ENCODING_FORMAT);
-        final String accessUrlPattern = config().getString(Config.ACCESS_URL_PATTERN, SUBSTITUTION_PATTERN);
-        final int urlPatternIdIndex = config().getInteger(Config.ACCESS_URL_ID_INDEX, 1);
-        final String ptPath = PairtreeUtils.mapToPtPath(slug + Constants.SLASH + Pairtree.ROOT, pathARK, pathARK);
-        final String ptFilePath = (ptPath + Constants.SLASH + encodedARK + fileExt).replace(Constants.PLUS, "%2B");
-        final String accessURL = addIdPath(accessUrlPattern, urlPatternIdIndex, ptFilePath);
+        final String accessURL =
+                myAccessUrlTemplate.build(aCsvItem.getPathRoot(), ark, myArkPrefix, aFileNameSuffix, myFileExt);
 
         LOGGER.debug(MessageCodes.AVPT_010, ark, accessURL);
 
@@ -316,73 +760,125 @@ public class WatcherVerticle extends AbstractVerticle {
     }
 
     /**
-     * Gets the IIIF access URL.
-     *
-     * @param aAccessUrlPattern A textual pattern to use for the IIIF access URL
-     * @param aUrlPatternIdIndex A position for the ID in the access URL pattern
-     * @param aIdPath An ID's Pairtree path
-     * @return The IIIF access URL
-     * @throws IndexOutOfBoundsException If a supplied ID index position isn't valid
-     * @throws UnsupportedOperationException If the access URL pattern doesn't contain any placeholders
+     * The request queue group that a CSV file's items are queued in.
      */
-    @SuppressWarnings({ "PMD.CyclomaticComplexity", "PMD.AvoidLiteralsInIfCondition" })
-    private String addIdPath(final String aAccessUrlPattern, final int aUrlPatternIdIndex, final String aIdPath) {
-        final int substitutionCount = countSubstitutionPatterns(aAccessUrlPattern);
-
-        // We allow up to three path substitutions, with the Pairtree path being able to be swapped into any of them
-        switch (substitutionCount) {
-            case 3:
-                switch (aUrlPatternIdIndex) {
-                    case 1:
-                        return StringUtils.format(aAccessUrlPattern, aIdPath, SUBSTITUTION_PATTERN,
-                                SUBSTITUTION_PATTERN);
-                    case 2:
-                        return StringUtils.format(aAccessUrlPattern, SUBSTITUTION_PATTERN, aIdPath,
-                                SUBSTITUTION_PATTERN);
-                    case 3:
-                        return StringUtils.format(aAccessUrlPattern, SUBSTITUTION_PATTERN, SUBSTITUTION_PATTERN,
-                                aIdPath);
-                    default:
-                        throw new IndexOutOfBoundsException(
-                                LOGGER.getMessage(MessageCodes.AVPT_013, aUrlPatternIdIndex));
-                }
-            case 2:
-                if (aUrlPatternIdIndex == 1) {
-                    return StringUtils.format(aAccessUrlPattern, aIdPath, SUBSTITUTION_PATTERN);
-                } else if (aUrlPatternIdIndex == 2) {
-                    return StringUtils.format(aAccessUrlPattern, SUBSTITUTION_PATTERN, aIdPath);
-                } else {
-                    throw new IndexOutOfBoundsException(LOGGER.getMessage(MessageCodes.AVPT_013, aUrlPatternIdIndex));
-                }
-            case 1:
-                if (aUrlPatternIdIndex == 1) {
-                    return StringUtils.format(aAccessUrlPattern, aIdPath);
-                } else {
-                    throw new IndexOutOfBoundsException(LOGGER.getMessage(MessageCodes.AVPT_013, aUrlPatternIdIndex));
-                }
-            default:
-                throw new UnsupportedOperationException(LOGGER.getMessage(MessageCodes.AVPT_013, substitutionCount));
+    private static final class QueueGroup {
+
+        /**
+         * The name of the group.
+         */
+        private final String myName;
+
+        /**
+         * The weight of the group.
+         */
+        private final int myWeight;
+
+        /**
+         * Creates a new request queue group.
+         *
+         * @param aName The name of the group
+         * @param aWeight The weight of the group
+         */
+        private QueueGroup(final String aName, final int aWeight) {
+            myName = aName;
+            myWeight = aWeight;
         }
     }
 
     /**
-     * Counts the number of substitution patterns in the supplied string.
-     *
-     * @param aString A string with substitution patterns (e.g. <code>{}</code>)
-     * @return The number of substitution patterns in the supplied string
+     * A row handler that turns a CSV file's rows into the items that we process.
      */
-    private int countSubstitutionPatterns(final String aString) {
-        final Pattern pattern = Pattern.compile(SUBSTITUTION_PATTERN, Pattern.LITERAL);
-        final Matcher matcher = pattern.matcher(aString);
+    private static final class CsvItemReader implements Handler<String[]> {
+
+        /**
+         * The store that keeps each row.
+         */
+        private final CsvRows myRows;
+
+        /**
+         * The CSV file's priority.
+         */
+        private final AtomicInteger myPriority;
+
+        /**
+         * The handler that receives each item.
+         */
+        private final Handler<CsvItem> myItemHandler;
+
+        /**
+         * The index of the priority column.
+         */
+        private int myPriorityIndex = -1;
+
+        /**
+         * The index of the item ARK column.
+         */
+        private int myArkIndex = -1;
+
+        /**
+         * The index of the file name column.
+         */
+        private int myFileNameIndex = -1;
+
+        /**
+         * Whether the header row has been read.
+         */
+        private boolean hasHeader;
+
+        /**
+         * Creates a new CSV item reader.
+         *
+         * @param aRows A store that keeps each row
+         * @param aPriority The CSV file's priority, which is set from its first priority value if it doesn't have one
+         * @param aItemHandler A handler that receives each item
+         */
+        private CsvItemReader(final CsvRows aRows, final AtomicInteger aPriority,
+                final Handler<CsvItem> aItemHandler) {
+            myRows = aRows;
+            myPriority = aPriority;
+            myItemHandler = aItemHandler;
+        }
+
+        /**
+         * Handles a row from the CSV file.
+         *
+         * @param aRow A CSV row
+         * @throws IllegalArgumentException If the CSV file's header is missing a required column
+         */
+        @Override
+        public void handle(final String[] aRow) {
+            if (hasHeader) {
+                final CsvItem item = new CsvItem();
+
+                item.setItemARK(getValue(aRow, myArkIndex));
+                item.setFilePath(myFileNameIndex == -1 ? null : getValue(aRow, myFileNameIndex));
+
+                if (myPriorityIndex != -1 && myPriority.get() == 0) {
+                    myPriority.set(toPriority(getValue(aRow, myPriorityIndex)));
+                }
 
-        int startIndex = 0;
-        int count = 0;
+                myRows.add(aRow);
+                myItemHandler.handle(item);
+            } else {
+                hasHeader = true;
+                myRows.setHeader(aRow);
+
+                for (int index = 0; index < aRow.length; index++) {
+                    if (CsvItem.ITEM_ARK_HEADER.equals(aRow[index])) {
+                        myArkIndex = index;
+                    } else if (CsvItem.FILE_NAME_HEADER.equals(aRow[index])) {
+                        myFileNameIndex = index;
+                    } else if (CsvItem.PRIORITY_HEADER.equals(aRow[index])) {
+                        myPriorityIndex = index;
+                    }
+                }
 
-        while (matcher.find(startIndex)) {
-            startIndex = matcher.start() + 1;
-            count += 1;
+                if (myArkIndex == -1) {
+                    throw new IllegalArgumentException(
+                            LOGGER.getMessage(MessageCodes.AVPT_027, CsvItem.ITEM_ARK_HEADER));
+                }
+            }
         }
-
-        return count;
     }
 }
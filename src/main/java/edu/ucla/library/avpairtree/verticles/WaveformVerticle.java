@@ -2,24 +2,24 @@
 package edu.ucla.library.avpairtree.verticles;
 
 import static edu.ucla.library.avpairtree.AvPtConstants.WAVEFORM_CONSUMER;
-import static info.freelibrary.util.Constants.SPACE;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.zip.GZIPOutputStream;
+import java.util.ArrayList;
+import java.util.List;
 
 import info.freelibrary.util.Logger;
 import info.freelibrary.util.LoggerFactory;
 import info.freelibrary.util.StringUtils;
 
+import edu.ucla.library.avpairtree.AudioFormat;
 import edu.ucla.library.avpairtree.AvPtUtils;
 import edu.ucla.library.avpairtree.Config;
 import edu.ucla.library.avpairtree.CsvItem;
 import edu.ucla.library.avpairtree.MessageCodes;
-import edu.ucla.library.avpairtree.Op;
+import edu.ucla.library.avpairtree.ProcessRunner;
+import edu.ucla.library.avpairtree.WaveformGenerator;
 
 import io.vertx.core.AbstractVerticle;
 import io.vertx.core.Future;
@@ -28,11 +28,32 @@ import io.vertx.core.eventbus.DeliveryOptions;
 import io.vertx.core.eventbus.Message;
 import io.vertx.core.json.JsonObject;
 
+import ws.schild.jave.process.ffmpeg.DefaultFFMPEGLocator;
+
 /**
- * A verticle that transforms audio files into audiowaveform data.
+ * A verticle that transforms audio files into audiowaveform data. If the audiowaveform data has already been written
+ * to a file (e.g. while the audio file was being converted), the path of that file can be sent in a header so that the
+ * audio file isn't decoded again.
+ * <p>
+ * By default, audiowaveform data is created by the audiowaveform program, which has to be installed. It can instead be
+ * created by a pure Java engine, which reads WAV files itself, by setting the waveform engine to <code>java</code>.
+ * </p>
+ * <p>
+ * The format of an audio file is found by probing it. Audio files in a lossless format that the waveform engine can't
+ * read (e.g. FLAC for the Java engine, or WavPack for either engine) are decoded into a temporary WAV file first.
+ * </p>
+ * <p>
+ * Audiowaveform data is written to a temporary file, rather than being held in memory, and its path is what's sent to
+ * the waveform consumer, which compresses the data as it streams it to S3.
+ * </p>
  */
 public final class WaveformVerticle extends AbstractVerticle {
 
+    /**
+     * The header of a message whose audiowaveform data has already been written to a file, with that file's path.
+     */
+    public static final String DATA_FILE_HEADER = "waveformDataFile";
+
     /**
      * The waveform verticle's logger.
      */
@@ -43,157 +64,267 @@ public final class WaveformVerticle extends AbstractVerticle {
      */
     private static final String AUDIOWAVEFORM = "audiowaveform";
 
+    /**
+     * The name of the pure Java waveform engine.
+     */
+    private static final String JAVA_ENGINE = "java";
+
     /**
      * The template string for AWS S3 object keys. The slot is: item ARK.
      */
     private static final String S3_OBJECT_KEY_TEMPLATE = "{}/audiowaveform.dat";
 
+    /**
+     * The prefix of the temporary WAV files that audio files are decoded into.
+     */
+    private static final String DECODED_FILE_PREFIX = "av-pairtree-decoded-";
+
+    /**
+     * The extension of the temporary WAV files that audio files are decoded into.
+     */
+    private static final String DECODED_FILE_EXT = ".wav";
+
+    /**
+     * The prefix of the temporary files that audiowaveform data is written to.
+     */
+    private static final String WAVEFORM_FILE_PREFIX = "av-pairtree-waveform-";
+
+    /**
+     * The extension of the temporary files that audiowaveform data is written to.
+     */
+    private static final String WAVEFORM_FILE_EXT = ".dat";
+
+    /**
+     * How long, in milliseconds, the <code>which</code> check for audiowaveform can take.
+     */
+    private static final long WHICH_TIMEOUT = 10_000;
+
+    /**
+     * The exit code of <code>which</code> when the program it's looking for can't be found.
+     */
+    private static final int NOT_FOUND = 1;
+
     /**
      * The waveform source directory
      */
     private String mySourceDir;
 
+    /**
+     * Whether audiowaveform data is created by the pure Java waveform engine.
+     */
+    private boolean isGeneratedInJava;
+
+    /**
+     * The path of the FFmpeg executable, which decodes the audio files that the waveform engine can't read.
+     */
+    private String myFFmpeg;
+
+    /**
+     * How long, in milliseconds, an external program can run on an audio file; zero if it can run for as long as it
+     * takes.
+     */
+    private long myTimeout;
+
     @Override
     public void start(final Promise<Void> aPromise) {
         final JsonObject config = config();
-        final String[] cmd = { "which", AUDIOWAVEFORM };
-        final String cmdline = String.join(SPACE, cmd);
+        final String engine = config.getString(Config.WAVEFORM_ENGINE, AUDIOWAVEFORM);
 
         LOGGER.debug(MessageCodes.AVPT_011, WaveformVerticle.class.getSimpleName(), Thread.currentThread().getName());
 
-        // Make sure that audiowaveform is installed on the system
-        try {
-            final Process which = new ProcessBuilder(cmd).start();
-            final int exitValue = which.waitFor();
-            final String cmdResult;
+        mySourceDir = config.getString(Config.SOURCE_DIR);
+        myFFmpeg = new DefaultFFMPEGLocator().getExecutablePath();
+        myTimeout = config.getLong(Config.WAVEFORM_TIMEOUT, 0L) * 1000;
 
-            try (InputStream inStream = which.getInputStream()) {
-                final String input = new String(inStream.readAllBytes());
+        // The Java engine doesn't need anything to be installed on the system
+        if (JAVA_ENGINE.equals(engine)) {
+            isGeneratedInJava = true;
+            vertx.eventBus().<CsvItem>consumer(getClass().getName()).handler(this::handle);
 
-                cmdResult = LOGGER.getMessage(MessageCodes.AVPT_015, cmdline, exitValue, input);
-            }
+            aPromise.complete();
+            return;
+        }
 
-            if (exitValue == 0) {
-                LOGGER.debug(cmdResult);
+        if (!AUDIOWAVEFORM.equals(engine)) {
+            final String engineErrorMsg = LOGGER.getMessage(MessageCodes.AVPT_043, engine);
 
-                mySourceDir = config.getString(Config.SOURCE_DIR);
-                vertx.eventBus().<CsvItem>consumer(getClass().getName()).handler(this::handle);
+            LOGGER.error(engineErrorMsg);
+            aPromise.fail(engineErrorMsg);
+            return;
+        }
 
-                aPromise.complete();
-            } else {
-                LOGGER.error(cmdResult);
-                aPromise.fail(cmdResult);
-            }
-        } catch (final IOException | InterruptedException details) {
-            final String startErrorMsg = LOGGER.getMessage(MessageCodes.AVPT_016, cmdline, details);
+        // Make sure that audiowaveform is installed on the system, without blocking while we check
+        new ProcessRunner(vertx, List.of("which", AUDIOWAVEFORM)).timeout(WHICH_TIMEOUT)
+                .mapExitCode(NOT_FOUND, LOGGER.getMessage(MessageCodes.AVPT_052)).runForOutput().onSuccess(path -> {
+                    LOGGER.debug(MessageCodes.AVPT_015, "which " + AUDIOWAVEFORM, 0, path.toString().trim());
 
-            LOGGER.error(startErrorMsg);
-            aPromise.fail(details);
-        }
+                    vertx.eventBus().<CsvItem>consumer(getClass().getName()).handler(this::handle);
+
+                    aPromise.complete();
+                }).onFailure(details -> {
+                    LOGGER.error(details.getMessage());
+                    aPromise.fail(details);
+                });
     }
 
     /**
-     * Transforms the source audio file at the given path into audiowaveform data, compresses and uploads that data to
-     * S3, and replies to the message with the URL for the compressed data. If either the transformation, compression,
-     * or upload fails, sends back error details.
+     * Transforms the source audio file at the given path into audiowaveform data, which is written to a temporary
+     * file, has that file compressed and uploaded to S3, and replies to the message with the URL for the compressed
+     * data. If either the transformation, compression, or upload fails, sends back error details.
      *
      * @param aMessage A message with the file path of the audio file to transform
      */
     private void handle(final Message<CsvItem> aMessage) {
-        try {
-            final CsvItem csvItem = aMessage.body();
-            final Path audioFilePath = AvPtUtils.getInputFilePath(csvItem, mySourceDir);
+        final CsvItem csvItem = aMessage.body();
+        final String dataFilePath = aMessage.headers().get(DATA_FILE_HEADER);
+        final Future<String> audiowaveform;
 
-            getAudiowaveform(audioFilePath).onSuccess(data -> {
-                final String ark = csvItem.getItemARK();
-                final String s3ObjectKey = StringUtils.format(S3_OBJECT_KEY_TEMPLATE, ark);
-                final DeliveryOptions options = new DeliveryOptions();
-
-                options.addHeader("key", s3ObjectKey).addHeader("contentEncoding", "gzip");
-                options.setSendTimeout(Integer.MAX_VALUE);
+        if (dataFilePath != null) {
+            audiowaveform = Future.succeededFuture(dataFilePath);
+        } else {
+            final Path audioFilePath = AvPtUtils.getInputFilePath(csvItem, mySourceDir);
 
+            audiowaveform = vertx.<AudioFormat>executeBlocking(promise -> {
                 try {
-                    final byte[] compressedData = gzip(data);
+                    final AudioFormat format = AudioFormat.probe(audioFilePath);
 
-                    // Store the compressed audiowaveform data on S3
-                    vertx.eventBus().<String>request(WAVEFORM_CONSUMER, compressedData, options).onSuccess(result -> {
-                        // Reply with a JsonObject associating the item ARK with the URL for the audiowaveform data
-                        final String audiowaveformURL = result.body();
-                        final JsonObject response = new JsonObject().put(csvItem.getItemARK(), audiowaveformURL);
-
-                        aMessage.reply(response);
-                    }).onFailure(details -> aMessage.fail(Op.ERROR_CODE, details.getMessage()));
+                    if (format == null) {
+                        promise.fail(LOGGER.getMessage(MessageCodes.AVPT_048, audioFilePath));
+                    } else {
+                        promise.complete(format);
+                    }
                 } catch (final IOException details) {
-                    aMessage.fail(Op.ERROR_CODE, details.getMessage());
+                    promise.fail(details);
+                }
+            }, false).compose(format -> {
+                if (isReadable(format)) {
+                    return generate(audioFilePath, format);
                 }
-            }).onFailure(details -> {
-                aMessage.fail(Op.ERROR_CODE, details.getMessage());
+
+                return decode(audioFilePath).compose(wavFilePath -> {
+                    // The decoded WAV file is only scratch space, so not being able to delete it doesn't fail the item
+                    return generate(wavFilePath, AudioFormat.WAV)
+                            .onComplete(generated -> deleteQuietly(wavFilePath.toString()));
+                });
             });
-        } catch (final IOException details) {
-            aMessage.fail(Op.ERROR_CODE, details.getMessage());
         }
+
+        audiowaveform.compose(waveformFilePath -> {
+            final String ark = csvItem.getItemARK();
+            final String s3ObjectKey = StringUtils.format(S3_OBJECT_KEY_TEMPLATE, ark);
+            final DeliveryOptions options = new DeliveryOptions();
+
+            options.addHeader("key", s3ObjectKey).addHeader("contentEncoding", "gzip");
+            options.setSendTimeout(Integer.MAX_VALUE);
+
+            // Store the audiowaveform data on S3, which is compressed as it's streamed from its file
+            return vertx.eventBus().<String>request(WAVEFORM_CONSUMER, waveformFilePath, options)
+                    .onComplete(upload -> {
+                        // A data file that was sent to us belongs to the sender, which cleans it up
+                        if (dataFilePath == null) {
+                            deleteQuietly(waveformFilePath);
+                        }
+                    });
+        }).onSuccess(result -> {
+            // Reply with a JsonObject associating the item ARK with the URL for the audiowaveform data
+            final String audiowaveformURL = result.body();
+            final JsonObject response = new JsonObject().put(csvItem.getItemARK(), audiowaveformURL);
+
+            aMessage.reply(response);
+        }).onFailure(details -> {
+            aMessage.fail(AvPtUtils.getErrorCode(details), details.getMessage());
+        });
     }
 
     /**
-     * Transforms the source audio file at the given path into binary audiowaveform data.
+     * Returns whether the waveform engine can read audio files in the supplied format without them being decoded first.
      *
-     * @param anAudioFilePath The path to the audio file to transform
-     * @return A Future that is completed with a byte array containing the audiowaveform data
-     * @throws IOException if an I/O error occurs during the execution of the audiowaveform program
+     * @param aFormat An audio file format
+     * @return True if the waveform engine can read the format; else, false
      */
-    private Future<byte[]> getAudiowaveform(final Path anAudioFilePath) throws IOException {
-        final Promise<byte[]> asyncResult = Promise.promise();
-        final String[] cmd = { AUDIOWAVEFORM, "--input-filename", anAudioFilePath.toString(), "--output-format", "dat",
-            "--bits", "8" };
-        final String cmdline = String.join(SPACE, cmd);
-
-        try {
-            final Process audiowaveform = new ProcessBuilder(cmd).start();
-
-            // Unless we read its output before calling `onExit()`, the audiowaveform process will stay asleep until it
-            // receives an interrupt signal
-            final byte[] stdout = audiowaveform.getInputStream().readAllBytes();
-            final String stderr = new String(audiowaveform.getErrorStream().readAllBytes(), StandardCharsets.UTF_8);
-
-            audiowaveform.onExit().thenAccept(process -> {
-                final int exitValue = process.exitValue();
+    private boolean isReadable(final AudioFormat aFormat) {
+        return isGeneratedInJava ? AudioFormat.WAV.equals(aFormat) : aFormat.isReadByAudiowaveform();
+    }
 
-                if (0 == exitValue) {
-                    for (final String line : stderr.split("\\r?\\n")) {
-                        LOGGER.debug(line);
+    /**
+     * Transforms an audio file, in a format that the waveform engine can read, into binary audiowaveform data, which
+     * is written to a temporary file that the caller should delete once it's done with it.
+     *
+     * @param anAudioFilePath The path to the audio file to transform
+     * @param aFormat The format of the audio file, which audiowaveform is told so it doesn't go by the extension
+     * @return A Future that is completed with the path of the audiowaveform data file
+     */
+    private Future<String> generate(final Path anAudioFilePath, final AudioFormat aFormat) {
+        return createScratchFile(WAVEFORM_FILE_PREFIX, WAVEFORM_FILE_EXT).compose(waveformFilePath -> {
+            final Future<Void> generation;
+
+            if (isGeneratedInJava) {
+                generation = vertx.<Void>executeBlocking(promise -> {
+                    try {
+                        Files.write(Path.of(waveformFilePath), WaveformGenerator.generate(anAudioFilePath));
+                        promise.complete();
+                    } catch (final IOException details) {
+                        promise.fail(details);
                     }
-                    // Redact the binary audiowaveform data for logging
-                    LOGGER.debug(MessageCodes.AVPT_015, cmdline, exitValue, "[binary audiowaveform data]");
+                }, false);
+            } else {
+                generation = new ProcessRunner(vertx, getCommand(anAudioFilePath.toString(), "--input-format",
+                        aFormat.getName(), "--output-filename", waveformFilePath)).timeout(myTimeout).run();
+            }
 
-                    asyncResult.complete(stdout);
-                } else {
-                    asyncResult.fail(LOGGER.getMessage(MessageCodes.AVPT_015, cmdline, exitValue, stderr));
-                }
-            });
-        } catch (final IOException details) { // NOPMD - PMD doesn't like wrapped exceptions with same type
-            throw new IOException(LOGGER.getMessage(MessageCodes.AVPT_016, cmdline, details));
-        }
+            return generation.map(waveformFilePath).onFailure(error -> deleteQuietly(waveformFilePath));
+        });
+    }
 
-        return asyncResult.future();
+    /**
+     * Decodes an audio file into a temporary WAV file, which the caller should delete once it's done with it.
+     *
+     * @param anAudioFilePath The path to the audio file to decode
+     * @return A Future that is completed with the path of the temporary WAV file
+     */
+    private Future<Path> decode(final Path anAudioFilePath) {
+        return createScratchFile(DECODED_FILE_PREFIX, DECODED_FILE_EXT).compose(wavFilePath -> {
+            final List<String> cmd = List.of(myFFmpeg, "-nostdin", "-hide_banner", "-nostats", "-y", "-i",
+                    anAudioFilePath.toString(), "-vn", "-acodec", "pcm_s16le", "-f", "wav", wavFilePath);
+
+            return new ProcessRunner(vertx, cmd).timeout(myTimeout).run().map(Path.of(wavFilePath))
+                    .onFailure(error -> deleteQuietly(wavFilePath));
+        });
     }
 
     /**
-     * Compresses the data in the given byte array to GZIP format.
+     * Creates a temporary file in the scratch directory.
      *
-     * @param aByteArray The uncompressed data
-     * @return The compressed data
-     * @throws IOException if an I/O error occurs during the data compression
+     * @param aPrefix The prefix of the file's name
+     * @param aFileExt The extension of the file, including its leading period
+     * @return A Future that is completed with the path of the temporary file
      */
-    private byte[] gzip(final byte[] aByteArray) throws IOException {
-        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    private Future<String> createScratchFile(final String aPrefix, final String aFileExt) {
+        final String tmpDir = config().getString(Config.SCRATCH_DIR, System.getProperty("java.io.tmpdir"));
+        return vertx.fileSystem().createTempFile(tmpDir, aPrefix, aFileExt, (String) null);
+    }
 
-        try (GZIPOutputStream gz = new GZIPOutputStream(outputStream)) {
-            gz.write(aByteArray);
-            gz.finish();
+    /**
+     * Deletes a temporary file, just logging it if it can't be deleted.
+     *
+     * @param aFilePath The path of a temporary file
+     */
+    private void deleteQuietly(final String aFilePath) {
+        vertx.fileSystem().delete(aFilePath).onFailure(error -> LOGGER.error(error, error.getMessage()));
+    }
 
-            return outputStream.toByteArray();
-        } catch (final IOException details) { // NOPMD - PMD doesn't like wrapped exceptions with same type
-            throw new IOException(LOGGER.getMessage(MessageCodes.AVPT_023, details));
-        }
+    /**
+     * Gets the audiowaveform command that transforms an audio file into binary audiowaveform data.
+     *
+     * @param anInputFilename The audio file to transform, or <code>-</code> to read it from standard input
+     * @param anOptions Any additional audiowaveform options (e.g. the input format or the output file)
+     * @return The audiowaveform command and its arguments
+     */
+    static List<String> getCommand(final String anInputFilename, final String... anOptions) {
+        final List<String> cmd = new ArrayList<>(
+                List.of(AUDIOWAVEFORM, "--input-filename", anInputFilename, "--output-format", "dat", "--bits", "8"));
+
+        cmd.addAll(List.of(anOptions));
+        return cmd;
     }
 }
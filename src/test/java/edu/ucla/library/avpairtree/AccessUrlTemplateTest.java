@@ -0,0 +1,105 @@
+package edu.ucla.library.avpairtree;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import info.freelibrary.pairtree.PairtreeUtils;
+
+/**
+ * Tests of AccessUrlTemplate.
+ */
+public class AccessUrlTemplateTest {
+
+    private static final String PT_PATH = "soul/pairtree_root/21/19/8=/zz/00/2d/vw/r6/21198=zz002dvwr6";
+
+    private static final String FILE_NAME = "ark+=21198=zz002dvwr6";
+
+    private static final String FILE_EXT = ".mp4";
+
+    private static final String ARK = "ark:/21198/zz002dvwr6";
+
+    private static final String ARK_PREFIX = "ark:/";
+
+    private static final String ESCAPED_PATH =
+            "soul/pairtree_root/21/19/8=/zz/00/2d/vw/r6/21198=zz002dvwr6/ark%2B=21198=zz002dvwr6.mp4";
+
+    /**
+     * Tests a pattern with a single substitution pattern.
+     */
+    @Test
+    public void testOneSubstitution() {
+        assertEquals("https://example.com/" + ESCAPED_PATH + "/manifest",
+                new AccessUrlTemplate("https://example.com/{}/manifest", 1).build(PT_PATH, FILE_NAME, FILE_EXT));
+    }
+
+    /**
+     * Tests that substitution patterns that the Pairtree path isn't swapped into are left as they are.
+     */
+    @Test
+    public void testUnusedSubstitutions() {
+        final String pattern = "https://example.com/{}/mp4:{}/{}";
+
+        assertEquals("https://example.com/{}/mp4:" + ESCAPED_PATH + "/{}",
+                new AccessUrlTemplate(pattern, 2).build(PT_PATH, FILE_NAME, FILE_EXT));
+        assertEquals("https://example.com/{}/mp4:{}/" + ESCAPED_PATH,
+                new AccessUrlTemplate(pattern, 3).build(PT_PATH, FILE_NAME, FILE_EXT));
+    }
+
+    /**
+     * Tests building an item's access URL straight from its ARK.
+     */
+    @Test
+    public void testItemAccessURL() {
+        final AccessUrlTemplate template = new AccessUrlTemplate("https://example.com/{}/manifest", 1);
+
+        assertEquals("https://example.com/" + ESCAPED_PATH + "/manifest",
+                template.build("soul", ARK, ARK_PREFIX, "", FILE_EXT));
+        assertEquals("https://example.com/" + ESCAPED_PATH.replace(FILE_EXT, "-high" + FILE_EXT) + "/manifest",
+                template.build("soul", ARK, ARK_PREFIX, "-high", FILE_EXT));
+    }
+
+    /**
+     * Tests that an item's access URL has the same Pairtree path and encoded ID that PairtreeUtils would give it, even
+     * when its ARK has characters that the Pairtree encoding escapes.
+     */
+    @Test
+    public void testItemAccessUrlEncoding() {
+        final AccessUrlTemplate template = new AccessUrlTemplate("https://example.com/{}", 1);
+
+        for (final String ark : List.of(ARK, "ark:/21198/z", "ark:/21198/zz.0+2*d^v|x m\tm",
+                "ark:/21198/\u00e9\u20ac\ud83d\ude00\ud800x", "ark:/21198/ark:/zz002dvwr6", "21198/zz002dvwr6")) {
+            final String pathARK = ark.replace(ARK_PREFIX, "");
+            final String ptPath = PairtreeUtils.mapToPtPath("soul/pairtree_root", pathARK, pathARK);
+
+            assertEquals(template.build(ptPath, PairtreeUtils.encodeID(ark), FILE_EXT),
+                    template.build("soul", ark, ARK_PREFIX, "", FILE_EXT));
+        }
+    }
+
+    /**
+     * Tests that an index that doesn't correspond to a substitution pattern is rejected.
+     */
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testIndexOutOfBounds() {
+        new AccessUrlTemplate("https://example.com/{}{}", 3);
+    }
+
+    /**
+     * Tests that a pattern without any substitution patterns is rejected.
+     */
+    @Test(expected = UnsupportedOperationException.class)
+    public void testNoSubstitutions() {
+        new AccessUrlTemplate("https://example.com/", 1);
+    }
+
+    /**
+     * Tests that a pattern with too many substitution patterns is rejected.
+     */
+    @Test(expected = UnsupportedOperationException.class)
+    public void testTooManySubstitutions() {
+        new AccessUrlTemplate("https://example.com/{}{}{}{}", 1);
+    }
+}
@@ -0,0 +1,115 @@
+package edu.ucla.library.avpairtree;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * Tests of AdtsFrames.
+ */
+public class AdtsFramesTest {
+
+    private static final int FRAME_COUNT = 5;
+
+    private static final int HEADER_SIZE = 7;
+
+    private static final Path WAV_FILE = Path.of("src/test/resources/soul/audio/uclapasc.wav");
+
+    /**
+     * Tests copying a run of frames from the middle of an ADTS stream.
+     *
+     * @throws IOException If the test file can't be written or read
+     */
+    @Test
+    public void testCopyRun() throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] frames = createFrames();
+
+        assertEquals(2, AdtsFrames.copy(createFile(frames), out, 1, 2));
+        assertArrayEquals(Arrays.copyOfRange(frames, getOffset(1), getOffset(3)), out.toByteArray());
+    }
+
+    /**
+     * Tests copying all the frames from a frame on, including when more frames are asked for than there are.
+     *
+     * @throws IOException If the test file can't be written or read
+     */
+    @Test
+    public void testCopyRest() throws IOException {
+        final byte[] frames = createFrames();
+        final Path adtsFile = createFile(frames);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        assertEquals(2, AdtsFrames.copy(adtsFile, out, 3, -1));
+        assertArrayEquals(Arrays.copyOfRange(frames, getOffset(3), frames.length), out.toByteArray());
+
+        out.reset();
+
+        assertEquals(2, AdtsFrames.copy(adtsFile, out, 3, FRAME_COUNT));
+    }
+
+    /**
+     * Tests that a file that isn't an ADTS stream can't be copied from.
+     *
+     * @throws IOException If the file isn't an ADTS stream
+     */
+    @Test(expected = IOException.class)
+    public void testNotAdts() throws IOException {
+        AdtsFrames.copy(WAV_FILE, new ByteArrayOutputStream(), 0, -1);
+    }
+
+    /**
+     * Creates an ADTS stream whose frames have a header and then as many bytes of data as one more than their index.
+     *
+     * @return The ADTS stream
+     */
+    private static byte[] createFrames() {
+        final byte[] frames = new byte[getOffset(FRAME_COUNT)];
+
+        for (int index = 0; index < FRAME_COUNT; index++) {
+            final int offset = getOffset(index);
+            final int length = HEADER_SIZE + index + 1;
+
+            frames[offset] = (byte) 0xFF;
+            frames[offset + 1] = (byte) 0xF1;
+            frames[offset + 3] = (byte) (length >>> 11 & 0x03);
+            frames[offset + 4] = (byte) (length >>> 3 & 0xFF);
+            frames[offset + 5] = (byte) ((length & 0x07) << 5);
+            Arrays.fill(frames, offset + HEADER_SIZE, offset + length, (byte) index);
+        }
+
+        return frames;
+    }
+
+    /**
+     * Gets the offset of a frame in the test ADTS stream.
+     *
+     * @param anIndex The index of a frame
+     * @return The offset of the frame
+     */
+    private static int getOffset(final int anIndex) {
+        return anIndex * HEADER_SIZE + anIndex * (anIndex + 1) / 2;
+    }
+
+    /**
+     * Writes an ADTS stream to a temporary file.
+     *
+     * @param aFrames An ADTS stream
+     * @return The path of the temporary file
+     * @throws IOException If the file can't be written
+     */
+    private static Path createFile(final byte[] aFrames) throws IOException {
+        final File adtsFile = File.createTempFile("frames-", ".aac");
+
+        adtsFile.deleteOnExit();
+        return Files.write(adtsFile.toPath(), aFrames);
+    }
+}
@@ -0,0 +1,102 @@
+package edu.ucla.library.avpairtree;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Test;
+
+/**
+ * Tests of AudioFormat.
+ */
+public class AudioFormatTest {
+
+    private static final Path WAV_FILE = Path.of("src/test/resources/soul/audio/uclapasc.wav");
+
+    private static final Path MP4_FILE = Path.of("src/test/resources/synanon/video/synanon.mp4");
+
+    /**
+     * Tests probing a WAV file.
+     *
+     * @throws IOException If the test file can't be read
+     */
+    @Test
+    public void testProbeWav() throws IOException {
+        assertEquals(AudioFormat.WAV, AudioFormat.probe(WAV_FILE));
+    }
+
+    /**
+     * Tests probing a FLAC file that has been given a WAV file's extension.
+     *
+     * @throws IOException If the test file can't be written or read
+     */
+    @Test
+    public void testProbeFlac() throws IOException {
+        assertEquals(AudioFormat.FLAC, AudioFormat.probe(createFile("fLaC\0\0\0\"\0\u0010\0\u0010", ".wav")));
+    }
+
+    /**
+     * Tests probing a WavPack file.
+     *
+     * @throws IOException If the test file can't be written or read
+     */
+    @Test
+    public void testProbeWavPack() throws IOException {
+        assertEquals(AudioFormat.WAVPACK, AudioFormat.probe(createFile("wvpk \0\0\0\u0010\u0004\0\0", ".wv")));
+    }
+
+    /**
+     * Tests probing an AIFF file.
+     *
+     * @throws IOException If the test file can't be written or read
+     */
+    @Test
+    public void testProbeAiff() throws IOException {
+        assertEquals(AudioFormat.AIFF, AudioFormat.probe(createFile("FORM\0\0\0\u0004AIFF", ".aiff")));
+    }
+
+    /**
+     * Tests probing files that aren't in one of the audio formats that we process.
+     *
+     * @throws IOException If the test files can't be written or read
+     */
+    @Test
+    public void testProbeOther() throws IOException {
+        assertNull(AudioFormat.probe(MP4_FILE));
+        assertNull(AudioFormat.probe(createFile("RIFF", ".wav")));
+    }
+
+    /**
+     * Tests the check of audio file names.
+     */
+    @Test
+    public void testIsAudioFileName() {
+        assertTrue(AudioFormat.isAudioFileName("soul/audio/uclapasc.wav"));
+        assertTrue(AudioFormat.isAudioFileName("soul/audio/uclapasc.FLAC"));
+        assertTrue(AudioFormat.isAudioFileName("soul/audio/uclapasc.wv"));
+        assertFalse(AudioFormat.isAudioFileName("synanon/video/synanon.mp4"));
+        assertFalse(AudioFormat.isAudioFileName("soul/audio/flac"));
+    }
+
+    /**
+     * Creates a temporary file with the supplied content.
+     *
+     * @param aContent The file's content
+     * @param aExt The file's extension
+     * @return The path of the file
+     * @throws IOException If the file can't be written
+     */
+    private Path createFile(final String aContent, final String aExt) throws IOException {
+        final File file = File.createTempFile("audio-format-", aExt);
+
+        file.deleteOnExit();
+        return Files.write(file.toPath(), aContent.getBytes(StandardCharsets.ISO_8859_1));
+    }
+}
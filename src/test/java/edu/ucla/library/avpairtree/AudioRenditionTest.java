@@ -0,0 +1,107 @@
+package edu.ucla.library.avpairtree;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import io.vertx.core.json.JsonObject;
+
+/**
+ * Tests of AudioRendition.
+ */
+public class AudioRenditionTest {
+
+    private static final String FILE_NAME = "ark+=21198=zz002dvwr6";
+
+    /**
+     * Tests that configured renditions are read in the order they're configured.
+     */
+    @Test
+    public void testFromConfig() {
+        final JsonObject config = getConfig("reading-room:320000, public:96000");
+        final List<AudioRendition> renditions = AudioRendition.fromConfig(config);
+
+        assertEquals(2, renditions.size());
+        assertEquals("reading-room", renditions.get(0).getName());
+        assertEquals(320_000, renditions.get(0).getBitRate());
+        assertEquals("public", renditions.get(1).getName());
+        assertEquals(96_000, renditions.get(1).getBitRate());
+    }
+
+    /**
+     * Tests that there aren't any renditions when none are configured.
+     */
+    @Test
+    public void testNotConfigured() {
+        assertTrue(AudioRendition.fromConfig(new JsonObject()).isEmpty());
+    }
+
+    /**
+     * Tests that a rendition can be looked up by its name.
+     */
+    @Test
+    public void testFromConfigByName() {
+        final JsonObject config = getConfig("reading-room:320000,public:96000");
+
+        assertEquals(96_000, AudioRendition.fromConfig(config, "public").getBitRate());
+        assertNull(AudioRendition.fromConfig(config, "private"));
+    }
+
+    /**
+     * Tests a rendition's file name and access URL column name.
+     */
+    @Test
+    public void testNames() {
+        final AudioRendition rendition = AudioRendition.fromConfig(getConfig("public:96000")).get(0);
+
+        assertEquals(FILE_NAME + "-public", rendition.getFileName(FILE_NAME));
+        assertEquals("-public", rendition.getFileNameSuffix());
+        assertEquals(CsvItem.IIIF_ACCESS_URL_HEADER + " (public)", rendition.getAccessUrlHeader());
+    }
+
+    /**
+     * Tests that a rendition without a bit rate is rejected.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testMissingBitRate() {
+        AudioRendition.fromConfig(getConfig("public"));
+    }
+
+    /**
+     * Tests that a rendition with a bit rate that isn't a positive number is rejected.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testBadBitRate() {
+        AudioRendition.fromConfig(getConfig("public:-96000"));
+    }
+
+    /**
+     * Tests that a rendition whose name can't be used in a file name is rejected.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testBadName() {
+        AudioRendition.fromConfig(getConfig("public/web:96000"));
+    }
+
+    /**
+     * Tests that two renditions with the same name are rejected.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testDuplicateName() {
+        AudioRendition.fromConfig(getConfig("public:96000,public:128000"));
+    }
+
+    /**
+     * Gets a configuration with the supplied renditions.
+     *
+     * @param aRenditions The configured renditions
+     * @return A configuration
+     */
+    private JsonObject getConfig(final String aRenditions) {
+        return new JsonObject().put(Config.AUDIO_RENDITIONS, aRenditions);
+    }
+}
@@ -0,0 +1,109 @@
+package edu.ucla.library.avpairtree;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.file.FileSystem;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.RunTestOnContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+
+/**
+ * Tests of CsvChangeCoalescer.
+ */
+@RunWith(VertxUnitRunner.class)
+public class CsvChangeCoalescerTest {
+
+    private static final long INTERVAL = 50;
+
+    private static final String CSV_CONTENT = "\"Item ARK\",\"File Name\"\n";
+
+    /**
+     * Rule that creates the test context.
+     */
+    @Rule
+    public RunTestOnContext myContext = new RunTestOnContext();
+
+    /**
+     * Tests that a burst of events for the same file only submits it once.
+     *
+     * @param aContext A test context
+     */
+    @Test
+    public void testBurstOfEvents(final TestContext aContext) {
+        final Async asyncTask = aContext.async();
+        final Vertx vertx = myContext.vertx();
+        final List<String> jobs = new ArrayList<>();
+        final CsvChangeCoalescer coalescer = new CsvChangeCoalescer(vertx, INTERVAL, path -> {
+            jobs.add(path);
+            return Future.succeededFuture();
+        });
+
+        createCsv(vertx).onSuccess(path -> {
+            for (int count = 0; count < 5; count++) {
+                coalescer.changed(path);
+            }
+
+            vertx.setTimer(INTERVAL * 10, timerID -> {
+                aContext.assertEquals(1, jobs.size());
+                vertx.fileSystem().delete(path).onSuccess(deletion -> asyncTask.complete()).onFailure(aContext::fail);
+            });
+        }).onFailure(aContext::fail);
+    }
+
+    /**
+     * Tests that a file with the same content as one that's already being processed is ignored.
+     *
+     * @param aContext A test context
+     */
+    @Test
+    public void testSameContentInFlight(final TestContext aContext) {
+        final Async asyncTask = aContext.async();
+        final Vertx vertx = myContext.vertx();
+        final List<String> jobs = new ArrayList<>();
+        final Promise<Void> job = Promise.promise(); // Never completes, so the first file stays in flight
+        final CsvChangeCoalescer coalescer = new CsvChangeCoalescer(vertx, INTERVAL, path -> {
+            jobs.add(path);
+            return job.future();
+        });
+
+        createCsv(vertx).compose(first -> createCsv(vertx).map(second -> List.of(first, second))).onSuccess(paths -> {
+            coalescer.changed(paths.get(0));
+
+            vertx.setTimer(INTERVAL * 10, firstTimerID -> {
+                coalescer.changed(paths.get(1));
+
+                vertx.setTimer(INTERVAL * 10, secondTimerID -> {
+                    final FileSystem fileSystem = vertx.fileSystem();
+
+                    aContext.assertEquals(List.of(paths.get(0)), jobs);
+                    fileSystem.delete(paths.get(0)).compose(deletion -> fileSystem.delete(paths.get(1)))
+                            .onSuccess(deletion -> asyncTask.complete()).onFailure(aContext::fail);
+                });
+            });
+        }).onFailure(aContext::fail);
+    }
+
+    /**
+     * Creates a temporary CSV file.
+     *
+     * @param aVertx A Vert.x instance
+     * @return A future with the path of the CSV file
+     */
+    private Future<String> createCsv(final Vertx aVertx) {
+        final FileSystem fileSystem = aVertx.fileSystem();
+
+        return fileSystem.createTempFile("av-pairtree-test-", ".csv").compose(path -> {
+            return fileSystem.writeFile(path, Buffer.buffer(CSV_CONTENT)).map(write -> path);
+        });
+    }
+}
@@ -65,6 +65,17 @@ public class CsvItemTest {
         assertTrue(csvItem.isAudio());
     }
 
+    /**
+     * Tests the audio check with a FLAC file.
+     */
+    @Test
+    public void testIsAudioFlac() {
+        final CsvItem csvItem = new CsvItem();
+
+        csvItem.setFilePath("soul/audio/uclapasc.flac");
+        assertTrue(csvItem.isAudio());
+    }
+
     /**
      * Tests the audio check with non-audio items.
      */
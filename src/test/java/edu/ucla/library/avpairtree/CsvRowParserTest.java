@@ -0,0 +1,91 @@
+package edu.ucla.library.avpairtree;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests of CsvRowParser.
+ */
+public class CsvRowParserTest {
+
+    private List<String[]> myRows;
+
+    private CsvRowParser myParser;
+
+    /**
+     * Sets up the tests.
+     */
+    @Before
+    public void setUp() {
+        myRows = new ArrayList<>();
+        myParser = new CsvRowParser(myRows::add);
+    }
+
+    /**
+     * Tests parsing simple unquoted and quoted values.
+     */
+    @Test
+    public void testSimpleValues() {
+        myParser.parse("Item ARK,\"File Name\",");
+        myParser.end();
+
+        assertEquals(1, myRows.size());
+        assertArrayEquals(new String[] { "Item ARK", "File Name", "" }, myRows.get(0));
+    }
+
+    /**
+     * Tests parsing quoted values that contain separators and escaped quotes.
+     */
+    @Test
+    public void testQuotedValues() {
+        myParser.parse("\"University of California, Los Angeles\",\"a \"\"quoted\"\" value\"");
+        myParser.end();
+
+        assertArrayEquals(new String[] { "University of California, Los Angeles", "a \"quoted\" value" },
+                myRows.get(0));
+    }
+
+    /**
+     * Tests parsing a quoted value that spans more than one line.
+     */
+    @Test
+    public void testMultilineValue() {
+        myParser.parse("first,\"second");
+        myParser.parse("line\",third");
+        myParser.end();
+
+        assertEquals(1, myRows.size());
+        assertArrayEquals(new String[] { "first", "second\nline", "third" }, myRows.get(0));
+    }
+
+    /**
+     * Tests that Windows line endings and empty lines are dropped.
+     */
+    @Test
+    public void testLineEndings() {
+        myParser.parse("\uFEFFone,two\r");
+        myParser.parse("\r");
+        myParser.parse("");
+        myParser.parse("three,four\r");
+        myParser.end();
+
+        assertEquals(2, myRows.size());
+        assertArrayEquals(new String[] { "one", "two" }, myRows.get(0));
+        assertArrayEquals(new String[] { "three", "four" }, myRows.get(1));
+    }
+
+    /**
+     * Tests that input ending inside of a quoted value is reported.
+     */
+    @Test(expected = IllegalStateException.class)
+    public void testUnterminatedQuote() {
+        myParser.parse("one,\"two");
+        myParser.end();
+    }
+}
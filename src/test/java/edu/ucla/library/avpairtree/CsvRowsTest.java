@@ -0,0 +1,132 @@
+package edu.ucla.library.avpairtree;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.RunTestOnContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+
+/**
+ * Tests of CsvRows.
+ */
+@RunWith(VertxUnitRunner.class)
+public class CsvRowsTest {
+
+    private static final String[] HEADER = { CsvItem.ITEM_ARK_HEADER, CsvItem.FILE_NAME_HEADER, "Title" };
+
+    private static final String TMP_DIR = System.getProperty("java.io.tmpdir");
+
+    /**
+     * Rule that creates the test context.
+     */
+    @Rule
+    public RunTestOnContext myContext = new RunTestOnContext();
+
+    /**
+     * Tests looking up columns in the header.
+     *
+     * @param aContext A test context
+     */
+    @Test
+    public void testGetIndex(final TestContext aContext) {
+        final CsvRows rows = new CsvRows(myContext.vertx(), TMP_DIR, 1).setHeader(HEADER);
+
+        aContext.assertEquals(1, rows.getIndex(CsvItem.FILE_NAME_HEADER));
+        aContext.assertEquals(-1, rows.getIndex(CsvItem.WAVEFORM_HEADER));
+    }
+
+    /**
+     * Tests that rows are read back in order when they're all kept in memory.
+     *
+     * @param aContext A test context
+     */
+    @Test
+    public void testInMemoryRows(final TestContext aContext) {
+        checkRows(new CsvRows(myContext.vertx(), TMP_DIR, Integer.MAX_VALUE), aContext);
+    }
+
+    /**
+     * Tests that rows are read back in order when some of them have been spilled to disk.
+     *
+     * @param aContext A test context
+     */
+    @Test
+    public void testSpilledRows(final TestContext aContext) {
+        checkRows(new CsvRows(myContext.vertx(), TMP_DIR, 2), aContext);
+    }
+
+    /**
+     * Tests that rows are spilled to the supplied directory, and that whoever is adding them is told to wait until the
+     * spill file can take more of them.
+     *
+     * @param aContext A test context
+     * @throws IOException If the spill directory can't be created
+     */
+    @Test
+    public void testSpillDir(final TestContext aContext) throws IOException {
+        final String spillDir = Files.createTempDirectory("av-pairtree-test-").toString();
+        final CsvRows rows = new CsvRows(myContext.vertx(), spillDir, 0).setHeader(HEADER);
+        final Async asyncTask = aContext.async();
+
+        rows.add("ark:/21198/zz002dvwr6", "soul/audio/uclapasc.wav", "A title");
+
+        // The spill file is still being opened, so it can't take any more rows yet
+        aContext.assertFalse(rows.drained().isComplete());
+
+        rows.drained().compose(drained -> rows.close()).onSuccess(close -> {
+            final List<String> spillFiles = myContext.vertx().fileSystem().readDirBlocking(spillDir);
+
+            aContext.assertEquals(1, spillFiles.size());
+            aContext.assertTrue(spillFiles.get(0).contains("av-pairtree-rows-"));
+
+            rows.delete().compose(deletion -> myContext.vertx().fileSystem().delete(spillDir))
+                    .onSuccess(deletion -> asyncTask.complete()).onFailure(aContext::fail);
+        }).onFailure(aContext::fail);
+    }
+
+    /**
+     * Adds some rows to the supplied store and then checks that they're read back as they were added.
+     *
+     * @param aRows A store of CSV rows
+     * @param aContext A test context
+     */
+    private void checkRows(final CsvRows aRows, final TestContext aContext) {
+        final Async asyncTask = aContext.async();
+        final List<String[]> expected = new ArrayList<>();
+
+        expected.add(new String[] { "ark:/21198/zz002dvwr6", "soul/audio/uclapasc.wav", "A \"quoted\" title" });
+        expected.add(new String[] { "ark:/21198/zz002dvx4c", "soul/audio/uclapasc.wav", "A title, with a comma" });
+        expected.add(new String[] { "ark:/21198/zz002dvxgj", "", "A title\r\nacross lines" });
+        expected.add(new String[] { "ark:/21198/zz002hdsj2", "synanon/video/synanon.mp4", "" });
+
+        aRows.setHeader(HEADER);
+        expected.forEach(row -> aRows.add(row.clone()));
+
+        aRows.close().onSuccess(close -> {
+            final List<String[]> found = new ArrayList<>();
+
+            try {
+                aRows.forEach(found::add);
+            } catch (final IOException details) {
+                aContext.fail(details);
+            }
+
+            aContext.assertEquals(expected.size(), aRows.size());
+            aContext.assertEquals(expected.size(), found.size());
+
+            for (int index = 0; index < expected.size(); index++) {
+                aContext.assertEquals(String.join("|", expected.get(index)), String.join("|", found.get(index)));
+            }
+
+            aRows.delete().onSuccess(deletion -> asyncTask.complete()).onFailure(aContext::fail);
+        }).onFailure(aContext::fail);
+    }
+}
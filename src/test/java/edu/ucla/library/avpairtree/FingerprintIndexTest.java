@@ -0,0 +1,122 @@
+package edu.ucla.library.avpairtree;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import io.vertx.core.Vertx;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.RunTestOnContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+
+/**
+ * Tests of FingerprintIndex.
+ */
+@RunWith(VertxUnitRunner.class)
+public class FingerprintIndexTest {
+
+    private static final String ARK = "ark:/21198/zz002dvwr6";
+
+    private static final String WAVEFORM_URL = "https://example.com/zz002dvwr6.dat.gz";
+
+    private static final Path SOURCE_FILE = Path.of("src/test/resources/soul/audio/uclapasc.wav");
+
+    /**
+     * Rule that creates the test context.
+     */
+    @Rule
+    public RunTestOnContext myContext = new RunTestOnContext();
+
+    /**
+     * Tests that an item is found after the index is reopened, but only with the same fingerprint.
+     *
+     * @param aContext A test context
+     */
+    @Test
+    public void testReopenedIndex(final TestContext aContext) {
+        final Async asyncTask = aContext.async();
+        final Vertx vertx = myContext.vertx();
+
+        vertx.fileSystem().createTempDirectory("av-pairtree-test-").onSuccess(dir -> {
+            FingerprintIndex.open(vertx, dir, true).compose(index -> {
+                return index.fingerprint(SOURCE_FILE, "mp4").compose(fingerprint -> {
+                    return index.lookup(ARK, fingerprint).compose(found -> {
+                        aContext.assertNull(found);
+                        return index.put(ARK, fingerprint, WAVEFORM_URL, List.of(SOURCE_FILE));
+                    }).compose(put -> index.close()).map(fingerprint);
+                });
+            }).compose(fingerprint -> FingerprintIndex.open(vertx, dir, true).compose(index -> {
+                return index.lookup(ARK, fingerprint).compose(found -> {
+                    aContext.assertEquals(WAVEFORM_URL, found);
+                    return index.fingerprint(SOURCE_FILE, "mp3");
+                }).compose(changed -> index.lookup(ARK, changed)).map(found -> {
+                    aContext.assertNull(found); // The settings have changed
+                    return index;
+                });
+            })).compose(index -> index.close()).compose(close -> vertx.fileSystem().deleteRecursive(dir, true))
+                    .onSuccess(deletion -> asyncTask.complete()).onFailure(aContext::fail);
+        }).onFailure(aContext::fail);
+    }
+
+    /**
+     * Tests that an item whose media file has gone missing from the Pairtree isn't found, even with the same
+     * fingerprint.
+     *
+     * @param aContext A test context
+     */
+    @Test
+    public void testMissingOutput(final TestContext aContext) {
+        final Async asyncTask = aContext.async();
+        final Vertx vertx = myContext.vertx();
+
+        vertx.fileSystem().createTempDirectory("av-pairtree-test-").onSuccess(dir -> {
+            final Path outputFile = Path.of(dir, "zz002dvwr6.mp4");
+
+            FingerprintIndex.open(vertx, dir, false).compose(index -> {
+                return index.fingerprint(SOURCE_FILE, "mp4").compose(fingerprint -> {
+                    return index.put(ARK, fingerprint, WAVEFORM_URL, List.of(outputFile))
+                            .compose(put -> index.lookup(ARK, fingerprint));
+                }).map(found -> {
+                    aContext.assertNull(found);
+                    return index;
+                });
+            }).compose(index -> index.close()).compose(close -> vertx.fileSystem().deleteRecursive(dir, true))
+                    .onSuccess(deletion -> asyncTask.complete()).onFailure(aContext::fail);
+        }).onFailure(aContext::fail);
+    }
+
+    /**
+     * Tests that an index that's opened more than once is shared, and stays open until it has been closed as many
+     * times as it was opened.
+     *
+     * @param aContext A test context
+     */
+    @Test
+    public void testSharedIndex(final TestContext aContext) {
+        final Async asyncTask = aContext.async();
+        final Vertx vertx = myContext.vertx();
+
+        vertx.fileSystem().createTempDirectory("av-pairtree-test-").onSuccess(dir -> {
+            FingerprintIndex.open(vertx, dir, false).compose(first -> {
+                return FingerprintIndex.open(vertx, dir, false).compose(second -> {
+                    aContext.assertTrue(first == second);
+
+                    // It's still open for the second user after the first closes it, so an item can be recorded
+                    return first.close().compose(close -> second.fingerprint(SOURCE_FILE, "mp4"))
+                            .compose(fingerprint -> second.put(ARK, fingerprint, WAVEFORM_URL, List.of(SOURCE_FILE))
+                                    .compose(put -> second.close()).map(fingerprint));
+                });
+            }).compose(fingerprint -> FingerprintIndex.open(vertx, dir, false).compose(index -> {
+                return index.lookup(ARK, fingerprint).compose(found -> {
+                    aContext.assertEquals(WAVEFORM_URL, found);
+                    return index.close();
+                });
+            })).compose(close -> vertx.fileSystem().deleteRecursive(dir, true))
+                    .onSuccess(deletion -> asyncTask.complete()).onFailure(aContext::fail);
+        }).onFailure(aContext::fail);
+    }
+}
@@ -0,0 +1,119 @@
+package edu.ucla.library.avpairtree;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.RunTestOnContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+
+/**
+ * Tests of ItemBacklog.
+ */
+@RunWith(VertxUnitRunner.class)
+public class ItemBacklogTest {
+
+    private static final int ITEM_COUNT = 20;
+
+    private static final int CAPACITY = 4;
+
+    private static final String ARK_PREFIX = "ark:/21198/zz";
+
+    private static final String TMP_DIR = System.getProperty("java.io.tmpdir");
+
+    /**
+     * Rule that creates the test context.
+     */
+    @Rule
+    public RunTestOnContext myContext = new RunTestOnContext();
+
+    /**
+     * The ARKs of the items that have been processed, in the order they were processed.
+     */
+    private final List<String> myProcessed = new ArrayList<>();
+
+    /**
+     * The largest number of requests that have been waiting in the request queue.
+     */
+    private int myMaxQueueSize;
+
+    /**
+     * Tests that items are all queued right away when the request queue is never full.
+     *
+     * @param aContext A test context
+     */
+    @Test
+    public void testUnbounded(final TestContext aContext) {
+        checkItems(new RequestQueue(1), ITEM_COUNT - 1, aContext);
+    }
+
+    /**
+     * Tests that items are spilled to disk, and read back in order, when the request queue is full.
+     *
+     * @param aContext A test context
+     */
+    @Test
+    public void testSpilled(final TestContext aContext) {
+        checkItems(new RequestQueue(1).setCapacity(CAPACITY), CAPACITY, aContext);
+    }
+
+    /**
+     * Adds some items to a backlog and then checks that they're all processed, in the order they were added, without
+     * the request queue growing past the expected size.
+     *
+     * @param aQueue The request queue the items are processed in
+     * @param aMaxQueueSize The expected largest number of requests waiting in the request queue
+     * @param aContext A test context
+     */
+    private void checkItems(final RequestQueue aQueue, final int aMaxQueueSize, final TestContext aContext) {
+        final ItemBacklog backlog = new ItemBacklog(myContext.vertx(), TMP_DIR, aQueue::drained,
+                item -> process(aQueue, item));
+        final Async asyncTask = aContext.async();
+        final List<String> expected = new ArrayList<>();
+
+        for (int index = 0; index < ITEM_COUNT; index++) {
+            final CsvItem item = new CsvItem();
+
+            item.setItemARK(ARK_PREFIX + index);
+            item.setFilePath("soul/audio/uclapasc.wav");
+            expected.add(item.getItemARK());
+            backlog.add(item);
+        }
+
+        backlog.close().onSuccess(processing -> {
+            aContext.assertEquals(ITEM_COUNT, backlog.size());
+            aContext.assertEquals(expected, myProcessed);
+            aContext.assertEquals(aMaxQueueSize, myMaxQueueSize);
+
+            backlog.delete().onSuccess(deletion -> asyncTask.complete()).onFailure(aContext::fail);
+        }).onFailure(aContext::fail);
+    }
+
+    /**
+     * Queues an item to be processed, which takes a millisecond.
+     *
+     * @param aQueue A request queue
+     * @param aCsvItem An item
+     * @return A future that completes once the item has been processed
+     */
+    private Future<Void> process(final RequestQueue aQueue, final CsvItem aCsvItem) {
+        final Future<Void> processing = aQueue.enqueue(() -> {
+            final Promise<Void> promise = Promise.promise();
+
+            myProcessed.add(aCsvItem.getItemARK());
+            myContext.vertx().setTimer(1, timer -> promise.complete());
+
+            return promise.future();
+        });
+
+        myMaxQueueSize = Math.max(myMaxQueueSize, aQueue.size());
+        return processing;
+    }
+}
@@ -0,0 +1,65 @@
+package edu.ucla.library.avpairtree;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Test;
+
+/**
+ * Tests of Mp4Atoms.
+ */
+public class Mp4AtomsTest {
+
+    private static final Path MP4_FILE = Path.of("src/test/resources/synanon/video/synanon.mp4");
+
+    private static final Path WAV_FILE = Path.of("src/test/resources/soul/audio/uclapasc.wav");
+
+    /**
+     * Tests an MP4 file whose <code>moov</code> atom is already at the front.
+     *
+     * @throws IOException If the test file can't be read
+     */
+    @Test
+    public void testLeadingMoov() throws IOException {
+        assertFalse(Mp4Atoms.hasTrailingMoov(MP4_FILE));
+    }
+
+    /**
+     * Tests an MP4 file whose <code>moov</code> atom is at the end.
+     *
+     * @throws IOException If the test file can't be written or read
+     */
+    @Test
+    public void testTrailingMoov() throws IOException {
+        final File mp4File = File.createTempFile("trailing-moov-", ".mp4");
+        final ByteBuffer atoms = ByteBuffer.allocate(48);
+
+        mp4File.deleteOnExit();
+
+        // An ftyp atom, then an mdat atom with a 64-bit size, then a moov atom
+        atoms.putInt(16).put("ftyp".getBytes(StandardCharsets.ISO_8859_1)).put(new byte[8]);
+        atoms.putInt(1).put("mdat".getBytes(StandardCharsets.ISO_8859_1)).putLong(24).put(new byte[8]);
+        atoms.putInt(8).put("moov".getBytes(StandardCharsets.ISO_8859_1));
+
+        Files.write(mp4File.toPath(), atoms.array());
+
+        assertTrue(Mp4Atoms.hasTrailingMoov(mp4File.toPath()));
+    }
+
+    /**
+     * Tests that a file that isn't an MP4 file doesn't look like it has a trailing <code>moov</code> atom.
+     *
+     * @throws IOException If the test file can't be read
+     */
+    @Test
+    public void testNotMp4() throws IOException {
+        assertFalse(Mp4Atoms.hasTrailingMoov(WAV_FILE));
+    }
+}
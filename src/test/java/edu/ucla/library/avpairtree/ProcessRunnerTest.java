@@ -0,0 +1,195 @@
+package edu.ucla.library.avpairtree;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import io.vertx.core.buffer.Buffer;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.RunTestOnContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+
+/**
+ * Tests of ProcessRunner.
+ */
+@RunWith(VertxUnitRunner.class)
+public class ProcessRunnerTest {
+
+    private static final String SHELL = "sh";
+
+    private static final String COMMAND = "-c";
+
+    /**
+     * Rule that creates the test context.
+     */
+    @Rule
+    public RunTestOnContext myContext = new RunTestOnContext();
+
+    /**
+     * Tests that a process that exits cleanly completes.
+     *
+     * @param aContext A test context
+     */
+    @Test
+    public void testSuccess(final TestContext aContext) {
+        new ProcessRunner(myContext.vertx(), List.of(SHELL, COMMAND, "exit 0")).run()
+                .onComplete(aContext.asyncAssertSuccess());
+    }
+
+    /**
+     * Tests that a process that exits with a non-zero exit code fails with its error output.
+     *
+     * @param aContext A test context
+     */
+    @Test
+    public void testFailure(final TestContext aContext) {
+        final List<String> command = List.of(SHELL, COMMAND, "echo 'Something went wrong' >&2; exit 3");
+
+        new ProcessRunner(myContext.vertx(), command).run().onComplete(aContext.asyncAssertFailure(error -> {
+            aContext.assertTrue(error.getMessage().contains("exited with code 3"));
+            aContext.assertTrue(error.getMessage().contains("Something went wrong"));
+        }));
+    }
+
+    /**
+     * Tests that only the end of a lot of error output is included in a failure.
+     *
+     * @param aContext A test context
+     */
+    @Test
+    public void testLongFailure(final TestContext aContext) {
+        final String script = "i=0; while [ $i -lt 5000 ]; do echo \"Line $i\" >&2; i=$((i+1)); done; exit 3";
+
+        new ProcessRunner(myContext.vertx(), List.of(SHELL, COMMAND, script)).run()
+                .onComplete(aContext.asyncAssertFailure(error -> {
+                    aContext.assertTrue(error.getMessage().contains("exited with code 3"));
+                    aContext.assertTrue(error.getMessage().contains("...Line "));
+                    aContext.assertTrue(error.getMessage().contains("Line 4999"));
+                    aContext.assertFalse(error.getMessage().contains("Line 0\n"));
+                    aContext.assertTrue(error.getMessage().length() < 5000);
+                }));
+    }
+
+    /**
+     * Tests that everything that's written to a followed file is passed on, including what's written just before the
+     * process exits.
+     *
+     * @param aContext A test context
+     * @throws IOException If the followed file can't be created
+     */
+    @Test
+    public void testFollow(final TestContext aContext) throws IOException {
+        final File progressFile = File.createTempFile("progress-", ".txt");
+        final String path = progressFile.getAbsolutePath();
+        final String script = "printf 'a=1\\n' >> " + path + "; sleep 1; printf 'b=2\\n' >> " + path;
+        final Buffer output = Buffer.buffer();
+
+        progressFile.deleteOnExit();
+
+        new ProcessRunner(myContext.vertx(), List.of(SHELL, COMMAND, script)).follow(path, output::appendBuffer).run()
+                .onComplete(aContext.asyncAssertSuccess(run -> {
+                    aContext.assertEquals("a=1\nb=2\n", output.toString());
+                }));
+    }
+
+    /**
+     * Tests that a process's output is piped into the next process.
+     *
+     * @param aContext A test context
+     * @throws IOException If the output file can't be created
+     */
+    @Test
+    public void testPipe(final TestContext aContext) throws IOException {
+        final File outputFile = File.createTempFile("output-", ".txt");
+        final List<String> command = List.of(SHELL, COMMAND, "cat > " + outputFile.getAbsolutePath());
+
+        outputFile.deleteOnExit();
+
+        new ProcessRunner(myContext.vertx(), List.of(SHELL, COMMAND, "printf piped")).pipeTo(command).run()
+                .compose(run -> myContext.vertx().fileSystem().readFile(outputFile.getAbsolutePath()))
+                .onComplete(aContext.asyncAssertSuccess(output -> {
+                    aContext.assertEquals("piped", output.toString());
+                }));
+    }
+
+    /**
+     * Tests that a pipeline fails if any of its processes do.
+     *
+     * @param aContext A test context
+     */
+    @Test
+    public void testPipeFailure(final TestContext aContext) {
+        new ProcessRunner(myContext.vertx(), List.of(SHELL, COMMAND, "exit 4")).pipeTo(List.of(SHELL, COMMAND, "cat"))
+                .run().onComplete(aContext.asyncAssertFailure(error -> {
+                    aContext.assertTrue(error.getMessage().contains("exited with code 4"));
+                }));
+    }
+
+    /**
+     * Tests that a cancelled process is stopped.
+     *
+     * @param aContext A test context
+     */
+    @Test
+    public void testCancel(final TestContext aContext) {
+        final ProcessRunner runner = new ProcessRunner(myContext.vertx(), List.of("sleep", "60"));
+        final long startTime = System.currentTimeMillis();
+
+        runner.run().onComplete(aContext.asyncAssertFailure(error -> {
+            aContext.assertTrue(error.getMessage().contains("cancelled"));
+            aContext.assertTrue(System.currentTimeMillis() - startTime < 30_000);
+        }));
+
+        myContext.vertx().setTimer(500, timer -> runner.cancel());
+    }
+
+    /**
+     * Tests that a process that runs for longer than its timeout is stopped, and that its failure is told apart as a
+     * timeout.
+     *
+     * @param aContext A test context
+     */
+    @Test
+    public void testTimeout(final TestContext aContext) {
+        final long startTime = System.currentTimeMillis();
+
+        new ProcessRunner(myContext.vertx(), List.of("sleep", "60")).timeout(500).run()
+                .onComplete(aContext.asyncAssertFailure(error -> {
+                    aContext.assertTrue(error.getMessage().contains("timeout of 500 ms"));
+                    aContext.assertEquals(Op.TIMEOUT_CODE, AvPtUtils.getErrorCode(error));
+                    aContext.assertTrue(System.currentTimeMillis() - startTime < 30_000);
+                }));
+    }
+
+    /**
+     * Tests that a process that exits with a mapped exit code fails with that exit code's message.
+     *
+     * @param aContext A test context
+     */
+    @Test
+    public void testMappedExitCode(final TestContext aContext) {
+        new ProcessRunner(myContext.vertx(), List.of(SHELL, COMMAND, "exit 1")).mapExitCode(1, "Not found")
+                .mapExitCode(2, "Something else").run().onComplete(aContext.asyncAssertFailure(error -> {
+                    aContext.assertEquals("Not found", error.getMessage());
+                }));
+    }
+
+    /**
+     * Tests that the output of a process can be captured, even when it also writes a lot of error output.
+     *
+     * @param aContext A test context
+     */
+    @Test
+    public void testOutput(final TestContext aContext) {
+        final String script = "head -c 1000000 /dev/zero >&2; printf captured";
+
+        new ProcessRunner(myContext.vertx(), List.of(SHELL, COMMAND, script)).runForOutput()
+                .onComplete(aContext.asyncAssertSuccess(output -> {
+                    aContext.assertEquals("captured", output.toString());
+                }));
+    }
+}
@@ -0,0 +1,247 @@
+package edu.ucla.library.avpairtree;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.Test;
+
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.eventbus.ReplyException;
+import io.vertx.core.eventbus.ReplyFailure;
+
+/**
+ * Tests of RequestQueue.
+ */
+public class RequestQueueTest {
+
+    private static final String LARGE = "large.csv";
+
+    private static final String SMALL = "small.csv";
+
+    private static final long SLOW_REQUEST = 50;
+
+    /**
+     * Tests that a fixed queue never has more than its limit in flight.
+     */
+    @Test
+    public void testFixedLimit() {
+        final RequestQueue queue = new RequestQueue(2);
+        final List<Promise<Void>> jobs = enqueue(queue, 5);
+
+        assertEquals(2, queue.getInFlightCount());
+        assertEquals(3, queue.size());
+
+        complete(jobs, 5);
+
+        assertEquals(0, queue.getInFlightCount());
+        assertEquals(2, queue.getMaxInFlight());
+    }
+
+    /**
+     * Tests that a group that's queued behind a large group doesn't have to wait for all of its requests to start.
+     */
+    @Test
+    public void testRoundRobin() {
+        final RequestQueue queue = new RequestQueue(1);
+        final List<String> started = new ArrayList<>();
+        final List<Promise<Void>> jobs = new ArrayList<>();
+
+        enqueue(queue, LARGE, 1, 5, started, jobs);
+        enqueue(queue, SMALL, 1, 2, started, jobs);
+        completeInTurn(jobs, 7);
+
+        assertEquals(List.of(LARGE, LARGE, SMALL, LARGE, SMALL, LARGE, LARGE), started);
+    }
+
+    /**
+     * Tests that a group with a higher weight gets more requests started on each of its turns.
+     */
+    @Test
+    public void testWeights() {
+        final RequestQueue queue = new RequestQueue(1);
+        final List<String> started = new ArrayList<>();
+        final List<Promise<Void>> jobs = new ArrayList<>();
+
+        enqueue(queue, LARGE, 1, 3, started, jobs);
+        enqueue(queue, SMALL, 3, 3, started, jobs);
+        completeInTurn(jobs, 6);
+
+        assertEquals(List.of(LARGE, LARGE, SMALL, SMALL, SMALL, LARGE), started);
+    }
+
+    /**
+     * Tests that a queue with a capacity is full once that many requests are waiting and that it's drained once half
+     * of them have started.
+     */
+    @Test
+    public void testCapacity() {
+        final RequestQueue queue = new RequestQueue(1).setCapacity(4);
+        final List<Promise<Void>> jobs = enqueue(queue, 5);
+        final Future<Void> drained = queue.drained();
+
+        assertTrue(queue.isFull());
+        assertFalse(drained.isComplete());
+
+        complete(jobs, 1);
+        assertFalse(queue.isFull());
+        assertFalse(drained.isComplete());
+
+        complete(jobs, 2);
+        assertTrue(drained.succeeded());
+    }
+
+    /**
+     * Tests that an adaptive queue raises its limit while the system isn't loaded, but not past its maximum.
+     */
+    @Test
+    public void testAdaptiveIncrease() {
+        final RequestQueue queue = new RequestQueue(1, 1, 4, () -> 0.1);
+
+        complete(enqueue(queue, 100), 100);
+
+        assertEquals(4, queue.getMaxInFlight());
+    }
+
+    /**
+     * Tests that an adaptive queue lowers its limit while the system is overloaded, but not past its minimum.
+     */
+    @Test
+    public void testAdaptiveDecrease() {
+        final RequestQueue queue = new RequestQueue(1, 8, 8, () -> 2.0);
+        final List<Promise<Void>> jobs = enqueue(queue, 100);
+
+        complete(jobs, 100);
+
+        assertEquals(1, queue.getMaxInFlight());
+    }
+
+    /**
+     * Tests that an adaptive queue lowers its limit when requests time out.
+     */
+    @Test
+    public void testAdaptiveTimeouts() {
+        final RequestQueue queue = new RequestQueue(1, 4, 4, () -> 0.1);
+        final List<Promise<Void>> jobs = enqueue(queue, 8);
+
+        for (final Promise<Void> job : jobs) {
+            job.fail(new TimeoutException("Timed out for testing purposes"));
+        }
+
+        assertTrue(queue.getMaxInFlight() < 4);
+    }
+
+    /**
+     * Tests that an adaptive queue doesn't lower its limit when requests fail for reasons of their own (e.g. a run of
+     * items with missing source files).
+     */
+    @Test
+    public void testAdaptiveItemFailures() {
+        final RequestQueue queue = new RequestQueue(1, 4, 4, () -> 0.1);
+        final List<Promise<Void>> jobs = enqueue(queue, 40);
+
+        for (final Promise<Void> job : jobs) {
+            job.tryFail(new ReplyException(ReplyFailure.RECIPIENT_FAILURE, Op.ERROR_CODE, "Missing source file"));
+        }
+
+        assertEquals(4, queue.getMaxInFlight());
+    }
+
+    /**
+     * Tests that an adaptive queue doesn't lower its limit just because a request takes much longer than the others
+     * (e.g. because it's converting a much longer audio file).
+     *
+     * @throws InterruptedException If the test is interrupted while its slow request is running
+     */
+    @Test
+    public void testAdaptiveSlowRequest() throws InterruptedException {
+        final RequestQueue queue = new RequestQueue(1, 4, 4, () -> 0.1);
+        final List<Promise<Void>> jobs = enqueue(queue, 40);
+
+        complete(jobs, 20);
+        Thread.sleep(SLOW_REQUEST);
+        complete(jobs, 40);
+
+        assertEquals(4, queue.getMaxInFlight());
+    }
+
+    /**
+     * Tests that an adaptive queue's bounds are checked.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidBounds() {
+        new RequestQueue(2, 1, 4, () -> 0.1);
+    }
+
+    /**
+     * Enqueues jobs that complete when their promises are completed.
+     *
+     * @param aQueue A request queue
+     * @param aCount The number of jobs to enqueue
+     * @return The promises of the jobs, in the order they were enqueued
+     */
+    private List<Promise<Void>> enqueue(final RequestQueue aQueue, final int aCount) {
+        final List<Promise<Void>> jobs = new ArrayList<>();
+
+        for (int count = 0; count < aCount; count++) {
+            final Promise<Void> job = Promise.promise();
+
+            jobs.add(job);
+            aQueue.enqueue(job::future);
+        }
+
+        return jobs;
+    }
+
+    /**
+     * Enqueues jobs in a group, recording the group's name when each of them starts.
+     *
+     * @param aQueue A request queue
+     * @param aGroup The name of the group
+     * @param aWeight The weight of the group
+     * @param aCount The number of jobs to enqueue
+     * @param aStarted The names of the groups of the jobs that have started, in the order they started
+     * @param aJobs The promises of the jobs, in the order they were enqueued
+     */
+    private void enqueue(final RequestQueue aQueue, final String aGroup, final int aWeight, final int aCount,
+            final List<String> aStarted, final List<Promise<Void>> aJobs) {
+        for (int count = 0; count < aCount; count++) {
+            aQueue.enqueue(aGroup, aWeight, () -> {
+                final Promise<Void> job = Promise.promise();
+
+                aStarted.add(aGroup);
+                aJobs.add(job);
+                return job.future();
+            });
+        }
+    }
+
+    /**
+     * Completes the first of the supplied jobs; jobs that haven't started yet complete as soon as they start.
+     *
+     * @param aJobs The promises of some jobs
+     * @param aCount The number of jobs to complete
+     */
+    private void complete(final List<Promise<Void>> aJobs, final int aCount) {
+        for (int index = 0; index < aCount; index++) {
+            aJobs.get(index).tryComplete();
+        }
+    }
+
+    /**
+     * Completes jobs one at a time, as they're started.
+     *
+     * @param aJobs The promises of the jobs that have started, which grows as each one completes
+     * @param aCount The number of jobs to complete
+     */
+    private void completeInTurn(final List<Promise<Void>> aJobs, final int aCount) {
+        for (int index = 0; index < aCount; index++) {
+            aJobs.get(index).complete();
+        }
+    }
+}
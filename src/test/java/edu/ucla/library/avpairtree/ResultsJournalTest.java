@@ -0,0 +1,102 @@
+package edu.ucla.library.avpairtree;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.RunTestOnContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+
+/**
+ * Tests of ResultsJournal.
+ */
+@RunWith(VertxUnitRunner.class)
+public class ResultsJournalTest {
+
+    private static final String ARK = "ark:/21198/zz002dvwr6";
+
+    private static final String FAILED_ARK = "ark:/21198/zz002dvx4c";
+
+    /**
+     * Rule that creates the test context.
+     */
+    @Rule
+    public RunTestOnContext myContext = new RunTestOnContext();
+
+    /**
+     * Tests that just the results of the supplied items are read back, when the journal is read a part at a time.
+     *
+     * @param aContext A test context
+     * @throws IOException If a temporary CSV path can't be created
+     */
+    @Test
+    public void testReadPart(final TestContext aContext) throws IOException {
+        final Async asyncTask = aContext.async();
+        final Path csvFile = Files.createTempFile("results-", ".csv");
+
+        ResultsJournal.open(myContext.vertx(), csvFile.toString()).onSuccess(journal -> {
+            journal.append(ARK, "https://example.com/iiif/" + ARK, "").compose(appended -> {
+                return journal.appendFailure(FAILED_ARK, new IllegalStateException(FAILED_ARK));
+            }).compose(appended -> journal.close()).onSuccess(closed -> {
+                try {
+                    final Map<String, String[]> results = journal.read(Set.of(FAILED_ARK));
+
+                    aContext.assertEquals(2, journal.size());
+                    aContext.assertEquals(1, results.size());
+                    aContext.assertEquals(ResultsJournal.FAILED, results.get(FAILED_ARK)[2]);
+                } catch (final IOException details) {
+                    aContext.fail(details);
+                }
+
+                journal.delete().onSuccess(deletion -> {
+                    csvFile.toFile().delete();
+                    asyncTask.complete();
+                }).onFailure(aContext::fail);
+            }).onFailure(aContext::fail);
+        }).onFailure(aContext::fail);
+    }
+
+    /**
+     * Tests that results are read back as they were journaled, including carriage returns that aren't followed by a
+     * line feed.
+     *
+     * @param aContext A test context
+     * @throws IOException If a temporary CSV path can't be created
+     */
+    @Test
+    public void testRead(final TestContext aContext) throws IOException {
+        final Async asyncTask = aContext.async();
+        final Path csvFile = Files.createTempFile("results-", ".csv");
+        final String error = "A message\rwith a bare carriage return";
+
+        ResultsJournal.open(myContext.vertx(), csvFile.toString()).onSuccess(journal -> {
+            journal.append(ARK, "https://example.com/iiif/" + ARK, "").compose(appended -> {
+                return journal.appendFailure(FAILED_ARK, new IllegalStateException(error));
+            }).compose(appended -> journal.close()).onSuccess(closed -> {
+                try {
+                    final Map<String, String[]> results = journal.read();
+
+                    aContext.assertEquals(2, results.size());
+                    aContext.assertEquals(ResultsJournal.SUCCEEDED, results.get(ARK)[2]);
+                    aContext.assertEquals(ResultsJournal.FAILED, results.get(FAILED_ARK)[2]);
+                    aContext.assertEquals(error, results.get(FAILED_ARK)[3]);
+                } catch (final IOException details) {
+                    aContext.fail(details);
+                }
+
+                journal.delete().onSuccess(deletion -> {
+                    csvFile.toFile().delete();
+                    asyncTask.complete();
+                }).onFailure(aContext::fail);
+            }).onFailure(aContext::fail);
+        }).onFailure(aContext::fail);
+    }
+}
@@ -0,0 +1,123 @@
+package edu.ucla.library.avpairtree;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import io.vertx.core.Future;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.RunTestOnContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+
+/**
+ * Tests of ScratchSpace.
+ */
+@RunWith(VertxUnitRunner.class)
+public class ScratchSpaceTest {
+
+    /**
+     * A process ID that's too big to belong to a running process.
+     */
+    private static final long DEAD_PID = Long.MAX_VALUE;
+
+    /**
+     * Rule that creates the test context.
+     */
+    @Rule
+    public RunTestOnContext myContext = new RunTestOnContext();
+
+    /**
+     * Tests that only the scratch space directories of processes that have gone away, and old ones that aren't named
+     * after a process, are swept up.
+     *
+     * @param aContext A test context
+     * @throws IOException If the test directories can't be created
+     */
+    @Test
+    public void testSweep(final TestContext aContext) throws IOException {
+        final Path parentDir = Files.createTempDirectory("scratch-test-");
+        final Path ownDir = Files.createDirectory(parentDir.resolve(getDirName(ProcessHandle.current().pid())));
+        final Path orphanedDir = Files.createDirectory(parentDir.resolve(getDirName(DEAD_PID)));
+        final Path oldDir = Files.createDirectory(parentDir.resolve(ScratchSpace.PREFIX + "123"));
+        final Path newDir = Files.createDirectory(parentDir.resolve(ScratchSpace.PREFIX + "456"));
+        final Path otherDir = Files.createDirectory(parentDir.resolve("other-" + DEAD_PID + "-dir"));
+
+        Files.writeString(orphanedDir.resolve("orphaned.mp4"), "orphaned");
+        Files.setLastModifiedTime(oldDir, FileTime.from(Instant.now().minus(Duration.ofDays(2))));
+
+        final List<Path> removed = ScratchSpace.sweep(parentDir);
+
+        aContext.assertEquals(2, removed.size());
+        aContext.assertFalse(Files.exists(orphanedDir));
+        aContext.assertFalse(Files.exists(oldDir));
+        aContext.assertTrue(Files.exists(ownDir));
+        aContext.assertTrue(Files.exists(newDir));
+        aContext.assertTrue(Files.exists(otherDir));
+    }
+
+    /**
+     * Tests that a reservation that would go over the quota waits until enough space has been released.
+     *
+     * @param aContext A test context
+     * @throws IOException If the scratch space's parent directory can't be created
+     */
+    @Test
+    public void testQuota(final TestContext aContext) throws IOException {
+        final JsonObject config = new JsonObject().put(Config.SCRATCH_QUOTA, 100)
+                .put(Config.SCRATCH_DIR, Files.createTempDirectory("scratch-test-").toString());
+
+        ScratchSpace.create(myContext.vertx(), config).compose(scratchSpace -> {
+            return scratchSpace.reserve(60).compose(first -> {
+                final Future<ScratchSpace.Reservation> second = scratchSpace.reserve(60);
+
+                aContext.assertFalse(second.isComplete());
+                first.release();
+
+                return second;
+            }).compose(second -> {
+                second.release();
+                return scratchSpace.delete();
+            });
+        }).onComplete(aContext.asyncAssertSuccess());
+    }
+
+    /**
+     * Tests that a reservation that's bigger than the quota on its own is let in when nothing else is reserved.
+     *
+     * @param aContext A test context
+     * @throws IOException If the scratch space's parent directory can't be created
+     */
+    @Test
+    public void testOversizedReservation(final TestContext aContext) throws IOException {
+        final JsonObject config = new JsonObject().put(Config.SCRATCH_QUOTA, 100)
+                .put(Config.SCRATCH_DIR, Files.createTempDirectory("scratch-test-").toString());
+
+        ScratchSpace.create(myContext.vertx(), config).compose(scratchSpace -> {
+            return scratchSpace.reserve(1000).compose(reservation -> {
+                aContext.assertTrue(reservation.getDir().equals(scratchSpace.getDir()));
+                reservation.release();
+
+                return scratchSpace.delete();
+            });
+        }).onComplete(aContext.asyncAssertSuccess());
+    }
+
+    /**
+     * Gets the name of a scratch space directory that belongs to the supplied process.
+     *
+     * @param aPID A process ID
+     * @return The name of a scratch space directory
+     */
+    private String getDirName(final long aPID) {
+        return ScratchSpace.PREFIX + aPID + "-1234";
+    }
+}
@@ -0,0 +1,64 @@
+package edu.ucla.library.avpairtree;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Test;
+
+/**
+ * Tests of WaveformGenerator.
+ */
+public class WaveformGeneratorTest {
+
+    private static final Path WAV_FILE = Path.of("src/test/resources/soul/audio/uclapasc.wav");
+
+    private static final Path DAT_FILE = Path.of("src/test/resources/soul/audio/uclapasc.dat.gz");
+
+    /**
+     * Tests that the generated audiowaveform data is the same as what the audiowaveform program generates.
+     *
+     * @throws IOException If the test files can't be read
+     */
+    @Test
+    public void testParity() throws IOException {
+        assertArrayEquals(getExpected(), WaveformGenerator.generate(WAV_FILE));
+    }
+
+    /**
+     * Tests that the generated audiowaveform data is the same when the WAV file is worked on in many small chunks, none
+     * of which are a whole number of pixels apart from the end of the file.
+     *
+     * @throws IOException If the test files can't be read
+     */
+    @Test
+    public void testParityInChunks() throws IOException {
+        assertArrayEquals(getExpected(), WaveformGenerator.generate(WAV_FILE, 7));
+    }
+
+    /**
+     * Tests that a file that isn't a WAV file is rejected.
+     *
+     * @throws IOException If the test file can't be read
+     */
+    @Test(expected = IOException.class)
+    public void testNotWav() throws IOException {
+        WaveformGenerator.generate(DAT_FILE);
+    }
+
+    /**
+     * Gets the audiowaveform data that the audiowaveform program generated for the test WAV file.
+     *
+     * @return The expected audiowaveform data
+     * @throws IOException If the expected audiowaveform data can't be read
+     */
+    private byte[] getExpected() throws IOException {
+        try (InputStream inStream = new GZIPInputStream(Files.newInputStream(DAT_FILE))) {
+            return inStream.readAllBytes();
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package edu.ucla.library.avpairtree.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import info.freelibrary.util.Constants;
+import info.freelibrary.util.StringUtils;
+
+import info.freelibrary.pairtree.Pairtree;
+import info.freelibrary.pairtree.PairtreeUtils;
+
+import edu.ucla.library.avpairtree.AccessUrlTemplate;
+import edu.ucla.library.avpairtree.Config;
+
+import io.vertx.core.json.JsonObject;
+
+/**
+ * Compares building the access URLs of a million ARKs the way the watcher used to (looking up its configuration,
+ * counting the pattern's substitution patterns with a newly compiled regular expression, and then formatting the URL
+ * for each ARK) with building them from a compiled access URL template, which writes each ARK's Pairtree path and
+ * encoded ID straight into its URL. Run it with <code>-prof gc</code> to compare the allocation rates. See the
+ * project's README for how to run it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class AccessUrlBenchmark {
+
+    private static final int ARK_COUNT = 1_000_000;
+
+    private static final String SLUG = "soul";
+
+    private static final String SUBSTITUTION_PATTERN = "{}";
+
+    private String[] myARKs;
+
+    private JsonObject myConfig;
+
+    private AccessUrlTemplate myTemplate;
+
+    private String myArkPrefix;
+
+    private String myFileExt;
+
+    /**
+     * Creates the ARKs and the configuration the access URLs are built from.
+     */
+    @Setup(Level.Trial)
+    public void setUp() {
+        myARKs = new String[ARK_COUNT];
+
+        for (int index = 0; index < ARK_COUNT; index++) {
+            myARKs[index] = "ark:/21198/zz" + Integer.toString(index, Character.MAX_RADIX);
+        }
+
+        myConfig = new JsonObject().put(Config.PAIRTREE_PREFIX, "ark:/").put(Config.ENCODING_FORMAT, "mp4")
+                .put(Config.ACCESS_URL_PATTERN, "https://wowza.library.ucla.edu/iiif_av_public/definst/mp4:{}{}")
+                .put(Config.ACCESS_URL_ID_INDEX, 1);
+
+        myTemplate = new AccessUrlTemplate(myConfig.getString(Config.ACCESS_URL_PATTERN),
+                myConfig.getInteger(Config.ACCESS_URL_ID_INDEX));
+        myArkPrefix = myConfig.getString(Config.PAIRTREE_PREFIX);
+        myFileExt = Constants.PERIOD + myConfig.getString(Config.ENCODING_FORMAT);
+    }
+
+    /**
+     * Builds the access URLs the way the watcher used to.
+     *
+     * @param aBlackhole A sink for the access URLs
+     */
+    @Benchmark
+    @OperationsPerInvocation(ARK_COUNT)
+    public void formatPerRow(final Blackhole aBlackhole) {
+        for (final String ark : myARKs) {
+            final String arkPrefix = myConfig.getString(Config.PAIRTREE_PREFIX);
+            final String pathARK = ark.replace(arkPrefix, Constants.EMPTY);
+            final String encodedARK = PairtreeUtils.encodeID(ark);
+            final String fileExt = Constants.PERIOD + myConfig.getString(Config.ENCODING_FORMAT);
+            final String accessUrlPattern = myConfig.getString(Config.ACCESS_URL_PATTERN, SUBSTITUTION_PATTERN);
+            final int urlPatternIdIndex = myConfig.getInteger(Config.ACCESS_URL_ID_INDEX, 1);
+            final String ptPath = PairtreeUtils.mapToPtPath(SLUG + Constants.SLASH + Pairtree.ROOT, pathARK, pathARK);
+            final String ptFilePath = (ptPath + Constants.SLASH + encodedARK + fileExt).replace(Constants.PLUS, "%2B");
+            final int substitutionCount = countSubstitutionPatterns(accessUrlPattern);
+
+            if (substitutionCount == 2 && urlPatternIdIndex == 1) {
+                aBlackhole.consume(StringUtils.format(accessUrlPattern, ptFilePath, SUBSTITUTION_PATTERN));
+            }
+        }
+    }
+
+    /**
+     * Builds the access URLs from a compiled access URL template.
+     *
+     * @param aBlackhole A sink for the access URLs
+     */
+    @Benchmark
+    @OperationsPerInvocation(ARK_COUNT)
+    public void compiledTemplate(final Blackhole aBlackhole) {
+        for (final String ark : myARKs) {
+            aBlackhole.consume(myTemplate.build(SLUG, ark, myArkPrefix, Constants.EMPTY, myFileExt));
+        }
+    }
+
+    /**
+     * Counts the number of substitution patterns in the supplied string, as the watcher used to.
+     *
+     * @param aString A string with substitution patterns
+     * @return The number of substitution patterns in the supplied string
+     */
+    private static int countSubstitutionPatterns(final String aString) {
+        final Pattern pattern = Pattern.compile(SUBSTITUTION_PATTERN, Pattern.LITERAL);
+        final Matcher matcher = pattern.matcher(aString);
+
+        int startIndex = 0;
+        int count = 0;
+
+        while (matcher.find(startIndex)) {
+            startIndex = matcher.start() + 1;
+            count += 1;
+        }
+
+        return count;
+    }
+}
@@ -0,0 +1,167 @@
+package edu.ucla.library.avpairtree.benchmarks;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.csveed.api.CsvClient;
+import org.csveed.api.CsvClientImpl;
+import org.csveed.api.Row;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import edu.ucla.library.avpairtree.CsvItem;
+import edu.ucla.library.avpairtree.CsvRowParser;
+import edu.ucla.library.avpairtree.CsvRows;
+
+import io.vertx.core.Vertx;
+
+/**
+ * Compares the cost of re-reading and re-parsing a 50,000 row CSV file when its output is written (what the watcher
+ * used to do) with the cost of reusing the rows that were kept from the first parse. See the project's README for how
+ * to run it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CsvRowsBenchmark {
+
+    private static final int ROW_COUNT = 50_000;
+
+    private static final int EXTRA_COLUMNS = 38;
+
+    private Vertx myVertx;
+
+    private Path myCsvFile;
+
+    private CsvRows myKeptRows;
+
+    private CsvRows mySpilledRows;
+
+    /**
+     * Writes a 50,000 row CSV file and parses it once, keeping its rows both in memory and spilled to disk.
+     *
+     * @throws IOException If the CSV file can't be written or read
+     * @throws InterruptedException If the setup is interrupted
+     * @throws ExecutionException If the spilled rows can't be written
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, InterruptedException, ExecutionException {
+        myVertx = Vertx.vertx();
+        myCsvFile = Files.createTempFile("av-pairtree-benchmark-", ".csv");
+        myKeptRows = new CsvRows(myVertx, myCsvFile.getParent().toString(), Integer.MAX_VALUE);
+        mySpilledRows = new CsvRows(myVertx, myCsvFile.getParent().toString(), 0);
+
+        try (BufferedWriter writer = Files.newBufferedWriter(myCsvFile, StandardCharsets.UTF_8)) {
+            writer.write("\"Project Name\",\"" + CsvItem.ITEM_ARK_HEADER + "\",\"" + CsvItem.FILE_NAME_HEADER + "\"");
+
+            for (int column = 0; column < EXTRA_COLUMNS; column++) {
+                writer.write(",\"Column " + column + "\"");
+            }
+
+            writer.write("\n");
+
+            for (int row = 0; row < ROW_COUNT; row++) {
+                writer.write("\"SOUL Publications, Inc. records, 1955-2002\",\"ark:/21198/zz" + row +
+                        "\",\"soul/audio/uclapasc.wav\"");
+
+                for (int column = 0; column < EXTRA_COLUMNS; column++) {
+                    writer.write(column % 2 == 0 ? ",\"\"" : ",\"Performing Arts Special Collections\"");
+                }
+
+                writer.write("\n");
+            }
+        }
+
+        // Parse the file the way the watcher does, keeping its rows
+        final CsvRowParser parser = new CsvRowParser(row -> {
+            if (myKeptRows.getHeader().length == 0) {
+                myKeptRows.setHeader(row);
+                mySpilledRows.setHeader(row);
+            } else {
+                myKeptRows.add(row.clone());
+                mySpilledRows.add(row.clone());
+            }
+        });
+
+        Files.readAllLines(myCsvFile, StandardCharsets.UTF_8).forEach(parser::parse);
+        parser.end();
+
+        myKeptRows.close().toCompletionStage().toCompletableFuture().get();
+        mySpilledRows.close().toCompletionStage().toCompletableFuture().get();
+    }
+
+    /**
+     * Cleans up the benchmark's files.
+     *
+     * @throws IOException If the CSV file can't be deleted
+     * @throws InterruptedException If the cleanup is interrupted
+     * @throws ExecutionException If the spilled rows can't be deleted
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException, InterruptedException, ExecutionException {
+        mySpilledRows.delete().toCompletionStage().toCompletableFuture().get();
+        myKeptRows.delete();
+        myVertx.close();
+        Files.deleteIfExists(myCsvFile);
+    }
+
+    /**
+     * Reads and parses the CSV file a second time, as the watcher used to before writing its output.
+     *
+     * @param aBlackhole A sink for the rows
+     * @throws IOException If the CSV file can't be read
+     */
+    @Benchmark
+    public void reparseCsvFile(final Blackhole aBlackhole) throws IOException {
+        final String csv = new String(Files.readAllBytes(myCsvFile), StandardCharsets.UTF_8);
+        final CsvClient<CsvItem> reader = new CsvClientImpl<>(new StringReader(csv), CsvItem.class);
+
+        aBlackhole.consume(reader.readHeader());
+
+        for (final Row row : reader.readRows()) {
+            aBlackhole.consume(row);
+        }
+    }
+
+    /**
+     * Reuses the rows that were kept in memory from the first parse.
+     *
+     * @param aBlackhole A sink for the rows
+     * @throws IOException If the rows can't be read
+     */
+    @Benchmark
+    public void reuseKeptRows(final Blackhole aBlackhole) throws IOException {
+        myKeptRows.forEach(aBlackhole::consume);
+    }
+
+    /**
+     * Reuses the rows that were spilled to disk during the first parse.
+     *
+     * @param aBlackhole A sink for the rows
+     * @throws IOException If the rows can't be read
+     */
+    @Benchmark
+    public void reuseSpilledRows(final Blackhole aBlackhole) throws IOException {
+        mySpilledRows.forEach(aBlackhole::consume);
+    }
+}
@@ -0,0 +1,176 @@
+package edu.ucla.library.avpairtree.handlers;
+
+import static edu.ucla.library.avpairtree.AvPtConstants.WAVEFORM_CONSUMER;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import edu.ucla.library.avpairtree.Config;
+
+import io.vertx.config.ConfigRetriever;
+import io.vertx.core.CompositeFuture;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.RunTestOnContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+
+import software.amazon.awssdk.services.s3.model.CreateBucketRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+
+/**
+ * Tests the Amazon S3 waveform consumer against Localstack S3.
+ */
+@RunWith(VertxUnitRunner.class)
+public class AmazonS3WaveformConsumerIT {
+
+    private static final int MAX_CONNECTIONS = 2;
+
+    private static final int UPLOAD_COUNT = 6;
+
+    private static final long LAST_MODIFIED_RESOLUTION = 1500;
+
+    /**
+     * Rule that creates the test context.
+     */
+    @Rule
+    public RunTestOnContext myContext = new RunTestOnContext();
+
+    /**
+     * Tests that a burst of uploads is let through no more than the configured number at a time, and that they all
+     * end up on S3.
+     *
+     * @param aContext A test context
+     */
+    @Test
+    public void testUploadBurst(final TestContext aContext) {
+        final Vertx vertx = myContext.vertx();
+
+        ConfigRetriever.create(vertx).getConfig().compose(config -> {
+            final AmazonS3WaveformConsumer consumer =
+                    new AmazonS3WaveformConsumer(config.put(Config.S3_MAX_CONNECTIONS, MAX_CONNECTIONS));
+            final String bucket = consumer.getS3BucketName();
+            final CreateBucketRequest request = CreateBucketRequest.builder().bucket(bucket).build();
+
+            vertx.eventBus().consumer(WAVEFORM_CONSUMER, consumer);
+
+            return Future.fromCompletionStage(consumer.getS3Client().createBucket(request)).compose(created -> {
+                @SuppressWarnings("rawtypes")
+                final List<Future> uploads = new ArrayList<>();
+
+                for (int index = 0; index < UPLOAD_COUNT; index++) {
+                    final DeliveryOptions options = new DeliveryOptions().addHeader("key", getKey(index))
+                            .addHeader("contentEncoding", "gzip");
+
+                    uploads.add(vertx.eventBus().<String>request(WAVEFORM_CONSUMER, createDataFile(index), options)
+                            .onSuccess(reply -> {
+                                aContext.assertTrue(consumer.getInFlightUploadCount() <= MAX_CONNECTIONS);
+                            }));
+                }
+
+                return CompositeFuture.all(uploads);
+            }).compose(uploads -> {
+                @SuppressWarnings("rawtypes")
+                final List<Future> heads = new ArrayList<>();
+
+                aContext.assertEquals(0, consumer.getInFlightUploadCount());
+                aContext.assertEquals(0, consumer.getWaitingUploadCount());
+
+                for (int index = 0; index < UPLOAD_COUNT; index++) {
+                    final HeadObjectRequest head =
+                            HeadObjectRequest.builder().bucket(bucket).key(getKey(index)).build();
+
+                    heads.add(Future.fromCompletionStage(consumer.getS3Client().headObject(head)));
+                }
+
+                return CompositeFuture.all(heads);
+            });
+        }).onComplete(aContext.asyncAssertSuccess());
+    }
+
+    /**
+     * Tests that waveform data that S3 already has isn't uploaded again, even by a consumer that didn't upload it.
+     *
+     * @param aContext A test context
+     */
+    @Test
+    public void testSkipUnchanged(final TestContext aContext) {
+        final Vertx vertx = myContext.vertx();
+        final String key = "ark:/21198/zz00unchanged/audiowaveform.dat";
+        final String dataFile = createDataFile(UPLOAD_COUNT);
+        final DeliveryOptions options =
+                new DeliveryOptions().addHeader("key", key).addHeader("contentEncoding", "gzip");
+
+        ConfigRetriever.create(vertx).getConfig().compose(config -> {
+            final AmazonS3WaveformConsumer consumer = new AmazonS3WaveformConsumer(config);
+            final String bucket = consumer.getS3BucketName();
+            final HeadObjectRequest head = HeadObjectRequest.builder().bucket(bucket).key(key).build();
+
+            vertx.eventBus().consumer(WAVEFORM_CONSUMER, consumer);
+
+            return Future.fromCompletionStage(consumer.getS3Client()
+                    .createBucket(CreateBucketRequest.builder().bucket(bucket).build())).compose(created -> {
+                        return vertx.eventBus().request(WAVEFORM_CONSUMER, dataFile, options);
+                    }).compose(upload -> Future.fromCompletionStage(consumer.getS3Client().headObject(head)));
+        }).compose(uploaded -> {
+            final Promise<Void> wait = Promise.promise();
+
+            // Last-modified times are to the second, so a second upload would have to show up as a later time
+            vertx.setTimer(LAST_MODIFIED_RESOLUTION, timer -> wait.complete());
+
+            // A new consumer hasn't uploaded anything itself, so it has to find the object by asking S3 about its key
+            return wait.future().compose(waited -> ConfigRetriever.create(vertx).getConfig()).compose(config -> {
+                final AmazonS3WaveformConsumer consumer = new AmazonS3WaveformConsumer(config);
+                final HeadObjectRequest head =
+                        HeadObjectRequest.builder().bucket(consumer.getS3BucketName()).key(key).build();
+
+                vertx.eventBus().consumer(WAVEFORM_CONSUMER + "-rerun", consumer);
+
+                return vertx.eventBus().request(WAVEFORM_CONSUMER + "-rerun", dataFile, options).compose(upload -> {
+                    return Future.fromCompletionStage(consumer.getS3Client().headObject(head));
+                });
+            }).onSuccess(rerun -> aContext.assertEquals(uploaded.lastModified(), rerun.lastModified()));
+        }).onComplete(aContext.asyncAssertSuccess());
+    }
+
+    /**
+     * Gets the S3 object key of a test upload.
+     *
+     * @param anIndex The index of the test upload
+     * @return The S3 object key
+     */
+    private static String getKey(final int anIndex) {
+        return "ark:/21198/zz00burst" + anIndex + "/audiowaveform.dat";
+    }
+
+    /**
+     * Creates a waveform data file for a test upload.
+     *
+     * @param anIndex The index of the test upload
+     * @return The path of the waveform data file
+     */
+    private static String createDataFile(final int anIndex) {
+        final byte[] data = new byte[256 * 1024];
+
+        new Random(anIndex).nextBytes(data);
+
+        try {
+            final Path dataFile = Files.createTempFile("waveform-", ".dat");
+
+            dataFile.toFile().deleteOnExit();
+            return Files.write(dataFile, data).toString();
+        } catch (final IOException details) {
+            throw new IllegalStateException(details);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package edu.ucla.library.avpairtree.handlers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.Test;
+
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+
+/**
+ * Tests of AmazonS3WaveformConsumer.
+ */
+public class AmazonS3WaveformConsumerTest {
+
+    private static final String BUCKET = "bucket";
+
+    private static final String KEY = "ark:/21198/zz002dvwr6/audiowaveform.dat";
+
+    private static final String ETAG = "0cc175b9c0f1b6a831c399e269772661";
+
+    /**
+     * Tests that only the object at the key is asked about when its stored ETag is looked up.
+     */
+    @Test
+    public void testStoredETag() {
+        final FakeS3Client s3Client = new FakeS3Client();
+
+        s3Client.myResponses.add(CompletableFuture.completedFuture(HeadObjectResponse.builder().eTag('"' + ETAG + '"')
+                .build()));
+
+        assertEquals(ETAG, AmazonS3WaveformConsumer.getStoredETag(s3Client, BUCKET, KEY).join());
+        assertEquals(1, s3Client.myRequests.size());
+        assertEquals(BUCKET, s3Client.myRequests.get(0).bucket());
+        assertEquals(KEY, s3Client.myRequests.get(0).key());
+    }
+
+    /**
+     * Tests that a key that doesn't have an object at it has no stored ETag.
+     */
+    @Test
+    public void testMissingObject() {
+        final FakeS3Client s3Client = new FakeS3Client();
+
+        s3Client.myResponses.add(CompletableFuture.failedFuture(NoSuchKeyException.builder().statusCode(404).build()));
+
+        assertNull(AmazonS3WaveformConsumer.getStoredETag(s3Client, BUCKET, KEY).join());
+    }
+
+    /**
+     * Tests that a failed lookup of a stored ETag isn't remembered, so the next lookup asks S3 again.
+     */
+    @Test
+    public void testFailedLookup() {
+        final FakeS3Client s3Client = new FakeS3Client();
+
+        s3Client.myResponses.add(CompletableFuture.failedFuture(S3Exception.builder().statusCode(503).build()));
+        s3Client.myResponses.add(CompletableFuture.completedFuture(HeadObjectResponse.builder().eTag('"' + ETAG + '"')
+                .build()));
+
+        assertNull(AmazonS3WaveformConsumer.getStoredETag(s3Client, BUCKET, KEY).join());
+        assertEquals(ETAG, AmazonS3WaveformConsumer.getStoredETag(s3Client, BUCKET, KEY).join());
+        assertEquals(2, s3Client.myRequests.size());
+    }
+
+    /**
+     * A fake S3 client that records the HEAD requests it gets; any other request (e.g. a listing of the bucket) isn't
+     * supported.
+     */
+    private static final class FakeS3Client implements S3AsyncClient {
+
+        private final List<HeadObjectRequest> myRequests = new ArrayList<>();
+
+        private final List<CompletableFuture<HeadObjectResponse>> myResponses = new ArrayList<>();
+
+        @Override
+        public CompletableFuture<HeadObjectResponse> headObject(final HeadObjectRequest aRequest) {
+            myRequests.add(aRequest);
+            return myResponses.remove(0);
+        }
+
+        @Override
+        public String serviceName() {
+            return SERVICE_NAME;
+        }
+
+        @Override
+        public void close() {
+            // Nothing to close
+        }
+    }
+}
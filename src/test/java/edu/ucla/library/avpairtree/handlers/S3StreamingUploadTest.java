@@ -0,0 +1,308 @@
+package edu.ucla.library.avpairtree.handlers;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Test;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import software.amazon.awssdk.core.async.AsyncRequestBody;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectResponse;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartResponse;
+
+/**
+ * Tests of S3StreamingUpload.
+ */
+public class S3StreamingUploadTest {
+
+    private static final String BUCKET = "bucket";
+
+    private static final String KEY = "ark:/21198/zz002dvwr6/audiowaveform.dat";
+
+    /**
+     * Tests that data that fits in one part is compressed and uploaded with a single put.
+     *
+     * @throws IOException If the data can't be uploaded or decompressed
+     */
+    @Test
+    public void testSinglePut() throws IOException {
+        final FakeS3Client s3Client = new FakeS3Client(0);
+        final byte[] data = getData(100_000);
+
+        new S3StreamingUpload(s3Client, BUCKET, KEY, "gzip", 0).upload(new ByteArrayInputStream(data));
+
+        assertEquals(1, s3Client.myBodies.size());
+        assertEquals(0, s3Client.myUploadedParts);
+        assertEquals("gzip", s3Client.myPut.contentEncoding());
+        assertEquals(getContentMD5(s3Client.myBodies.get(0)), s3Client.myContentMD5s.get(0));
+
+        try (InputStream gunzip = new GZIPInputStream(new ByteArrayInputStream(s3Client.myBodies.get(0)))) {
+            assertArrayEquals(data, gunzip.readAllBytes());
+        }
+    }
+
+    /**
+     * Tests that data that's bigger than a part is uploaded in parts, each with its own Content-MD5.
+     *
+     * @throws IOException If the data can't be uploaded
+     */
+    @Test
+    public void testMultipartUpload() throws IOException {
+        final FakeS3Client s3Client = new FakeS3Client(0);
+        final byte[] data = getData(S3StreamingUpload.MIN_PART_SIZE * 2 + 1000);
+        final ByteArrayOutputStream uploaded = new ByteArrayOutputStream();
+
+        new S3StreamingUpload(s3Client, BUCKET, KEY, null, 0).upload(new ByteArrayInputStream(data));
+
+        assertEquals(3, s3Client.myUploadedParts);
+        assertEquals(3, s3Client.myCompletedParts);
+        assertEquals(1000, s3Client.myBodies.get(2).length);
+
+        for (int index = 0; index < s3Client.myBodies.size(); index++) {
+            assertEquals(getContentMD5(s3Client.myBodies.get(index)), s3Client.myContentMD5s.get(index));
+            uploaded.write(s3Client.myBodies.get(index));
+        }
+
+        assertArrayEquals(data, uploaded.toByteArray());
+    }
+
+    /**
+     * Tests that a multipart upload is aborted when one of its parts can't be uploaded.
+     */
+    @Test
+    public void testFailedPart() {
+        final FakeS3Client s3Client = new FakeS3Client(2);
+        final byte[] data = getData(S3StreamingUpload.MIN_PART_SIZE * 3);
+
+        try {
+            new S3StreamingUpload(s3Client, BUCKET, KEY, null, 0).upload(new ByteArrayInputStream(data));
+        } catch (final IOException details) {
+            assertTrue(s3Client.isAborted);
+            assertEquals(0, s3Client.myCompletedParts);
+            return;
+        }
+
+        throw new AssertionError("The upload should have failed");
+    }
+
+    /**
+     * Tests that the ETag worked out for data that fits in one part is the hex-encoded MD5 digest of the data, and
+     * that the ETag for data that's uploaded in parts is the digest of the parts' digests, with the number of parts.
+     *
+     * @throws IOException If the data file can't be written or read
+     * @throws NoSuchAlgorithmException If MD5 isn't supported
+     */
+    @Test
+    public void testETag() throws IOException, NoSuchAlgorithmException {
+        final int partSize = S3StreamingUpload.MIN_PART_SIZE;
+        final byte[] data = getData(partSize * 2 + 1000);
+        final MessageDigest eTagDigest = MessageDigest.getInstance("MD5");
+        final Path dataFile = Files.createTempFile("waveform-", ".dat");
+
+        dataFile.toFile().deleteOnExit();
+
+        Files.write(dataFile, Arrays.copyOf(data, partSize));
+        assertEquals(toHex(MessageDigest.getInstance("MD5").digest(Arrays.copyOf(data, partSize))),
+                S3StreamingUpload.getETag(dataFile, 0));
+
+        for (int offset = 0; offset < data.length; offset += partSize) {
+            eTagDigest.update(MessageDigest.getInstance("MD5")
+                    .digest(Arrays.copyOfRange(data, offset, Math.min(data.length, offset + partSize))));
+        }
+
+        Files.write(dataFile, data);
+        assertEquals(toHex(eTagDigest.digest()) + "-3", S3StreamingUpload.getETag(dataFile, 0));
+    }
+
+    /**
+     * Hex-encodes a digest.
+     *
+     * @param aDigest A digest
+     * @return The hex-encoded digest
+     */
+    private static String toHex(final byte[] aDigest) {
+        final StringBuilder hex = new StringBuilder();
+
+        for (final byte value : aDigest) {
+            hex.append(String.format("%02x", value));
+        }
+
+        return hex.toString();
+    }
+
+    /**
+     * Gets some test data that doesn't compress to nothing.
+     *
+     * @param aSize The size of the data
+     * @return The test data
+     */
+    private static byte[] getData(final int aSize) {
+        final byte[] data = new byte[aSize];
+
+        new Random(aSize).nextBytes(data);
+        return data;
+    }
+
+    /**
+     * Gets the Content-MD5 of some data.
+     *
+     * @param aData Some data
+     * @return The data's base64-encoded MD5 digest
+     */
+    private static String getContentMD5(final byte[] aData) {
+        try {
+            return Base64.getEncoder().encodeToString(MessageDigest.getInstance("MD5").digest(aData));
+        } catch (final NoSuchAlgorithmException details) {
+            throw new IllegalStateException(details);
+        }
+    }
+
+    /**
+     * Reads all of a request body.
+     *
+     * @param aBody A request body
+     * @return The request body's bytes
+     */
+    private static byte[] read(final AsyncRequestBody aBody) {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        aBody.subscribe(new Subscriber<ByteBuffer>() {
+
+            @Override
+            public void onSubscribe(final Subscription aSubscription) {
+                aSubscription.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(final ByteBuffer aBuffer) {
+                final byte[] buffer = new byte[aBuffer.remaining()];
+
+                aBuffer.get(buffer);
+                bytes.write(buffer, 0, buffer.length);
+            }
+
+            @Override
+            public void onError(final Throwable aError) {
+                throw new IllegalStateException(aError);
+            }
+
+            @Override
+            public void onComplete() {
+                // Nothing to do
+            }
+        });
+
+        return bytes.toByteArray();
+    }
+
+    /**
+     * An S3 client that keeps what's uploaded to it in memory.
+     */
+    private static final class FakeS3Client implements S3AsyncClient {
+
+        private final List<byte[]> myBodies = new ArrayList<>();
+
+        private final List<String> myContentMD5s = new ArrayList<>();
+
+        private final int myFailedPart;
+
+        private PutObjectRequest myPut;
+
+        private int myUploadedParts;
+
+        private int myCompletedParts;
+
+        private boolean isAborted;
+
+        /**
+         * Creates a fake S3 client.
+         *
+         * @param aFailedPart The number of the part that fails to upload, or zero if none do
+         */
+        private FakeS3Client(final int aFailedPart) {
+            myFailedPart = aFailedPart;
+        }
+
+        @Override
+        public CompletableFuture<PutObjectResponse> putObject(final PutObjectRequest aRequest,
+                final AsyncRequestBody aBody) {
+            myPut = aRequest;
+            myContentMD5s.add(aRequest.contentMD5());
+            myBodies.add(read(aBody));
+
+            return CompletableFuture.completedFuture(PutObjectResponse.builder().build());
+        }
+
+        @Override
+        public CompletableFuture<CreateMultipartUploadResponse> createMultipartUpload(
+                final CreateMultipartUploadRequest aRequest) {
+            return CompletableFuture.completedFuture(CreateMultipartUploadResponse.builder().uploadId("id").build());
+        }
+
+        @Override
+        public CompletableFuture<UploadPartResponse> uploadPart(final UploadPartRequest aRequest,
+                final AsyncRequestBody aBody) {
+            if (aRequest.partNumber() == myFailedPart) {
+                return CompletableFuture.failedFuture(new IllegalStateException("Part failed"));
+            }
+
+            myUploadedParts += 1;
+            myContentMD5s.add(aRequest.contentMD5());
+            myBodies.add(read(aBody));
+
+            return CompletableFuture.completedFuture(UploadPartResponse.builder().eTag("etag").build());
+        }
+
+        @Override
+        public CompletableFuture<CompleteMultipartUploadResponse> completeMultipartUpload(
+                final CompleteMultipartUploadRequest aRequest) {
+            myCompletedParts = aRequest.multipartUpload().parts().size();
+            return CompletableFuture.completedFuture(CompleteMultipartUploadResponse.builder().build());
+        }
+
+        @Override
+        public CompletableFuture<AbortMultipartUploadResponse> abortMultipartUpload(
+                final AbortMultipartUploadRequest aRequest) {
+            isAborted = true;
+            return CompletableFuture.completedFuture(AbortMultipartUploadResponse.builder().build());
+        }
+
+        @Override
+        public String serviceName() {
+            return SERVICE_NAME;
+        }
+
+        @Override
+        public void close() {
+            // Nothing to close
+        }
+    }
+}
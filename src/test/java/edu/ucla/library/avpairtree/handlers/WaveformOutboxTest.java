@@ -0,0 +1,126 @@
+package edu.ucla.library.avpairtree.handlers;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Test;
+
+/**
+ * Tests of WaveformOutbox.
+ */
+public class WaveformOutboxTest {
+
+    private static final String KEY = "ark:/21198/zz002dvwr6/audiowaveform.dat";
+
+    private static final byte[] DATA = "waveform data".getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * Tests that waveform data that's put in the outbox is compressed and found there until it's removed.
+     *
+     * @throws IOException If the outbox can't be written or read
+     */
+    @Test
+    public void testPutAndRemove() throws IOException {
+        final WaveformOutbox outbox = new WaveformOutbox(Files.createTempDirectory("outbox-test-").resolve("outbox"));
+        final WaveformOutbox.Entry entry = outbox.put(KEY, "gzip", createDataFile());
+        final List<WaveformOutbox.Entry> entries = outbox.list();
+
+        assertEquals(1, entries.size());
+        assertEquals(KEY, entries.get(0).getKey());
+        assertEquals("gzip", entries.get(0).getContentEncoding());
+
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(entries.get(0).getDataFile()))) {
+            assertArrayEquals(DATA, in.readAllBytes());
+        }
+
+        entry.remove();
+
+        assertTrue(outbox.list().isEmpty());
+    }
+
+    /**
+     * Tests that waveform data without a content encoding is put in the outbox as it is.
+     *
+     * @throws IOException If the outbox can't be written or read
+     */
+    @Test
+    public void testPutUnencoded() throws IOException {
+        final WaveformOutbox outbox = new WaveformOutbox(Files.createTempDirectory("outbox-test-"));
+        final WaveformOutbox.Entry entry = outbox.put(KEY, null, createDataFile());
+
+        assertNull(entry.getContentEncoding());
+        assertArrayEquals(DATA, Files.readAllBytes(entry.getDataFile()));
+    }
+
+    /**
+     * Tests that the files of entries that weren't completely put in the outbox, or were only partly removed from it,
+     * are cleaned up when the outbox is listed.
+     *
+     * @throws IOException If the outbox can't be written or read
+     */
+    @Test
+    public void testCleanUp() throws IOException {
+        final Path dir = Files.createTempDirectory("outbox-test-");
+        final WaveformOutbox outbox = new WaveformOutbox(dir);
+        final Path partialFile = Files.write(dir.resolve("unfinished.partial"), DATA);
+        final WaveformOutbox.Entry entry = outbox.put(KEY, null, createDataFile());
+
+        Files.delete(entry.getDataFile());
+
+        assertTrue(outbox.list().isEmpty());
+        assertFalse(Files.exists(partialFile));
+
+        try (Stream<Path> files = Files.list(dir)) {
+            assertEquals(0, files.count());
+        }
+    }
+
+    /**
+     * Tests that putting waveform data in the outbox removes the older entries for its key, but not those of a key
+     * that starts with the same characters.
+     *
+     * @throws IOException If the outbox can't be written or read
+     */
+    @Test
+    public void testSupersede() throws IOException {
+        final WaveformOutbox outbox = new WaveformOutbox(Files.createTempDirectory("outbox-test-"));
+        final WaveformOutbox.Entry olderEntry = outbox.put(KEY, null, createDataFile());
+        final WaveformOutbox.Entry otherEntry = outbox.put(KEY + "-1", null, createDataFile());
+        final WaveformOutbox.Entry newerEntry = outbox.put(KEY, null, createDataFile());
+        final Set<Path> dataFiles = new HashSet<>();
+
+        assertFalse(Files.exists(olderEntry.getDataFile()));
+        assertTrue(Files.exists(otherEntry.getDataFile()));
+        assertTrue(newerEntry.isNewerThan(olderEntry));
+
+        outbox.list().forEach(entry -> dataFiles.add(entry.getDataFile()));
+        assertEquals(Set.of(otherEntry.getDataFile(), newerEntry.getDataFile()), dataFiles);
+    }
+
+    /**
+     * Creates a waveform data file to put in the outbox.
+     *
+     * @return The path of the waveform data file
+     * @throws IOException If the file can't be created
+     */
+    private static Path createDataFile() throws IOException {
+        final Path dataFile = Files.createTempFile("waveform-", ".dat");
+
+        dataFile.toFile().deleteOnExit();
+        return Files.write(dataFile, DATA);
+    }
+}
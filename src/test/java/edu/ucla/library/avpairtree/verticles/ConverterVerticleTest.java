@@ -3,20 +3,48 @@ package edu.ucla.library.avpairtree.verticles;
 
 import static org.junit.Assert.assertTrue;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import info.freelibrary.pairtree.PairtreeUtils;
 import info.freelibrary.util.Logger;
 import info.freelibrary.util.LoggerFactory;
 
+import edu.ucla.library.avpairtree.AvPtConstants;
+import edu.ucla.library.avpairtree.Config;
 import edu.ucla.library.avpairtree.CsvItem;
 import edu.ucla.library.avpairtree.MessageCodes;
+import edu.ucla.library.avpairtree.Op;
+import edu.ucla.library.avpairtree.WavHeader;
 
+import io.vertx.config.ConfigRetriever;
+import io.vertx.core.CompositeFuture;
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Future;
 import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.json.JsonObject;
 import io.vertx.ext.unit.Async;
 import io.vertx.ext.unit.TestContext;
 import io.vertx.ext.unit.junit.VertxUnitRunner;
 
+import ws.schild.jave.process.ffmpeg.DefaultFFMPEGLocator;
+
 /**
  * Tests the converter verticle.
  */
@@ -25,6 +53,30 @@ public class ConverterVerticleTest extends AbstractAvPtTest {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(ConverterVerticleTest.class, MessageCodes.BUNDLE);
 
+    private static final String FIRST_CLIP = "first-clip.wav";
+
+    private static final String SECOND_CLIP = "second-clip.wav";
+
+    private static final long BATCH_LINGER = 600_000;
+
+    private static final long CANCEL_DELAY = 1000;
+
+    private static final int SEGMENT_DURATION = 10;
+
+    private static final int AAC_FRAME_SIZE = 1024;
+
+    private static final int WINDOW = 4096;
+
+    private static final double MIN_CORRELATION = 0.9;
+
+    private static final double SILENCE = 16;
+
+    private static final String RENDITIONS = "high:192000,low:64000";
+
+    private static final List<String> RENDITION_NAMES = List.of("high", "low");
+
+    private static final String WAVEFORM_URL = "http://example.com/waveform.dat";
+
     /**
      * Tests the watcher's CSV parsing and submission of audio conversion jobs.
      *
@@ -63,6 +115,406 @@ public class ConverterVerticleTest extends AbstractAvPtTest {
         }).onFailure(error -> aContext.fail(error));
     }
 
+    /**
+     * Tests that a WAV file that's encoded in segments has the same duration as the WAV file, and that its audio lines
+     * up with the WAV file's all the way through (i.e. that there are no gaps or overlaps where segments were joined).
+     *
+     * @param aContext A test context
+     * @throws IOException If the copy of the converted file can't be created
+     */
+    @Test
+    public void testSegmentEncoding(final TestContext aContext) throws IOException {
+        LOGGER.debug(MessageCodes.AVPT_003, myNames.getMethodName());
+
+        final Vertx vertx = myContext.vertx();
+        final Path wavFile = Path.of("src/test/resources/soul/audio/uclapasc.wav");
+        final Path convertedFile = Files.createTempFile("segmented-", ".mp4");
+
+        convertedFile.toFile().deleteOnExit();
+
+        // The converted file is cleaned up once it's been placed, so our mock verticle keeps a copy of it
+        vertx.eventBus().<CsvItem>consumer(PairtreeVerticle.class.getName()).handler(message -> {
+            try {
+                Files.copy(Path.of(message.body().getFilePath()), convertedFile, StandardCopyOption.REPLACE_EXISTING);
+                message.reply(message.body());
+            } catch (final IOException details) {
+                message.fail(0, details.getMessage());
+            }
+        });
+
+        // Swap in a converter that encodes the 30 second test file in three segments
+        undeployVerticle(PairtreeVerticle.class.getName())
+                .compose(undeploy -> undeployVerticle(ConverterVerticle.class.getName()))
+                .compose(undeploy -> ConfigRetriever.create(vertx).getConfig()).compose(config -> {
+                    final DeploymentOptions options = new DeploymentOptions().setConfig(config
+                            .put(Config.AUDIO_SEGMENT_THRESHOLD, SEGMENT_DURATION / 2)
+                            .put(Config.AUDIO_SEGMENT_DURATION, SEGMENT_DURATION)).setWorker(true);
+
+                    return vertx.deployVerticle(ConverterVerticle.class.getName(), options);
+                }).compose(deployment -> convert(vertx, "ark:/21198/zz002dvxmm", "soul/audio/uclapasc.wav"))
+                .onComplete(aContext.asyncAssertSuccess(conversion -> {
+                    try {
+                        final WavHeader header = WavHeader.read(wavFile);
+                        final short[] expected = readSamples(wavFile, header.getDataOffset(), header.getFrameCount());
+                        final short[] found = decode(convertedFile, header.getSampleRate());
+
+                        // Like an encoding done in one go, the end can run on by a little with the encoder's padding
+                        aContext.assertTrue(Math.abs(found.length - expected.length) <= AAC_FRAME_SIZE,
+                                "Expected about " + expected.length + " frames but found " + found.length);
+
+                        for (int start = 0; start + WINDOW <= expected.length; start += WINDOW) {
+                            final double correlation = correlate(expected, found, start);
+
+                            aContext.assertTrue(correlation >= MIN_CORRELATION,
+                                    "Audio doesn't line up at frame " + start + " (" + correlation + ")");
+                        }
+                    } catch (final IOException details) {
+                        aContext.fail(details);
+                    }
+                }));
+    }
+
+    /**
+     * Tests that short audio files that arrive together are converted in a batch, with each item getting its own
+     * converted file.
+     *
+     * @param aContext A test context
+     * @throws IOException If the test audio files can't be copied
+     */
+    @Test
+    public void testBatchedConversion(final TestContext aContext) throws IOException {
+        LOGGER.debug(MessageCodes.AVPT_003, myNames.getMethodName());
+
+        final Vertx vertx = myContext.vertx();
+        final Set<String> placedFilePaths = new HashSet<>();
+        final Path sourceDir = Files.createTempDirectory("batch-");
+
+        // Converted files are named after their source files, so each item needs a source file with its own name
+        for (final String fileName : List.of(FIRST_CLIP, SECOND_CLIP)) {
+            Files.copy(Path.of("src/test/resources/soul/audio/uclapasc.wav"), sourceDir.resolve(fileName));
+        }
+
+        vertx.eventBus().<CsvItem>consumer(PairtreeVerticle.class.getName()).handler(message -> {
+            placedFilePaths.add(message.body().getFilePath());
+            message.reply(message.body());
+        });
+
+        // Swap in a converter that batches short audio files, and a mock verticle for its converted files
+        undeployVerticle(PairtreeVerticle.class.getName())
+                .compose(undeploy -> undeployVerticle(ConverterVerticle.class.getName()))
+                .compose(undeploy -> ConfigRetriever.create(vertx).getConfig()).compose(config -> {
+                    final DeploymentOptions options =
+                            new DeploymentOptions().setConfig(config.put(Config.AUDIO_BATCH_SIZE, 2)
+                                    .put(Config.SOURCE_DIR, sourceDir.toString())).setWorker(true);
+
+                    return vertx.deployVerticle(ConverterVerticle.class.getName(), options);
+                }).compose(deployment -> {
+                    return CompositeFuture.all(convert(vertx, "ark:/21198/zz002dvxmm", FIRST_CLIP),
+                            convert(vertx, "ark:/21198/zz002dvwr6", SECOND_CLIP));
+                }).onComplete(aContext.asyncAssertSuccess(conversions -> {
+                    aContext.assertEquals(2, placedFilePaths.size());
+                }));
+    }
+
+    /**
+     * Tests that cancelling an item whose audio file is still waiting to be batched with others fails its conversion
+     * right away, rather than once the batch is encoded.
+     *
+     * @param aContext A test context
+     */
+    @Test
+    public void testBatchedCancellation(final TestContext aContext) {
+        LOGGER.debug(MessageCodes.AVPT_003, myNames.getMethodName());
+
+        final Vertx vertx = myContext.vertx();
+        final String ark = "ark:/21198/zz002dvxmm";
+
+        // Swap in a converter that would hold on to a lone short audio file for much longer than the test runs
+        undeployVerticle(PairtreeVerticle.class.getName())
+                .compose(undeploy -> undeployVerticle(ConverterVerticle.class.getName()))
+                .compose(undeploy -> ConfigRetriever.create(vertx).getConfig()).compose(config -> {
+                    final DeploymentOptions options = new DeploymentOptions().setConfig(config
+                            .put(Config.AUDIO_BATCH_SIZE, 2).put(Config.AUDIO_BATCH_LINGER, BATCH_LINGER))
+                            .setWorker(true);
+
+                    return vertx.deployVerticle(ConverterVerticle.class.getName(), options);
+                }).compose(deployment -> {
+                    final Future<Message<Object>> conversion = convert(vertx, ark, "soul/audio/uclapasc.wav");
+
+                    vertx.setTimer(CANCEL_DELAY, timerID -> {
+                        vertx.eventBus().publish(AvPtConstants.CONVERSION_CANCEL, ark);
+                    });
+
+                    return conversion;
+                }).onComplete(aContext.asyncAssertFailure());
+    }
+
+    /**
+     * Tests that an audio file with several renditions is converted by a single FFmpeg run, that each rendition is put
+     * into the item's Pairtree object as <code>&lt;id&gt;-&lt;name&gt;.&lt;ext&gt;</code>, and that each rendition's
+     * access URL is written to its own column of the CSV file's output.
+     *
+     * @param aContext A test context
+     * @throws IOException If the test CSV file can't be created
+     */
+    @Test
+    public void testRenditions(final TestContext aContext) throws IOException {
+        LOGGER.debug(MessageCodes.AVPT_003, myNames.getMethodName());
+
+        final Vertx vertx = myContext.vertx();
+        final AtomicInteger conversions = new AtomicInteger();
+        final String ark = "ark:/21198/zz002dvxmm";
+        final Path csvFile = createCsvFile("renditions", ark);
+        final CsvItem csvItem = new CsvItem();
+
+        csvItem.setItemARK(ark);
+        csvItem.setFilePath("renditions/uclapasc.wav");
+        csvItem.setPathRoot(csvItem.getFilePath());
+
+        vertx.eventBus().<CsvItem>consumer(WaveformVerticle.class.getName()).handler(message -> {
+            message.reply(new JsonObject().put(message.body().getItemARK(), WAVEFORM_URL));
+        });
+
+        processCsv(new JsonObject().put(Config.AUDIO_RENDITIONS, RENDITIONS), csvFile, ark, conversions)
+                .onComplete(aContext.asyncAssertSuccess(config -> {
+                    final List<Path> mediaFiles = PairtreeVerticle.getMediaFiles(config, csvItem);
+                    final List<String> output = readOutput(csvFile);
+
+                    aContext.assertEquals(1, conversions.get());
+                    aContext.assertEquals(RENDITION_NAMES.size(), mediaFiles.size());
+
+                    // The renditions' files are in the same order as the renditions are configured
+                    for (int index = 0; index < mediaFiles.size(); index++) {
+                        final String name = RENDITION_NAMES.get(index);
+                        final String fileName = PairtreeUtils.encodeID(ark) + "-" + name;
+                        final Path mediaFile = mediaFiles.get(index);
+
+                        final String header = CsvItem.IIIF_ACCESS_URL_HEADER + " (" + name + ")";
+
+                        aContext.assertEquals(fileName + ".mp4", mediaFile.getFileName().toString());
+                        aContext.assertTrue(Files.exists(mediaFile));
+                        aContext.assertTrue(output.get(0).contains(header));
+                        aContext.assertTrue(output.get(1).contains(fileName));
+                    }
+
+                    // The higher bit rate's rendition should be the larger of the two
+                    aContext.assertTrue(mediaFiles.get(0).toFile().length() > mediaFiles.get(1).toFile().length());
+                }));
+    }
+
+    /**
+     * Tests that when an audio file is decoded once, its conversion and its waveform data come from a single FFmpeg
+     * run, with the waveform data handed to the waveform verticle and its URL written to the CSV file's output.
+     *
+     * @param aContext A test context
+     * @throws IOException If the test CSV file can't be created
+     */
+    @Test
+    public void testSingleDecode(final TestContext aContext) throws IOException {
+        LOGGER.debug(MessageCodes.AVPT_003, myNames.getMethodName());
+
+        final Vertx vertx = myContext.vertx();
+        final AtomicInteger conversions = new AtomicInteger();
+        final Set<String> dataFilePaths = new HashSet<>();
+        final String ark = "ark:/21198/zz002dvwr6";
+        final Path csvFile = createCsvFile("single-decode", ark);
+
+        vertx.eventBus().<CsvItem>consumer(WaveformVerticle.class.getName()).handler(message -> {
+            final String dataFilePath = message.headers().get(WaveformVerticle.DATA_FILE_HEADER);
+
+            // The converter should have already written the waveform data that's sent along with the item
+            if (dataFilePath == null || !Files.exists(Path.of(dataFilePath)) ||
+                    Path.of(dataFilePath).toFile().length() == 0) {
+                message.fail(Op.ERROR_CODE, String.valueOf(dataFilePath));
+            } else {
+                dataFilePaths.add(dataFilePath);
+                message.reply(new JsonObject().put(message.body().getItemARK(), WAVEFORM_URL));
+            }
+        });
+
+        processCsv(new JsonObject().put(Config.AUDIO_SINGLE_DECODE, true), csvFile, ark, conversions)
+                .onComplete(aContext.asyncAssertSuccess(config -> {
+                    final List<String> output = readOutput(csvFile);
+
+                    aContext.assertEquals(1, conversions.get());
+                    aContext.assertEquals(1, dataFilePaths.size());
+                    aContext.assertTrue(output.get(0).contains(CsvItem.WAVEFORM_HEADER));
+                    aContext.assertTrue(output.get(1).contains(WAVEFORM_URL));
+
+                    // The converter cleans up the waveform data once the waveform verticle is done with it
+                    aContext.assertFalse(Files.exists(Path.of(dataFilePaths.iterator().next())));
+                }));
+    }
+
+    /**
+     * Sends an audio file to the converter verticle as the supplied item.
+     *
+     * @param aVertx A Vert.x instance
+     * @param aItemARK An item ARK
+     * @param aFilePath The path of the item's audio file, relative to the source directory
+     * @return A future that completes once the item has been converted
+     */
+    private Future<Message<Object>> convert(final Vertx aVertx, final String aItemARK, final String aFilePath) {
+        final CsvItem csvItem = new CsvItem();
+
+        csvItem.setItemARK(aItemARK);
+        csvItem.setFilePath(aFilePath);
+
+        return aVertx.eventBus().request(ConverterVerticle.class.getName(), csvItem);
+    }
+
+    /**
+     * Creates a CSV file with a single audio item, along with the item's audio file, in a new source directory.
+     *
+     * @param aDirName The name of the directory, under the source directory, that the item's audio file is put in
+     * @param aItemARK An item ARK
+     * @return The path of the CSV file
+     * @throws IOException If the CSV file or the audio file can't be created
+     */
+    private static Path createCsvFile(final String aDirName, final String aItemARK) throws IOException {
+        final Path sourceDir = Files.createTempDirectory("items-");
+        final Path csvFile = sourceDir.resolve("items.csv");
+        final String csv = "\"Item ARK\",\"File Name\"\n\"" + aItemARK + "\",\"" + aDirName + "/uclapasc.wav\"\n";
+
+        Files.createDirectories(sourceDir.resolve(aDirName));
+        Files.copy(Path.of("src/test/resources/soul/audio/uclapasc.wav"), sourceDir.resolve(aDirName)
+                .resolve("uclapasc.wav"));
+        Files.writeString(csvFile, csv);
+
+        return csvFile;
+    }
+
+    /**
+     * Swaps in watcher, converter, and Pairtree verticles that have the supplied settings, with the CSV file's
+     * directory as their source directory, and sends them the CSV file to process. The waveform verticle is left
+     * undeployed, for the test to mock.
+     *
+     * @param aSettings The settings to add to the verticles' configuration
+     * @param aCsvFile The path of the CSV file
+     * @param aItemARK The ARK of the CSV file's item
+     * @param aConversions A count of the FFmpeg runs that finish converting the item
+     * @return A future with the verticles' configuration, once the CSV file has been processed
+     */
+    private Future<JsonObject> processCsv(final JsonObject aSettings, final Path aCsvFile, final String aItemARK,
+            final AtomicInteger aConversions) {
+        final Vertx vertx = myContext.vertx();
+        final JsonObject settings = aSettings.copy().put(Config.SOURCE_DIR, aCsvFile.getParent().toString());
+
+        vertx.eventBus().<JsonObject>consumer(AvPtConstants.CONVERSION_PROGRESS, message -> {
+            final JsonObject progress = message.body();
+
+            if (aItemARK.equals(progress.getString("ark")) && "end".equals(progress.getString("progress"))) {
+                aConversions.incrementAndGet();
+            }
+        });
+
+        return CompositeFuture.all(undeployVerticle(WatcherVerticle.class.getName()),
+                undeployVerticle(ConverterVerticle.class.getName()), undeployVerticle(PairtreeVerticle.class.getName()),
+                undeployVerticle(WaveformVerticle.class.getName()))
+                .compose(undeploy -> ConfigRetriever.create(vertx).getConfig()).compose(config -> {
+                    final DeploymentOptions options = new DeploymentOptions().setConfig(config.mergeIn(settings));
+
+                    return CompositeFuture.all(vertx.deployVerticle(WatcherVerticle.class.getName(), options),
+                            vertx.deployVerticle(PairtreeVerticle.class.getName(), options),
+                            vertx.deployVerticle(ConverterVerticle.class.getName(),
+                                    new DeploymentOptions(options).setWorker(true)))
+                            .compose(deployments -> vertx.eventBus().request(WatcherVerticle.class.getName(),
+                                    aCsvFile.toString()))
+                            .map(config);
+                });
+    }
+
+    /**
+     * Reads the lines of the output that's written for a CSV file.
+     *
+     * @param aCsvFile The path of a CSV file
+     * @return The lines of the CSV file's output
+     */
+    private static List<String> readOutput(final Path aCsvFile) {
+        final Path outputFile = aCsvFile.resolveSibling(aCsvFile.getFileName().toString().replace(".csv", ".out"));
+
+        try {
+            return Files.readAllLines(outputFile, StandardCharsets.UTF_8);
+        } catch (final IOException details) {
+            throw new UncheckedIOException(details);
+        }
+    }
+
+    /**
+     * Reads the samples of a 16-bit mono WAV file.
+     *
+     * @param aWavFile A 16-bit mono WAV file
+     * @param aDataOffset The offset of the WAV file's samples
+     * @param aFrameCount The number of samples in the WAV file
+     * @return The WAV file's samples
+     * @throws IOException If the WAV file can't be read
+     */
+    private static short[] readSamples(final Path aWavFile, final long aDataOffset, final long aFrameCount)
+            throws IOException {
+        final byte[] bytes = Files.readAllBytes(aWavFile);
+
+        return toSamples(Arrays.copyOfRange(bytes, (int) aDataOffset, (int) (aDataOffset + aFrameCount * 2)));
+    }
+
+    /**
+     * Decodes an audio file into 16-bit mono samples at the supplied sampling rate.
+     *
+     * @param anAudioFile An audio file
+     * @param aSampleRate The sampling rate to decode the audio file at
+     * @return The decoded samples
+     * @throws IOException If the audio file can't be decoded
+     */
+    private static short[] decode(final Path anAudioFile, final int aSampleRate) throws IOException {
+        final Process ffmpeg = new ProcessBuilder(new DefaultFFMPEGLocator().getExecutablePath(), "-nostdin", "-v",
+                "error", "-i", anAudioFile.toString(), "-f", "s16le", "-ac", "1", "-ar", String.valueOf(aSampleRate),
+                "pipe:1").redirectError(ProcessBuilder.Redirect.DISCARD).start();
+
+        try (InputStream in = ffmpeg.getInputStream()) {
+            return toSamples(in.readAllBytes());
+        }
+    }
+
+    /**
+     * Converts little-endian 16-bit samples to shorts.
+     *
+     * @param aBytes Little-endian 16-bit samples
+     * @return The samples
+     */
+    private static short[] toSamples(final byte[] aBytes) {
+        final short[] samples = new short[aBytes.length / 2];
+
+        ByteBuffer.wrap(aBytes).order(ByteOrder.LITTLE_ENDIAN).asShortBuffer().get(samples);
+        return samples;
+    }
+
+    /**
+     * Gets the normalized correlation of two sets of samples over a window, which is close to one when they line up
+     * (whatever their levels) and much lower when one's shifted against the other. A window that's silent in either
+     * set of samples counts as lining up.
+     *
+     * @param anExpected The expected samples
+     * @param aFound The found samples
+     * @param aStart The start of the window
+     * @return The normalized correlation of the samples in the window
+     */
+    private static double correlate(final short[] anExpected, final short[] aFound, final int aStart) {
+        double product = 0;
+        double expectedEnergy = 0;
+        double foundEnergy = 0;
+
+        for (int index = aStart; index < aStart + WINDOW && index < aFound.length; index++) {
+            product += (double) anExpected[index] * aFound[index];
+            expectedEnergy += (double) anExpected[index] * anExpected[index];
+            foundEnergy += (double) aFound[index] * aFound[index];
+        }
+
+        if (expectedEnergy < WINDOW * SILENCE * SILENCE || foundEnergy < WINDOW * SILENCE * SILENCE) {
+            return 1;
+        }
+
+        return product / Math.sqrt(expectedEnergy * foundEnergy);
+    }
+
     @Override
     protected Logger getLogger() {
         return LOGGER;
@@ -1,9 +1,17 @@
 
 package edu.ucla.library.avpairtree.verticles;
 
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
 
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -12,14 +20,25 @@ import info.freelibrary.util.Logger;
 import info.freelibrary.util.LoggerFactory;
 import info.freelibrary.util.StringUtils;
 
+import info.freelibrary.pairtree.PairtreeUtils;
+
+import edu.ucla.library.avpairtree.AvPtConstants;
+import edu.ucla.library.avpairtree.Config;
 import edu.ucla.library.avpairtree.CsvItem;
 import edu.ucla.library.avpairtree.MessageCodes;
+import edu.ucla.library.avpairtree.Mp4Atoms;
+import edu.ucla.library.avpairtree.ProcessRunner;
 
+import io.vertx.config.ConfigRetriever;
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Future;
 import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.DeliveryOptions;
 import io.vertx.core.file.FileSystem;
 import io.vertx.ext.unit.Async;
 import io.vertx.ext.unit.TestContext;
 import io.vertx.ext.unit.junit.VertxUnitRunner;
+import ws.schild.jave.process.ffmpeg.DefaultFFMPEGLocator;
 
 /**
  * Tests of the Pairtree verticle.
@@ -31,6 +50,12 @@ public class PairtreeVerticleTest extends AbstractAvPtTest {
 
     private static final String PT_ROOT = "target/pairtree/{}/pairtree_root";
 
+    private static final String VIDEO_FIXTURE = "src/test/resources/synanon/video/synanon.mp4";
+
+    private static final String MP4_EXT = ".mp4";
+
+    private static final String PARTIAL_EXT = ".part";
+
     /**
      * Tests the insertion of video files into the Pairtree.
      *
@@ -98,6 +123,201 @@ public class PairtreeVerticleTest extends AbstractAvPtTest {
         }).onFailure(error -> LOGGER.error(error, error.getMessage()));
     }
 
+    /**
+     * Tests that a file that has been written straight into its Pairtree object's directory is renamed into place.
+     *
+     * @param aContext A test context
+     */
+    @Test
+    public void testDirectPlacement(final TestContext aContext) {
+        LOGGER.debug(MessageCodes.AVPT_003, myNames.getMethodName());
+
+        final Async asyncTask = aContext.async();
+        final Vertx vertx = myContext.vertx();
+        final FileSystem fileSystem = vertx.fileSystem();
+        final CsvItem csvItem = new CsvItem();
+
+        csvItem.setItemARK("ark:/21198/zz002dvx4c");
+        csvItem.setPathRoot("soul/audio/uclapasc.wav");
+
+        // Ask for the object's directory, and then write a file into it as our converter would
+        vertx.eventBus().<String>request(AvPtConstants.PAIRTREE_PREPARE, csvItem).compose(objectDir -> {
+            final String filePath = Path.of(objectDir.body(), ".uclapasc.mp4.part").toString();
+
+            fileSystem.copyBlocking("src/test/resources/soul/audio/uclapasc.wav", filePath);
+            csvItem.setFilePath(filePath);
+
+            return vertx.eventBus().<CsvItem>request(PairtreeVerticle.class.getName(), csvItem);
+        }).onSuccess(response -> {
+            final String ptRoot = StringUtils.format(PT_ROOT, "soul");
+            final String path = ptRoot + "/21/19/8=/zz/00/2d/vx/4c/21198=zz002dvx4c/ark+=21198=zz002dvx4c.mp4";
+
+            assertTrue(fileSystem.existsBlocking(path));
+            assertFalse(fileSystem.existsBlocking(csvItem.getFilePath()));
+            assertTrue(response.body().isProcessed());
+
+            complete(asyncTask);
+        }).onFailure(aContext::fail);
+    }
+
+    /**
+     * Tests that a video file whose <code>moov</code> atom is at the end is remuxed into the Pairtree with its
+     * <code>moov</code> atom at the front, in the default format when one isn't configured.
+     *
+     * @param aContext A test context
+     * @throws IOException If the test's video file can't be created
+     */
+    @Test
+    public void testFastStartRemux(final TestContext aContext) throws IOException {
+        LOGGER.debug(MessageCodes.AVPT_003, myNames.getMethodName());
+
+        final Async asyncTask = aContext.async();
+        final Vertx vertx = myContext.vertx();
+        final Path videoFile = Files.createTempFile("trailing-moov-", MP4_EXT);
+        final CsvItem csvItem = getVideoItem("ark:/21198/zz002hdt1f", videoFile);
+        final List<String> command = List.of(new DefaultFFMPEGLocator().getExecutablePath(), "-nostdin", "-y", "-i",
+                VIDEO_FIXTURE, "-map", "0", "-c", "copy", "-f", "mp4", videoFile.toString());
+
+        // FFmpeg's MP4 muxer writes the moov atom after the media data unless it's asked not to
+        new ProcessRunner(vertx, command).run().compose(fixture -> {
+            aContext.assertTrue(hasTrailingMoov(videoFile));
+            return deployFastStart();
+        }).compose(deployment -> placeVideo(csvItem)).onSuccess(objectFile -> {
+            aContext.assertTrue(Files.exists(objectFile));
+            aContext.assertFalse(hasTrailingMoov(objectFile));
+            aContext.assertFalse(hasPartialFile(objectFile.getParent()));
+
+            vertx.fileSystem().delete(videoFile.toString()).onSuccess(deletion -> complete(asyncTask))
+                    .onFailure(aContext::fail);
+        }).onFailure(aContext::fail);
+    }
+
+    /**
+     * Tests that a video file that looks like it has a trailing <code>moov</code> atom, but that FFmpeg can't remux, is
+     * copied into the Pairtree as it is, and that the remux's partial file is cleaned up.
+     *
+     * @param aContext A test context
+     * @throws IOException If the test's video file can't be created
+     */
+    @Test
+    public void testFastStartFallback(final TestContext aContext) throws IOException {
+        LOGGER.debug(MessageCodes.AVPT_003, myNames.getMethodName());
+
+        final Async asyncTask = aContext.async();
+        final Vertx vertx = myContext.vertx();
+        final Path videoFile = Files.createTempFile("unremuxable-", MP4_EXT);
+        final CsvItem csvItem = getVideoItem("ark:/21198/zz002hdt2g", videoFile);
+        final ByteBuffer atoms = ByteBuffer.allocate(48);
+
+        // An ftyp atom, some media data, and then a moov atom that doesn't describe any tracks
+        atoms.putInt(16).put(getType("ftyp")).put(getType("isom")).putInt(0);
+        atoms.putInt(16).put(getType("mdat")).putLong(0);
+        atoms.putInt(16).put(getType("moov")).putInt(8).put(getType("free"));
+        Files.write(videoFile, atoms.array());
+
+        aContext.assertTrue(hasTrailingMoov(videoFile));
+
+        deployFastStart().compose(deployment -> placeVideo(csvItem)).onSuccess(objectFile -> {
+            try {
+                aContext.assertTrue(Arrays.equals(atoms.array(), Files.readAllBytes(objectFile)));
+            } catch (final IOException details) {
+                aContext.fail(details);
+            }
+
+            aContext.assertFalse(hasPartialFile(objectFile.getParent()));
+
+            vertx.fileSystem().delete(videoFile.toString()).onSuccess(deletion -> complete(asyncTask))
+                    .onFailure(aContext::fail);
+        }).onFailure(aContext::fail);
+    }
+
+    /**
+     * Replaces the Pairtree verticle with one that remuxes video files for fast start, and that doesn't have an
+     * encoding format configured.
+     *
+     * @return A future that completes once the new Pairtree verticle has been deployed
+     */
+    private Future<String> deployFastStart() {
+        final Vertx vertx = myContext.vertx();
+
+        return undeployVerticle(PairtreeVerticle.class.getName()).compose(undeployment -> {
+            return ConfigRetriever.create(vertx).getConfig();
+        }).compose(config -> {
+            config.remove(Config.ENCODING_FORMAT);
+            config.put(Config.VIDEO_FASTSTART, true);
+
+            return vertx.deployVerticle(PairtreeVerticle.class.getName(), new DeploymentOptions().setConfig(config));
+        });
+    }
+
+    /**
+     * Sends a video item to the Pairtree verticle to be put into the Pairtree.
+     *
+     * @param aCsvItem A video item
+     * @return A future with the path of the video file in the item's Pairtree object
+     */
+    private Future<Path> placeVideo(final CsvItem aCsvItem) {
+        final Vertx vertx = myContext.vertx();
+        final DeliveryOptions options = new DeliveryOptions().addHeader(PairtreeVerticle.VIDEO_HEADER, "");
+        final String fileName = PairtreeUtils.encodeID(aCsvItem.getItemARK()) + MP4_EXT;
+
+        return vertx.eventBus().<CsvItem>request(PairtreeVerticle.class.getName(), aCsvItem, options)
+                .compose(placement -> vertx.eventBus().<String>request(AvPtConstants.PAIRTREE_PREPARE, aCsvItem))
+                .map(objectDir -> Path.of(objectDir.body(), fileName));
+    }
+
+    /**
+     * Gets a video item for a video file.
+     *
+     * @param aItemARK The item's ARK
+     * @param aVideoFile The item's video file
+     * @return A video item
+     */
+    private static CsvItem getVideoItem(final String aItemARK, final Path aVideoFile) {
+        final CsvItem csvItem = new CsvItem();
+
+        csvItem.setItemARK(aItemARK);
+        csvItem.setFilePath(aVideoFile.toAbsolutePath().toString());
+        csvItem.setPathRoot("synanon/video/synanon.mp4");
+
+        return csvItem;
+    }
+
+    /**
+     * Checks whether an MP4 file's <code>moov</code> atom is at the end.
+     *
+     * @param aMp4File An MP4 file
+     * @return True if the file's <code>moov</code> atom comes after its media data; else, false
+     */
+    private static boolean hasTrailingMoov(final Path aMp4File) {
+        try {
+            return Mp4Atoms.hasTrailingMoov(aMp4File);
+        } catch (final IOException details) {
+            throw new UncheckedIOException(details);
+        }
+    }
+
+    /**
+     * Checks whether a Pairtree object's directory has a partial file left in it.
+     *
+     * @param aObjectDir A Pairtree object's directory
+     * @return True if a partial file was left behind; else, false
+     */
+    private boolean hasPartialFile(final Path aObjectDir) {
+        return myContext.vertx().fileSystem().readDirBlocking(aObjectDir.toString()).stream()
+                .anyMatch(path -> path.endsWith(PARTIAL_EXT));
+    }
+
+    /**
+     * Gets the bytes of an MP4 atom's type.
+     *
+     * @param aType An atom type
+     * @return The type's bytes
+     */
+    private static byte[] getType(final String aType) {
+        return aType.getBytes(StandardCharsets.US_ASCII);
+    }
+
     @Override
     protected Logger getLogger() {
         return LOGGER;
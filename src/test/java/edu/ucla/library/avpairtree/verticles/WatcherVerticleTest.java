@@ -6,6 +6,8 @@ import static org.junit.Assert.assertTrue;
 import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.LineNumberReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.Test;
@@ -16,6 +18,8 @@ import info.freelibrary.util.LoggerFactory;
 
 import edu.ucla.library.avpairtree.CsvItem;
 import edu.ucla.library.avpairtree.MessageCodes;
+import edu.ucla.library.avpairtree.Op;
+import edu.ucla.library.avpairtree.ResultsJournal;
 import edu.ucla.library.avpairtree.utils.TestConstants;
 
 import io.vertx.core.CompositeFuture;
@@ -39,8 +43,12 @@ public class WatcherVerticleTest extends AbstractAvPtTest {
 
     private static final String CSV_EXT = ".csv";
 
+    private static final String RETRY_EXT = ".retry";
+
     private static final String TEMPLATE_MP4_EXT = ".mp4{}";
 
+    private static final long CONVERSION_DELAY = 250;
+
     /**
      * Tests the watcher's CSV parsing and submission of video conversion jobs.
      *
@@ -124,6 +132,119 @@ public class WatcherVerticleTest extends AbstractAvPtTest {
         }).onFailure(error -> aContext.fail(error));
     }
 
+    /**
+     * Tests that one item failing doesn't stop the rest of a CSV file's items from being recorded, and that the failed
+     * item's row is written to the retry file.
+     *
+     * @param aContext A test context
+     */
+    @Test
+    public void testWatcherPartialFailure(final TestContext aContext) {
+        LOGGER.debug(MessageCodes.AVPT_003, myNames.getMethodName());
+
+        final String csvFilePath = TestConstants.CSV_DIR + TestConstants.SOUL;
+        final String retryFilePath = csvFilePath.replace(CSV_EXT, RETRY_EXT);
+        final String failedARK = "ark:/21198/zz002dvwr6";
+        final int expectedUpdates = 174; // One of the 175 audio files in our sample CSV file fails
+        final Async asyncTask = aContext.async();
+        final Vertx vertx = myContext.vertx();
+
+        final CompositeFuture undeployments = CompositeFuture.all(undeployVerticle(WaveformVerticle.class.getName()),
+                undeployVerticle(ConverterVerticle.class.getName()));
+
+        undeployments.compose(result -> {
+            // Mock the verticles that receive messages from watcher verticle
+            vertx.eventBus().<CsvItem>consumer(WaveformVerticle.class.getName()).handler(message -> {
+                final String ark = message.body().getItemARK();
+
+                message.reply(new JsonObject().put(ark, "http://example.com/" + ark + TEMPLATE_MP4_EXT));
+            });
+
+            vertx.eventBus().<CsvItem>consumer(ConverterVerticle.class.getName()).handler(message -> {
+                if (failedARK.equals(message.body().getItemARK())) {
+                    message.fail(Op.ERROR_CODE, failedARK);
+                } else {
+                    message.reply(message.body());
+                }
+            });
+
+            // The watcher should report the failure only after the rest of the CSV file has been processed
+            return vertx.eventBus().<CsvItem>request(WatcherVerticle.class.getName(), csvFilePath)
+                    .compose(reply -> Future.<Void>failedFuture(reply.body().toString()), error -> {
+                        return checkOutput(csvFilePath.replace(CSV_EXT, OUT_EXT), expectedUpdates, aContext);
+                    });
+        }).compose(result -> vertx.fileSystem().readFile(retryFilePath)).onSuccess(retries -> {
+            final String[] lines = retries.toString(StandardCharsets.UTF_8).split("\n");
+
+            // The retry file should have the original header and the failed item's row
+            aContext.assertEquals(2, lines.length);
+            aContext.assertTrue(lines[1].contains(failedARK));
+
+            vertx.fileSystem().delete(retryFilePath).onSuccess(deletion -> complete(asyncTask))
+                    .onFailure(aContext::fail);
+        }).onFailure(aContext::fail);
+    }
+
+    /**
+     * Tests that when a CSV file turns out to be malformed after some of its items have been sent for processing, the
+     * failure is only reported once those items have finished and their results have been journaled.
+     *
+     * @param aContext A test context
+     */
+    @Test
+    public void testWatcherMalformedCsv(final TestContext aContext) {
+        LOGGER.debug(MessageCodes.AVPT_003, myNames.getMethodName());
+
+        final Async asyncTask = aContext.async();
+        final Vertx vertx = myContext.vertx();
+        final AtomicInteger received = new AtomicInteger();
+        final AtomicInteger outstanding = new AtomicInteger();
+
+        final CompositeFuture undeployments = CompositeFuture.all(undeployVerticle(WaveformVerticle.class.getName()),
+                undeployVerticle(ConverterVerticle.class.getName()));
+
+        undeployments.compose(result -> vertx.fileSystem().createTempDirectory("av-pairtree-test-")).compose(dir -> {
+            final String csvFilePath = Path.of(dir, TestConstants.SOUL).toString();
+            final String journalPath = csvFilePath.replace(CSV_EXT, ResultsJournal.EXTENSION);
+
+            // Mock the verticles that receive messages from watcher verticle
+            vertx.eventBus().<CsvItem>consumer(WaveformVerticle.class.getName()).handler(message -> {
+                final String ark = message.body().getItemARK();
+
+                message.reply(new JsonObject().put(ark, "http://example.com/" + ark + TEMPLATE_MP4_EXT));
+            });
+
+            // Conversions take a while, so they're still in flight when the end of the CSV file is found to be bad
+            vertx.eventBus().<CsvItem>consumer(ConverterVerticle.class.getName()).handler(message -> {
+                received.incrementAndGet();
+                outstanding.incrementAndGet();
+
+                vertx.setTimer(CONVERSION_DELAY, timer -> {
+                    outstanding.decrementAndGet();
+                    message.reply(message.body());
+                });
+            });
+
+            // The last row has a quoted value that's never closed
+            return vertx.fileSystem().readFile(TestConstants.CSV_DIR + TestConstants.SOUL)
+                    .compose(csv -> vertx.fileSystem().writeFile(csvFilePath,
+                            csv.copy().appendString("\"unterminated row\n")))
+                    .compose(written -> vertx.eventBus().request(WatcherVerticle.class.getName(), csvFilePath))
+                    .compose(reply -> Future.<Void>failedFuture(reply.body().toString()), error -> {
+                        aContext.assertTrue(received.get() > 0);
+                        aContext.assertEquals(0, outstanding.get());
+
+                        return vertx.fileSystem().readFile(journalPath).compose(journal -> {
+                            final String[] lines = journal.toString(StandardCharsets.UTF_8).split("\n");
+
+                            // The journal has its header and a line for each item that was sent for processing
+                            aContext.assertEquals(received.get() + 1, lines.length);
+                            return vertx.fileSystem().deleteRecursive(dir, true);
+                        });
+                    });
+        }).onSuccess(result -> complete(asyncTask)).onFailure(aContext::fail);
+    }
+
     /**
      * Gets the logger used for this class' tests.
      */
@@ -73,14 +73,14 @@ public class WaveformVerticleIT {
         ConfigRetriever.create(myContext.vertx()).getConfig().compose(config -> {
             final DeploymentOptions options = new DeploymentOptions().setConfig(config);
             final AmazonS3WaveformConsumer localstack = new AmazonS3WaveformConsumer(config);
-            final MessageConsumer<byte[]> waveformConsumer =
+            final MessageConsumer<String> waveformConsumer =
                     myContext.vertx().eventBus().consumer(WAVEFORM_CONSUMER, localstack);
             final Promise<Void> s3BucketCreate = Promise.promise();
             final CreateBucketRequest request =
                     CreateBucketRequest.builder().bucket(localstack.getS3BucketName()).build();
 
             aContext.<AmazonS3WaveformConsumer>put(WAVEFORM_CONSUMER, localstack);
-            aContext.<MessageConsumer<byte[]>>put(CONSUMER_MOCK, waveformConsumer);
+            aContext.<MessageConsumer<String>>put(CONSUMER_MOCK, waveformConsumer);
 
             myContext.vertx().eventBus().registerDefaultCodec(CsvItem.class, new CsvItemCodec());
 
@@ -115,7 +115,7 @@ public class WaveformVerticleIT {
         @SuppressWarnings("rawtypes")
         final List<Future> undeploys = new ArrayList<>();
 
-        undeploys.add(aContext.<MessageConsumer<byte[]>>get(CONSUMER_MOCK).unregister());
+        undeploys.add(aContext.<MessageConsumer<String>>get(CONSUMER_MOCK).unregister());
         undeploys.add(myContext.vertx().undeploy(aContext.get(DEPLOYMENT_ID)));
 
         CompositeFuture.all(undeploys).onComplete(asyncTaskHandler);